@@ -0,0 +1,77 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.BlockchainService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// BlockchainService.checkAccessAsync for a hash whose expiry is cached
+// ("hit": a map lookup and a comparison against the chain clock) and with
+// the expiry cache disabled ("miss": every check is a getExpiries eth_call
+// to StubChainNode, shared with other checks in the same lookup window).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccessDecisionJmh {
+
+    private static final int HASHES = 1024;
+
+    @Param({ "hit", "miss" })
+    public String cache;
+
+    private StubChainNode chain;
+    private Path dir;
+    private BlockchainService service;
+    private final List<String> hashes = new ArrayList<>();
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        chain = new StubChainNode();
+        dir = Files.createTempDirectory("access-decision-jmh");
+        Files.writeString(dir.resolve("contract-address.txt"), StubChainNode.CONTRACT_ADDRESS);
+        int cacheSize = "hit".equals(cache) ? 100_000 : 0;
+        service = new BlockchainService(chain.url(), dir.toString(), StubBackend.PRIVATE_KEY, 1337,
+                cacheSize, 5000, 10_000, 32, 1000, 10_000, 30_000,
+                50, 2, 64, 10_000, 5, 2, 500);
+        for (int i = 0; i < HASHES; i++) {
+            hashes.add("QmAccessDecision" + i);
+        }
+        // Fills the cache (when enabled) and the chain clock
+        service.checkAccessAsync(hashes).get(30, TimeUnit.SECONDS);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        service.shutdown();
+        chain.close();
+        StubBackend.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public boolean checkAccess(Cursor cursor) throws Exception {
+        return service.checkAccessAsync(hashes.get(cursor.next++ & (HASHES - 1))).get(30, TimeUnit.SECONDS);
+    }
+}
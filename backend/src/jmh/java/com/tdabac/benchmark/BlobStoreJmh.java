@@ -0,0 +1,112 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.storage.SegmentBlobStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// SegmentBlobStore writes and the two read paths (stream through the heap,
+// transferTo a channel). A fresh store per iteration keeps the append-only
+// segments from filling the disk during long write runs.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlobStoreJmh {
+
+    private static final int READ_BLOBS = 16;
+
+    @Param({ "4096", "262144", "4194304" })
+    public int size;
+
+    private Path dir;
+    private SegmentBlobStore store;
+    private byte[] data;
+    private final AtomicLong writes = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class Reader {
+        final byte[] buffer = new byte[64 * 1024];
+        int next;
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("blob-store-jmh");
+        store = new SegmentBlobStore(dir, 256L * 1024 * 1024);
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        for (int i = 0; i < READ_BLOBS; i++) {
+            store.put("read-" + i, ByteBuffer.wrap(data), Map.of("filename", "blob.bin"));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        store.close();
+        StubBackend.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void put() throws Exception {
+        store.put("write-" + writes.incrementAndGet(), ByteBuffer.wrap(data), Map.of("filename", "blob.bin"));
+    }
+
+    @Benchmark
+    public long readStream(Reader reader, Blackhole blackhole) throws Exception {
+        long total = 0;
+        try (InputStream in = store.open("read-" + (reader.next++ % READ_BLOBS))) {
+            int read;
+            while ((read = in.read(reader.buffer)) > 0) {
+                blackhole.consume(reader.buffer);
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long transferTo(Reader reader, Blackhole blackhole) throws Exception {
+        return store.transferTo("read-" + (reader.next++ % READ_BLOBS), 0, size, new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int length = src.remaining();
+                blackhole.consume(src);
+                src.position(src.limit());
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+}
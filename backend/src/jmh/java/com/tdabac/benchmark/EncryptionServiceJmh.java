@@ -0,0 +1,79 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.EncryptionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// EncryptionService on the buffer and the stream paths. Each thread has its
+// own buffers and key, as each upload/download request does. Results are
+// returned to JMH, so the work cannot be optimised away.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionServiceJmh {
+
+    @Param({ "1024", "65536", "1048576", "8388608" })
+    public int size;
+
+    private final EncryptionService encryptionService = new EncryptionService();
+    private SecretKey key;
+    private byte[] plaintext;
+    private ByteBuffer ciphertext;
+    private ByteBuffer scratch;
+    private byte[] ciphertextBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        key = encryptionService.generateKey();
+        plaintext = new byte[size];
+        new Random(size).nextBytes(plaintext);
+        ciphertext = encryptionService.encrypt(ByteBuffer.wrap(plaintext), key);
+        ciphertextBytes = new byte[ciphertext.remaining()];
+        ciphertext.duplicate().get(ciphertextBytes);
+        scratch = ByteBuffer.allocate(ciphertext.remaining());
+    }
+
+    @Benchmark
+    public ByteBuffer encryptBuffer() throws Exception {
+        return encryptionService.encrypt(ByteBuffer.wrap(plaintext), key);
+    }
+
+    // decrypt() works in place, so each call starts from a fresh copy of the
+    // ciphertext; the copy is part of the measured time.
+    @Benchmark
+    public ByteBuffer decryptBuffer() throws Exception {
+        scratch.clear();
+        scratch.put(ciphertext.duplicate()).flip();
+        return encryptionService.decrypt(scratch, key);
+    }
+
+    @Benchmark
+    public long encryptStream(Blackhole blackhole) throws Exception {
+        return encryptionService.encrypt(new ByteArrayInputStream(plaintext), new BlackholeOutputStream(blackhole), key);
+    }
+
+    @Benchmark
+    public long decryptStream(Blackhole blackhole) throws Exception {
+        return encryptionService.decrypt(new ByteArrayInputStream(ciphertextBytes), new BlackholeOutputStream(blackhole),
+                key);
+    }
+}
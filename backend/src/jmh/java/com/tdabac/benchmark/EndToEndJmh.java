@@ -0,0 +1,114 @@
+package com.tdabac.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// FileController.uploadFile and accessFile end to end: encryption, blob
+// store, key vault, IPFS add (StubIpfsNode) and on-chain registration and
+// access checks (StubChainNode), called the way Spring MVC would call them
+// but without HTTP in front. 4 KiB takes the in-memory upload path, 4 MiB
+// the streaming one.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class EndToEndJmh {
+
+    private static final int READ_FILES = 16;
+
+    @Param({ "4096", "4194304" })
+    public int size;
+
+    private StubBackend backend;
+    private final List<String> readHashes = new ArrayList<>();
+    private final AtomicLong uploads = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class Client {
+        final byte[] buffer = new byte[64 * 1024];
+        byte[] content;
+        int next;
+
+        @Setup
+        public void setup(EndToEndJmh benchmark) {
+            content = new byte[benchmark.size];
+            new Random().nextBytes(content);
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        backend = new StubBackend();
+        byte[] content = new byte[size];
+        Random random = new Random(size);
+        for (int i = 0; i < READ_FILES; i++) {
+            random.nextBytes(content);
+            Map<?, ?> body = (Map<?, ?>) ok(backend.controller.uploadFile(file(content), 3600L, true)
+                    .get(30, TimeUnit.SECONDS)).getBody();
+            readHashes.add((String) body.get("fileHash"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        backend.close();
+    }
+
+    @Benchmark
+    public Object uploadFile(Client client) throws Exception {
+        // Fresh content every time, so uploads are not deduplicated
+        ByteBuffer.wrap(client.content).putLong(0, uploads.incrementAndGet());
+        return ok(backend.controller.uploadFile(file(client.content), 3600L, true).get(30, TimeUnit.SECONDS)).getBody();
+    }
+
+    @Benchmark
+    public long accessFile(Client client, Blackhole blackhole) throws Exception {
+        String hash = readHashes.get(client.next++ % READ_FILES);
+        ResponseEntity<?> response = ok(backend.controller.accessFile(hash, null).get(30, TimeUnit.SECONDS));
+        long total = 0;
+        try (InputStream in = ((InputStreamResource) response.getBody()).getInputStream()) {
+            int read;
+            while ((read = in.read(client.buffer)) > 0) {
+                blackhole.consume(client.buffer);
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    private static MockMultipartFile file(byte[] content) {
+        return new MockMultipartFile("file", "bench.bin", "application/octet-stream", content);
+    }
+
+    private static ResponseEntity<?> ok(ResponseEntity<?> response) {
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            throw new IllegalStateException("Request failed: " + response.getStatusCode() + " " + response.getBody());
+        }
+        return response;
+    }
+}
@@ -0,0 +1,59 @@
+package com.tdabac.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Entry point of the jmh profile. Runs the selected benchmarks once per
+// thread count and writes one JSON result file per run to jmh.results, so
+// runs from different releases can be diffed (e.g. with jmh.morethan.io).
+//
+//   mvn -P jmh -DskipTests verify -Djmh.include=EncryptionServiceJmh -Djmh.threads=1,2,4
+//
+// System properties (set from the pom, overridable with -D):
+//   jmh.include    benchmark regex, default all
+//   jmh.threads    comma-separated thread counts, default 1,4
+//   jmh.profilers  comma-separated JMH profilers, default gc (allocation
+//                  rate per op and GC counts); e.g. gc,stack or gc,jfr
+//   jmh.quick      true for a short smoke run instead of the class defaults
+//   jmh.results    output directory, default target/jmh
+public class JmhRunner {
+
+    public static void main(String[] args) throws Exception {
+        String include = System.getProperty("jmh.include", ".*");
+        String threads = System.getProperty("jmh.threads", "1,4");
+        String profilers = System.getProperty("jmh.profilers", "gc");
+        boolean quick = Boolean.getBoolean("jmh.quick");
+        Path results = Paths.get(System.getProperty("jmh.results", "target/jmh"));
+        Files.createDirectories(results);
+
+        for (String count : threads.split(",")) {
+            int threadCount = Integer.parseInt(count.trim());
+            Path result = results.resolve("results-t" + threadCount + ".json");
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threadCount)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(result.toString());
+            for (String profiler : profilers.split(",")) {
+                if (!profiler.isBlank()) {
+                    options.addProfiler(profiler.trim());
+                }
+            }
+            if (quick) {
+                options.warmupIterations(1).warmupTime(TimeValue.seconds(1))
+                        .measurementIterations(2).measurementTime(TimeValue.seconds(1))
+                        .forks(1);
+            }
+            System.out.println("Running benchmarks matching '" + include + "' with " + threadCount + " thread(s)");
+            new Runner(options.build()).run();
+            System.out.println("Results written to " + result);
+        }
+    }
+}
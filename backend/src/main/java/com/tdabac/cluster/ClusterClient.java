@@ -0,0 +1,429 @@
+package com.tdabac.cluster;
+
+import com.tdabac.service.KeyVault;
+import com.tdabac.service.ViewTokenStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+// The nodes of a cluster sharing one set of files, and the calls they make
+// on each other.
+//
+// tdabac.cluster.nodes lists every node's base URL (the same list, in any
+// order, on every node) and tdabac.cluster.self says which one this is. A
+// file hash or view token is owned by 'replicas' nodes picked by a
+// HashRing; its key, blob and tokens are written to all of them and read
+// from whichever answers first (this node, if it is one). Without a node
+// list the cluster is this node alone and every call stays local.
+//
+// Nodes authenticate each other with a secret derived from the key vault
+// master key, which they must share anyway to unwrap each other's keys.
+// Keys travel wrapped, blobs encrypted; only view tokens (bearer secrets,
+// like on the public API) are sent as they are.
+//
+// A node that fails a call is skipped for retry-after-ms, so a dead node
+// costs one timeout rather than one per request. Writes succeed if at
+// least one owner stored them; a missed replica is not repaired.
+@Component
+public class ClusterClient {
+
+    public static final String SECRET_HEADER = "X-Cluster-Secret";
+    public static final String ATTRIBUTES_HEADER = "X-Blob-Attributes";
+    public static final String SIZE_HEADER = "X-Blob-Size";
+    public static final String EXPIRES_AT_HEADER = "X-Expires-At";
+
+    private static final String BASE_PATH = "/internal/cluster";
+    private static final String LOCAL = "local";
+    private static final int VIRTUAL_NODES = 128;
+
+    // Size and attributes of a blob held by another node.
+    public static final class BlobInfo {
+        private final long size;
+        private final Map<String, String> attributes;
+
+        BlobInfo(long size, Map<String, String> attributes) {
+            this.size = size;
+            this.attributes = attributes;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public Map<String, String> attributes() {
+            return attributes;
+        }
+    }
+
+    private final List<String> nodes;
+    private final String self;
+    private final int replicas;
+    private final HashRing ring;
+    private final Duration timeout;
+    private final long retryAfterMs;
+    private final String secret;
+    private final HttpClient httpClient;
+
+    // Node -> time (ms) until which it is skipped after a failed call
+    private final Map<String, Long> downUntil = new ConcurrentHashMap<>();
+    private final AtomicLong remoteCalls = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+
+    @Autowired
+    public ClusterClient(@Value("${tdabac.cluster.nodes:}") String nodes,
+            @Value("${tdabac.cluster.self:}") String self,
+            @Value("${tdabac.cluster.replicas:2}") int replicas,
+            @Value("${tdabac.cluster.timeout-ms:5000}") long timeoutMs,
+            @Value("${tdabac.cluster.retry-after-ms:5000}") long retryAfterMs,
+            KeyVault keyVault) {
+        this(Arrays.stream(nodes.split(",")).map(String::trim).filter(node -> !node.isEmpty())
+                .collect(Collectors.toList()), self, replicas, timeoutMs, retryAfterMs,
+                keyVault.deriveSecret("tdabac-cluster-v1"));
+    }
+
+    public ClusterClient(List<String> nodes, String self, int replicas, long timeoutMs, long retryAfterMs,
+            byte[] secret) {
+        this.nodes = nodes.stream().map(ClusterClient::normalize).collect(Collectors.toList());
+        this.self = nodes.isEmpty() ? LOCAL : normalize(self);
+        if (!this.nodes.isEmpty() && !this.nodes.contains(this.self)) {
+            throw new IllegalArgumentException("tdabac.cluster.self (" + self + ") is not in tdabac.cluster.nodes "
+                    + this.nodes);
+        }
+        this.replicas = Math.max(1, replicas);
+        this.ring = new HashRing(this.nodes.isEmpty() ? List.of(LOCAL) : this.nodes, VIRTUAL_NODES);
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.retryAfterMs = retryAfterMs;
+        this.secret = HexFormat.of().formatHex(secret);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+        if (enabled()) {
+            System.out.println("Cluster of " + this.nodes.size() + " nodes, " + Math.min(this.replicas, this.nodes.size())
+                    + " replicas per file; this node is " + this.self);
+        }
+    }
+
+    public boolean enabled() {
+        return nodes.size() > 1;
+    }
+
+    public String self() {
+        return self;
+    }
+
+    public List<String> nodes() {
+        return nodes.isEmpty() ? List.of(self) : nodes;
+    }
+
+    public int replicas() {
+        return Math.min(replicas, nodes().size());
+    }
+
+    // Nodes holding 'key', primary first.
+    public List<String> owners(String key) {
+        return enabled() ? ring.owners(key, replicas) : List.of(self);
+    }
+
+    public boolean isSelf(String node) {
+        return self.equals(node);
+    }
+
+    // Owners of 'key' other than this node, the ones not recently failed
+    // first: where to read what this node does not have.
+    public List<String> peers(String key) {
+        List<String> live = new ArrayList<>();
+        List<String> down = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (String owner : owners(key)) {
+            if (!isSelf(owner)) {
+                (downUntil.getOrDefault(owner, 0L) > now ? down : live).add(owner);
+            }
+        }
+        live.addAll(down);
+        return live;
+    }
+
+    public boolean isLive(String node) {
+        return isSelf(node) || downUntil.getOrDefault(node, 0L) <= System.currentTimeMillis();
+    }
+
+    public boolean authorized(String presented) {
+        return presented != null && MessageDigest.isEqual(secret.getBytes(StandardCharsets.US_ASCII),
+                presented.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public long remoteCalls() {
+        return remoteCalls.get();
+    }
+
+    public long failedCalls() {
+        return failedCalls.get();
+    }
+
+    // --- blobs ---
+
+    // 201 (stored) and 200 (already there) both count as stored.
+    public CompletableFuture<Void> putBlob(String node, String key, HttpRequest.BodyPublisher body,
+            Map<String, String> attributes) {
+        HttpRequest request = request(node, "/blobs/" + segment(key))
+                .header(ATTRIBUTES_HEADER, encodeAttributes(attributes))
+                .PUT(body)
+                .build();
+        return sendAsync(node, request, HttpResponse.BodyHandlers.discarding()).thenApply(response -> {
+            expectAsync(node, response, 200, 201);
+            return null;
+        });
+    }
+
+    // Null if the node does not hold the blob.
+    public BlobInfo blobInfo(String node, String key) throws IOException {
+        HttpRequest request = request(node, "/blobs/" + segment(key))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+        HttpResponse<Void> response = send(node, request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 404) {
+            return null;
+        }
+        expect(node, response, 200);
+        return new BlobInfo(Long.parseLong(response.headers().firstValue(SIZE_HEADER).orElse("-1")),
+                decodeAttributes(response.headers().firstValue(ATTRIBUTES_HEADER).orElse("")));
+    }
+
+    // [position, position + count) of the blob; null if the node does not
+    // hold it.
+    public InputStream openBlob(String node, String key, long position, long count) throws IOException {
+        HttpRequest request = request(node, "/blobs/" + segment(key) + "?position=" + position + "&count=" + count)
+                .GET()
+                .build();
+        HttpResponse<InputStream> response = send(node, request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() == 404) {
+            response.body().close();
+            return null;
+        }
+        if (response.statusCode() != 200) {
+            response.body().close();
+            expect(node, response, 200);
+        }
+        return response.body();
+    }
+
+    public CompletableFuture<Boolean> deleteBlob(String node, String key) {
+        return delete(node, "/blobs/" + segment(key));
+    }
+
+    // --- keys (wrapped under the shared master key) ---
+
+    // True if the node stored the key, false if it already had one.
+    public CompletableFuture<Boolean> putKey(String node, String fileHash, byte[] wrapped) {
+        HttpRequest request = request(node, "/keys/" + segment(fileHash))
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(wrapped))
+                .build();
+        return sendAsync(node, request, HttpResponse.BodyHandlers.discarding()).thenApply(response -> {
+            expectAsync(node, response, 200, 201);
+            return response.statusCode() == 201;
+        });
+    }
+
+    // Null if the node holds no key for the hash.
+    public byte[] getKey(String node, String fileHash) throws IOException {
+        HttpRequest request = request(node, "/keys/" + segment(fileHash)).GET().build();
+        HttpResponse<byte[]> response = send(node, request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() == 404) {
+            return null;
+        }
+        expect(node, response, 200);
+        return response.body();
+    }
+
+    public CompletableFuture<Boolean> deleteKey(String node, String fileHash) {
+        return delete(node, "/keys/" + segment(fileHash));
+    }
+
+    // --- view tokens ---
+
+    public CompletableFuture<Void> putToken(String node, ViewTokenStore.ViewToken viewToken) {
+        HttpRequest request = request(node, "/view-tokens/" + segment(viewToken.getToken()))
+                .header(EXPIRES_AT_HEADER, Long.toString(viewToken.getExpiresAt()))
+                .PUT(HttpRequest.BodyPublishers.ofString(viewToken.getFileHash()))
+                .build();
+        return sendAsync(node, request, HttpResponse.BodyHandlers.discarding()).thenApply(response -> {
+            expectAsync(node, response, 200, 201);
+            return null;
+        });
+    }
+
+    // Null if the node does not hold the token (or it expired).
+    public ViewTokenStore.ViewToken getToken(String node, String token) throws IOException {
+        HttpRequest request = request(node, "/view-tokens/" + segment(token)).GET().build();
+        HttpResponse<String> response = send(node, request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() == 404) {
+            return null;
+        }
+        expect(node, response, 200);
+        return new ViewTokenStore.ViewToken(token, response.body(),
+                Long.parseLong(response.headers().firstValue(EXPIRES_AT_HEADER).orElse("0")));
+    }
+
+    public CompletableFuture<Boolean> deleteToken(String node, String token) {
+        return delete(node, "/view-tokens/" + segment(token));
+    }
+
+    // --- helpers ---
+
+    // Waits for every write to the owners of 'what' and returns the results
+    // of those that succeeded; failures are logged. Throws if none did.
+    public static <T> List<T> awaitAny(String what, List<CompletableFuture<T>> writes) throws IOException {
+        List<T> results = new ArrayList<>();
+        Throwable firstError = null;
+        for (CompletableFuture<T> write : writes) {
+            try {
+                results.add(write.join());
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                System.err.println("Replica write of " + what + " failed: " + cause.getMessage());
+                if (firstError == null) {
+                    firstError = cause;
+                }
+            }
+        }
+        if (results.isEmpty() && firstError != null) {
+            throw new IOException("No owner stored " + what + ": " + firstError.getMessage(), firstError);
+        }
+        return results;
+    }
+
+    private CompletableFuture<Boolean> delete(String node, String path) {
+        HttpRequest request = request(node, path).DELETE().build();
+        return sendAsync(node, request, HttpResponse.BodyHandlers.discarding()).thenApply(response -> {
+            expectAsync(node, response, 200, 404);
+            return response.statusCode() == 200;
+        });
+    }
+
+    private HttpRequest.Builder request(String node, String path) {
+        return HttpRequest.newBuilder(URI.create(node + BASE_PATH + path))
+                .timeout(timeout)
+                .header(SECRET_HEADER, secret);
+    }
+
+    private <T> HttpResponse<T> send(String node, HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException {
+        remoteCalls.incrementAndGet();
+        try {
+            return httpClient.send(request, handler);
+        } catch (IOException e) {
+            failed(node, e);
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted calling " + node, e);
+        }
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(String node, HttpRequest request,
+            HttpResponse.BodyHandler<T> handler) {
+        remoteCalls.incrementAndGet();
+        return httpClient.sendAsync(request, handler).whenComplete((response, e) -> {
+            if (e != null) {
+                failed(node, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+    }
+
+    // Only unreachable or unresponsive nodes are skipped; an error answer
+    // means the node is up.
+    private void failed(String node, Throwable e) {
+        failedCalls.incrementAndGet();
+        if (e instanceof ConnectException || e instanceof HttpConnectTimeoutException
+                || e instanceof HttpTimeoutException) {
+            if (downUntil.put(node, System.currentTimeMillis() + retryAfterMs) == null) {
+                System.err.println("Cluster node " + node + " unreachable, skipping it for " + retryAfterMs + " ms: " + e);
+            }
+        }
+    }
+
+    private void expect(String node, HttpResponse<?> response, int... statuses) throws IOException {
+        IOException error = unexpected(node, response, statuses);
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void expectAsync(String node, HttpResponse<?> response, int... statuses) {
+        IOException error = unexpected(node, response, statuses);
+        if (error != null) {
+            throw new CompletionException(error);
+        }
+    }
+
+    private IOException unexpected(String node, HttpResponse<?> response, int... statuses) {
+        downUntil.remove(node);
+        for (int status : statuses) {
+            if (response.statusCode() == status) {
+                return null;
+            }
+        }
+        failedCalls.incrementAndGet();
+        String hint = response.statusCode() == 403 ? " (do the nodes share tdabac.keyvault.master-key?)" : "";
+        return new IOException("Cluster node " + node + " answered " + response.statusCode() + " to "
+                + response.request().method() + " " + response.request().uri().getPath() + hint);
+    }
+
+    public static String encodeAttributes(Map<String, String> attributes) {
+        return attributes.entrySet().stream()
+                .map(entry -> encode(entry.getKey()) + "=" + encode(entry.getValue()))
+                .collect(Collectors.joining("&"));
+    }
+
+    public static Map<String, String> decodeAttributes(String encoded) {
+        Map<String, String> attributes = new HashMap<>();
+        for (String pair : encoded.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                attributes.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return attributes;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    // A path segment: form encoding, with spaces as %20 rather than '+'
+    private static String segment(String value) {
+        return encode(value).replace("+", "%20");
+    }
+
+    private static String normalize(String node) {
+        return node.endsWith("/") ? node.substring(0, node.length() - 1) : node;
+    }
+}
@@ -0,0 +1,43 @@
+package com.tdabac.cluster;
+
+import com.tdabac.service.FileKeyStore;
+import com.tdabac.service.KeyVault;
+import com.tdabac.service.LocalViewTokenStore;
+import com.tdabac.service.ViewTokenStore;
+import com.tdabac.storage.BlobStore;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+// The stores FileController and the services use. Each wraps this node's
+// own store (the "blobStore" bean, KeyVault, LocalViewTokenStore) and, on
+// a single node, passes straight through to it. The internal endpoints of
+// ClusterController use the local stores directly.
+@Configuration
+public class ClusterConfig {
+
+    @Bean
+    @Primary
+    public BlobStore replicatedBlobStore(@Qualifier("blobStore") BlobStore blobStore, ClusterClient cluster,
+            @Value("${tdabac.dedup.enabled:false}") boolean dedup) {
+        // Chunks live in each node's own chunk store, out of the cluster's reach
+        if (cluster.enabled() && dedup) {
+            throw new IllegalStateException("tdabac.dedup.enabled is not supported with tdabac.cluster.nodes");
+        }
+        return new ReplicatedBlobStore(blobStore, cluster);
+    }
+
+    @Bean
+    @Primary
+    public FileKeyStore replicatedKeyStore(KeyVault keyVault, ClusterClient cluster) {
+        return new ReplicatedKeyStore(keyVault, cluster);
+    }
+
+    @Bean
+    @Primary
+    public ViewTokenStore replicatedViewTokenStore(LocalViewTokenStore viewTokens, ClusterClient cluster) {
+        return new ReplicatedViewTokenStore(viewTokens, cluster);
+    }
+}
@@ -0,0 +1,70 @@
+package com.tdabac.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Consistent hashing over the cluster's nodes. Each node is placed at
+// 'virtualNodes' points on a 64-bit ring; a key belongs to the first
+// distinct nodes found walking clockwise from its own point. Adding or
+// removing a node only moves the keys next to its points, and every node
+// computes the same owners from the same node list.
+public final class HashRing {
+
+    private final long[] points;
+    private final String[] pointNodes;
+    private final int nodeCount;
+
+    public HashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one node");
+        }
+        this.nodeCount = nodes.size();
+        long[][] placed = new long[nodes.size() * virtualNodes][];
+        int p = 0;
+        for (int n = 0; n < nodes.size(); n++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                placed[p++] = new long[] { hash(nodes.get(n) + "#" + v), n };
+            }
+        }
+        Arrays.sort(placed, (a, b) -> Long.compare(a[0], b[0]));
+        this.points = new long[placed.length];
+        this.pointNodes = new String[placed.length];
+        for (int i = 0; i < placed.length; i++) {
+            points[i] = placed[i][0];
+            pointNodes[i] = nodes.get((int) placed[i][1]);
+        }
+    }
+
+    // The first 'count' distinct nodes clockwise from the key, primary first.
+    public List<String> owners(String key, int count) {
+        int wanted = Math.min(count, nodeCount);
+        List<String> owners = new ArrayList<>(wanted);
+        int found = Arrays.binarySearch(points, hash(key));
+        int start = found >= 0 ? found : -found - 1;
+        for (int i = 0; owners.size() < wanted && i < points.length; i++) {
+            String node = pointNodes[(start + i) % points.length];
+            if (!owners.contains(node)) {
+                owners.add(node);
+            }
+        }
+        return owners;
+    }
+
+    // FNV-1a over the UTF-8 bytes, then the MurmurHash3 finalizer so that
+    // keys differing in their last characters land far apart.
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe1a85a53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
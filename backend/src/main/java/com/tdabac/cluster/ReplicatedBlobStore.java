@@ -0,0 +1,211 @@
+package com.tdabac.cluster;
+
+import com.tdabac.storage.BlobStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+// The blob store as seen by a cluster node: each blob is written to the
+// nodes owning its hash (this node's local store among them, if it is an
+// owner) and read from the local store when it is here, from an owner
+// otherwise. keys() and compact() are local: every node compacts its own
+// copies. Deletes go to every owner, so a rolled-back upload or an expired
+// file leaves no copy behind.
+public class ReplicatedBlobStore implements BlobStore {
+
+    private static final int INFO_CACHE_SIZE = 10_000;
+
+    private final BlobStore local;
+    private final ClusterClient cluster;
+
+    // Size and attributes of blobs held elsewhere. Blobs are immutable, so
+    // an entry only goes stale when the blob is deleted, and a deleted blob
+    // belongs to an expired file that the chain check turns away first.
+    private final LinkedHashMap<String, ClusterClient.BlobInfo> remoteInfo; // guarded by itself
+
+    public ReplicatedBlobStore(BlobStore local, ClusterClient cluster) {
+        this.local = local;
+        this.cluster = cluster;
+        this.remoteInfo = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ClusterClient.BlobInfo> eldest) {
+                return size() > INFO_CACHE_SIZE;
+            }
+        };
+    }
+
+    @Override
+    public void put(String key, ByteBuffer data, Map<String, String> attributes) throws IOException {
+        List<CompletableFuture<Void>> copies = new ArrayList<>();
+        byte[] bytes = null;
+        for (String owner : cluster.owners(key)) {
+            if (cluster.isSelf(owner)) {
+                copies.add(storeLocally(() -> local.put(key, data.duplicate(), attributes)));
+            } else {
+                if (bytes == null) {
+                    ByteBuffer copy = data.duplicate();
+                    bytes = new byte[copy.remaining()];
+                    copy.get(bytes);
+                }
+                copies.add(cluster.putBlob(owner, key, HttpRequest.BodyPublishers.ofByteArray(bytes), attributes));
+            }
+        }
+        ClusterClient.awaitAny(key, copies);
+    }
+
+    @Override
+    public void put(String key, Path file, Map<String, String> attributes) throws IOException {
+        List<CompletableFuture<Void>> copies = new ArrayList<>();
+        for (String owner : cluster.owners(key)) {
+            copies.add(cluster.isSelf(owner)
+                    ? storeLocally(() -> local.put(key, file, attributes))
+                    : cluster.putBlob(owner, key, HttpRequest.BodyPublishers.ofFile(file), attributes));
+        }
+        ClusterClient.awaitAny(key, copies);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return local.contains(key) || info(key) != null;
+    }
+
+    @Override
+    public long size(String key) {
+        long size = local.size(key);
+        if (size >= 0) {
+            return size;
+        }
+        ClusterClient.BlobInfo info = info(key);
+        return info != null ? info.size() : -1;
+    }
+
+    @Override
+    public Map<String, String> attributes(String key) {
+        Map<String, String> attributes = local.attributes(key);
+        if (attributes != null) {
+            return attributes;
+        }
+        ClusterClient.BlobInfo info = info(key);
+        return info != null ? info.attributes() : null;
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        if (local.contains(key)) {
+            return local.open(key);
+        }
+        long size = size(key);
+        if (size < 0) {
+            throw new NoSuchFileException(key);
+        }
+        return open(key, 0, size);
+    }
+
+    @Override
+    public InputStream open(String key, long position, long count) throws IOException {
+        if (local.contains(key)) {
+            return local.open(key, position, count);
+        }
+        IOException failure = null;
+        for (String peer : cluster.peers(key)) {
+            try {
+                InputStream in = cluster.openBlob(peer, key, position, count);
+                if (in != null) {
+                    return in;
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        throw failure != null ? failure : new NoSuchFileException(key);
+    }
+
+    @Override
+    public long transferTo(String key, long position, long count, WritableByteChannel target) throws IOException {
+        if (local.contains(key)) {
+            return local.transferTo(key, position, count, target);
+        }
+        try (InputStream in = open(key, position, count)) {
+            return in.transferTo(Channels.newOutputStream(target));
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        synchronized (remoteInfo) {
+            remoteInfo.remove(key);
+        }
+        boolean deleted = local.delete(key);
+        List<CompletableFuture<Boolean>> deletes = new ArrayList<>();
+        for (String peer : cluster.peers(key)) {
+            deletes.add(cluster.deleteBlob(peer, key));
+        }
+        try {
+            for (boolean remote : ClusterClient.awaitAny(key, deletes)) {
+                deleted |= remote;
+            }
+        } catch (IOException e) {
+            // Logged; the owners' own expiry compaction deletes their copies
+        }
+        return deleted;
+    }
+
+    // This node's copies only
+    @Override
+    public Set<String> keys() {
+        return local.keys();
+    }
+
+    @Override
+    public void compact() throws IOException {
+        local.compact();
+    }
+
+    private interface LocalWrite {
+        void run() throws IOException;
+    }
+
+    private static CompletableFuture<Void> storeLocally(LocalWrite write) {
+        try {
+            write.run();
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private ClusterClient.BlobInfo info(String key) {
+        synchronized (remoteInfo) {
+            ClusterClient.BlobInfo info = remoteInfo.get(key);
+            if (info != null) {
+                return info;
+            }
+        }
+        for (String peer : cluster.peers(key)) {
+            try {
+                ClusterClient.BlobInfo info = cluster.blobInfo(peer, key);
+                if (info != null) {
+                    synchronized (remoteInfo) {
+                        remoteInfo.put(key, info);
+                    }
+                    return info;
+                }
+            } catch (IOException e) {
+                // Try the next owner
+            }
+        }
+        return null;
+    }
+}
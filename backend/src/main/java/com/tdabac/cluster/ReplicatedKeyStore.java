@@ -0,0 +1,117 @@
+package com.tdabac.cluster;
+
+import com.tdabac.service.FileKeyStore;
+import com.tdabac.service.KeyVault;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// File keys as seen by a cluster node: each key is stored in the key vaults
+// of the nodes owning its file hash, and travels between nodes wrapped
+// under the master key they share. A node that is not an owner fetches the
+// wrapped key and unwraps it itself. Deleting a key (at its expiry) wipes
+// it from every owner.
+public class ReplicatedKeyStore implements FileKeyStore {
+
+    private final KeyVault local;
+    private final ClusterClient cluster;
+
+    public ReplicatedKeyStore(KeyVault local, ClusterClient cluster) {
+        this.local = local;
+        this.cluster = cluster;
+    }
+
+    // Waits for every owner to answer, so that "already stored" (null) can
+    // be told apart from "stored now" before returning. The future returned
+    // otherwise completes once this node's copy, if it holds one, is durable;
+    // the other owners answer only after theirs are.
+    @Override
+    public CompletableFuture<Void> putIfAbsent(String fileHash, SecretKey key) throws GeneralSecurityException {
+        List<CompletableFuture<Boolean>> stores = new ArrayList<>();
+        CompletableFuture<Void> localWrite = CompletableFuture.completedFuture(null);
+        byte[] wrapped = null;
+        for (String owner : cluster.owners(fileHash)) {
+            if (cluster.isSelf(owner)) {
+                CompletableFuture<Void> stored = local.putIfAbsent(fileHash, key);
+                stores.add(CompletableFuture.completedFuture(stored != null));
+                if (stored != null) {
+                    localWrite = stored;
+                }
+            } else {
+                if (wrapped == null) {
+                    wrapped = local.wrap(fileHash, key);
+                }
+                stores.add(cluster.putKey(owner, fileHash, wrapped));
+            }
+        }
+        List<Boolean> results;
+        try {
+            results = ClusterClient.awaitAny("key of " + fileHash, stores);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return results.contains(true) ? localWrite : null;
+    }
+
+    @Override
+    public SecretKey get(String fileHash) throws IOException, GeneralSecurityException {
+        SecretKey key = local.get(fileHash);
+        if (key != null) {
+            return key;
+        }
+        IOException failure = null;
+        for (String peer : cluster.peers(fileHash)) {
+            try {
+                byte[] wrapped = cluster.getKey(peer, fileHash);
+                if (wrapped != null) {
+                    return local.unwrap(fileHash, wrapped);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean contains(String fileHash) {
+        if (local.contains(fileHash)) {
+            return true;
+        }
+        for (String peer : cluster.peers(fileHash)) {
+            try {
+                if (cluster.getKey(peer, fileHash) != null) {
+                    return true;
+                }
+            } catch (IOException e) {
+                // Try the next owner
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean delete(String fileHash) {
+        boolean deleted = local.delete(fileHash);
+        List<CompletableFuture<Boolean>> deletes = new ArrayList<>();
+        for (String peer : cluster.peers(fileHash)) {
+            deletes.add(cluster.deleteKey(peer, fileHash));
+        }
+        try {
+            for (boolean remote : ClusterClient.awaitAny("key of " + fileHash, deletes)) {
+                deleted |= remote;
+            }
+        } catch (IOException e) {
+            // Logged; the owners' own expiry compaction deletes their copies
+        }
+        return deleted;
+    }
+}
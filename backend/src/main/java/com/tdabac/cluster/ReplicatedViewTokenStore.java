@@ -0,0 +1,91 @@
+package com.tdabac.cluster;
+
+import com.tdabac.service.LocalViewTokenStore;
+import com.tdabac.service.ViewTokenStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+// View tokens as seen by a cluster node: a token is kept by the nodes
+// owning the token itself (not its file), so issuing and checking it each
+// take at most one call, whichever node the load balancer picked.
+public class ReplicatedViewTokenStore implements ViewTokenStore {
+
+    private final LocalViewTokenStore local;
+    private final ClusterClient cluster;
+
+    public ReplicatedViewTokenStore(LocalViewTokenStore local, ClusterClient cluster) {
+        this.local = local;
+        this.cluster = cluster;
+    }
+
+    @Override
+    public ViewToken issue(String fileHash) {
+        ViewToken viewToken = new ViewToken(UUID.randomUUID().toString(), fileHash,
+                System.currentTimeMillis() + local.ttlMs());
+        List<CompletableFuture<Void>> copies = new ArrayList<>();
+        for (String owner : cluster.owners(viewToken.getToken())) {
+            if (cluster.isSelf(owner)) {
+                local.put(viewToken);
+                copies.add(CompletableFuture.completedFuture(null));
+            } else {
+                copies.add(cluster.putToken(owner, viewToken));
+            }
+        }
+        try {
+            ClusterClient.awaitAny("view token", copies);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return viewToken;
+    }
+
+    @Override
+    public ViewToken get(String token) {
+        ViewToken viewToken = local.get(token);
+        if (viewToken != null) {
+            return viewToken;
+        }
+        for (String peer : cluster.peers(token)) {
+            try {
+                viewToken = cluster.getToken(peer, token);
+                if (viewToken != null) {
+                    return viewToken.isExpired() ? null : viewToken;
+                }
+            } catch (IOException e) {
+                // Try the next owner
+            }
+        }
+        return null;
+    }
+
+    // Waits for the owners, so a used-up token cannot be replayed through
+    // another node a moment later.
+    @Override
+    public void remove(String token) {
+        local.remove(token);
+        List<CompletableFuture<Boolean>> deletes = new ArrayList<>();
+        for (String peer : cluster.peers(token)) {
+            deletes.add(cluster.deleteToken(peer, token));
+        }
+        try {
+            ClusterClient.awaitAny("view token", deletes);
+        } catch (IOException e) {
+            // Logged; the token still expires with its TTL
+        }
+    }
+
+    @Override
+    public int liveCount() {
+        return local.liveCount();
+    }
+
+    @Override
+    public long evictedCount() {
+        return local.evictedCount();
+    }
+}
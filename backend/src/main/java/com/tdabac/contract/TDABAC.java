@@ -0,0 +1,209 @@
+package com.tdabac.contract;
+
+import io.reactivex.Flowable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import org.web3j.abi.EventEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Bool;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.Event;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.Credentials;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.RemoteFunctionCall;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.BaseEventResponse;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.tuples.generated.Tuple3;
+import org.web3j.tx.Contract;
+import org.web3j.tx.TransactionManager;
+import org.web3j.tx.gas.ContractGasProvider;
+
+/**
+ * <p>Auto generated code.
+ * <p><strong>Do not modify!</strong>
+ * <p>Please use the <a href="https://docs.web3j.io/command_line.html">web3j command line tools</a>,
+ * or the org.web3j.codegen.SolidityFunctionWrapperGenerator in the 
+ * <a href="https://github.com/web3j/web3j/tree/master/codegen">codegen module</a> to update.
+ *
+ * <p>Generated with web3j version 4.10.0.
+ */
+@SuppressWarnings("rawtypes")
+public class TDABAC extends Contract {
+    public static final String BINARY = "Bin file was not provided";
+
+    public static final String FUNC_CHECKACCESS = "checkAccess";
+
+    public static final String FUNC_FILEREGISTRY = "fileRegistry";
+
+    public static final String FUNC_GETEXPIRY = "getExpiry";
+
+    public static final String FUNC_UPLOADFILE = "uploadFile";
+
+    public static final String FUNC_UPLOADFILES = "uploadFiles";
+
+    public static final String FUNC_GETEXPIRIES = "getExpiries";
+
+    public static final Event FILEUPLOADED_EVENT = new Event("FileUploaded", 
+            Arrays.<TypeReference<?>>asList(new TypeReference<Utf8String>() {}, new TypeReference<Address>() {}, new TypeReference<Uint256>() {}));
+    ;
+
+    @Deprecated
+    protected TDABAC(String contractAddress, Web3j web3j, Credentials credentials, BigInteger gasPrice, BigInteger gasLimit) {
+        super(BINARY, contractAddress, web3j, credentials, gasPrice, gasLimit);
+    }
+
+    protected TDABAC(String contractAddress, Web3j web3j, Credentials credentials, ContractGasProvider contractGasProvider) {
+        super(BINARY, contractAddress, web3j, credentials, contractGasProvider);
+    }
+
+    @Deprecated
+    protected TDABAC(String contractAddress, Web3j web3j, TransactionManager transactionManager, BigInteger gasPrice, BigInteger gasLimit) {
+        super(BINARY, contractAddress, web3j, transactionManager, gasPrice, gasLimit);
+    }
+
+    protected TDABAC(String contractAddress, Web3j web3j, TransactionManager transactionManager, ContractGasProvider contractGasProvider) {
+        super(BINARY, contractAddress, web3j, transactionManager, contractGasProvider);
+    }
+
+    public static List<FileUploadedEventResponse> getFileUploadedEvents(TransactionReceipt transactionReceipt) {
+        List<Contract.EventValuesWithLog> valueList = staticExtractEventParametersWithLog(FILEUPLOADED_EVENT, transactionReceipt);
+        ArrayList<FileUploadedEventResponse> responses = new ArrayList<FileUploadedEventResponse>(valueList.size());
+        for (Contract.EventValuesWithLog eventValues : valueList) {
+            FileUploadedEventResponse typedResponse = new FileUploadedEventResponse();
+            typedResponse.log = eventValues.getLog();
+            typedResponse.fileHash = (String) eventValues.getNonIndexedValues().get(0).getValue();
+            typedResponse.owner = (String) eventValues.getNonIndexedValues().get(1).getValue();
+            typedResponse.expiryTimestamp = (BigInteger) eventValues.getNonIndexedValues().get(2).getValue();
+            responses.add(typedResponse);
+        }
+        return responses;
+    }
+
+    public static FileUploadedEventResponse getFileUploadedEventFromLog(Log log) {
+        Contract.EventValuesWithLog eventValues = staticExtractEventParametersWithLog(FILEUPLOADED_EVENT, log);
+        FileUploadedEventResponse typedResponse = new FileUploadedEventResponse();
+        typedResponse.log = log;
+        typedResponse.fileHash = (String) eventValues.getNonIndexedValues().get(0).getValue();
+        typedResponse.owner = (String) eventValues.getNonIndexedValues().get(1).getValue();
+        typedResponse.expiryTimestamp = (BigInteger) eventValues.getNonIndexedValues().get(2).getValue();
+        return typedResponse;
+    }
+
+    public Flowable<FileUploadedEventResponse> fileUploadedEventFlowable(EthFilter filter) {
+        return web3j.ethLogFlowable(filter).map(log -> getFileUploadedEventFromLog(log));
+    }
+
+    public Flowable<FileUploadedEventResponse> fileUploadedEventFlowable(DefaultBlockParameter startBlock, DefaultBlockParameter endBlock) {
+        EthFilter filter = new EthFilter(startBlock, endBlock, getContractAddress());
+        filter.addSingleTopic(EventEncoder.encode(FILEUPLOADED_EVENT));
+        return fileUploadedEventFlowable(filter);
+    }
+
+    public RemoteFunctionCall<Boolean> checkAccess(String fileHash) {
+        final Function function = new Function(FUNC_CHECKACCESS, 
+                Arrays.<Type>asList(new org.web3j.abi.datatypes.Utf8String(fileHash)), 
+                Arrays.<TypeReference<?>>asList(new TypeReference<Bool>() {}));
+        return executeRemoteCallSingleValueReturn(function, Boolean.class);
+    }
+
+    public RemoteFunctionCall<Tuple3<String, BigInteger, Boolean>> fileRegistry(String param0) {
+        final Function function = new Function(FUNC_FILEREGISTRY, 
+                Arrays.<Type>asList(new org.web3j.abi.datatypes.Utf8String(param0)), 
+                Arrays.<TypeReference<?>>asList(new TypeReference<Address>() {}, new TypeReference<Uint256>() {}, new TypeReference<Bool>() {}));
+        return new RemoteFunctionCall<Tuple3<String, BigInteger, Boolean>>(function,
+                new Callable<Tuple3<String, BigInteger, Boolean>>() {
+                    @Override
+                    public Tuple3<String, BigInteger, Boolean> call() throws Exception {
+                        List<Type> results = executeCallMultipleValueReturn(function);
+                        return new Tuple3<String, BigInteger, Boolean>(
+                                (String) results.get(0).getValue(), 
+                                (BigInteger) results.get(1).getValue(), 
+                                (Boolean) results.get(2).getValue());
+                    }
+                });
+    }
+
+    public RemoteFunctionCall<BigInteger> getExpiry(String fileHash) {
+        final Function function = new Function(FUNC_GETEXPIRY, 
+                Arrays.<Type>asList(new org.web3j.abi.datatypes.Utf8String(fileHash)), 
+                Arrays.<TypeReference<?>>asList(new TypeReference<Uint256>() {}));
+        return executeRemoteCallSingleValueReturn(function, BigInteger.class);
+    }
+
+    public RemoteFunctionCall<TransactionReceipt> uploadFile(String fileHash, BigInteger durationInSeconds) {
+        final Function function = new Function(
+                FUNC_UPLOADFILE, 
+                Arrays.<Type>asList(new org.web3j.abi.datatypes.Utf8String(fileHash), 
+                new org.web3j.abi.datatypes.generated.Uint256(durationInSeconds)), 
+                Collections.<TypeReference<?>>emptyList());
+        return executeRemoteCallTransaction(function);
+    }
+
+    public RemoteFunctionCall<TransactionReceipt> uploadFiles(List<String> fileHashes, List<BigInteger> durationsInSeconds) {
+        final Function function = new Function(
+                FUNC_UPLOADFILES, 
+                Arrays.<Type>asList(new org.web3j.abi.datatypes.DynamicArray<org.web3j.abi.datatypes.Utf8String>(
+                        org.web3j.abi.datatypes.Utf8String.class,
+                        org.web3j.abi.Utils.typeMap(fileHashes, org.web3j.abi.datatypes.Utf8String.class)), 
+                new org.web3j.abi.datatypes.DynamicArray<org.web3j.abi.datatypes.generated.Uint256>(
+                        org.web3j.abi.datatypes.generated.Uint256.class,
+                        org.web3j.abi.Utils.typeMap(durationsInSeconds, org.web3j.abi.datatypes.generated.Uint256.class))), 
+                Collections.<TypeReference<?>>emptyList());
+        return executeRemoteCallTransaction(function);
+    }
+
+    public RemoteFunctionCall<List> getExpiries(List<String> fileHashes) {
+        final Function function = new Function(FUNC_GETEXPIRIES, 
+                Arrays.<Type>asList(new org.web3j.abi.datatypes.DynamicArray<org.web3j.abi.datatypes.Utf8String>(
+                        org.web3j.abi.datatypes.Utf8String.class,
+                        org.web3j.abi.Utils.typeMap(fileHashes, org.web3j.abi.datatypes.Utf8String.class))), 
+                Arrays.<TypeReference<?>>asList(new TypeReference<DynamicArray<Uint256>>() {}));
+        return new RemoteFunctionCall<List>(function,
+                new Callable<List>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public List call() throws Exception {
+                        List<Type> result = (List<Type>) executeCallSingleValueReturn(function, List.class);
+                        return convertToNative(result);
+                    }
+                });
+    }
+
+    @Deprecated
+    public static TDABAC load(String contractAddress, Web3j web3j, Credentials credentials, BigInteger gasPrice, BigInteger gasLimit) {
+        return new TDABAC(contractAddress, web3j, credentials, gasPrice, gasLimit);
+    }
+
+    @Deprecated
+    public static TDABAC load(String contractAddress, Web3j web3j, TransactionManager transactionManager, BigInteger gasPrice, BigInteger gasLimit) {
+        return new TDABAC(contractAddress, web3j, transactionManager, gasPrice, gasLimit);
+    }
+
+    public static TDABAC load(String contractAddress, Web3j web3j, Credentials credentials, ContractGasProvider contractGasProvider) {
+        return new TDABAC(contractAddress, web3j, credentials, contractGasProvider);
+    }
+
+    public static TDABAC load(String contractAddress, Web3j web3j, TransactionManager transactionManager, ContractGasProvider contractGasProvider) {
+        return new TDABAC(contractAddress, web3j, transactionManager, contractGasProvider);
+    }
+
+    public static class FileUploadedEventResponse extends BaseEventResponse {
+        public String fileHash;
+
+        public String owner;
+
+        public BigInteger expiryTimestamp;
+    }
+}
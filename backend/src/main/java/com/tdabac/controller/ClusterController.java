@@ -0,0 +1,244 @@
+package com.tdabac.controller;
+
+import com.tdabac.cluster.ClusterClient;
+import com.tdabac.service.KeyVault;
+import com.tdabac.service.LocalViewTokenStore;
+import com.tdabac.service.ViewTokenStore;
+import com.tdabac.storage.BlobStore;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// What cluster nodes call on each other (see ClusterClient): this node's
+// own blobs, wrapped keys and view tokens, never forwarded further. Every
+// call must carry the cluster secret; on a single node the endpoints do
+// not exist.
+@RestController
+public class ClusterController {
+
+    private final ClusterClient cluster;
+    private final BlobStore blobStore;
+    private final KeyVault keyVault;
+    private final LocalViewTokenStore viewTokens;
+
+    // Replicated blobs are received here before going into the blob store.
+    // Same directory and prefix as IPFSService's upload spool, so leftovers
+    // from a crash are cleaned up with those.
+    private final Path spoolDir;
+
+    public ClusterController(ClusterClient cluster, @Qualifier("blobStore") BlobStore blobStore, KeyVault keyVault,
+            LocalViewTokenStore viewTokens, @Value("${tdabac.data-dir:data}") String dataDir) {
+        this.cluster = cluster;
+        this.blobStore = blobStore;
+        this.keyVault = keyVault;
+        this.viewTokens = viewTokens;
+        this.spoolDir = Paths.get(dataDir, "spool");
+    }
+
+    // Null if the call may go ahead
+    private ResponseEntity<?> refused(String secret) {
+        if (!cluster.enabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!cluster.authorized(secret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Bad cluster secret");
+        }
+        return null;
+    }
+
+    @PutMapping("/internal/cluster/blobs/{key}")
+    public ResponseEntity<?> putBlob(@PathVariable String key,
+            @RequestHeader(value = ClusterClient.SECRET_HEADER, required = false) String secret,
+            @RequestHeader(value = ClusterClient.ATTRIBUTES_HEADER, defaultValue = "") String attributes,
+            HttpServletRequest request) throws IOException {
+        ResponseEntity<?> refused = refused(secret);
+        if (refused != null) {
+            return refused;
+        }
+        if (blobStore.contains(key)) {
+            return ResponseEntity.ok().build();
+        }
+        Files.createDirectories(spoolDir);
+        Path spool = Files.createTempFile(spoolDir, ".upload-", ".enc");
+        try {
+            Files.copy(request.getInputStream(), spool, StandardCopyOption.REPLACE_EXISTING);
+            blobStore.put(key, spool, ClusterClient.decodeAttributes(attributes));
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+        return ResponseEntity.status(HttpStatus.CREATED).build();
+    }
+
+    @RequestMapping(value = "/internal/cluster/blobs/{key}", method = RequestMethod.HEAD)
+    public ResponseEntity<?> blobInfo(@PathVariable String key,
+            @RequestHeader(value = ClusterClient.SECRET_HEADER, required = false) String secret) {
+        ResponseEntity<?> refused = refused(secret);
+        if (refused != null) {
+            return refused;
+        }
+        long size = blobStore.size(key);
+        Map<String, String> attributes = blobStore.attributes(key);
+        if (size < 0 || attributes == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .header(ClusterClient.SIZE_HEADER, Long.toString(size))
+                .header(ClusterClient.ATTRIBUTES_HEADER, ClusterClient.encodeAttributes(attributes))
+                .build();
+    }
+
+    @GetMapping("/internal/cluster/blobs/{key}")
+    public ResponseEntity<?> readBlob(@PathVariable String key,
+            @RequestHeader(value = ClusterClient.SECRET_HEADER, required = false) String secret,
+            @RequestParam(value = "position", defaultValue = "0") long position,
+            @RequestParam(value = "count", defaultValue = "-1") long count) throws IOException {
+        ResponseEntity<?> refused = refused(secret);
+        if (refused != null) {
+            return refused;
+        }
+        long size = blobStore.size(key);
+        if (size < 0) {
+            return ResponseEntity.notFound().build();
+        }
+        long length = count < 0 ? size - position : Math.min(count, size - position);
+        if (position < 0 || length < 0) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(length)
+                .body(new InputStreamResource(blobStore.open(key, position, length)));
+    }
+
+    @DeleteMapping("/internal/cluster/blobs/{key}")
+    public ResponseEntity<?> deleteBlob(@PathVariable String key,
+            @RequestHeader(value = ClusterClient.SECRET_HEADER, required = false) String secret) throws IOException {
+        ResponseEntity<?> refused = refused(secret);
+        if (refused != null) {
+            return refused;
+        }
+        return blobStore.delete(key) ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+    }
+
+    // 201 once the key is durable here, 200 if one was already stored
+    @PutMapping("/internal/cluster/keys/{fileHash}")
+    public ResponseEntity<?> putKey(@PathVariable String fileHash,
+            @RequestHeader(value = ClusterClient.SECRET_HEADER, required = false) String secret,
+            @RequestBody byte[] wrapped) throws Exception {
+        ResponseEntity<?> refused = refused(secret);
+        if (refused != null) {
+            return refused;
+        }
+        CompletableFuture<Void> stored = keyVault.putWrappedIfAbsent(fileHash, wrapped);
+        if (stored == null) {
+            return ResponseEntity.ok().build();
+        }
+        stored.get();
+        return ResponseEntity.status(HttpStatus.CREATED).build();
+    }
+
+    @GetMapping("/internal/cluster/keys/{fileHash}")
+    public ResponseEntity<?> getKey(@PathVariable String fileHash,
+            @RequestHeader(value = ClusterClient.SECRET_HEADER, required = false) String secret) throws IOException {
+        ResponseEntity<?> refused = refused(secret);
+        if (refused != null) {
+            return refused;
+        }
+        byte[] wrapped = keyVault.getWrapped(fileHash);
+        return wrapped != null
+                ? ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(wrapped)
+                : ResponseEntity.notFound().build();
+    }
+
+    @DeleteMapping("/internal/cluster/keys/{fileHash}")
+    public ResponseEntity<?> deleteKey(@PathVariable String fileHash,
+            @RequestHeader(value = ClusterClient.SECRET_HEADER, required = false) String secret) {
+        ResponseEntity<?> refused = refused(secret);
+        if (refused != null) {
+            return refused;
+        }
+        return keyVault.delete(fileHash) ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+    }
+
+    @PutMapping("/internal/cluster/view-tokens/{token}")
+    public ResponseEntity<?> putViewToken(@PathVariable String token,
+            @RequestHeader(value = ClusterClient.SECRET_HEADER, required = false) String secret,
+            @RequestHeader(ClusterClient.EXPIRES_AT_HEADER) long expiresAt,
+            @RequestBody String fileHash) {
+        ResponseEntity<?> refused = refused(secret);
+        if (refused != null) {
+            return refused;
+        }
+        viewTokens.put(new ViewTokenStore.ViewToken(token, fileHash, expiresAt));
+        return ResponseEntity.status(HttpStatus.CREATED).build();
+    }
+
+    @GetMapping("/internal/cluster/view-tokens/{token}")
+    public ResponseEntity<?> getViewToken(@PathVariable String token,
+            @RequestHeader(value = ClusterClient.SECRET_HEADER, required = false) String secret) {
+        ResponseEntity<?> refused = refused(secret);
+        if (refused != null) {
+            return refused;
+        }
+        ViewTokenStore.ViewToken viewToken = viewTokens.get(token);
+        if (viewToken == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .header(ClusterClient.EXPIRES_AT_HEADER, Long.toString(viewToken.getExpiresAt()))
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(viewToken.getFileHash());
+    }
+
+    @DeleteMapping("/internal/cluster/view-tokens/{token}")
+    public ResponseEntity<?> deleteViewToken(@PathVariable String token,
+            @RequestHeader(value = ClusterClient.SECRET_HEADER, required = false) String secret) {
+        ResponseEntity<?> refused = refused(secret);
+        if (refused != null) {
+            return refused;
+        }
+        boolean known = viewTokens.get(token) != null;
+        viewTokens.remove(token);
+        return known ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+    }
+
+    // This node's view of the cluster: members (and which it currently
+    // skips as unreachable), what it holds locally, and its calls to peers.
+    @GetMapping("/api/stats/cluster")
+    public ResponseEntity<?> clusterStats() {
+        List<String> unreachable = new ArrayList<>();
+        for (String node : cluster.nodes()) {
+            if (!cluster.isLive(node)) {
+                unreachable.add(node);
+            }
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", cluster.enabled());
+        stats.put("self", cluster.self());
+        stats.put("nodes", cluster.nodes());
+        stats.put("unreachable", unreachable);
+        stats.put("replicas", cluster.replicas());
+        stats.put("localBlobs", blobStore.keys().size());
+        stats.put("localKeys", keyVault.size());
+        stats.put("localViewTokens", viewTokens.liveCount());
+        stats.put("remoteCalls", cluster.remoteCalls());
+        stats.put("failedCalls", cluster.failedCalls());
+        return ResponseEntity.ok(stats);
+    }
+}
@@ -1,18 +1,51 @@
 package com.tdabac.controller;
 
+import com.tdabac.service.AuditLog;
 import com.tdabac.service.BlockchainService;
+import com.tdabac.service.ChunkStore;
+import com.tdabac.service.CidBuilder;
+import com.tdabac.service.CompressionCodec;
+import com.tdabac.service.CompressionPolicy;
 import com.tdabac.service.EncryptionService;
+import com.tdabac.service.ExpiryScheduler;
+import com.tdabac.service.FileKeyStore;
 import com.tdabac.service.IPFSService;
+import com.tdabac.service.KeyVault;
+import com.tdabac.service.PipelineMetrics;
+import com.tdabac.service.PipelineMetrics.Stage;
+import com.tdabac.service.SegmentCache;
+import com.tdabac.service.ViewTokenStore;
+import io.micrometer.tracing.Span;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.crypto.SecretKey;
+import javax.security.auth.DestroyFailedException;
 
 @RestController
 @RequestMapping("/api")
@@ -22,115 +55,403 @@ public class FileController {
     private final EncryptionService encryptionService;
     private final IPFSService ipfsService;
     private final BlockchainService blockchainService;
-
-    // In-memory key store (For prototype ONLY). Real Production uses Key Management
-    // Service (AWS KMS etc).
-    // Keys are mapped by FileHash.
-    private final java.util.Map<String, javax.crypto.SecretKey> keyStore = new java.util.concurrent.ConcurrentHashMap<>();
-
-    // In-memory Mock Storage for Prototype (Stores encrypted data + metadata)
-    private final java.util.Map<String, FileMetadata> mockStorage = new java.util.concurrent.ConcurrentHashMap<>();
-    private static final long VIEW_TOKEN_TTL_MS = 60_000;
-    private final java.util.Map<String, ViewToken> viewTokens = new java.util.concurrent.ConcurrentHashMap<>();
-
-    private static class FileMetadata {
-        final String encryptedContent; // Base64 String
-        final String originalFilename;
-        final String contentType;
-
-        FileMetadata(String encryptedContent, String originalFilename, String contentType) {
-            this.encryptedContent = encryptedContent;
-            this.originalFilename = originalFilename;
-            this.contentType = contentType;
-        }
-    }
-
-    private static class ViewToken {
-        final String fileHash;
-        final long expiresAt;
-
-        ViewToken(String fileHash, long expiresAt) {
-            this.fileHash = fileHash;
-            this.expiresAt = expiresAt;
-        }
-
-        boolean isExpired() {
-            return System.currentTimeMillis() > expiresAt;
-        }
-    }
+    private final ExpiryScheduler expiryScheduler;
+    private final ViewTokenStore viewTokens;
+
+    // Per-file keys, wrapped under the vault's master key and kept on disk,
+    // so files stay readable across restarts. A key is destroyed and dropped
+    // when the file's on-chain time-lock expires; it can never be used again
+    // anyway. In a cluster they are kept by the nodes owning the file (see
+    // ReplicatedKeyStore); keyVault is this node's own, for its stats.
+    private final FileKeyStore keys;
+    private final KeyVault keyVault;
+
+    // Per-stage timers and trace spans (see PipelineMetrics)
+    private final PipelineMetrics metrics;
+
+    // Which uploads are compressed before encryption, and with what
+    private final CompressionPolicy compressionPolicy;
+
+    // Decrypted segments shared by concurrent downloads of the same file
+    private final SegmentCache segmentCache;
+
+    // Deduplicated content, when tdabac.dedup.enabled is set
+    private final ChunkStore chunkStore;
+
+    // Who accessed what and when; recording never blocks a request
+    private final AuditLog auditLog;
+
+    // Blob attribute names
+    private static final String ATTR_FILENAME = "filename";
+    private static final String ATTR_CONTENT_TYPE = "contentType";
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    // Set on the blob of a deduplicated upload, which holds the encrypted
+    // chunk manifest rather than the content
+    private static final String ATTR_LAYOUT = "layout";
+    private static final String LAYOUT_CHUNKED = "chunked";
+    // Uploads up to this size are encrypted in one buffer instead of being
+    // streamed through a spool file.
+    private static final long IN_MEMORY_UPLOAD_LIMIT = 1024 * 1024;
+    // Upper bound on hashes per bulk access check request
+    private static final int MAX_ACCESS_CHECK_HASHES = 1000;
+    // Upper bound on events per audit query
+    private static final int MAX_AUDIT_EVENTS = 10000;
+
+    // Keys wiped at their on-chain expiry
+    private final AtomicLong destroyedKeys = new AtomicLong();
 
     public FileController(EncryptionService encryptionService, IPFSService ipfsService,
-            BlockchainService blockchainService) {
+            BlockchainService blockchainService, ExpiryScheduler expiryScheduler, ViewTokenStore viewTokens,
+            FileKeyStore keys, KeyVault keyVault, PipelineMetrics metrics, CompressionPolicy compressionPolicy,
+            SegmentCache segmentCache, ChunkStore chunkStore, AuditLog auditLog) {
         this.encryptionService = encryptionService;
         this.ipfsService = ipfsService;
         this.blockchainService = blockchainService;
+        this.expiryScheduler = expiryScheduler;
+        this.viewTokens = viewTokens;
+        this.keys = keys;
+        this.keyVault = keyVault;
+        this.metrics = metrics;
+        this.compressionPolicy = compressionPolicy;
+        this.segmentCache = segmentCache;
+        this.chunkStore = chunkStore;
+        this.auditLog = auditLog;
     }
 
+    // Endpoints that wait on the chain or the IPFS node return a
+    // CompletableFuture: the Tomcat worker is released while the call runs on
+    // the service's bounded pool, so slow chain calls cannot tie up every
+    // request thread.
+    //
+    // With wait=false the upload answers 202 as soon as the file is stored
+    // and queued for registration (bulk imports); progress is then reported
+    // by /files/{fileHash}/status.
     @PostMapping("/upload")
-    public ResponseEntity<?> uploadFile(@RequestParam("file") MultipartFile file,
-            @RequestParam("duration") Long duration) {
+    public CompletableFuture<ResponseEntity<?>> uploadFile(@RequestParam("file") MultipartFile file,
+            @RequestParam("duration") Long duration,
+            @RequestParam(value = "wait", defaultValue = "true") boolean wait) {
+        String fileHash;
+        javax.crypto.SecretKey key;
+        // Captured here: the registration completes on another thread
+        Span trace = metrics.currentSpan();
+        Stage stage = Stage.KEY_GENERATION;
         try {
             // 1. Generate Key
-            javax.crypto.SecretKey key = encryptionService.generateKey();
+            long started = System.nanoTime();
+            Span span = metrics.startSpan(stage, trace);
+            key = encryptionService.generateKey();
+            metrics.stop(stage, started, span);
+
+            // 2. Compress (if it pays off) & Encrypt Data & 3. Upload to IPFS
+            // (stored locally under its CID)
+            // Filename and content type are stored with the blob, so they
+            // survive a restart along with the content
+            Map<String, String> attributes = new HashMap<>();
+            if (file.getOriginalFilename() != null) {
+                attributes.put(ATTR_FILENAME, file.getOriginalFilename());
+            }
+            if (file.getContentType() != null) {
+                attributes.put(ATTR_CONTENT_TYPE, file.getContentType());
+            }
 
-            // 2. Encrypt Data
-            String encryptedContent = encryptionService.encrypt(file.getBytes(), key);
+            metrics.uploaded(file.getSize());
+            if (chunkStore.enabled()) {
+                // Deduplicated: the content goes into the chunk store (chunks
+                // already stored by earlier uploads are reused) and the file
+                // blob is its manifest, encrypted under the new file key.
+                // Encrypt covers chunking and storing the new chunks.
+                stage = Stage.ENCRYPT;
+                started = System.nanoTime();
+                span = metrics.startSpan(stage, trace);
+                ChunkStore.Manifest manifest;
+                try (InputStream source = file.getInputStream()) {
+                    byte[] sample = source.readNBytes(compressionPolicy.sampleBytes());
+                    CompressionCodec codec = compressionPolicy.choose(file.getContentType(), file.getSize(), sample,
+                            sample.length);
+                    manifest = chunkStore.store(new SequenceInputStream(new ByteArrayInputStream(sample), source), codec);
+                }
+                byte[] encoded = manifest.encode();
+                ByteBuffer encrypted;
+                try {
+                    encrypted = encryptionService.encrypt(ByteBuffer.wrap(encoded), key);
+                } catch (Exception e) {
+                    chunkStore.release(manifest);
+                    throw e;
+                } finally {
+                    Arrays.fill(encoded, (byte) 0);
+                    manifest.wipe();
+                }
+                metrics.stop(stage, started, span);
+
+                stage = Stage.STORAGE_PUT;
+                started = System.nanoTime();
+                span = metrics.startSpan(stage, trace);
+                attributes.put(ATTR_LAYOUT, LAYOUT_CHUNKED);
+                // The references are recorded before the blob is stored (see
+                // ChunkStore.commit)
+                String manifestHash = CidBuilder.of(encrypted);
+                try {
+                    chunkStore.commit(manifestHash, manifest);
+                    fileHash = ipfsService.uploadFile(encrypted, attributes);
+                } catch (Exception e) {
+                    if (!chunkStore.release(manifestHash)) {
+                        chunkStore.release(manifest);
+                    }
+                    throw e;
+                }
+                metrics.stop(stage, started, span);
+            } else if (file.getSize() <= IN_MEMORY_UPLOAD_LIMIT) {
+                stage = Stage.ENCRYPT;
+                started = System.nanoTime();
+                span = metrics.startSpan(stage, trace);
+                byte[] content = file.getBytes();
+                CompressionCodec codec = compressionPolicy.choose(file.getContentType(), content.length, content,
+                        Math.min(content.length, compressionPolicy.sampleBytes()));
+                ByteBuffer encrypted = encryptionService.encrypt(ByteBuffer.wrap(content), key, codec);
+                metrics.stop(stage, started, span);
+
+                stage = Stage.STORAGE_PUT;
+                started = System.nanoTime();
+                span = metrics.startSpan(stage, trace);
+                fileHash = ipfsService.uploadFile(encrypted, attributes);
+                metrics.stop(stage, started, span);
+            } else {
+                // Large files are streamed segment by segment into a spool
+                // file, so memory use does not depend on the file size.
+                // Encrypt includes writing the spool; storage put is moving
+                // it into the blob store under its CID. The codec is chosen
+                // from the first bytes, which are then put back in front.
+                stage = Stage.ENCRYPT;
+                started = System.nanoTime();
+                span = metrics.startSpan(stage, trace);
+                IPFSService.Upload upload = ipfsService.createUpload();
+                InputStream source = file.getInputStream();
+                byte[] sample;
+                try {
+                    sample = source.readNBytes(compressionPolicy.sampleBytes());
+                } catch (IOException e) {
+                    source.close();
+                    upload.discard();
+                    throw e;
+                }
+                CompressionCodec codec = compressionPolicy.choose(file.getContentType(), file.getSize(), sample,
+                        sample.length);
+                try (InputStream in = new SequenceInputStream(new ByteArrayInputStream(sample), source);
+                        OutputStream out = upload) {
+                    encryptionService.encrypt(in, out, key, codec, file.getSize());
+                } catch (Exception e) {
+                    upload.discard();
+                    throw e;
+                }
+                metrics.stop(stage, started, span);
+
+                stage = Stage.STORAGE_PUT;
+                started = System.nanoTime();
+                span = metrics.startSpan(stage, trace);
+                fileHash = ipfsService.uploadFile(upload, attributes);
+                metrics.stop(stage, started, span);
+            }
+        } catch (Exception e) {
+            metrics.failed(stage);
+            e.printStackTrace();
+            return CompletableFuture.completedFuture(ResponseEntity.internalServerError().body("Error: " + e.getMessage()));
+        }
+
+        // 4. Store Key (Valid window)
+        // The hash is content-addressed, so a hash that is already known
+        // means byte-identical ciphertext (and therefore the same key):
+        // the earlier upload and its time-lock are kept.
+        CompletableFuture<Long> registered;
+        CompletableFuture<Void> keyStored;
+        try {
+            keyStored = keys.putIfAbsent(fileHash, key);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return CompletableFuture.completedFuture(ResponseEntity.internalServerError().body("Error: " + e.getMessage()));
+        }
+        if (keyStored == null) {
+            destroy(key); // Identical to the stored one and never used
+            registered = blockchainService.getExpiryAsync(fileHash);
+        } else {
+            // 5. Publish to the IPFS node (if enabled), then register on Blockchain
+            // The key is on disk before the file is registered: a registered
+            // file whose key was lost could never be read.
+            registered = keyStored
+                    .thenCompose(stored -> ipfsService.publishAsync(fileHash))
+                    .thenCompose(published -> registerTimed(fileHash, duration, trace));
+            registered.whenComplete((expiry, e) -> {
+                if (e != null) {
+                    // An unregistered blob would never expire, so it would never
+                    // be compacted away either.
+                    dropKey(fileHash, key);
+                    try {
+                        ipfsService.deleteFile(fileHash);
+                        chunkStore.release(fileHash);
+                    } catch (IOException deleteError) {
+                        System.err.println("Could not delete " + fileHash + ": " + deleteError.getMessage());
+                    }
+                } else {
+                    // Expiry is in chain seconds; the chain clock never runs
+                    // behind the wall clock, so this is never early.
+                    expiryScheduler.schedule(expiry * 1000, () -> {
+                        if (dropKey(fileHash, key)) {
+                            destroyedKeys.incrementAndGet();
+                        }
+                    });
+                }
+            });
+        }
+
+        if (!wait) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("fileHash", fileHash);
+            response.put("statusUrl", "/api/files/" + fileHash + "/status");
+            return audited(AuditLog.Type.UPLOAD, fileHash,
+                    CompletableFuture.completedFuture(ResponseEntity.accepted().body(response)));
+        }
 
-            // 3. Upload to IPFS (Mock) & Store in Memory
-            String fileHash = ipfsService.uploadFile(encryptedContent.getBytes());
+        // 6. Return response
+        return audited(AuditLog.Type.UPLOAD, fileHash, registered
+                .<ResponseEntity<?>>thenApply(expiry -> uploadResponse(fileHash, expiry * 1000))
+                .exceptionally(FileController::failure));
+    }
 
-            mockStorage.put(fileHash,
-                    new FileMetadata(encryptedContent, file.getOriginalFilename(), file.getContentType()));
+    // uploadFileAsync, timed from submission to the confirmed registration
+    // (so including the wait for a batch and for the transaction to be mined).
+    private CompletableFuture<Long> registerTimed(String fileHash, long duration, Span trace) {
+        long started = System.nanoTime();
+        Span span = metrics.startSpan(Stage.CHAIN_UPLOAD, trace);
+        return blockchainService.uploadFileAsync(fileHash, duration).whenComplete((expiry, e) -> {
+            if (e != null) {
+                metrics.failed(Stage.CHAIN_UPLOAD);
+            }
+            metrics.stop(Stage.CHAIN_UPLOAD, started, span);
+        });
+    }
 
-            // 4. Store Key temporarily (Valid window)
-            keyStore.put(fileHash, key);
+    // checkAccessAsync, timed as a cache hit when it answers at once (from
+    // the local expiry index or cache and the cached chain clock) and as a
+    // miss otherwise. Hits add no callback to the future.
+    private CompletableFuture<Boolean> checkAccessTimed(String fileHash, Span trace) {
+        long started = System.nanoTime();
+        CompletableFuture<Boolean> check = blockchainService.checkAccessAsync(fileHash);
+        if (check.isDone() && !check.isCompletedExceptionally()) {
+            metrics.stop(Stage.CHAIN_CHECK_HIT, started, metrics.startSpan(Stage.CHAIN_CHECK_HIT, trace));
+            return check;
+        }
+        Span span = metrics.startSpan(Stage.CHAIN_CHECK_MISS, trace);
+        return check.whenComplete((accessAllowed, e) -> {
+            if (e != null) {
+                metrics.failed(Stage.CHAIN_CHECK_MISS);
+            }
+            metrics.stop(Stage.CHAIN_CHECK_MISS, started, span);
+        });
+    }
 
-            // 5. Register on Blockchain
-            blockchainService.uploadFile(fileHash, duration);
+    // Removes the key from the vault and wipes it.
+    private boolean dropKey(String fileHash, SecretKey key) {
+        boolean removed = keys.delete(fileHash);
+        segmentCache.invalidate(fileHash);
+        destroy(key);
+        return removed;
+    }
 
-            // 6. Return response
-            java.util.Map<String, Object> response = new java.util.HashMap<>();
-            response.put("fileHash", fileHash);
-            response.put("expiry", new java.util.Date(System.currentTimeMillis() + duration * 1000).toString());
+    private static void destroy(SecretKey key) {
+        try {
+            key.destroy();
+        } catch (DestroyFailedException e) {
+            // Not a destroyable key type; dropping the reference is all we can do
+        }
+    }
 
-            return ResponseEntity.ok(response);
+    private static ResponseEntity<?> uploadResponse(String fileHash, long expiryMillis) {
+        java.util.Map<String, Object> response = new java.util.HashMap<>();
+        response.put("fileHash", fileHash);
+        response.put("expiry", new java.util.Date(expiryMillis).toString());
+        return ResponseEntity.ok(response);
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.internalServerError().body("Error: " + e.getMessage());
+    // Maps a failed async call to a response: a saturated pool is 503, a
+    // call that ran out of time is 504, anything else 500.
+    private static ResponseEntity<?> failure(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RejectedExecutionException) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Server busy, try again later");
         }
+        if (cause instanceof TimeoutException) {
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body("Timed out waiting for the blockchain or IPFS node");
+        }
+        cause.printStackTrace();
+        return ResponseEntity.internalServerError().body("Error: " + cause.getMessage());
     }
 
     @GetMapping("/access/{fileHash}")
-    public ResponseEntity<?> accessFile(@PathVariable String fileHash) {
+    public CompletableFuture<ResponseEntity<?>> accessFile(@PathVariable String fileHash,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range) {
         // 1. Check Blockchain Time-Lock
-        boolean accessAllowed = blockchainService.checkAccess(fileHash);
+        Span trace = metrics.currentSpan();
+        return audited(AuditLog.Type.ACCESS, fileHash, checkAccessTimed(fileHash, trace)
+                .<ResponseEntity<?>>thenApply(accessAllowed -> serveFile(fileHash, accessAllowed, range, trace))
+                .exceptionally(FileController::failure));
+    }
 
+    // Records the response's status once it completes. The client address is
+    // taken here, on the request thread, where the request is still bound.
+    private CompletableFuture<ResponseEntity<?>> audited(AuditLog.Type type, String fileHash,
+            CompletableFuture<ResponseEntity<?>> response) {
+        if (!auditLog.enabled()) {
+            return response;
+        }
+        String client = clientAddress();
+        return response.whenComplete((entity, e) ->
+                auditLog.record(type, fileHash, entity != null ? entity.getStatusCode().value() : 500, client));
+    }
+
+    // Remote address of the current request; empty outside one (tests, tools)
+    private static String clientAddress() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes instanceof ServletRequestAttributes servlet ? servlet.getRequest().getRemoteAddr() : "";
+    }
+
+    // Bulk validity check for dashboards: takes a JSON array of file hashes
+    // and returns fileHash, accessAllowed and expiryTimestamp (unix seconds,
+    // null if not registered) for each, in request order.
+    @PostMapping("/access/check")
+    public CompletableFuture<ResponseEntity<?>> checkAccess(@RequestBody List<String> fileHashes) {
+        if (fileHashes.size() > MAX_ACCESS_CHECK_HASHES) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                    .body("At most " + MAX_ACCESS_CHECK_HASHES + " file hashes per request"));
+        }
+        return blockchainService.checkAccessAsync(fileHashes)
+                .<ResponseEntity<?>>thenApply(ResponseEntity::ok)
+                .exceptionally(FileController::failure);
+    }
+
+    private ResponseEntity<?> serveFile(String fileHash, boolean accessAllowed, String range, Span trace) {
         if (!accessAllowed) {
             return ResponseEntity.status(403).body("Access Denied: Time-Lock Expired on Blockchain");
         }
 
         try {
-            if (!keyStore.containsKey(fileHash)) {
-                return ResponseEntity.status(404).body("File Key not found (Server Restarted?)");
+            SecretKey key = keys.get(fileHash);
+            if (key == null) {
+                return ResponseEntity.status(404).body("File Key not found");
             }
 
-            if (!mockStorage.containsKey(fileHash)) {
+            if (!ipfsService.hasFile(fileHash)) {
                 return ResponseEntity.status(404).body("File Content not found (Server Restarted?)");
             }
 
             // 2. Retrieve Data
-            FileMetadata metadata = mockStorage.get(fileHash);
-            SecretKey key = keyStore.get(fileHash);
-
-            // 3. Decrypt
-            byte[] decryptedBytes = encryptionService.decrypt(metadata.encryptedContent, key);
+            Map<String, String> attributes = ipfsService.fileAttributes(fileHash);
+            if (attributes == null) {
+                // Removed by expiry compaction after the check above
+                return ResponseEntity.status(404).body("File Content not found (Server Restarted?)");
+            }
 
+            // 3. Decrypt (lazily, one segment at a time while the response is written)
             // 4. Return the ACTUAL file
-            return ResponseEntity.ok()
-                    .header("Content-Disposition", "attachment; filename=\"" + metadata.originalFilename + "\"")
-                    .header("Content-Type", metadata.contentType)
-                    .body(decryptedBytes);
+            return streamFile(fileHash, key, attributes, "attachment", range, trace);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -139,73 +460,317 @@ public class FileController {
     }
 
     @PostMapping("/files/{fileHash}/view-token")
-    public ResponseEntity<?> createViewToken(@PathVariable String fileHash) {
-        boolean accessAllowed = blockchainService.checkAccess(fileHash);
+    public CompletableFuture<ResponseEntity<?>> createViewToken(@PathVariable String fileHash) {
+        return audited(AuditLog.Type.VIEW_TOKEN, fileHash, checkAccessTimed(fileHash, metrics.currentSpan())
+                .<ResponseEntity<?>>thenApply(accessAllowed -> issueViewToken(fileHash, accessAllowed))
+                .exceptionally(FileController::failure));
+    }
 
+    private ResponseEntity<?> issueViewToken(String fileHash, boolean accessAllowed) {
         if (!accessAllowed) {
             return ResponseEntity.status(403).body("Access Denied: Time-Lock Expired on Blockchain");
         }
 
-        if (!keyStore.containsKey(fileHash)) {
-            return ResponseEntity.status(404).body("File Key not found (Server Restarted?)");
+        if (!keys.contains(fileHash)) {
+            return ResponseEntity.status(404).body("File Key not found");
         }
 
-        if (!mockStorage.containsKey(fileHash)) {
+        if (!ipfsService.hasFile(fileHash)) {
             return ResponseEntity.status(404).body("File Content not found (Server Restarted?)");
         }
 
-        String token = UUID.randomUUID().toString();
-        long expiresAt = System.currentTimeMillis() + VIEW_TOKEN_TTL_MS;
-        viewTokens.put(token, new ViewToken(fileHash, expiresAt));
+        ViewTokenStore.ViewToken viewToken = viewTokens.issue(fileHash);
 
         Map<String, Object> response = new HashMap<>();
-        response.put("token", token);
-        response.put("expiresAt", new Date(expiresAt).toString());
+        response.put("token", viewToken.getToken());
+        response.put("expiresAt", new Date(viewToken.getExpiresAt()).toString());
 
         return ResponseEntity.ok(response);
     }
 
     @GetMapping("/files/{fileHash}/view")
-    public ResponseEntity<?> viewFile(@PathVariable String fileHash, @RequestParam("token") String token) {
-        ViewToken viewToken = viewTokens.get(token);
+    public CompletableFuture<ResponseEntity<?>> viewFile(@PathVariable String fileHash,
+            @RequestParam("token") String token,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range) {
+        return audited(AuditLog.Type.VIEW, fileHash, view(fileHash, token, range));
+    }
+
+    private CompletableFuture<ResponseEntity<?>> view(String fileHash, String token, String range) {
+        ViewTokenStore.ViewToken viewToken = viewTokens.get(token);
 
-        if (viewToken == null || viewToken.isExpired()) {
-            viewTokens.remove(token);
-            return ResponseEntity.status(403).body("View token expired or invalid");
+        if (viewToken == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(403).body("View token expired or invalid"));
         }
 
-        if (!viewToken.fileHash.equals(fileHash)) {
-            return ResponseEntity.status(403).body("View token does not match requested file");
+        if (!viewToken.getFileHash().equals(fileHash)) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(403).body("View token does not match requested file"));
         }
 
-        boolean accessAllowed = blockchainService.checkAccess(fileHash);
+        Span trace = metrics.currentSpan();
+        return checkAccessTimed(fileHash, trace)
+                .<ResponseEntity<?>>thenApply(accessAllowed -> serveView(fileHash, token, accessAllowed, range, trace))
+                .exceptionally(FileController::failure);
+    }
+
+    private ResponseEntity<?> serveView(String fileHash, String token, boolean accessAllowed, String range,
+            Span trace) {
         if (!accessAllowed) {
             return ResponseEntity.status(403).body("Access Denied: Time-Lock Expired on Blockchain");
         }
 
         try {
-            if (!keyStore.containsKey(fileHash)) {
-                return ResponseEntity.status(404).body("File Key not found (Server Restarted?)");
+            SecretKey key = keys.get(fileHash);
+            if (key == null) {
+                return ResponseEntity.status(404).body("File Key not found");
             }
 
-            if (!mockStorage.containsKey(fileHash)) {
+            if (!ipfsService.hasFile(fileHash)) {
                 return ResponseEntity.status(404).body("File Content not found (Server Restarted?)");
             }
 
-            FileMetadata metadata = mockStorage.get(fileHash);
-            SecretKey key = keyStore.get(fileHash);
-            byte[] decryptedBytes = encryptionService.decrypt(metadata.encryptedContent, key);
-
-            viewTokens.remove(token);
+            Map<String, String> attributes = ipfsService.fileAttributes(fileHash);
+            if (attributes == null) {
+                // Removed by expiry compaction after the check above
+                return ResponseEntity.status(404).body("File Content not found (Server Restarted?)");
+            }
 
-            return ResponseEntity.ok()
-                    .header("Content-Disposition", "inline; filename=\"" + metadata.originalFilename + "\"")
-                    .header("Content-Type", metadata.contentType)
-                    .body(decryptedBytes);
+            // Sending the file up to its last byte uses up the token: a 200
+            // (no Range, or one that was malformed or asked for several
+            // ranges) or a 206 that runs to the end, such as bytes=0-. Other
+            // ranges (a viewer seeking through the file) may reuse it until
+            // it expires.
+            ResponseEntity<?> response = streamFile(fileHash, key, attributes, "inline", range, trace);
+            if (readsToEnd(response)) {
+                viewTokens.remove(token);
+            }
+            return response;
 
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError().body("Error: " + e.getMessage());
         }
     }
+
+    // Whether a streamFile response carries the file up to its last byte,
+    // from its status and Content-Range ("bytes start-end/length").
+    private static boolean readsToEnd(ResponseEntity<?> response) {
+        if (response.getStatusCode() == HttpStatus.OK) {
+            return true;
+        }
+        String contentRange = response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE);
+        if (response.getStatusCode() != HttpStatus.PARTIAL_CONTENT || contentRange == null) {
+            return false;
+        }
+        int dash = contentRange.indexOf('-');
+        int slash = contentRange.indexOf('/');
+        long end = Long.parseLong(contentRange.substring(dash + 1, slash));
+        long length = Long.parseLong(contentRange.substring(slash + 1));
+        return end == length - 1;
+    }
+
+    // Live entries and evictions of the view-token and key maps.
+    @GetMapping("/stats/expiry")
+    public ResponseEntity<?> expiryStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("liveViewTokens", viewTokens.liveCount());
+        stats.put("evictedViewTokens", viewTokens.evictedCount());
+        stats.put("liveKeys", keyVault.size());
+        stats.put("destroyedKeys", destroyedKeys.get());
+        stats.put("scheduledExpiries", expiryScheduler.pendingCount());
+        return ResponseEntity.ok(stats);
+    }
+
+    // Decrypted-segment cache: hits, decryptions, and readers that waited on
+    // another reader's decryption instead of doing their own.
+    @GetMapping("/stats/segments")
+    public ResponseEntity<?> segmentStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("cachedSegments", segmentCache.size());
+        stats.put("cachedBytes", segmentCache.bytes());
+        stats.put("hits", segmentCache.hits());
+        stats.put("loads", segmentCache.loads());
+        stats.put("coalesced", segmentCache.coalesced());
+        stats.put("evictions", segmentCache.evictions());
+        return ResponseEntity.ok(stats);
+    }
+
+    // Chunk store: distinct chunks, content bytes of live files against the
+    // bytes actually stored, and how many chunks uploads found already stored.
+    @GetMapping("/stats/dedup")
+    public ResponseEntity<?> dedupStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", chunkStore.enabled());
+        stats.put("chunks", chunkStore.chunkCount());
+        stats.put("logicalBytes", chunkStore.logicalBytes());
+        stats.put("storedBytes", chunkStore.storedBytes());
+        stats.put("newChunks", chunkStore.newChunks());
+        stats.put("reusedChunks", chunkStore.reusedChunks());
+        return ResponseEntity.ok(stats);
+    }
+
+    // Audit trail: events for one file (or, without fileHash, every file)
+    // with from <= time <= to (epoch ms), oldest first.
+    @GetMapping("/audit")
+    public ResponseEntity<?> auditEvents(@RequestParam(value = "fileHash", required = false) String fileHash,
+            @RequestParam(value = "from", defaultValue = "0") long from,
+            @RequestParam(value = "to", required = false) Long to,
+            @RequestParam(value = "limit", defaultValue = "1000") int limit) {
+        if (!auditLog.enabled()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Audit log disabled");
+        }
+        if (limit < 1 || limit > MAX_AUDIT_EVENTS) {
+            return ResponseEntity.badRequest().body("limit must be between 1 and " + MAX_AUDIT_EVENTS);
+        }
+        return ResponseEntity.ok(auditLog.query(fileHash, from, to != null ? to : Long.MAX_VALUE, limit));
+    }
+
+    // Audit log: events recorded, written and dropped (buffer full), group
+    // commits, and segments kept and deleted by retention.
+    @GetMapping("/stats/audit")
+    public ResponseEntity<?> auditStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", auditLog.enabled());
+        stats.put("recorded", auditLog.recordedCount());
+        stats.put("written", auditLog.writtenCount());
+        stats.put("dropped", auditLog.droppedCount());
+        stats.put("batches", auditLog.batchCount());
+        stats.put("segments", auditLog.segmentCount());
+        stats.put("deletedSegments", auditLog.deletedSegmentCount());
+        return ResponseEntity.ok(stats);
+    }
+
+    // Key vault: stored keys, the unwrapped-key cache and group commits.
+    @GetMapping("/stats/keys")
+    public ResponseEntity<?> keyStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("storedKeys", keyVault.size());
+        stats.put("cachedKeys", keyVault.cachedCount());
+        stats.put("cacheHits", keyVault.cacheHits());
+        stats.put("unwraps", keyVault.unwraps());
+        stats.put("recordsWritten", keyVault.recordsWritten());
+        stats.put("syncs", keyVault.syncs());
+        return ResponseEntity.ok(stats);
+    }
+
+    // Streams the plaintext, or the single byte range asked for, while it is
+    // decrypted. Only the segments covering the range are read. Segments are
+    // authenticated before any of their plaintext is released, so a tampered
+    // blob aborts the response instead of serving forged bytes.
+    //
+    // The body is a plain InputStreamResource: Spring copies it to the
+    // response as it is read and, unlike other Resource types, leaves Range
+    // handling to us.
+    //
+    // The body is timed as storage get, decrypt and response write (see
+    // PipelineMetrics.Download); the stages are recorded when Spring closes
+    // it.
+    private ResponseEntity<?> streamFile(String fileHash, SecretKey key, Map<String, String> attributes,
+            String disposition, String range, Span trace) throws IOException {
+        long ciphertextLength = ipfsService.fileSize(fileHash);
+        if (ciphertextLength < 0) {
+            return ResponseEntity.status(404).body("File Content not found (Server Restarted?)");
+        }
+        // A deduplicated upload's blob is its chunk manifest (a few dozen
+        // bytes per chunk); the content is read from the chunk store.
+        ChunkStore.Manifest manifest = null;
+        if (LAYOUT_CHUNKED.equals(attributes.get(ATTR_LAYOUT))) {
+            try (InputStream in = ipfsService.openFile(fileHash)) {
+                ByteBuffer encoded = encryptionService.decrypt(ByteBuffer.wrap(in.readAllBytes()), key);
+                manifest = ChunkStore.Manifest.decode(encoded);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Chunk manifest of " + fileHash + " could not be decrypted", e);
+            }
+        }
+        // Concurrent downloads of a file share its decrypted segments. The
+        // expiry was resolved by the access check that led here; the cache
+        // re-checks it for every segment it hands out.
+        Long expiry = blockchainService.cachedExpiry(fileHash);
+        EncryptionService.SegmentSource segments = expiry != null && manifest == null
+                ? segmentCache.forFile(fileHash, ciphertextLength, expiry)
+                : null;
+        EncryptionService.CiphertextSource source = (pos, cnt) -> ipfsService.openFile(fileHash, pos, cnt);
+        long length = manifest != null ? manifest.contentLength()
+                : encryptionService.contentLength(source, ciphertextLength, key, segments);
+
+        long start = 0;
+        long end = length - 1;
+        boolean partial = false;
+        if (range != null) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException e) {
+                ranges = List.of(); // Malformed: ignore it and send everything
+            }
+            // Multiple ranges would need a multipart/byteranges body; viewers
+            // only ask for one, so anything else gets the whole file.
+            if (ranges.size() == 1) {
+                try {
+                    start = ranges.get(0).getRangeStart(length);
+                    end = ranges.get(0).getRangeEnd(length);
+                    if (start > end) {
+                        throw new IllegalArgumentException("Range starts past the end of the file");
+                    }
+                    partial = true;
+                } catch (IllegalArgumentException e) {
+                    return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                            .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                            .build();
+                }
+            }
+        }
+
+        long count = end - start + 1;
+        PipelineMetrics.Download download = metrics.startDownload(trace);
+        InputStream body;
+        try {
+            body = download.body(manifest != null
+                    ? chunkStore.open(manifest, start, count, download::storage)
+                    : encryptionService.decryptingStream((pos, cnt) -> {
+                        long opened = System.nanoTime();
+                        return download.storage(ipfsService.openFile(fileHash, pos, cnt), opened);
+                    }, ciphertextLength, start, count, key, segments));
+        } catch (IOException | RuntimeException e) {
+            metrics.failed(Stage.DECRYPT);
+            download.abandon();
+            throw e;
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(partial ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+                .header("Content-Disposition", disposition + "; filename=\"" + attributes.getOrDefault(ATTR_FILENAME, fileHash) + "\"")
+                .header("Content-Type", attributes.getOrDefault(ATTR_CONTENT_TYPE, DEFAULT_CONTENT_TYPE))
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .contentLength(count);
+        if (partial) {
+            response.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+        return response.body(new InputStreamResource(body));
+    }
+
+    // Registration progress: QUEUED, SUBMITTED (with the transaction hash),
+    // CONFIRMED (with the expiry) or FAILED (with the reason).
+    @GetMapping("/files/{fileHash}/status")
+    public CompletableFuture<ResponseEntity<?>> registrationStatus(@PathVariable String fileHash) {
+        return blockchainService.registrationStatusAsync(fileHash)
+                .<ResponseEntity<?>>thenApply(status -> status != null
+                        ? ResponseEntity.ok(status)
+                        : ResponseEntity.status(404).body("File not registered: " + fileHash))
+                .exceptionally(FileController::failure);
+    }
+
+    // Listing endpoints, served from the event-driven expiry index.
+    @GetMapping("/files/expiring")
+    public CompletableFuture<ResponseEntity<?>> listExpiringFiles(@RequestParam(value = "withinSeconds", defaultValue = "3600") long withinSeconds) {
+        return blockchainService.filesExpiringWithinAsync(withinSeconds)
+                .<ResponseEntity<?>>thenApply(ResponseEntity::ok)
+                .exceptionally(FileController::failure);
+    }
+
+    @GetMapping("/files/owner/{owner}")
+    public ResponseEntity<?> listFilesByOwner(@PathVariable String owner) {
+        return ResponseEntity.ok(blockchainService.filesByOwner(owner));
+    }
 }
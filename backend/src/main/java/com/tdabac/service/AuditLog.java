@@ -0,0 +1,668 @@
+package com.tdabac.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+// Who accessed which file and when: an append-only log of upload, access,
+// view-token and view events, which the README's threat model counts on.
+//
+// Recording must not slow the request path down, so record() only hands
+// the event to a bounded lock-free ring buffer (multi-producer, single
+// consumer) and returns. When the buffer is full the event is dropped and
+// counted rather than blocking the request. One writer thread drains the
+// buffer and group commits: everything taken in one drain is encoded into
+// the active segment and made durable with one force().
+//
+// Segments are memory-mapped files of segment-bytes (audit-<n>.log):
+//
+//   header: magic "TDAL" | version (1) | reserved (3)
+//   record: length (2) | time ms (8) | file expiry s (8) | type (1)
+//           | status (2) | hash length (1) | hash | client length (1)
+//           | client | CRC32 (4)
+//
+// A zero length marks the end of the written part. Times never go
+// backwards within the log: an event stamped before the last written one
+// (it waited in the buffer behind a later one) takes that record's time.
+//
+// Each segment keeps, in memory, its time span, a sparse time index (every
+// INDEX_INTERVAL records) and a Bloom filter of the file hashes in it.
+// Time-range queries skip segments outside the range and start scanning at
+// the indexed record before 'from'; per-file queries also skip segments
+// whose filter rules the file out. The index is rebuilt by scanning the
+// segments at startup, which also cuts a torn last record off.
+//
+// Retention follows the files' on-chain expiry: each record carries the
+// expiry of its file (when known), and a sealed segment is deleted once
+// every file in it expired more than retention-after-expiry-ms ago by the
+// chain clock. Events of files whose expiry was unknown keep their segment.
+@Service
+public class AuditLog {
+
+    public enum Type {
+        UPLOAD, ACCESS, VIEW_TOKEN, VIEW
+    }
+
+    // One recorded event. 'expiry' is the file's on-chain expiry in unix
+    // seconds, or 0 if it was not known.
+    public static final class Event {
+        private final long time;
+        private final Type type;
+        private final int status;
+        private final String fileHash;
+        private final String client;
+        private final long expiry;
+
+        Event(long time, Type type, int status, String fileHash, String client, long expiry) {
+            this.time = time;
+            this.type = type;
+            this.status = status;
+            this.fileHash = fileHash;
+            this.client = client;
+            this.expiry = expiry;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getFileHash() {
+            return fileHash;
+        }
+
+        public String getClient() {
+            return client;
+        }
+
+        public long getExpiry() {
+            return expiry;
+        }
+    }
+
+    private static final byte[] MAGIC = { 'T', 'D', 'A', 'L' };
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int FIXED_RECORD_LENGTH = 2 + 8 + 8 + 1 + 2 + 1 + 1 + 4;
+    private static final int MAX_FIELD_LENGTH = 255;
+    private static final int INDEX_INTERVAL = 64;
+    private static final int BLOOM_BITS = 1 << 16;
+    private static final String SEGMENT_PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final Type[] TYPES = Type.values();
+
+    private final boolean enabled;
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxBatch;
+    private final boolean fsync;
+    private final long retentionAfterExpiryMs;
+    private final long retentionCheckMs;
+    // File hash -> on-chain expiry (unix seconds), or null if not known
+    private final Function<String, Long> expiryLookup;
+    // Chain time in unix seconds
+    private final LongSupplier chainClock;
+
+    // Ring buffer: slot i is free for the producer claiming position p when
+    // sequences[i] == p, and holds an event for the consumer at position p
+    // when sequences[i] == p + 1.
+    private final Event[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // writer thread only
+
+    // Oldest first; the last one is the active segment
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private long lastTime; // writer thread only
+
+    private final Thread writer;
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong deletedSegments = new AtomicLong();
+
+    @Autowired
+    public AuditLog(@Value("${tdabac.audit.enabled:true}") boolean enabled,
+            @Value("${tdabac.data-dir:data}") String dataDir,
+            @Value("${tdabac.audit.buffer-size:65536}") int bufferSize,
+            @Value("${tdabac.audit.segment-bytes:67108864}") int segmentBytes,
+            @Value("${tdabac.audit.max-batch:4096}") int maxBatch,
+            @Value("${tdabac.audit.fsync:true}") boolean fsync,
+            @Value("${tdabac.audit.retention-after-expiry-ms:2592000000}") long retentionAfterExpiryMs,
+            @Value("${tdabac.audit.retention-check-ms:60000}") long retentionCheckMs,
+            BlockchainService blockchainService) throws IOException {
+        this(enabled, Paths.get(dataDir, "audit"), bufferSize, segmentBytes, maxBatch, fsync, retentionAfterExpiryMs,
+                retentionCheckMs, blockchainService::cachedExpiry, blockchainService::chainTimeEstimate);
+    }
+
+    public AuditLog(boolean enabled, Path dir, int bufferSize, int segmentBytes, int maxBatch, boolean fsync,
+            long retentionAfterExpiryMs, long retentionCheckMs, Function<String, Long> expiryLookup,
+            LongSupplier chainClock) throws IOException {
+        if (Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("Audit buffer size must be a power of two: " + bufferSize);
+        }
+        if (segmentBytes < 4096) {
+            throw new IllegalArgumentException("Audit segments must be at least 4096 bytes: " + segmentBytes);
+        }
+        this.enabled = enabled;
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.fsync = fsync;
+        this.retentionAfterExpiryMs = retentionAfterExpiryMs;
+        this.retentionCheckMs = retentionCheckMs;
+        this.expiryLookup = expiryLookup;
+        this.chainClock = chainClock;
+        this.slots = new Event[enabled ? bufferSize : 1];
+        this.sequences = new AtomicLongArray(slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = slots.length - 1;
+
+        if (!enabled) {
+            this.writer = null;
+            return;
+        }
+        Files.createDirectories(dir);
+        recover();
+        this.writer = new Thread(this::writeLoop, "audit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    // Hands the event to the writer; never blocks. False if the log is off
+    // or the buffer was full (the event is dropped and counted).
+    public boolean record(Type type, String fileHash, int status, String client) {
+        return record(System.currentTimeMillis(), type, fileHash, status, client);
+    }
+
+    public boolean record(long time, Type type, String fileHash, int status, String client) {
+        if (!enabled || closed) {
+            return false;
+        }
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = new Event(time, type, status, fileHash == null ? "" : fileHash,
+                            client == null ? "" : client, 0);
+                    sequences.lazySet(index, position + 1);
+                    break;
+                }
+                position = tail.get();
+            } else if (sequence < position) {
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        recorded.incrementAndGet();
+        if (sleeping) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    // Waits until everything recorded so far is written (and forced, with
+    // fsync), or the timeout passes. False on timeout.
+    public boolean flush(long timeoutMs) {
+        long target = recorded.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (written.get() < target) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000);
+        }
+        return true;
+    }
+
+    // Events with from <= time <= to (ms), oldest first, for one file or
+    // (with a null fileHash) for all, at most 'limit' of them.
+    public List<Event> query(String fileHash, long from, long to, int limit) {
+        List<Event> events = new ArrayList<>();
+        if (!enabled) {
+            return events;
+        }
+        for (Segment segment : segments) {
+            if (events.size() >= limit) {
+                break;
+            }
+            segment.query(fileHash, from, to, limit, events);
+        }
+        return events;
+    }
+
+    // Deletes sealed segments whose files all expired more than
+    // retention-after-expiry-ms ago. Runs on the writer every
+    // retention-check-ms; public for tests and tools.
+    public synchronized int enforceRetention() {
+        if (!enabled) {
+            return 0;
+        }
+        long cutoff = chainClock.getAsLong() * 1000 - retentionAfterExpiryMs;
+        int deleted = 0;
+        List<Segment> snapshot = new ArrayList<>(segments);
+        // Never the active (last) segment
+        for (Segment segment : snapshot.subList(0, snapshot.size() - 1)) {
+            if (segment.maxExpiry == Long.MAX_VALUE || segment.maxExpiry * 1000 > cutoff) {
+                continue;
+            }
+            segments.remove(segment);
+            try {
+                segment.channel.close();
+                Files.deleteIfExists(segment.file);
+                deleted++;
+            } catch (IOException e) {
+                System.err.println("Could not delete audit segment " + segment.file + ": " + e.getMessage());
+            }
+        }
+        deletedSegments.addAndGet(deleted);
+        return deleted;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (!enabled || closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Segment segment : segments) {
+            segment.channel.close();
+        }
+    }
+
+    public long recordedCount() {
+        return recorded.get();
+    }
+
+    public long writtenCount() {
+        return written.get();
+    }
+
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    public long batchCount() {
+        return batches.get();
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    public long deletedSegmentCount() {
+        return deletedSegments.get();
+    }
+
+    // --- writer thread ---
+
+    private void writeLoop() {
+        Event[] batch = new Event[maxBatch];
+        long nextRetention = System.currentTimeMillis() + retentionCheckMs;
+        while (true) {
+            int count = drain(batch);
+            if (count > 0) {
+                try {
+                    append(batch, count);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Audit log write failed, " + count + " events lost: " + e.getMessage());
+                }
+                Arrays.fill(batch, 0, count, null);
+                written.addAndGet(count);
+                batches.incrementAndGet();
+                continue;
+            }
+            if (closed) {
+                return;
+            }
+            if (retentionCheckMs > 0 && System.currentTimeMillis() >= nextRetention) {
+                enforceRetention();
+                nextRetention = System.currentTimeMillis() + retentionCheckMs;
+            }
+            // Producers unpark us when they see this flag; re-check after
+            // setting it so an event offered just before is not left waiting
+            sleeping = true;
+            if (!hasNext()) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            sleeping = false;
+        }
+    }
+
+    private boolean hasNext() {
+        return sequences.get((int) (head & mask)) == head + 1;
+    }
+
+    private int drain(Event[] batch) {
+        int count = 0;
+        while (count < batch.length) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            batch[count++] = slots[index];
+            slots[index] = null;
+            sequences.lazySet(index, head + slots.length);
+            head++;
+        }
+        return count;
+    }
+
+    private void append(Event[] batch, int count) throws IOException {
+        Segment segment = segments.get(segments.size() - 1);
+        int start = segment.size;
+        for (int i = 0; i < count; i++) {
+            Event event = batch[i];
+            byte[] hash = field(event.fileHash);
+            byte[] client = field(event.client);
+            int length = FIXED_RECORD_LENGTH + hash.length + client.length;
+            if (segment.size + length + 2 > segmentBytes) {
+                segment.commit(start, fsync);
+                segment = newSegment(segment.id + 1);
+                start = segment.size;
+            }
+            lastTime = Math.max(lastTime, event.time);
+            Long expiry = expiryLookup.apply(event.fileHash);
+            segment.append(lastTime, expiry == null ? 0 : expiry, event.type, event.status, hash, client, length);
+        }
+        segment.commit(start, fsync);
+    }
+
+    // Opens the segments found on disk (indexing them) and starts a new
+    // active one after the last.
+    private void recover() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        ids.sort(null);
+        long events = 0;
+        for (long id : ids) {
+            Segment segment = Segment.open(segmentFile(id), id);
+            if (segment == null) {
+                continue;
+            }
+            segments.add(segment);
+            events += segment.records;
+            lastTime = Math.max(lastTime, segment.lastTime);
+        }
+        newSegment(ids.isEmpty() ? 0 : ids.get(ids.size() - 1) + 1);
+        System.out.println("Audit log indexed " + events + " events in " + (segments.size() - 1) + " segments");
+    }
+
+    private Segment newSegment(long id) throws IOException {
+        Segment segment = Segment.create(segmentFile(id), id, segmentBytes);
+        segments.add(segment);
+        return segment;
+    }
+
+    private Path segmentFile(long id) {
+        return dir.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    // Fields are stored with a one-byte length. Hashes and addresses are far
+    // shorter; anything longer came from a malformed request.
+    private static byte[] field(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return bytes.length > MAX_FIELD_LENGTH ? Arrays.copyOf(bytes, MAX_FIELD_LENGTH) : bytes;
+    }
+
+    private static final class Segment {
+
+        final Path file;
+        final long id;
+        final FileChannel channel;
+        final MappedByteBuffer map;
+
+        // Written by the writer thread; published to readers by 'committed'
+        int size;
+        long records;
+        long firstTime = Long.MAX_VALUE;
+        long lastTime = Long.MIN_VALUE;
+        // Latest file expiry in the segment (unix seconds), MAX_VALUE if any
+        // record's file expiry was unknown
+        long maxExpiry;
+        long[] indexTimes = new long[64];
+        int[] indexOffsets = new int[64];
+        int indexCount;
+        int committedIndexCount;
+        final long[] bloom = new long[BLOOM_BITS / 64];
+        volatile int committed;
+
+        private Segment(Path file, long id, FileChannel channel, MappedByteBuffer map) {
+            this.file = file;
+            this.id = id;
+            this.channel = channel;
+            this.map = map;
+        }
+
+        static Segment create(Path file, long id, int segmentBytes) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            map.put(0, MAGIC).put(MAGIC.length, VERSION);
+            map.force(0, HEADER_LENGTH);
+            Segment segment = new Segment(file, id, channel, map);
+            segment.size = HEADER_LENGTH;
+            segment.committed = HEADER_LENGTH;
+            return segment;
+        }
+
+        // Indexes a segment written before a restart, up to its last intact
+        // record. Null if it is not an audit segment.
+        static Segment open(Path file, long id) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long length = channel.size();
+            if (length < HEADER_LENGTH || length > Integer.MAX_VALUE) {
+                channel.close();
+                return null;
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            byte[] magic = new byte[MAGIC.length];
+            map.get(0, magic);
+            if (!Arrays.equals(magic, MAGIC) || map.get(MAGIC.length) != VERSION) {
+                channel.close();
+                System.err.println("Skipping " + file + ": not an audit segment");
+                return null;
+            }
+            Segment segment = new Segment(file, id, channel, map);
+            int position = HEADER_LENGTH;
+            while (position + 2 <= length) {
+                int recordLength = Short.toUnsignedInt(map.getShort(position));
+                if (recordLength < FIXED_RECORD_LENGTH || position + recordLength > length
+                        || !segment.intact(position, recordLength)) {
+                    break;
+                }
+                int hashLength = Byte.toUnsignedInt(map.get(position + 21));
+                byte[] hash = new byte[hashLength];
+                map.get(position + 22, hash);
+                segment.indexRecord(position, map.getLong(position + 2), map.getLong(position + 10), hash);
+                position += recordLength;
+            }
+            if (position + 2 <= length && map.getShort(position) != 0) {
+                // Torn record from a crash mid-write: cut it off
+                map.putShort(position, (short) 0);
+                map.force(position, 2);
+                System.err.println("Audit segment " + file + " truncated at " + position);
+            }
+            segment.size = position;
+            segment.committedIndexCount = segment.indexCount;
+            segment.committed = position;
+            return segment;
+        }
+
+        void append(long time, long expiry, Type type, int status, byte[] hash, byte[] client, int length) {
+            int position = size;
+            map.putShort(position, (short) length);
+            map.putLong(position + 2, time);
+            map.putLong(position + 10, expiry);
+            map.put(position + 18, (byte) type.ordinal());
+            map.putShort(position + 19, (short) status);
+            map.put(position + 21, (byte) hash.length);
+            map.put(position + 22, hash);
+            map.put(position + 22 + hash.length, (byte) client.length);
+            map.put(position + 23 + hash.length, client);
+            CRC32 crc = new CRC32();
+            crc.update(map.slice(position, length - 4));
+            map.putInt(position + length - 4, (int) crc.getValue());
+            size = position + length;
+            indexRecord(position, time, expiry, hash);
+        }
+
+        // Makes [from, size) durable and visible to queries.
+        void commit(int from, boolean fsync) {
+            if (fsync && size > from) {
+                map.force(from, size - from);
+            }
+            committedIndexCount = indexCount;
+            committed = size;
+        }
+
+        private void indexRecord(int position, long time, long expiry, byte[] hash) {
+            if (records % INDEX_INTERVAL == 0) {
+                if (indexCount == indexTimes.length) {
+                    indexTimes = Arrays.copyOf(indexTimes, indexCount * 2);
+                    indexOffsets = Arrays.copyOf(indexOffsets, indexCount * 2);
+                }
+                indexTimes[indexCount] = time;
+                indexOffsets[indexCount] = position;
+                indexCount++;
+            }
+            records++;
+            firstTime = Math.min(firstTime, time);
+            lastTime = Math.max(lastTime, time);
+            maxExpiry = expiry == 0 ? Long.MAX_VALUE : Math.max(maxExpiry, expiry);
+            int h = Arrays.hashCode(hash);
+            bloom[(h & (BLOOM_BITS - 1)) >>> 6] |= 1L << h;
+            int h2 = Integer.rotateLeft(h * 0x9E3779B9, 16);
+            bloom[(h2 & (BLOOM_BITS - 1)) >>> 6] |= 1L << h2;
+        }
+
+        private boolean mightContain(byte[] hash) {
+            int h = Arrays.hashCode(hash);
+            int h2 = Integer.rotateLeft(h * 0x9E3779B9, 16);
+            return (bloom[(h & (BLOOM_BITS - 1)) >>> 6] & (1L << h)) != 0
+                    && (bloom[(h2 & (BLOOM_BITS - 1)) >>> 6] & (1L << h2)) != 0;
+        }
+
+        private boolean intact(int position, int length) {
+            CRC32 crc = new CRC32();
+            crc.update(map.slice(position, length - 4));
+            return map.getInt(position + length - 4) == (int) crc.getValue();
+        }
+
+        void query(String fileHash, long from, long to, int limit, List<Event> out) {
+            int end = committed; // read first: publishes everything below it
+            if (end == HEADER_LENGTH || lastTime < from || firstTime > to) {
+                return;
+            }
+            byte[] wanted = fileHash == null ? null : fileHash.getBytes(StandardCharsets.UTF_8);
+            if (wanted != null && !mightContain(wanted)) {
+                return;
+            }
+            // Last indexed record before 'from'. The arrays may have grown
+            // since 'committed' was read, never shrunk.
+            long[] times = indexTimes;
+            int[] offsets = indexOffsets;
+            int count = Math.min(committedIndexCount, times.length);
+            int found = Arrays.binarySearch(times, 0, count, from);
+            int entry = found >= 0 ? found : Math.max(0, -found - 2);
+            // Equal times may start earlier than the one the search hit
+            while (entry > 0 && times[entry] >= from) {
+                entry--;
+            }
+            ByteBuffer view = map.duplicate();
+            int position = offsets[entry];
+            while (position < end && out.size() < limit) {
+                int length = Short.toUnsignedInt(view.getShort(position));
+                long time = view.getLong(position + 2);
+                if (time > to) {
+                    return;
+                }
+                int hashLength = Byte.toUnsignedInt(view.get(position + 21));
+                if (time >= from && (wanted == null || matches(view, position + 22, wanted))) {
+                    byte[] hash = new byte[hashLength];
+                    view.get(position + 22, hash);
+                    int clientLength = Byte.toUnsignedInt(view.get(position + 22 + hashLength));
+                    byte[] client = new byte[clientLength];
+                    view.get(position + 23 + hashLength, client);
+                    out.add(new Event(time, TYPES[view.get(position + 18)], Short.toUnsignedInt(view.getShort(position + 19)),
+                            new String(hash, StandardCharsets.UTF_8), new String(client, StandardCharsets.UTF_8),
+                            view.getLong(position + 10)));
+                }
+                position += length;
+            }
+        }
+
+        private static boolean matches(ByteBuffer view, int position, byte[] wanted) {
+            if (Byte.toUnsignedInt(view.get(position - 1)) != wanted.length) {
+                return false;
+            }
+            for (int i = 0; i < wanted.length; i++) {
+                if (view.get(position + i) != wanted[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.tdabac.service;
+
+import com.tdabac.storage.BlobStore;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Deletes blobs whose on-chain time-lock has expired, together with their
+// keys, and then compacts the blob store and the key vault, so expired
+// ciphertext does not keep occupying disk. Access is already denied by the
+// contract at that point; this only reclaims space. It also catches keys
+// whose expiry passed while the server was down, which the in-process
+// expiry timer never saw. Chunks of an expired deduplicated file are
+// released with it, and deleted once no live file shares them.
+@Service
+public class BlobCompactionService {
+
+    private final BlobStore blobStore;
+    private final BlockchainService blockchainService;
+    private final KeyVault keyVault;
+    private final ChunkStore chunkStore;
+    private final long intervalMs;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "blob-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public BlobCompactionService(BlobStore blobStore, BlockchainService blockchainService, KeyVault keyVault,
+            ChunkStore chunkStore, @Value("${tdabac.storage.compaction-interval-ms:600000}") long intervalMs) {
+        this.blobStore = blobStore;
+        this.blockchainService = blockchainService;
+        this.keyVault = keyVault;
+        this.chunkStore = chunkStore;
+        this.intervalMs = intervalMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (intervalMs > 0) {
+            scheduler.scheduleWithFixedDelay(this::runSafely, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void runSafely() {
+        try {
+            run();
+        } catch (Exception e) {
+            System.err.println("Blob compaction failed: " + e.getMessage());
+        }
+    }
+
+    void run() throws Exception {
+        int deleted = 0;
+        for (String key : blobStore.keys()) {
+            boolean expired;
+            try {
+                expired = blockchainService.isExpired(key);
+            } catch (Exception e) {
+                // Chain unreachable: keep the blob, try again next round.
+                continue;
+            }
+            if (expired) {
+                keyVault.delete(key);
+                if (blobStore.delete(key)) {
+                    deleted++;
+                }
+                chunkStore.release(key);
+            }
+        }
+        blobStore.compact();
+        keyVault.compact();
+        chunkStore.compact();
+        if (deleted > 0) {
+            System.out.println("Blob compaction removed " + deleted + " expired file(s)");
+        }
+    }
+}
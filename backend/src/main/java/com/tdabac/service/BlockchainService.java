@@ -1,99 +1,617 @@
 package com.tdabac.service;
 
+import com.tdabac.contract.TDABAC;
+import jakarta.annotation.PreDestroy;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.WalletUtils;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.http.HttpService;
+import org.web3j.tx.FastRawTransactionManager;
+import org.web3j.tx.gas.ContractGasProvider;
+import org.web3j.tx.gas.DefaultGasProvider;
+import org.web3j.tx.response.NoOpProcessor;
+import org.web3j.tuples.generated.Tuple3;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 public class BlockchainService {
 
     // Config: Smart Contracts directory relative to Backend
     // Assuming we run backend from 'backend/' folder.
-    private static final String WORKING_DIR = "../smart-contracts";
-
-    // We need to store/know the address. For prototype, we'll try to find it or
-    // expect it in a specific file.
-    // Or we just hardcode the latest deployed address if "localhost" network is
-    // persistent (using 'npx hardhat node').
-    // Since we don't know the exact address here without reading 'deployment.json'
-    // or output,
-    // we will implement a helper to read the latest address from a file if we
-    // update deploy.js to write it.
-    // FOR NOW, we will use a PLACEHOLDER and ask the frontend/user to update it, OR
-    // we update deploy.js.
-    // Let's UPDATE deploy.js to write the address to 'address.txt'!
-    private String contractAddress = ""; // loaded dynamically
-
-    public void uploadFile(String fileHash, long duration) throws Exception {
-        loadAddress();
-        runHardhatScript("upload", fileHash, String.valueOf(duration));
+    private static final String DEFAULT_WORKING_DIR = "../smart-contracts";
+    private static final String DEFAULT_RPC_URL = "http://127.0.0.1:8545";
+
+    // Hardhat's well-known development account #0. Only valid on a local
+    // 'npx hardhat node'; override tdabac.chain.private-key for anything else.
+    private static final String DEFAULT_PRIVATE_KEY = "0xac0974bec39a17e36ba4a6b4d238ff944bacb478cbed5efcae784d7bf4f2ff80";
+    private static final long DEFAULT_CHAIN_ID = 1337;
+
+    private static final long NOT_REGISTERED = -1;
+
+    private static final int DEFAULT_CACHE_SIZE = 100_000;
+    private static final long DEFAULT_NEGATIVE_TTL_MS = 5_000;
+    private static final long DEFAULT_CLOCK_REFRESH_MS = 10_000;
+
+    // Blocking chain reads (access checks) run on a bounded pool instead of
+    // request threads. Writes go through the RegistrationPipeline, which
+    // never blocks a thread per transaction.
+    private static final int DEFAULT_READ_CONCURRENCY = 32;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1_000;
+    private static final long DEFAULT_CALL_TIMEOUT_MS = 10_000;
+    private static final long DEFAULT_TX_TIMEOUT_MS = 90_000;
+
+    // A file costs roughly 75k gas in uploadFiles, so 50 per batch stays
+    // well below DefaultGasProvider's 9M gas limit.
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final long DEFAULT_BATCH_DELAY_MS = 20;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    private static final int DEFAULT_REGISTRATION_QUEUE_CAPACITY = 10_000;
+    // Hardhat automines, so receipts are normally there on the first poll.
+    private static final long DEFAULT_RECEIPT_POLL_MS = 100;
+
+    // Expiry lookups that miss the index and cache are coalesced for this
+    // long into one getExpiries call of at most this many hashes.
+    private static final long DEFAULT_LOOKUP_WINDOW_MS = 2;
+    private static final int DEFAULT_LOOKUP_BATCH_SIZE = 500;
+
+    // One entry of a bulk access check.
+    public static final class AccessStatus {
+        private final String fileHash;
+        private final boolean accessAllowed;
+        private final Long expiryTimestamp; // unix seconds, null if not registered
+
+        AccessStatus(String fileHash, boolean accessAllowed, Long expiryTimestamp) {
+            this.fileHash = fileHash;
+            this.accessAllowed = accessAllowed;
+            this.expiryTimestamp = expiryTimestamp;
+        }
+
+        public String getFileHash() {
+            return fileHash;
+        }
+
+        public boolean isAccessAllowed() {
+            return accessAllowed;
+        }
+
+        public Long getExpiryTimestamp() {
+            return expiryTimestamp;
+        }
+    }
+
+    private static final String ADDRESS_FILE = "contract-address.txt";
+
+    private final Path addressFile;
+
+    // One long-lived HTTP client for the whole service. OkHttp keeps the TCP
+    // connection to the node alive between calls, so a check is a single
+    // JSON-RPC round trip instead of a Node/Hardhat process start.
+    private final Web3j web3j;
+    // The only signer for this account: nonces are counted locally, so
+    // transactions can be sent without waiting for the previous one.
+    private final FastRawTransactionManager transactionManager;
+    private final ContractGasProvider gasProvider = new DefaultGasProvider();
+
+    // The address is written by deploy.js and may change on redeploy, so the
+    // wrapper is rebuilt whenever the file content changes. The file is read
+    // once and then watched; only if the watch cannot be set up is it read
+    // again on every call.
+    private volatile String contractAddress = "";
+    private volatile TDABAC contract;
+    private volatile WatchService addressWatcher;
+    private volatile boolean addressUnwatchable;
+
+    // Expiries are immutable on-chain, so after the first lookup an access
+    // decision is a local comparison against the chain clock below.
+    private final ExpiryCache expiryCache;
+
+    // Fed by ChainEventIndexer from FileUploaded events; consulted before the
+    // cache and also serves the listing queries.
+    private final ExpiryIndex expiryIndex = new ExpiryIndex();
+
+    // Chain clock: timestamp of the latest block plus the time elapsed locally
+    // since it was fetched, refreshed every clockRefreshMs. Null until the
+    // first block has been fetched.
+    private final long clockRefreshMs;
+    private volatile ChainClock clock;
+    // Clock refresh in flight, shared by every decision waiting on it
+    private final AtomicReference<CompletableFuture<Long>> clockRefresh = new AtomicReference<>();
+
+    private final BoundedExecutor readExecutor;
+    private final ExpiryLookupBatcher lookupBatcher;
+    private final int lookupBatchSize;
+    private final RegistrationPipeline registrations;
+
+    public BlockchainService() {
+        this(DEFAULT_RPC_URL, DEFAULT_WORKING_DIR, DEFAULT_PRIVATE_KEY, DEFAULT_CHAIN_ID,
+                DEFAULT_CACHE_SIZE, DEFAULT_NEGATIVE_TTL_MS, DEFAULT_CLOCK_REFRESH_MS,
+                DEFAULT_READ_CONCURRENCY, DEFAULT_QUEUE_CAPACITY, DEFAULT_CALL_TIMEOUT_MS, DEFAULT_TX_TIMEOUT_MS,
+                DEFAULT_BATCH_SIZE, DEFAULT_BATCH_DELAY_MS, DEFAULT_MAX_IN_FLIGHT,
+                DEFAULT_REGISTRATION_QUEUE_CAPACITY, DEFAULT_RECEIPT_POLL_MS,
+                DEFAULT_LOOKUP_WINDOW_MS, DEFAULT_LOOKUP_BATCH_SIZE);
     }
 
+    @Autowired
+    public BlockchainService(@Value("${tdabac.chain.rpc-url:" + DEFAULT_RPC_URL + "}") String rpcUrl,
+            @Value("${tdabac.chain.contracts-dir:" + DEFAULT_WORKING_DIR + "}") String workingDir,
+            @Value("${tdabac.chain.private-key:" + DEFAULT_PRIVATE_KEY + "}") String privateKey,
+            @Value("${tdabac.chain.id:" + DEFAULT_CHAIN_ID + "}") long chainId,
+            @Value("${tdabac.chain.expiry-cache.max-entries:" + DEFAULT_CACHE_SIZE + "}") int cacheSize,
+            @Value("${tdabac.chain.expiry-cache.negative-ttl-ms:" + DEFAULT_NEGATIVE_TTL_MS + "}") long negativeTtlMs,
+            @Value("${tdabac.chain.clock-refresh-ms:" + DEFAULT_CLOCK_REFRESH_MS + "}") long clockRefreshMs,
+            @Value("${tdabac.chain.read-concurrency:" + DEFAULT_READ_CONCURRENCY + "}") int readConcurrency,
+            @Value("${tdabac.chain.queue-capacity:" + DEFAULT_QUEUE_CAPACITY + "}") int queueCapacity,
+            @Value("${tdabac.chain.call-timeout-ms:" + DEFAULT_CALL_TIMEOUT_MS + "}") long callTimeoutMs,
+            @Value("${tdabac.chain.tx-timeout-ms:" + DEFAULT_TX_TIMEOUT_MS + "}") long txTimeoutMs,
+            @Value("${tdabac.chain.registration.batch-size:" + DEFAULT_BATCH_SIZE + "}") int batchSize,
+            @Value("${tdabac.chain.registration.batch-delay-ms:" + DEFAULT_BATCH_DELAY_MS + "}") long batchDelayMs,
+            @Value("${tdabac.chain.registration.max-in-flight:" + DEFAULT_MAX_IN_FLIGHT + "}") int maxInFlight,
+            @Value("${tdabac.chain.registration.queue-capacity:" + DEFAULT_REGISTRATION_QUEUE_CAPACITY + "}") int registrationQueueCapacity,
+            @Value("${tdabac.chain.registration.receipt-poll-ms:" + DEFAULT_RECEIPT_POLL_MS + "}") long receiptPollMs,
+            @Value("${tdabac.chain.lookup.window-ms:" + DEFAULT_LOOKUP_WINDOW_MS + "}") long lookupWindowMs,
+            @Value("${tdabac.chain.lookup.batch-size:" + DEFAULT_LOOKUP_BATCH_SIZE + "}") int lookupBatchSize) {
+        this.addressFile = Paths.get(workingDir, ADDRESS_FILE).toAbsolutePath();
+        this.expiryCache = new ExpiryCache(cacheSize, negativeTtlMs);
+        this.clockRefreshMs = clockRefreshMs;
+
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(16, 5, TimeUnit.MINUTES))
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .build();
+        this.web3j = Web3j.build(new HttpService(rpcUrl, httpClient));
+        // Receipts are collected by the pipeline, not by the manager.
+        this.transactionManager = new FastRawTransactionManager(web3j, Credentials.create(privateKey), chainId,
+                new NoOpProcessor(web3j));
+        this.readExecutor = new BoundedExecutor("chain-read", readConcurrency, queueCapacity, callTimeoutMs);
+        this.lookupBatchSize = Math.max(1, lookupBatchSize);
+        this.lookupBatcher = new ExpiryLookupBatcher(readExecutor, this::lookupExpiries, lookupWindowMs,
+                this.lookupBatchSize);
+        this.registrations = new RegistrationPipeline(web3j, transactionManager, gasProvider, this::contract,
+                expiryIndex, batchSize, batchDelayMs, maxInFlight, registrationQueueCapacity, receiptPollMs,
+                txTimeoutMs);
+    }
+
+    // Blocks until the registration is mined; returns the expiry.
+    public long uploadFile(String fileHash, long duration) throws Exception {
+        try {
+            return uploadFileAsync(fileHash, duration).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    // Async variants for request handlers. They fail with
+    // RejectedExecutionException when the pool or queue is saturated and
+    // with TimeoutException when the node does not answer in time.
+    //
+    // uploadFileAsync queues the registration and completes with the
+    // on-chain expiry (unix seconds) once its transaction is mined.
+    public CompletableFuture<Long> uploadFileAsync(String fileHash, long duration) {
+        return registrations.submit(fileHash, duration);
+    }
+
+    // Per-file registration status: the pipeline's record while a
+    // registration is pending or recently finished, otherwise whatever the
+    // contract says. Null for hashes the contract does not know.
+    public CompletableFuture<RegistrationPipeline.Status> registrationStatusAsync(String fileHash) {
+        RegistrationPipeline.Status status = registrations.status(fileHash);
+        if (status != null) {
+            return CompletableFuture.completedFuture(status);
+        }
+        return readExecutor.submit(() -> {
+            long expiry = lookupExpiry(fileHash);
+            return expiry == NOT_REGISTERED ? null : new RegistrationPipeline.Status(fileHash,
+                    RegistrationPipeline.State.CONFIRMED, null, expiry, null);
+        });
+    }
+
+    public CompletableFuture<Boolean> checkAccessAsync(String fileHash) {
+        // Most checks are answered from the index or cache with a fresh chain
+        // clock; those complete right here without a thread hop. The rest
+        // share a getExpiries call with whatever else misses in the same
+        // lookup window.
+        return expiryAsync(fileHash).thenCompose(expiry -> atChainTime(now -> isOpen(expiry, now)));
+    }
+
+    // Validity and expiry for many files. Hashes that are not in the index
+    // or cache are resolved together, so the whole list costs at most
+    // ceil(misses / lookup batch size) RPCs.
+    public CompletableFuture<List<AccessStatus>> checkAccessAsync(List<String> fileHashes) {
+        try {
+            contract();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        List<CompletableFuture<Long>> expiries = new ArrayList<>(fileHashes.size());
+        List<String> misses = new ArrayList<>();
+        for (String fileHash : fileHashes) {
+            Long local = localExpiry(fileHash);
+            expiries.add(local != null ? CompletableFuture.completedFuture(local) : null);
+            if (local == null) {
+                misses.add(fileHash);
+            }
+        }
+        Map<String, CompletableFuture<Long>> lookups = lookupBatcher.lookup(misses);
+        for (int i = 0; i < fileHashes.size(); i++) {
+            if (expiries.get(i) == null) {
+                expiries.set(i, lookups.get(fileHashes.get(i)));
+            }
+        }
+        return CompletableFuture.allOf(expiries.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(done -> atChainTime(now -> {
+                    List<AccessStatus> statuses = new ArrayList<>(fileHashes.size());
+                    for (int i = 0; i < fileHashes.size(); i++) {
+                        long expiry = expiries.get(i).join();
+                        statuses.add(new AccessStatus(fileHashes.get(i), isOpen(expiry, now),
+                                expiry == NOT_REGISTERED ? null : expiry));
+                    }
+                    return statuses;
+                }));
+    }
+
+    public CompletableFuture<Long> getExpiryAsync(String fileHash) {
+        // A registration still in the pipeline has no expiry on-chain yet.
+        CompletableFuture<Long> pending = registrations.pendingRegistration(fileHash);
+        if (pending != null) {
+            return pending;
+        }
+        return readExecutor.submit(() -> getExpiry(fileHash));
+    }
+
+    public CompletableFuture<List<ExpiryIndex.FileRecord>> filesExpiringWithinAsync(long seconds) {
+        return readExecutor.submit(() -> filesExpiringWithin(seconds));
+    }
+
+    // Mirrors TDABAC.checkAccess: block.timestamp < expiryTimestamp.
     public boolean checkAccess(String fileHash) {
         try {
-            loadAddress();
-            String output = runHardhatScript("check", fileHash, "0");
-            return output.contains("ACCESS_GRANTED");
+            long expiry = lookupExpiry(fileHash);
+            return expiry != NOT_REGISTERED && chainNow() < expiry;
         } catch (Exception e) {
             e.printStackTrace();
             return false;
         }
     }
 
-    private void loadAddress() throws Exception {
-        // Always reload to support redeployments without restarting backend
-        File file = new File(WORKING_DIR + "/contract-address.txt");
-        if (file.exists()) {
-            contractAddress = java.nio.file.Files.readString(file.toPath()).trim();
-            System.out.println("Loaded Contract Address: " + contractAddress);
-        } else {
-            throw new RuntimeException("Contract Address not found. Please run deploy.js first!");
+    // True only for files the contract knows whose time-lock has run out.
+    // Unlike !checkAccess, unknown hashes and chain errors are not "expired".
+    public boolean isExpired(String fileHash) throws Exception {
+        long expiry = lookupExpiry(fileHash);
+        return expiry != NOT_REGISTERED && chainNow() >= expiry;
+    }
+
+    // Expiry as a unix timestamp (seconds).
+    public long getExpiry(String fileHash) throws Exception {
+        long expiry = lookupExpiry(fileHash);
+        if (expiry == NOT_REGISTERED) {
+            throw new IllegalArgumentException("File not found on chain: " + fileHash);
         }
+        return expiry;
     }
 
-    private String runHardhatScript(String command, String hash, String duration) throws Exception {
-        System.out.println("Executing Hardhat Command: " + command + " for " + hash);
+    public List<ExpiryIndex.FileRecord> filesExpiringWithin(long seconds) throws Exception {
+        long now = chainNow();
+        return expiryIndex.expiringBetween(now, now + seconds);
+    }
+
+    public List<ExpiryIndex.FileRecord> filesByOwner(String owner) {
+        return expiryIndex.byOwner(owner);
+    }
+
+    // Everything the first request would otherwise pay for: reads and checks
+    // the contract address (a well-formed address with code behind it, so a
+    // node restarted without redeploying fails here rather than on every
+    // access), opens the connection to the node, fetches the chain clock and
+    // this account's nonce. Throws if the node or the contract is unusable.
+    public void warmUp() throws Exception {
+        contract();
+        String code = web3j.ethGetCode(contractAddress, DefaultBlockParameterName.LATEST).send().getCode();
+        if (code == null || code.equals("0x")) {
+            throw new IllegalStateException("No contract deployed at " + contractAddress + " (from " + addressFile
+                    + "); run deploy.js against this node");
+        }
+        chainNow();
+        // The manager hands out its stored nonce plus one; -1 (a fresh
+        // account) makes it ask the node again on first use
+        BigInteger count = web3j.ethGetTransactionCount(transactionManager.getFromAddress(),
+                DefaultBlockParameterName.PENDING).send().getTransactionCount();
+        transactionManager.setNonce(count.subtract(BigInteger.ONE));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        WatchService watcher = addressWatcher;
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+        registrations.shutdown();
+        lookupBatcher.shutdown();
+        readExecutor.shutdown();
+        web3j.shutdown();
+    }
+
+    // Expiry from the index or cache, otherwise through the lookup batcher.
+    private CompletableFuture<Long> expiryAsync(String fileHash) {
+        try {
+            contract();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        Long local = localExpiry(fileHash);
+        return local != null ? CompletableFuture.completedFuture(local) : lookupBatcher.lookup(fileHash);
+    }
 
-        // Use Environment Variables to pass data to the script
-        // This avoids Hardhat CLI argument parsing issues entirely.
-        ProcessBuilder builder = new ProcessBuilder(
-                "cmd.exe", "/c", "npx hardhat run scripts/interact.js --network localhost");
-        builder.directory(new File(WORKING_DIR));
+    // Runs the decision against the chain clock: inline while the clock is
+    // fresh, otherwise once the latest block has been fetched. Decisions
+    // arriving while a fetch is running wait for that one (single flight),
+    // so a burst of checks on a stale clock costs one RPC.
+    private <T> CompletableFuture<T> atChainTime(java.util.function.LongFunction<T> decision) {
+        ChainClock current = clock;
+        if (current != null && current.isFresh(clockRefreshMs)) {
+            return CompletableFuture.completedFuture(decision.apply(current.now()));
+        }
+        CompletableFuture<Long> refresh = clockRefresh.get();
+        if (refresh == null) {
+            CompletableFuture<Long> mine = new CompletableFuture<>();
+            if (clockRefresh.compareAndSet(null, mine)) {
+                readExecutor.submit(this::chainNow).whenComplete((now, e) -> {
+                    clockRefresh.set(null);
+                    if (e != null) {
+                        mine.completeExceptionally(e);
+                    } else {
+                        mine.complete(now);
+                    }
+                });
+                refresh = mine;
+            } else {
+                refresh = clockRefresh.get();
+                if (refresh == null) {
+                    return atChainTime(decision); // Finished in between
+                }
+            }
+        }
+        return refresh.thenApply(decision::apply);
+    }
 
-        java.util.Map<String, String> env = builder.environment();
-        env.put("CMD", command);
-        env.put("FILE_HASH", hash);
-        env.put("DURATION", duration);
-        env.put("CONTRACT_ADDRESS", contractAddress);
+    // Chain time (unix seconds) from the last fetched block, without an RPC;
+    // the wall clock before the first block has been fetched.
+    public long chainTimeEstimate() {
+        ChainClock current = clock;
+        return current == null ? System.currentTimeMillis() / 1000 : current.now();
+    }
 
-        Process process = builder.start();
+    // Expiry (unix seconds) from the event index or cache, without an RPC;
+    // null if the node would have to be asked or the file is not registered.
+    public Long cachedExpiry(String fileHash) {
+        Long expiry = localExpiry(fileHash);
+        return expiry == null || expiry == NOT_REGISTERED ? null : expiry;
+    }
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-        BufferedReader errorReader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
+    // Mirrors TDABAC.checkAccess: block.timestamp < expiryTimestamp.
+    private static boolean isOpen(long expiry, long now) {
+        return expiry != NOT_REGISTERED && now < expiry;
+    }
 
-        StringBuilder output = new StringBuilder();
-        String line;
+    // Batch form of lookupExpiry for ExpiryLookupBatcher: one getExpiries
+    // call per lookupBatchSize hashes. Also refreshes the chain clock if
+    // needed, so the decisions waiting on this batch do not fetch it again.
+    private Map<String, Long> lookupExpiries(List<String> fileHashes) throws Exception {
+        TDABAC current = contract();
+        Map<String, Long> expiries = new HashMap<>();
+        for (int from = 0; from < fileHashes.size(); from += lookupBatchSize) {
+            List<String> chunk = fileHashes.subList(from, Math.min(fileHashes.size(), from + lookupBatchSize));
+            @SuppressWarnings("unchecked")
+            List<BigInteger> values = current.getExpiries(chunk).send();
+            for (int i = 0; i < chunk.size(); i++) {
+                // getExpiries reports unregistered files as 0.
+                long expiry = values.get(i).longValueExact();
+                ExpiryCache.Entry entry = expiry != 0
+                        ? expiryCache.putExpiry(chunk.get(i), expiry)
+                        : expiryCache.putUnknown(chunk.get(i));
+                expiries.put(chunk.get(i), entry.isUnknown() ? NOT_REGISTERED : entry.getExpiryTimestamp());
+            }
+        }
+        chainNow();
+        return expiries;
+    }
 
-        // Read Stdout
-        while ((line = reader.readLine()) != null) {
-            output.append(line).append("\n");
-            System.out.println("[Hardhat Output]: " + line);
+    // Expiry in unix seconds, or NOT_REGISTERED for hashes the contract does
+    // not know. Index first, then the LRU, then one fileRegistry call.
+    private long lookupExpiry(String fileHash) throws Exception {
+        TDABAC current = contract();
+        Long local = localExpiry(fileHash);
+        if (local != null) {
+            return local;
         }
 
-        // Read Stderr
-        while ((line = errorReader.readLine()) != null) {
-            System.err.println("[Hardhat Error]: " + line);
+        // fileRegistry reports existence without reverting, unlike
+        // getExpiry, so unknown hashes do not come back as RPC errors.
+        Tuple3<String, BigInteger, Boolean> record = current.fileRegistry(fileHash).send();
+        ExpiryCache.Entry entry = record.component3()
+                ? expiryCache.putExpiry(fileHash, record.component2().longValueExact())
+                : expiryCache.putUnknown(fileHash);
+        return entry.isUnknown() ? NOT_REGISTERED : entry.getExpiryTimestamp();
+    }
+
+    // lookupExpiry without the RPC: null if the node has to be asked.
+    private Long localExpiry(String fileHash) {
+        ExpiryIndex.FileRecord indexed = expiryIndex.get(fileHash);
+        if (indexed != null) {
+            return indexed.getExpiryTimestamp();
+        }
+        ExpiryCache.Entry entry = expiryCache.get(fileHash);
+        if (entry == null) {
+            return null;
         }
+        return entry.isUnknown() ? NOT_REGISTERED : entry.getExpiryTimestamp();
+    }
 
-        // Increased timeout to 60 seconds to account for slow startup
-        boolean finished = process.waitFor(60, TimeUnit.SECONDS);
-        if (!finished) {
-            process.destroy();
-            throw new RuntimeException("Hardhat process timed out after 60 seconds");
+    // Current chain time in unix seconds. Never behind the local wall clock,
+    // so a stale block (e.g. an idle automining node) cannot extend access.
+    private long chainNow() throws Exception {
+        ChainClock current = clock;
+        if (current == null || !current.isFresh(clockRefreshMs)) {
+            long fetchedAt = System.nanoTime();
+            EthBlock.Block latest = web3j.ethGetBlockByNumber(DefaultBlockParameterName.LATEST, false).send().getBlock();
+            current = new ChainClock(latest.getTimestamp().longValueExact(), fetchedAt);
+            clock = current;
         }
+        return current.now();
+    }
 
-        return output.toString();
+    // Accessors for ChainEventIndexer, which shares this connection.
+    Web3j web3j() {
+        return web3j;
+    }
+
+    ExpiryIndex expiryIndex() {
+        return expiryIndex;
+    }
+
+    String contractAddress() throws Exception {
+        contract();
+        return contractAddress;
+    }
+
+    private TDABAC contract() throws Exception {
+        TDABAC current = contract;
+        if (current != null && addressWatcher != null) {
+            return current;
+        }
+        // Watching first, so a rewrite between the read and the watch is not missed
+        watchAddress();
+        return reloadContract();
+    }
+
+    private synchronized TDABAC reloadContract() throws Exception {
+        String address = loadAddress();
+        TDABAC current = contract;
+        if (current == null || !address.equals(contractAddress)) {
+            current = TDABAC.load(address, web3j, transactionManager, gasProvider);
+            // Cached and indexed expiries belong to the previous deployment.
+            expiryCache.clear();
+            expiryIndex.clear();
+            contract = current;
+            contractAddress = address;
+            System.out.println("Loaded Contract Address: " + address);
+        }
+        return current;
+    }
+
+    private String loadAddress() throws Exception {
+        if (!Files.exists(addressFile)) {
+            throw new RuntimeException("Contract Address not found. Please run deploy.js first!");
+        }
+        String address = Files.readString(addressFile).trim();
+        if (!WalletUtils.isValidAddress(address)) {
+            throw new IllegalStateException("Invalid contract address '" + address + "' in " + addressFile);
+        }
+        return address;
+    }
+
+    // Reloads the address whenever deploy.js rewrites the file, on a daemon
+    // thread, instead of reading it on every call. A half-written or deleted
+    // file keeps the address loaded last.
+    private synchronized void watchAddress() {
+        if (addressWatcher != null || addressUnwatchable) {
+            return;
+        }
+        WatchService watcher = null;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            addressFile.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("Cannot watch " + addressFile + ", reading it on every call: " + e);
+            addressUnwatchable = true;
+            if (watcher != null) {
+                try {
+                    watcher.close();
+                } catch (IOException ignored) {
+                    // Never used
+                }
+            }
+            return;
+        }
+        WatchService watching = watcher;
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watching.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || ADDRESS_FILE.equals(String.valueOf(event.context()));
+                    }
+                    key.reset();
+                    if (changed) {
+                        try {
+                            reloadContract();
+                        } catch (Exception e) {
+                            System.err.println("Keeping contract address " + contractAddress + ": " + e.getMessage());
+                        }
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // Shut down
+            }
+        }, "contract-address-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        addressWatcher = watcher;
+    }
+
+    // A fetched block timestamp with the local time it was fetched at,
+    // published together: read separately, a new timestamp paired with the
+    // previous fetch time would put chain time ahead by a whole refresh
+    // interval.
+    private static final class ChainClock {
+        final long blockTimestamp;
+        final long fetchedAtNanos;
+
+        ChainClock(long blockTimestamp, long fetchedAtNanos) {
+            this.blockTimestamp = blockTimestamp;
+            this.fetchedAtNanos = fetchedAtNanos;
+        }
+
+        boolean isFresh(long refreshMs) {
+            return System.nanoTime() - fetchedAtNanos <= TimeUnit.MILLISECONDS.toNanos(refreshMs);
+        }
+
+        long now() {
+            long elapsedSeconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - fetchedAtNanos);
+            return Math.max(blockTimestamp + elapsedSeconds, System.currentTimeMillis() / 1000);
+        }
     }
 }
@@ -0,0 +1,236 @@
+package com.tdabac.service;
+
+import com.tdabac.contract.TDABAC;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.web3j.abi.EventEncoder;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Follows FileUploaded events and feeds them into BlockchainService's
+// ExpiryIndex. Every indexed event is appended to a local journal and the
+// last processed block is checkpointed, so a restart replays the journal
+// from disk and only asks the node for blocks after the checkpoint.
+@Service
+public class ChainEventIndexer {
+
+    private static final String JOURNAL_FILE = "expiry-index.log";
+    private static final String CHECKPOINT_FILE = "expiry-index.checkpoint";
+
+    // Keep eth_getLogs responses bounded during a long backfill.
+    private static final long MAX_BLOCK_RANGE = 2_000;
+
+    private final BlockchainService blockchainService;
+    private final boolean enabled;
+    private final long startBlock;
+    private final long pollIntervalMs;
+    private final Path dataDir;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chain-event-indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only touched from the scheduler thread.
+    private String indexedAddress;
+    private long lastProcessedBlock;
+    private DataOutputStream journal;
+    private String lastError;
+
+    public ChainEventIndexer(BlockchainService blockchainService,
+            @Value("${tdabac.chain.index.enabled:true}") boolean enabled,
+            @Value("${tdabac.chain.index.start-block:0}") long startBlock,
+            @Value("${tdabac.chain.index.poll-interval-ms:1000}") long pollIntervalMs,
+            @Value("${tdabac.data-dir:data}") String dataDir) {
+        this.blockchainService = blockchainService;
+        this.enabled = enabled;
+        this.startBlock = startBlock;
+        this.pollIntervalMs = pollIntervalMs;
+        this.dataDir = Paths.get(dataDir);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            scheduler.scheduleWithFixedDelay(this::pollSafely, 0, pollIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        scheduler.shutdownNow();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private void pollSafely() {
+        try {
+            poll();
+            lastError = null;
+        } catch (Exception e) {
+            // Node down or contract not deployed yet; retry on the next tick
+            // and only report when the failure changes.
+            if (!String.valueOf(e.getMessage()).equals(lastError)) {
+                System.err.println("Event indexer poll failed: " + e.getMessage());
+                lastError = String.valueOf(e.getMessage());
+            }
+        }
+    }
+
+    void poll() throws Exception {
+        String address = blockchainService.contractAddress();
+        Web3j web3j = blockchainService.web3j();
+        if (!address.equalsIgnoreCase(indexedAddress)) {
+            open(address, web3j);
+        }
+
+        long head = web3j.ethBlockNumber().send().getBlockNumber().longValueExact();
+        if (head < lastProcessedBlock) {
+            // The node was reset underneath us (e.g. a restarted Hardhat node).
+            System.out.println("Chain head moved behind checkpoint, rebuilding expiry index");
+            reset(address);
+        }
+
+        while (lastProcessedBlock < head) {
+            long from = lastProcessedBlock + 1;
+            long to = Math.min(head, from + MAX_BLOCK_RANGE - 1);
+
+            EthFilter filter = new EthFilter(block(from), block(to), address);
+            filter.addSingleTopic(EventEncoder.encode(TDABAC.FILEUPLOADED_EVENT));
+            EthLog logs = web3j.ethGetLogs(filter).send();
+            if (logs.hasError()) {
+                throw new IOException("eth_getLogs failed: " + logs.getError().getMessage());
+            }
+
+            for (EthLog.LogResult<?> result : logs.getLogs()) {
+                TDABAC.FileUploadedEventResponse event = TDABAC.getFileUploadedEventFromLog((Log) result.get());
+                ExpiryIndex.FileRecord record = new ExpiryIndex.FileRecord(
+                        event.fileHash, event.owner, event.expiryTimestamp.longValueExact());
+                blockchainService.expiryIndex().put(record);
+                journal.writeUTF(record.getFileHash());
+                journal.writeUTF(record.getOwner());
+                journal.writeLong(record.getExpiryTimestamp());
+            }
+
+            // Journal before checkpoint: a crash in between only replays a
+            // few events, which the index ignores as duplicates.
+            journal.flush();
+            lastProcessedBlock = to;
+            writeCheckpoint(web3j);
+        }
+    }
+
+    private void open(String address, Web3j web3j) throws Exception {
+        Files.createDirectories(dataDir);
+        Path journalPath = dataDir.resolve(JOURNAL_FILE);
+        Path checkpointPath = dataDir.resolve(CHECKPOINT_FILE);
+
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+
+        int replayed = -1;
+        if (Files.exists(journalPath) && Files.exists(checkpointPath) && checkpointMatches(address, checkpointPath, web3j)) {
+            replayed = replayJournal(journalPath);
+        }
+
+        if (replayed >= 0) {
+            System.out.println("Expiry index restored " + replayed + " files up to block " + lastProcessedBlock);
+            journal = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(journalPath, StandardOpenOption.APPEND)));
+            indexedAddress = address;
+        } else {
+            System.out.println("Building expiry index for " + address + " from block " + startBlock);
+            reset(address);
+        }
+    }
+
+    private void reset(String address) throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+        blockchainService.expiryIndex().clear();
+        Files.deleteIfExists(dataDir.resolve(CHECKPOINT_FILE));
+        journal = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dataDir.resolve(JOURNAL_FILE))));
+        journal.writeUTF(address);
+        journal.flush();
+        lastProcessedBlock = startBlock - 1;
+        indexedAddress = address;
+    }
+
+    // Checkpoint format: "<address> <blockNumber> <blockHash>". The block hash
+    // detects a node that was reset and has re-mined the same heights.
+    private boolean checkpointMatches(String address, Path checkpointPath, Web3j web3j) throws Exception {
+        String[] parts = Files.readString(checkpointPath).trim().split(" ");
+        if (parts.length != 3 || !parts[0].equalsIgnoreCase(address)) {
+            return false;
+        }
+        long blockNumber = Long.parseLong(parts[1]);
+        EthBlock.Block block = web3j.ethGetBlockByNumber(block(blockNumber), false).send().getBlock();
+        if (block == null || !block.getHash().equalsIgnoreCase(parts[2])) {
+            return false;
+        }
+        lastProcessedBlock = blockNumber;
+        return true;
+    }
+
+    // Returns the number of replayed records, or -1 if the journal ends in a
+    // torn record (crash mid-write) and has to be rebuilt from the chain.
+    private int replayJournal(Path journalPath) throws IOException {
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalPath)))) {
+            in.readUTF(); // contract address, already matched via the checkpoint
+            while (true) {
+                String fileHash;
+                try {
+                    fileHash = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                blockchainService.expiryIndex().put(new ExpiryIndex.FileRecord(fileHash, in.readUTF(), in.readLong()));
+                count++;
+            }
+        } catch (EOFException e) {
+            blockchainService.expiryIndex().clear();
+            return -1;
+        }
+        return count;
+    }
+
+    private void writeCheckpoint(Web3j web3j) throws Exception {
+        EthBlock.Block block = web3j.ethGetBlockByNumber(block(lastProcessedBlock), false).send().getBlock();
+        Path tmp = dataDir.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.writeString(tmp, indexedAddress + " " + lastProcessedBlock + " " + block.getHash());
+        Files.move(tmp, dataDir.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static DefaultBlockParameter block(long number) {
+        return DefaultBlockParameter.valueOf(BigInteger.valueOf(number));
+    }
+}
@@ -0,0 +1,547 @@
+package com.tdabac.service;
+
+import com.tdabac.storage.BlobStore;
+import com.tdabac.storage.SegmentBlobStore;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Deduplicated file content (opt-in: tdabac.dedup.enabled). Patients and
+// clinics re-share the same study with different durations; each share is
+// a new file on chain, but its content is stored once.
+//
+// Content is split by ContentDefinedChunker, and every chunk is encrypted
+// under a key derived from its own content (keyed convergent encryption):
+//
+//   digest = SHA-256(chunk)
+//   id     = HMAC(secret, "id" | digest)    -> blob "c/<id>" in this store
+//   key    = HMAC(secret, "key" | digest)
+//
+// where 'secret' is derived from the key vault master key, so chunk ids and
+// keys cannot be confirmed by anyone who merely guesses the content. The
+// file itself becomes a small manifest of (id, key, length) per chunk,
+// encrypted under its own random file key like any other upload: a re-share
+// gets a new file hash and its own time-lock, and only the manifest is new.
+//
+// Chunks are reference counted. Each committed file leaves a reference
+// record "r/<fileHash>" listing its chunk ids; a chunk is deleted when the
+// last file referencing it is released (its time-lock expired, or its
+// registration failed). Counts live in memory and are rebuilt from the
+// records at startup, which also drops records of files that never made it
+// into the blob store and chunks nobody references.
+//
+// The price of dedup: destroying a file's key at expiry no longer makes its
+// content unreadable on its own, as long as another live file shares its
+// chunks (whose keys the server can re-derive from the content). That is
+// why it is off by default.
+@Service
+public class ChunkStore {
+
+    private static final String SECRET_LABEL = "tdabac-chunk-v1";
+    private static final String CHUNK_PREFIX = "c/";
+    private static final String REFS_PREFIX = "r/";
+    private static final int ID_LENGTH = 32;
+    private static final int KEY_LENGTH = 32;
+    private static final int LOCK_STRIPES = 64;
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final boolean enabled;
+    // Chunks and reference records
+    private final BlobStore chunks;
+    // File blobs, to reconcile reference records against
+    private final BlobStore files;
+    private final EncryptionService encryptionService;
+    private final ContentDefinedChunker chunker;
+    private final byte[] secret;
+
+    // Chunk id -> reference count and sizes. Reference counts are changed,
+    // and chunks written and deleted, under the chunk's stripe lock.
+    private final Map<String, Chunk> index = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong logicalBytes = new AtomicLong();
+    private final AtomicLong newChunks = new AtomicLong();
+    private final AtomicLong reusedChunks = new AtomicLong();
+
+    @Autowired
+    public ChunkStore(@Value("${tdabac.dedup.enabled:false}") boolean enabled,
+            @Value("${tdabac.data-dir:data}") String dataDir,
+            @Value("${tdabac.dedup.min-chunk-bytes:16384}") int minChunkBytes,
+            @Value("${tdabac.dedup.avg-chunk-bytes:65536}") int avgChunkBytes,
+            @Value("${tdabac.dedup.max-chunk-bytes:262144}") int maxChunkBytes,
+            @Value("${tdabac.storage.segment-size-mb:256}") long segmentSizeMb,
+            BlobStore blobStore, EncryptionService encryptionService, KeyVault keyVault) throws IOException {
+        this(enabled,
+                enabled ? new SegmentBlobStore(Paths.get(dataDir, "chunks"), segmentSizeMb * 1024 * 1024) : null,
+                blobStore, encryptionService, new ContentDefinedChunker(minChunkBytes, avgChunkBytes, maxChunkBytes),
+                enabled ? keyVault.deriveSecret(SECRET_LABEL) : null);
+    }
+
+    // 'chunks' is owned by this store from here on (closed by close()).
+    public ChunkStore(boolean enabled, BlobStore chunks, BlobStore files, EncryptionService encryptionService,
+            ContentDefinedChunker chunker, byte[] secret) throws IOException {
+        this.enabled = enabled;
+        this.chunks = chunks;
+        this.files = files;
+        this.encryptionService = encryptionService;
+        this.chunker = chunker;
+        this.secret = secret;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        if (enabled) {
+            reconcile();
+        }
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    // Chunk ids, keys and lengths of one file, in content order.
+    public static final class Manifest {
+
+        private static final byte[] MAGIC = { 'T', 'D', 'M', 'F' };
+        private static final byte VERSION = 1;
+        private static final int ENTRY_LENGTH = ID_LENGTH + KEY_LENGTH + 4;
+
+        private final List<byte[]> ids = new ArrayList<>();
+        private final List<byte[]> keys = new ArrayList<>();
+        private long[] offsets = new long[16];
+        private int[] lengths = new int[16];
+        private long contentLength;
+
+        private void add(byte[] id, byte[] key, int length) {
+            int i = ids.size();
+            if (i == lengths.length) {
+                offsets = Arrays.copyOf(offsets, i * 2);
+                lengths = Arrays.copyOf(lengths, i * 2);
+            }
+            ids.add(id);
+            keys.add(key);
+            offsets[i] = contentLength;
+            lengths[i] = length;
+            contentLength += length;
+        }
+
+        public long contentLength() {
+            return contentLength;
+        }
+
+        public int chunkCount() {
+            return ids.size();
+        }
+
+        // magic "TDMF" | version (1) | chunk count (4)
+        // | per chunk: id (32) | key (32) | length (4)
+        // The result holds chunk keys: encrypt it, then wipe it.
+        public byte[] encode() {
+            ByteBuffer out = ByteBuffer.allocate(MAGIC.length + 1 + 4 + ids.size() * ENTRY_LENGTH);
+            out.put(MAGIC).put(VERSION).putInt(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                out.put(ids.get(i)).put(keys.get(i)).putInt(lengths[i]);
+            }
+            return out.array();
+        }
+
+        public static Manifest decode(ByteBuffer in) throws IOException {
+            byte[] magic = new byte[MAGIC.length];
+            if (in.remaining() < MAGIC.length + 1 + 4) {
+                throw new IOException("Not a chunk manifest");
+            }
+            in.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.get() != VERSION) {
+                throw new IOException("Not a chunk manifest");
+            }
+            int count = in.getInt();
+            if (count < 0 || (long) count * ENTRY_LENGTH != in.remaining()) {
+                throw new IOException("Chunk manifest is truncated");
+            }
+            Manifest manifest = new Manifest();
+            for (int i = 0; i < count; i++) {
+                byte[] id = new byte[ID_LENGTH];
+                byte[] key = new byte[KEY_LENGTH];
+                in.get(id).get(key);
+                manifest.add(id, key, in.getInt());
+            }
+            return manifest;
+        }
+
+        // Zeroes the chunk keys held by this manifest.
+        public void wipe() {
+            for (byte[] key : keys) {
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+    }
+
+    // Chunks, encrypts and stores content, reusing chunks that are already
+    // stored. The chunks are referenced from here on: commit() the manifest
+    // once the file is stored, or release() it if the upload fails.
+    public Manifest store(InputStream content, CompressionCodec codec) throws IOException {
+        Mac mac = newMac();
+        MessageDigest sha256 = newSha256();
+        Manifest manifest = new Manifest();
+        ContentDefinedChunker.Reader reader = chunker.reader(content);
+        try {
+            byte[] chunk;
+            while ((chunk = reader.next()) != null) {
+                byte[] digest = sha256.digest(chunk);
+                byte[] id = derive(mac, "id", digest);
+                byte[] key = derive(mac, "key", digest);
+                acquire(HEX.formatHex(id), chunk, key, codec);
+                manifest.add(id, key, chunk.length);
+            }
+        } catch (IOException | RuntimeException e) {
+            release(manifest);
+            throw e;
+        }
+        return manifest;
+    }
+
+    // Records that 'fileHash' references the manifest's chunks. Call before
+    // the file blob is stored: a record whose file never arrived is dropped
+    // at the next startup, a file without a record would lose its chunks.
+    public void commit(String fileHash, Manifest manifest) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(manifest.chunkCount() * (ID_LENGTH + 4));
+        for (int i = 0; i < manifest.chunkCount(); i++) {
+            record.put(manifest.ids.get(i)).putInt(manifest.lengths[i]);
+        }
+        chunks.put(REFS_PREFIX + fileHash, record.flip(), Map.of());
+    }
+
+    // Drops the references of a manifest that was never committed.
+    public void release(Manifest manifest) {
+        for (int i = 0; i < manifest.chunkCount(); i++) {
+            try {
+                decrement(HEX.formatHex(manifest.ids.get(i)), manifest.lengths[i]);
+            } catch (IOException e) {
+                System.err.println("Could not release chunk: " + e.getMessage());
+            }
+        }
+    }
+
+    // Drops the references of a committed file (expired, or rolled back);
+    // chunks no other file references are deleted. False if the file has no
+    // reference record (not deduplicated, or already released).
+    public boolean release(String fileHash) throws IOException {
+        if (!enabled) {
+            return false;
+        }
+        String recordKey = REFS_PREFIX + fileHash;
+        if (!chunks.contains(recordKey)) {
+            return false;
+        }
+        ByteBuffer record;
+        try (InputStream in = chunks.open(recordKey)) {
+            record = ByteBuffer.wrap(in.readAllBytes());
+        }
+        // Record first: a crash in between leaves chunks that the next
+        // startup finds unreferenced, never a record for deleted chunks
+        if (!chunks.delete(recordKey)) {
+            return false; // Released concurrently
+        }
+        byte[] id = new byte[ID_LENGTH];
+        while (record.remaining() >= ID_LENGTH + 4) {
+            record.get(id);
+            decrement(HEX.formatHex(id), record.getInt());
+        }
+        return true;
+    }
+
+    // How the reads of a download are timed, e.g. PipelineMetrics.Download::storage.
+    public interface StorageReads {
+        InputStream opened(InputStream in, long openedAt);
+    }
+
+    // Lazily decrypting view of content bytes [position, position + count)
+    // of a file. Only the chunks that cover the range are opened, one at a
+    // time.
+    public InputStream open(Manifest manifest, long position, long count, StorageReads reads) {
+        if (position < 0 || count < 0 || position + count > manifest.contentLength()) {
+            throw new IllegalArgumentException("Range " + position + "+" + count + " outside of "
+                    + manifest.contentLength() + " bytes");
+        }
+        return new ChunkedInputStream(manifest, position, count, reads);
+    }
+
+    // Reclaims space held by deleted chunks and records.
+    public void compact() throws IOException {
+        if (enabled) {
+            chunks.compact();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (chunks instanceof Closeable) {
+            ((Closeable) chunks).close();
+        }
+        if (secret != null) {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    // Distinct chunks stored
+    public int chunkCount() {
+        return index.size();
+    }
+
+    // Encrypted bytes of all stored chunks
+    public long storedBytes() {
+        return storedBytes.get();
+    }
+
+    // Content bytes of all live files, counting shared chunks once per file
+    public long logicalBytes() {
+        return logicalBytes.get();
+    }
+
+    public long newChunks() {
+        return newChunks.get();
+    }
+
+    public long reusedChunks() {
+        return reusedChunks.get();
+    }
+
+    private void acquire(String id, byte[] chunk, byte[] key, CompressionCodec codec) throws IOException {
+        synchronized (lock(id)) {
+            Chunk existing = index.get(id);
+            if (existing != null) {
+                existing.references++;
+                reusedChunks.incrementAndGet();
+            } else {
+                ByteBuffer encrypted;
+                try {
+                    encrypted = encryptionService.encrypt(ByteBuffer.wrap(chunk), new DestroyableSecretKey(key.clone()),
+                            codec);
+                } catch (Exception e) {
+                    throw new IOException("Chunk encryption failed", e);
+                }
+                long size = encrypted.remaining();
+                chunks.put(CHUNK_PREFIX + id, encrypted, Map.of());
+                index.put(id, new Chunk(1, size));
+                storedBytes.addAndGet(size);
+                newChunks.incrementAndGet();
+            }
+            logicalBytes.addAndGet(chunk.length);
+        }
+    }
+
+    private void decrement(String id, int length) throws IOException {
+        synchronized (lock(id)) {
+            Chunk chunk = index.get(id);
+            if (chunk == null) {
+                return;
+            }
+            logicalBytes.addAndGet(-length);
+            if (--chunk.references == 0) {
+                index.remove(id);
+                chunks.delete(CHUNK_PREFIX + id);
+                storedBytes.addAndGet(-chunk.size);
+            }
+        }
+    }
+
+    // Rebuilds reference counts from the records, dropping records whose
+    // file is not in the blob store and chunks no record references.
+    //
+    // A record listing a chunk whose blob is gone (lost with a torn
+    // segment, say) is dropped as well: its file can no longer be read, and
+    // counting the missing chunk would have the next upload containing it
+    // "reuse" it instead of storing it again.
+    private void reconcile() throws IOException {
+        int droppedRecords = 0;
+        int brokenRecords = 0;
+        int orphans = 0;
+        byte[] id = new byte[ID_LENGTH];
+        for (String key : new ArrayList<>(chunks.keys())) {
+            if (!key.startsWith(REFS_PREFIX)) {
+                continue;
+            }
+            if (!files.contains(key.substring(REFS_PREFIX.length()))) {
+                chunks.delete(key);
+                droppedRecords++;
+                continue;
+            }
+            ByteBuffer record;
+            try (InputStream in = chunks.open(key)) {
+                record = ByteBuffer.wrap(in.readAllBytes());
+            }
+            String missing = null;
+            while (missing == null && record.remaining() >= ID_LENGTH + 4) {
+                record.get(id);
+                record.getInt();
+                if (!chunks.contains(CHUNK_PREFIX + HEX.formatHex(id))) {
+                    missing = HEX.formatHex(id);
+                }
+            }
+            if (missing != null) {
+                System.err.println("Dropping chunk record of " + key.substring(REFS_PREFIX.length())
+                        + ": chunk " + missing + " is missing, the file cannot be read");
+                chunks.delete(key);
+                brokenRecords++;
+                continue;
+            }
+            record.rewind();
+            while (record.remaining() >= ID_LENGTH + 4) {
+                record.get(id);
+                int length = record.getInt();
+                index.computeIfAbsent(HEX.formatHex(id), ignored -> new Chunk(0, 0)).references++;
+                logicalBytes.addAndGet(length);
+            }
+        }
+        for (String key : new ArrayList<>(chunks.keys())) {
+            if (!key.startsWith(CHUNK_PREFIX)) {
+                continue;
+            }
+            Chunk chunk = index.get(key.substring(CHUNK_PREFIX.length()));
+            if (chunk == null) {
+                chunks.delete(key);
+                orphans++;
+            } else {
+                chunk.size = chunks.size(key);
+                storedBytes.addAndGet(chunk.size);
+            }
+        }
+        System.out.println("Chunk store indexed " + index.size() + " chunks (" + logicalBytes.get() + " content bytes in "
+                + storedBytes.get() + " stored), dropped " + droppedRecords + " stale records, " + brokenRecords
+                + " records with missing chunks and " + orphans + " unreferenced chunks");
+    }
+
+    private Object lock(String id) {
+        return locks[Math.floorMod(id.hashCode(), LOCK_STRIPES)];
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] derive(Mac mac, String purpose, byte[] digest) {
+        mac.update(purpose.getBytes(StandardCharsets.US_ASCII));
+        return mac.doFinal(digest);
+    }
+
+    private static final class Chunk {
+        int references; // guarded by the stripe lock
+        long size;
+
+        Chunk(int references, long size) {
+            this.references = references;
+            this.size = size;
+        }
+    }
+
+    // Content of consecutive chunks, each decrypted as it is reached.
+    private final class ChunkedInputStream extends InputStream {
+
+        private final Manifest manifest;
+        private final StorageReads reads;
+        private int next;
+        private long position;
+        private long remaining;
+        private InputStream current;
+
+        ChunkedInputStream(Manifest manifest, long position, long count, StorageReads reads) {
+            this.manifest = manifest;
+            this.reads = reads;
+            this.position = position;
+            this.remaining = count;
+            // First chunk ending after 'position'
+            int found = Arrays.binarySearch(manifest.offsets, 0, manifest.chunkCount(), position);
+            this.next = found >= 0 ? found : -found - 2;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (remaining > 0) {
+                if (current == null) {
+                    current = openNext();
+                }
+                int n = current.read(b, off, (int) Math.min(len, remaining));
+                if (n > 0) {
+                    position += n;
+                    remaining -= n;
+                    return n;
+                }
+                current.close();
+                current = null;
+            }
+            return -1;
+        }
+
+        private InputStream openNext() throws IOException {
+            int i = next++;
+            if (i >= manifest.chunkCount()) {
+                throw new IOException("Chunked content is truncated");
+            }
+            String key = CHUNK_PREFIX + HEX.formatHex(manifest.ids.get(i));
+            long size = chunks.size(key);
+            if (size < 0) {
+                throw new IOException("Chunk " + key + " is missing");
+            }
+            long within = position - manifest.offsets[i];
+            long count = Math.min(manifest.lengths[i] - within, remaining);
+            SecretKey chunkKey = new DestroyableSecretKey(manifest.keys.get(i).clone());
+            return encryptionService.decryptingStream((from, length) -> {
+                long opened = System.nanoTime();
+                InputStream in = chunks.open(key, from, length);
+                return reads == null ? in : reads.opened(in, opened);
+            }, size, within, count, chunkKey);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.tdabac.service;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Computes the CIDv0 that `ipfs add` (default settings: 256 KiB fixed-size
+// chunks, dag-pb/UnixFS leaves, balanced layout with 174 links per node)
+// assigns to a byte stream. Bytes are fed in as they are produced, so the
+// content never has to be held in memory; only one chunk plus one pending
+// list of links per tree level is buffered.
+public class CidBuilder {
+
+    public static final int CHUNK_SIZE = 256 * 1024;
+    public static final int MAX_LINKS = 174;
+
+    // UnixFS Data.DataType.File
+    private static final int UNIXFS_FILE = 2;
+
+    private final MessageDigest sha256;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkLength;
+    private boolean hasLeaf;
+
+    // levels.get(0) collects leaves, levels.get(k) collects nodes of depth k.
+    private final List<List<Link>> levels = new ArrayList<>();
+    private String cid;
+
+    private static class Link {
+        final byte[] multihash;
+        final long treeSize; // serialized size of the whole sub-DAG
+        final long fileSize; // content bytes below this link
+
+        Link(byte[] multihash, long treeSize, long fileSize) {
+            this.multihash = multihash;
+            this.treeSize = treeSize;
+            this.fileSize = fileSize;
+        }
+    }
+
+    public CidBuilder() {
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String of(ByteBuffer data) {
+        CidBuilder builder = new CidBuilder();
+        builder.update(data.duplicate());
+        return builder.build();
+    }
+
+    public void update(byte[] b, int off, int len) {
+        if (cid != null) {
+            throw new IllegalStateException("CID already built");
+        }
+        while (len > 0) {
+            // A full chunk is only emitted once more data arrives, so a file
+            // that ends on a chunk boundary does not get an empty last leaf.
+            if (chunkLength == CHUNK_SIZE) {
+                emitLeaf();
+            }
+            int n = Math.min(len, CHUNK_SIZE - chunkLength);
+            System.arraycopy(b, off, chunk, chunkLength, n);
+            chunkLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Consumes the remaining bytes of 'data'.
+    public void update(ByteBuffer data) {
+        if (data.hasArray()) {
+            update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+            return;
+        }
+        byte[] buffer = new byte[Math.min(data.remaining(), 8192)];
+        while (data.hasRemaining()) {
+            int n = Math.min(data.remaining(), buffer.length);
+            data.get(buffer, 0, n);
+            update(buffer, 0, n);
+        }
+    }
+
+    public String build() {
+        if (cid != null) {
+            return cid;
+        }
+        if (chunkLength > 0 || !hasLeaf) {
+            emitLeaf();
+        }
+
+        // A single leaf is its own root; otherwise every leaf sits at the same
+        // depth, even if that leaves a node with a single child.
+        Link root;
+        if (levels.size() == 1 && levels.get(0).size() == 1) {
+            root = levels.get(0).get(0);
+        } else {
+            // add() may grow the tree by one more level if a parent is full.
+            for (int depth = 0; depth < levels.size() - 1; depth++) {
+                add(depth + 1, node(levels.get(depth)));
+            }
+            root = node(levels.get(levels.size() - 1));
+        }
+        cid = base58(root.multihash);
+        return cid;
+    }
+
+    private void emitLeaf() {
+        ByteArrayOutputStream unixfs = new ByteArrayOutputStream(chunkLength + 16);
+        writeTag(unixfs, 1, 0);
+        writeVarint(unixfs, UNIXFS_FILE);
+        if (chunkLength > 0) {
+            writeBytes(unixfs, 2, chunk, chunkLength);
+        }
+        writeTag(unixfs, 3, 0);
+        writeVarint(unixfs, chunkLength);
+
+        byte[] block = pbNode(new ArrayList<>(), unixfs.toByteArray());
+        add(0, new Link(multihash(block), block.length, chunkLength));
+        chunkLength = 0;
+        hasLeaf = true;
+    }
+
+    // Nodes are folded lazily: a full level is turned into a parent only when
+    // one more link arrives for it, which is when the tree must grow.
+    private void add(int depth, Link link) {
+        if (levels.size() == depth) {
+            levels.add(new ArrayList<>());
+        }
+        List<Link> level = levels.get(depth);
+        if (level.size() == MAX_LINKS) {
+            Link parent = node(level);
+            add(depth + 1, parent);
+        }
+        level.add(link);
+    }
+
+    // Builds the parent of 'children' and empties the list.
+    private Link node(List<Link> children) {
+        ByteArrayOutputStream unixfs = new ByteArrayOutputStream();
+        long fileSize = 0;
+        long treeSize = 0;
+        for (Link child : children) {
+            fileSize += child.fileSize;
+            treeSize += child.treeSize;
+        }
+        writeTag(unixfs, 1, 0);
+        writeVarint(unixfs, UNIXFS_FILE);
+        writeTag(unixfs, 3, 0);
+        writeVarint(unixfs, fileSize);
+        for (Link child : children) {
+            writeTag(unixfs, 4, 0);
+            writeVarint(unixfs, child.fileSize);
+        }
+
+        byte[] block = pbNode(children, unixfs.toByteArray());
+        children.clear();
+        return new Link(multihash(block), block.length + treeSize, fileSize);
+    }
+
+    // dag-pb PBNode: Links (field 2) are serialized before Data (field 1).
+    private static byte[] pbNode(List<Link> links, byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + links.size() * 48 + 8);
+        for (Link link : links) {
+            ByteArrayOutputStream pbLink = new ByteArrayOutputStream(48);
+            writeBytes(pbLink, 1, link.multihash, link.multihash.length);
+            writeBytes(pbLink, 2, new byte[0], 0); // empty Name, always present
+            writeTag(pbLink, 3, 0);
+            writeVarint(pbLink, link.treeSize);
+            writeBytes(out, 2, pbLink.toByteArray(), pbLink.size());
+        }
+        writeBytes(out, 1, data, data.length);
+        return out.toByteArray();
+    }
+
+    // sha2-256 multihash: <0x12><0x20><digest>
+    private byte[] multihash(byte[] block) {
+        byte[] digest = sha256.digest(block);
+        byte[] multihash = new byte[digest.length + 2];
+        multihash[0] = 0x12;
+        multihash[1] = (byte) digest.length;
+        System.arraycopy(digest, 0, multihash, 2, digest.length);
+        return multihash;
+    }
+
+    private static void writeTag(ByteArrayOutputStream out, int field, int wireType) {
+        writeVarint(out, (field << 3) | wireType);
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, int field, byte[] b, int len) {
+        writeTag(out, field, 2);
+        writeVarint(out, len);
+        out.write(b, 0, len);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static final String BASE58_ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+
+    private static String base58(byte[] input) {
+        StringBuilder sb = new StringBuilder();
+        BigInteger value = new BigInteger(1, input);
+        BigInteger base = BigInteger.valueOf(58);
+        while (value.signum() > 0) {
+            BigInteger[] qr = value.divideAndRemainder(base);
+            sb.append(BASE58_ALPHABET.charAt(qr[1].intValue()));
+            value = qr[0];
+        }
+        for (int i = 0; i < input.length && input[i] == 0; i++) {
+            sb.append('1');
+        }
+        return sb.reverse().toString();
+    }
+}
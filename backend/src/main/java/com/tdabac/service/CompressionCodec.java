@@ -0,0 +1,107 @@
+package com.tdabac.service;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+import io.airlift.compress.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Compression applied to file content before it is encrypted (ciphertext
+// does not compress). The id is stored inside the encrypted stream, see
+// EncryptionService.
+public enum CompressionCodec {
+
+    NONE(0, "none"),
+    DEFLATE(1, "deflate"),
+    ZSTD(2, "zstd");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final byte id;
+    private final String tag;
+
+    CompressionCodec(int id, String tag) {
+        this.id = (byte) id;
+        this.tag = tag;
+    }
+
+    public byte id() {
+        return id;
+    }
+
+    public String tag() {
+        return tag;
+    }
+
+    public static CompressionCodec fromId(byte id) throws IOException {
+        for (CompressionCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IOException("Unknown compression codec " + id);
+    }
+
+    // Accepts "none", "deflate" or "zstd" (any case).
+    public static CompressionCodec fromTag(String tag) {
+        for (CompressionCodec codec : values()) {
+            if (codec.tag.equalsIgnoreCase(tag.trim())) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression codec: " + tag);
+    }
+
+    // Compressing view of 'out'. Closing it finishes the compressed stream
+    // and closes 'out'.
+    public OutputStream compress(OutputStream out) throws IOException {
+        switch (this) {
+            case DEFLATE: {
+                // Deflater holds native memory until end() is called
+                Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+                return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            deflater.end();
+                        }
+                    }
+                };
+            }
+            case ZSTD:
+                return new ZstdOutputStream(out);
+            default:
+                return out;
+        }
+    }
+
+    // Decompressing view of 'in'; closing it closes 'in'.
+    public InputStream decompress(InputStream in) throws IOException {
+        switch (this) {
+            case DEFLATE: {
+                Inflater inflater = new Inflater();
+                return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            inflater.end();
+                        }
+                    }
+                };
+            }
+            case ZSTD:
+                return new ZstdInputStream(in);
+            default:
+                return in;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.tdabac.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+// Picks the compression codec for an upload from its content type and, when
+// the type says nothing either way, from how well a sample of its first
+// bytes compresses:
+//
+//   - types that are already compressed (JPEG, video, zip, ...) -> none
+//   - text-like types (JSON/FHIR, CSV, XML, HL7) -> compressed
+//   - anything else (DICOM, octet-stream, no type) -> compressed only if a
+//     fast deflate of the sample reaches min-ratio
+//
+// Compressed content uses 'codec' (zstd by default), or 'small-codec' up to
+// small-file-bytes: deflate costs less to set up than zstd for records of a
+// few KB.
+@Service
+public class CompressionPolicy {
+
+    private static final String DEFAULT_COMPRESSIBLE_TYPES = "text/,application/json,application/fhir+json,"
+            + "application/fhir+xml,application/xml,application/hl7-v2,application/csv,application/x-ndjson";
+    private static final String DEFAULT_INCOMPRESSIBLE_TYPES = "image/jpeg,image/png,image/gif,image/webp,"
+            + "video/,audio/,application/zip,application/gzip,application/x-gzip,application/zstd,"
+            + "application/x-7z-compressed,application/x-rar-compressed";
+
+    private final boolean enabled;
+    private final CompressionCodec codec;
+    private final CompressionCodec smallCodec;
+    private final long smallFileBytes;
+    private final long minSizeBytes;
+    private final double minRatio;
+    private final int sampleBytes;
+    private final String[] compressibleTypes;
+    private final String[] incompressibleTypes;
+
+    @Autowired
+    public CompressionPolicy(@Value("${tdabac.compression.enabled:true}") boolean enabled,
+            @Value("${tdabac.compression.codec:zstd}") String codec,
+            @Value("${tdabac.compression.small-codec:deflate}") String smallCodec,
+            @Value("${tdabac.compression.small-file-bytes:16384}") long smallFileBytes,
+            @Value("${tdabac.compression.min-size-bytes:256}") long minSizeBytes,
+            @Value("${tdabac.compression.min-ratio:1.2}") double minRatio,
+            @Value("${tdabac.compression.sample-bytes:65536}") int sampleBytes,
+            @Value("${tdabac.compression.compressible-types:" + DEFAULT_COMPRESSIBLE_TYPES + "}") String[] compressibleTypes,
+            @Value("${tdabac.compression.incompressible-types:" + DEFAULT_INCOMPRESSIBLE_TYPES + "}") String[] incompressibleTypes) {
+        this.enabled = enabled;
+        this.codec = CompressionCodec.fromTag(codec);
+        this.smallCodec = CompressionCodec.fromTag(smallCodec);
+        this.smallFileBytes = smallFileBytes;
+        this.minSizeBytes = minSizeBytes;
+        this.minRatio = minRatio;
+        this.sampleBytes = sampleBytes;
+        this.compressibleTypes = normalize(compressibleTypes);
+        this.incompressibleTypes = normalize(incompressibleTypes);
+    }
+
+    // Defaults, for use outside Spring
+    public CompressionPolicy() {
+        this(true, "zstd", "deflate", 16384, 256, 1.2, 65536, DEFAULT_COMPRESSIBLE_TYPES.split(","),
+                DEFAULT_INCOMPRESSIBLE_TYPES.split(","));
+    }
+
+    // How many leading bytes choose() wants to look at.
+    public int sampleBytes() {
+        return sampleBytes;
+    }
+
+    // 'sample' holds the first 'sampleLength' bytes of the content (all of
+    // it if it is shorter than sampleBytes()).
+    public CompressionCodec choose(String contentType, long size, byte[] sample, int sampleLength) {
+        if (!enabled || size < minSizeBytes) {
+            return CompressionCodec.NONE;
+        }
+        String type = contentType == null ? "" : baseType(contentType);
+        if (matches(type, incompressibleTypes)) {
+            return CompressionCodec.NONE;
+        }
+        if (!matches(type, compressibleTypes) && sampleRatio(sample, sampleLength) < minRatio) {
+            return CompressionCodec.NONE;
+        }
+        return size <= smallFileBytes ? smallCodec : codec;
+    }
+
+    // Compression ratio of a fast (level 1) deflate of the sample; the output
+    // is counted, not kept.
+    static double sampleRatio(byte[] sample, int length) {
+        if (length == 0) {
+            return 1.0;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] scratch = new byte[8192];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(scratch);
+            }
+            return (double) length / Math.max(1, compressed);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean matches(String type, String[] patterns) {
+        for (String pattern : patterns) {
+            // "text/" covers every text type
+            if (pattern.endsWith("/") ? type.startsWith(pattern) : type.equals(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // "Application/JSON; charset=utf-8" -> "application/json"
+    private static String baseType(String contentType) {
+        int semicolon = contentType.indexOf(';');
+        return (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String[] normalize(String[] types) {
+        return Arrays.stream(types)
+                .map(type -> type.trim().toLowerCase(Locale.ROOT))
+                .filter(type -> !type.isEmpty())
+                .toArray(String[]::new);
+    }
+}
@@ -0,0 +1,116 @@
+package com.tdabac.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Content-defined chunking (FastCDC): chunk boundaries are placed where a
+// rolling gear hash of the last bytes matches a mask, so they depend on the
+// content around them rather than on offsets. The same study uploaded
+// again, or with a few bytes inserted near the start, yields mostly the same
+// chunks, which is what lets ChunkStore store them once.
+//
+// Normalized chunking: before avgBytes a boundary takes one more matching
+// bit than after it, which pulls chunk sizes towards the average. Chunks are
+// never shorter than minBytes (except the last) nor longer than maxBytes.
+public final class ContentDefinedChunker {
+
+    // Fixed, so chunk boundaries are the same across restarts and nodes
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x7DABAC_C0DEL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final int minBytes;
+    private final int avgBytes;
+    private final int maxBytes;
+    // Matched against the top bits of the hash, which depend on the last
+    // 64 bytes
+    private final long strictMask;
+    private final long looseMask;
+
+    public ContentDefinedChunker(int minBytes, int avgBytes, int maxBytes) {
+        if (minBytes <= 0 || minBytes > avgBytes || avgBytes > maxBytes || Integer.bitCount(avgBytes) != 1) {
+            throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min <= avg <= max with avg a power of two: "
+                    + minBytes + "/" + avgBytes + "/" + maxBytes);
+        }
+        this.minBytes = minBytes;
+        this.avgBytes = avgBytes;
+        this.maxBytes = maxBytes;
+        int bits = Integer.numberOfTrailingZeros(avgBytes);
+        this.strictMask = -1L << (64 - Math.min(63, bits + 1));
+        this.looseMask = -1L << (64 - Math.max(1, bits - 1));
+    }
+
+    public int maxBytes() {
+        return maxBytes;
+    }
+
+    // Length of the chunk starting at buffer[offset], out of 'length'
+    // available bytes. 'length' is less than maxBytes only at the end of the
+    // content, where the rest becomes the last chunk if no boundary is found.
+    public int cut(byte[] buffer, int offset, int length) {
+        if (length <= minBytes) {
+            return length;
+        }
+        int end = Math.min(length, maxBytes);
+        int normal = Math.min(end, avgBytes);
+        long hash = 0;
+        int i = minBytes;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[buffer[offset + i] & 0xff];
+            if ((hash & strictMask) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[buffer[offset + i] & 0xff];
+            if ((hash & looseMask) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    public Reader reader(InputStream in) {
+        return new Reader(in);
+    }
+
+    // Splits a stream into chunks, holding at most maxBytes of it at a time.
+    public final class Reader {
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[maxBytes];
+        private int filled;
+        private boolean eof;
+
+        private Reader(InputStream in) {
+            this.in = in;
+        }
+
+        // The next chunk, or null at the end of the content.
+        public byte[] next() throws IOException {
+            while (!eof && filled < buffer.length) {
+                int read = in.read(buffer, filled, buffer.length - filled);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    filled += read;
+                }
+            }
+            if (filled == 0) {
+                return null;
+            }
+            int length = cut(buffer, 0, filled);
+            byte[] chunk = Arrays.copyOf(buffer, length);
+            System.arraycopy(buffer, length, buffer, 0, filled - length);
+            filled -= length;
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.tdabac.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Content of a compressed stream: decompresses the decrypted plaintext
+// (after its content header) and returns exactly the content length the
+// header promised, failing if the compressed data ends early.
+//
+// Time spent in the decompressor, not counting the decryption underneath
+// it, is reported to PipelineMetrics (if any) on close.
+class DecompressingInputStream extends InputStream {
+
+    private final CompressionCodec codec;
+    private final PipelineMetrics metrics;
+    private final InputStream decoder;
+    private final long contentLength;
+    private long remaining;
+    private boolean closed;
+
+    // Time in reads of this stream, and in reads of the decrypting stream
+    // below the decompressor
+    private long nanos;
+    private long innerNanos;
+
+    DecompressingInputStream(InputStream plaintext, CompressionCodec codec, long contentLength,
+            PipelineMetrics metrics) throws IOException {
+        this.codec = codec;
+        this.metrics = metrics;
+        this.contentLength = contentLength;
+        this.remaining = contentLength;
+        long start = System.nanoTime();
+        this.decoder = codec.decompress(new FilterInputStream(plaintext) {
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                int b = in.read();
+                innerNanos += System.nanoTime() - start;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                int n = in.read(b, off, len);
+                innerNanos += System.nanoTime() - start;
+                return n;
+            }
+        });
+        nanos += System.nanoTime() - start;
+    }
+
+    long contentLength() {
+        return contentLength;
+    }
+
+    // Stops after 'count' more bytes (for range requests).
+    void limit(long count) {
+        remaining = Math.min(remaining, count);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining == 0) {
+            return -1;
+        }
+        long start = System.nanoTime();
+        int n = decoder.read(b, off, (int) Math.min(len, remaining));
+        nanos += System.nanoTime() - start;
+        if (n < 0) {
+            throw new IOException("Compressed content is truncated: " + remaining + " bytes missing");
+        }
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            decoder.close();
+        } finally {
+            if (metrics != null) {
+                metrics.decompressed(codec, Math.max(0, nanos - innerNanos));
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.tdabac.service;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+// Plaintext view of EncryptionService's segmented stream format. Decrypts
+// one segment at a time; a segment's plaintext is only handed out after its
+// tag has been verified.
+//
+// Reads either a whole stream, finding the last segment by looking ahead, or
+// a run of segments out of the middle of a blob whose segment count is known
+// up front (for range requests).
+class DecryptingInputStream extends InputStream {
+
+    private final InputStream in;
+    private final Cipher cipher;
+    private final SecretKey secretKey;
+    private final byte[] header;
+    private final int sealedSegmentSize;
+
+    private byte[] sealed;
+    private byte[] lookahead;
+    private int lookaheadLength;
+    private final byte[] plaintext;
+    private int plaintextPosition;
+    private int plaintextLength;
+    private int segmentIndex;
+    private boolean finished;
+
+    // -1 when the stream is read to its end with lookahead.
+    private final long segmentCount;
+    // Plaintext still to be dropped from the front of the first segment.
+    private int skip;
+    // Plaintext still to be returned.
+    private long remaining = Long.MAX_VALUE;
+
+    DecryptingInputStream(InputStream in, Cipher cipher, SecretKey secretKey, byte[] header, int segmentSize)
+            throws IOException {
+        this.in = in;
+        this.cipher = cipher;
+        this.secretKey = secretKey;
+        this.header = header;
+        this.sealedSegmentSize = segmentSize + EncryptionService.TAG_LENGTH_BYTE;
+        this.sealed = new byte[sealedSegmentSize];
+        this.lookahead = new byte[sealedSegmentSize];
+        this.plaintext = new byte[segmentSize];
+        this.segmentCount = -1;
+        this.lookaheadLength = in.readNBytes(lookahead, 0, sealedSegmentSize);
+    }
+
+    // 'in' starts at segment 'firstSegment' of a blob of 'segmentCount'
+    // segments. Returns 'length' bytes starting 'skip' bytes into it.
+    DecryptingInputStream(InputStream in, Cipher cipher, SecretKey secretKey, byte[] header, int segmentSize,
+            int firstSegment, long segmentCount, int skip, long length) {
+        this.in = in;
+        this.cipher = cipher;
+        this.secretKey = secretKey;
+        this.header = header;
+        this.sealedSegmentSize = segmentSize + EncryptionService.TAG_LENGTH_BYTE;
+        this.sealed = new byte[sealedSegmentSize];
+        this.plaintext = new byte[segmentSize];
+        this.segmentIndex = firstSegment;
+        this.segmentCount = segmentCount;
+        this.skip = skip;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining == 0) {
+            return -1;
+        }
+        while (plaintextPosition == plaintextLength) {
+            if (finished) {
+                return -1;
+            }
+            nextSegment();
+            if (skip > 0) {
+                plaintextPosition = Math.min(skip, plaintextLength);
+                skip -= plaintextPosition;
+            }
+        }
+        int n = (int) Math.min(Math.min(len, plaintextLength - plaintextPosition), remaining);
+        System.arraycopy(plaintext, plaintextPosition, b, off, n);
+        plaintextPosition += n;
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(plaintextLength - plaintextPosition, remaining);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void nextSegment() throws IOException {
+        int sealedLength;
+        boolean last;
+        if (segmentCount < 0) {
+            // The buffered segment becomes current; whether it is the last one
+            // depends on whether anything follows it.
+            byte[] swap = sealed;
+            sealed = lookahead;
+            lookahead = swap;
+            sealedLength = lookaheadLength;
+            if (sealedLength < EncryptionService.TAG_LENGTH_BYTE) {
+                throw new IOException("Encrypted stream is truncated");
+            }
+            lookaheadLength = sealedLength == sealedSegmentSize ? in.readNBytes(lookahead, 0, sealedSegmentSize) : 0;
+            last = lookaheadLength == 0;
+        } else {
+            // Only the final segment of the blob may be short.
+            last = segmentIndex == segmentCount - 1;
+            sealedLength = in.readNBytes(sealed, 0, sealedSegmentSize);
+            if (sealedLength < EncryptionService.TAG_LENGTH_BYTE || (!last && sealedLength < sealedSegmentSize)) {
+                throw new IOException("Encrypted stream is truncated");
+            }
+        }
+
+        try {
+            EncryptionService.initSegmentCipher(cipher, Cipher.DECRYPT_MODE, secretKey, header, segmentIndex, last);
+            plaintextLength = cipher.doFinal(sealed, 0, sealedLength, plaintext, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Encrypted segment " + segmentIndex + " failed authentication", e);
+        }
+        plaintextPosition = 0;
+        segmentIndex++;
+        finished = last;
+    }
+}
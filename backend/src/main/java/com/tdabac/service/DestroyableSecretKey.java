@@ -0,0 +1,57 @@
+package com.tdabac.service;
+
+import javax.crypto.SecretKey;
+import java.util.Arrays;
+
+// AES key whose bytes can be wiped. The JDK's SecretKeySpec does not
+// implement destroy(), so a key dropped from memory would otherwise linger
+// on the heap until the GC happens to overwrite it. After destroy() every
+// use fails with IllegalStateException, so a stream still decrypting with
+// the key stops instead of reading zeros.
+public final class DestroyableSecretKey implements SecretKey {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] key;
+    private volatile boolean destroyed;
+
+    // Takes ownership of the array; the caller must not keep a copy.
+    public DestroyableSecretKey(byte[] key) {
+        this.key = key;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return "AES";
+    }
+
+    @Override
+    public String getFormat() {
+        return "RAW";
+    }
+
+    // A copy, like SecretKeySpec; providers copy it again into their own
+    // key schedule, which lives only as long as the Cipher.
+    @Override
+    public byte[] getEncoded() {
+        synchronized (key) {
+            if (destroyed) {
+                throw new IllegalStateException("Key has been destroyed");
+            }
+            return key.clone();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        synchronized (key) {
+            Arrays.fill(key, (byte) 0);
+            destroyed = true;
+        }
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+}
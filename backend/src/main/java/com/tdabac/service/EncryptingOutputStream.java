@@ -0,0 +1,95 @@
+package com.tdabac.service;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+// Writes EncryptionService's segmented stream format, for producers that
+// push bytes (a compressor) rather than hand over an InputStream. The
+// header must already have been written to 'out'.
+//
+// A full segment is only sealed once more bytes arrive, since until then it
+// may turn out to be the last one; close() seals whatever is left with the
+// last flag. 'out' is not closed.
+class EncryptingOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final Cipher cipher;
+    private final SecretKey secretKey;
+    private final byte[] header;
+    private final byte[] segment;
+    private final byte[] sealed;
+    private int segmentLength;
+    private int segmentIndex;
+    private boolean closed;
+
+    // Ciphertext bytes written (not counting the header), and the time
+    // spent sealing and writing them
+    private long written;
+    private long nanos;
+
+    EncryptingOutputStream(OutputStream out, Cipher cipher, SecretKey secretKey, byte[] header, int segmentSize) {
+        this.out = out;
+        this.cipher = cipher;
+        this.secretKey = secretKey;
+        this.header = header;
+        this.segment = new byte[segmentSize];
+        this.sealed = new byte[segmentSize + EncryptionService.TAG_LENGTH_BYTE];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            if (segmentLength == segment.length) {
+                seal(false);
+            }
+            int n = Math.min(len, segment.length - segmentLength);
+            System.arraycopy(b, off, segment, segmentLength, n);
+            segmentLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        seal(true);
+    }
+
+    long written() {
+        return written;
+    }
+
+    long nanos() {
+        return nanos;
+    }
+
+    private void seal(boolean last) throws IOException {
+        long start = System.nanoTime();
+        try {
+            EncryptionService.initSegmentCipher(cipher, Cipher.ENCRYPT_MODE, secretKey, header, segmentIndex, last);
+            int sealedLength = cipher.doFinal(segment, 0, segmentLength, sealed, 0);
+            out.write(sealed, 0, sealedLength);
+            written += sealedLength;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Stream encryption failed", e);
+        }
+        segmentLength = 0;
+        segmentIndex++;
+        nanos += System.nanoTime() - start;
+    }
+}
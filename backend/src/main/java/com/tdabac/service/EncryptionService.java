@@ -1,13 +1,19 @@
 package com.tdabac.service;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import javax.crypto.Cipher;
-import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Base64;
 
 @Service
@@ -17,44 +23,508 @@ public class EncryptionService {
     private static final int IV_LENGTH_BYTE = 12;
     private static final int AES_KEY_BIT = 256;
 
+    // Segmented stream format, used for file content so that neither upload
+    // nor download ever holds a whole file in memory:
+    //
+    // header: magic "TDAS" | version (1) | segment size (4) | nonce prefix (7)
+    // body:   segment 0 | segment 1 | ... | last segment
+    //
+    // Each segment is up to SEGMENT_SIZE bytes of plaintext encrypted with
+    // AES-GCM and followed by its own 16-byte tag. The 12-byte nonce is
+    // nonce prefix | segment index (4) | last-segment flag (1), and the header
+    // is authenticated as AAD of every segment. A reordered segment fails on
+    // its index, and a truncated stream fails because its final segment was
+    // not sealed with the last flag.
+    //
+    // Version 2 streams hold compressed content: the plaintext starts with a
+    // content header, codec id (1) | content length (8), followed by the
+    // compressed content. The codec is inside the ciphertext and the version
+    // is authenticated with every segment, so neither can be swapped.
+    // Version 1 plaintext is the content itself, which keeps range reads
+    // down to the segments covering the range; a range of compressed content
+    // is decompressed from the start.
+    private static final byte[] STREAM_MAGIC = { 'T', 'D', 'A', 'S' };
+    private static final byte STREAM_VERSION = 1;
+    private static final byte COMPRESSED_STREAM_VERSION = 2;
+    private static final int CONTENT_HEADER_LENGTH = 1 + 8;
+    private static final int NONCE_PREFIX_LENGTH = 7;
+    public static final int STREAM_HEADER_LENGTH = STREAM_MAGIC.length + 1 + 4 + NONCE_PREFIX_LENGTH;
+    public static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final int TAG_LENGTH_BYTE = TAG_LENGTH_BIT / 8;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    // Compression ratio and time; null outside Spring (benchmarks)
+    private final PipelineMetrics metrics;
+
+    public EncryptionService() {
+        this(null);
+    }
+
+    @Autowired
+    public EncryptionService(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Destroyable, so the key can be wiped once its time-lock expires.
     public SecretKey generateKey() throws Exception {
-        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
-        keyGen.init(AES_KEY_BIT);
-        return keyGen.generateKey();
+        byte[] key = new byte[AES_KEY_BIT / 8];
+        secureRandom.nextBytes(key);
+        return new DestroyableSecretKey(key);
     }
 
-    public String encrypt(byte[] fileData, SecretKey secretKey) throws Exception {
-        byte[] iv = new byte[IV_LENGTH_BYTE];
-        new SecureRandom().nextBytes(iv);
+    // Encrypts a whole buffer into the segmented format in one allocation:
+    // no Base64 and no intermediate copies. The result is flipped for reading.
+    // Interchangeable with the stream API below (same bytes on disk).
+    public ByteBuffer encrypt(ByteBuffer plaintext, SecretKey secretKey) throws Exception {
+        return encrypt(plaintext, secretKey, STREAM_VERSION);
+    }
+
+    // As above, compressing the content with 'codec' first. Falls back to an
+    // uncompressed stream if the content does not get any smaller.
+    public ByteBuffer encrypt(ByteBuffer content, SecretKey secretKey, CompressionCodec codec) throws Exception {
+        int contentLength = content.remaining();
+        if (codec == CompressionCodec.NONE) {
+            compressed(CompressionCodec.NONE, contentLength, contentLength, 0);
+            return encrypt(content, secretKey, STREAM_VERSION);
+        }
+        long start = System.nanoTime();
+        ContentBuffer plaintext = new ContentBuffer(contentLength / 2 + CONTENT_HEADER_LENGTH);
+        plaintext.write(contentHeader(codec, contentLength));
+        try (OutputStream compressor = codec.compress(plaintext)) {
+            if (content.hasArray()) {
+                compressor.write(content.array(), content.arrayOffset() + content.position(), contentLength);
+            } else {
+                byte[] copy = new byte[contentLength];
+                content.duplicate().get(copy);
+                compressor.write(copy);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (plaintext.size() >= contentLength) {
+            compressed(CompressionCodec.NONE, contentLength, contentLength, nanos);
+            return encrypt(content, secretKey, STREAM_VERSION);
+        }
+        compressed(codec, contentLength, plaintext.size() - CONTENT_HEADER_LENGTH, nanos);
+        return encrypt(plaintext.asByteBuffer(), secretKey, COMPRESSED_STREAM_VERSION);
+    }
+
+    private ByteBuffer encrypt(ByteBuffer plaintext, SecretKey secretKey, byte version) throws Exception {
+        ByteBuffer out = ByteBuffer.allocate((int) ciphertextLength(plaintext.remaining(), SEGMENT_SIZE));
+        byte[] header = newStreamHeader(version);
+        out.put(header);
 
         Cipher cipher = Cipher.getInstance(ALGO);
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+        int segmentIndex = 0;
+        do {
+            int length = Math.min(SEGMENT_SIZE, plaintext.remaining());
+            boolean last = plaintext.remaining() == length;
+            ByteBuffer segment = plaintext.slice(plaintext.position(), length);
+            initSegmentCipher(cipher, Cipher.ENCRYPT_MODE, secretKey, header, segmentIndex++, last);
+            cipher.doFinal(segment, out);
+            plaintext.position(plaintext.position() + length);
+        } while (plaintext.hasRemaining());
+
+        return out.flip();
+    }
 
-        byte[] cipherText = cipher.doFinal(fileData);
+    // Decrypts a segmented buffer in place: plaintext overwrites the
+    // ciphertext from the start of the buffer, so the only allocation is the
+    // cipher. Returns a slice of 'ciphertext' holding the plaintext.
+    public ByteBuffer decrypt(ByteBuffer ciphertext, SecretKey secretKey) throws Exception {
+        ByteBuffer in = ciphertext.slice();
+        byte[] header = new byte[STREAM_HEADER_LENGTH];
+        in.get(header);
+        int segmentSize = parseStreamHeader(header);
+        if (header[STREAM_MAGIC.length] == COMPRESSED_STREAM_VERSION) {
+            // Decompressed content does not fit in place
+            byte[] bytes = new byte[ciphertext.remaining()];
+            ciphertext.duplicate().get(bytes);
+            try (InputStream content = decryptingStream(new ByteArrayInputStream(bytes), secretKey)) {
+                return ByteBuffer.wrap(content.readAllBytes());
+            }
+        }
+        int sealedSegmentSize = segmentSize + TAG_LENGTH_BYTE;
 
-        // Prepend IV to ciphertext
-        ByteBuffer byteBuffer = ByteBuffer.allocate(iv.length + cipherText.length);
-        byteBuffer.put(iv);
-        byteBuffer.put(cipherText);
+        Cipher cipher = Cipher.getInstance(ALGO);
+        // Segment i's plaintext lands at i * segmentSize, which is always
+        // behind where segment i's ciphertext starts.
+        ByteBuffer out = ciphertext.slice();
+        int segmentIndex = 0;
+        do {
+            int sealedLength = Math.min(sealedSegmentSize, in.remaining());
+            if (sealedLength < TAG_LENGTH_BYTE) {
+                throw new IOException("Encrypted buffer is truncated");
+            }
+            boolean last = in.remaining() == sealedLength;
+            ByteBuffer segment = in.slice(in.position(), sealedLength);
+            initSegmentCipher(cipher, Cipher.DECRYPT_MODE, secretKey, header, segmentIndex++, last);
+            cipher.doFinal(segment, out);
+            in.position(in.position() + sealedLength);
+        } while (in.hasRemaining());
 
-        return Base64.getEncoder().encodeToString(byteBuffer.array());
+        return out.flip();
     }
 
-    public byte[] decrypt(String encryptedContent, SecretKey secretKey) throws Exception {
-        byte[] decode = Base64.getDecoder().decode(encryptedContent);
+    // Encrypts 'in' to 'out' in the segmented stream format. Memory use is two
+    // segments regardless of the input size. Neither stream is closed.
+    public long encrypt(InputStream in, OutputStream out, SecretKey secretKey) throws IOException {
+        byte[] header = newStreamHeader(STREAM_VERSION);
+        out.write(header);
 
-        ByteBuffer byteBuffer = ByteBuffer.wrap(decode);
+        try {
+            Cipher cipher = Cipher.getInstance(ALGO);
+            byte[] current = new byte[SEGMENT_SIZE];
+            byte[] next = new byte[SEGMENT_SIZE];
+            byte[] sealed = new byte[SEGMENT_SIZE + TAG_LENGTH_BYTE];
+            long written = header.length;
 
-        byte[] iv = new byte[IV_LENGTH_BYTE];
-        byteBuffer.get(iv);
+            // Read one segment ahead: a segment is only known to be the last
+            // one once the following read comes back empty.
+            int currentLength = in.readNBytes(current, 0, SEGMENT_SIZE);
+            int segmentIndex = 0;
+            while (true) {
+                int nextLength = currentLength == SEGMENT_SIZE ? in.readNBytes(next, 0, SEGMENT_SIZE) : 0;
+                boolean last = nextLength == 0;
 
-        byte[] cipherText = new byte[byteBuffer.remaining()];
-        byteBuffer.get(cipherText);
+                initSegmentCipher(cipher, Cipher.ENCRYPT_MODE, secretKey, header, segmentIndex, last);
+                int sealedLength = cipher.doFinal(current, 0, currentLength, sealed, 0);
+                out.write(sealed, 0, sealedLength);
+                written += sealedLength;
 
-        Cipher cipher = Cipher.getInstance(ALGO);
-        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+                if (last) {
+                    return written;
+                }
+                byte[] swap = current;
+                current = next;
+                next = swap;
+                currentLength = nextLength;
+                segmentIndex++;
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Stream encryption failed", e);
+        }
+    }
+
+    // As above, compressing the content with 'codec' first. 'contentLength'
+    // is the exact number of bytes 'in' holds: it goes into the content
+    // header ahead of the content, so a download knows its length without
+    // decompressing anything.
+    public long encrypt(InputStream in, OutputStream out, SecretKey secretKey, CompressionCodec codec,
+            long contentLength) throws IOException {
+        if (codec == CompressionCodec.NONE) {
+            compressed(CompressionCodec.NONE, contentLength, contentLength, 0);
+            return encrypt(in, out, secretKey);
+        }
+        byte[] header = newStreamHeader(COMPRESSED_STREAM_VERSION);
+        out.write(header);
+
+        EncryptingOutputStream encrypting;
+        try {
+            encrypting = new EncryptingOutputStream(out, Cipher.getInstance(ALGO), secretKey, header, SEGMENT_SIZE);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Stream encryption failed", e);
+        }
+        encrypting.write(contentHeader(codec, contentLength));
+
+        // Time in the compressor, minus the encryption it calls into, is the
+        // cost of compressing; reading 'in' is not counted
+        long nanos = 0;
+        long read = 0;
+        byte[] buffer = new byte[SEGMENT_SIZE];
+        OutputStream compressor = codec.compress(encrypting);
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            read += n;
+            if (read > contentLength) {
+                throw new IOException("Content is longer than the " + contentLength + " bytes announced");
+            }
+            long start = System.nanoTime();
+            compressor.write(buffer, 0, n);
+            nanos += System.nanoTime() - start;
+        }
+        if (read != contentLength) {
+            throw new IOException("Content is " + read + " bytes, not the " + contentLength + " announced");
+        }
+        long start = System.nanoTime();
+        compressor.close(); // Finishes the compressed stream and seals the last segment
+        nanos += System.nanoTime() - start;
+
+        long written = header.length + encrypting.written();
+        compressed(codec, contentLength, plaintextLength(written, SEGMENT_SIZE) - CONTENT_HEADER_LENGTH,
+                Math.max(0, nanos - encrypting.nanos()));
+        return written;
+    }
+
+    // Decrypts a segmented stream from 'in' to 'out'. Fails before releasing
+    // any plaintext of a segment that does not authenticate.
+    public long decrypt(InputStream in, OutputStream out, SecretKey secretKey) throws IOException {
+        try (InputStream plaintext = decryptingStream(in, secretKey)) {
+            return plaintext.transferTo(out);
+        }
+    }
+
+    // Lazily decrypting view of a segmented stream; closing it closes 'in'.
+    public InputStream decryptingStream(InputStream in, SecretKey secretKey) throws IOException {
+        byte[] header = in.readNBytes(STREAM_HEADER_LENGTH);
+        int segmentSize = parseStreamHeader(header);
+        InputStream plaintext;
+        try {
+            plaintext = new DecryptingInputStream(in, Cipher.getInstance(ALGO), secretKey, header, segmentSize);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Stream decryption failed", e);
+        }
+        if (header[STREAM_MAGIC.length] == COMPRESSED_STREAM_VERSION) {
+            return decompressing(plaintext);
+        }
+        return plaintext;
+    }
+
+    // Ranged reads of a stored ciphertext, e.g. BlobStore.open(key, position, count).
+    public interface CiphertextSource {
+        InputStream open(long position, long count) throws IOException;
+    }
+
+    // Content length of a segmented blob of 'ciphertextLength' bytes: the
+    // plaintext length, or for a compressed blob the length recorded in its
+    // content header (which takes decrypting the first segment).
+    public long contentLength(CiphertextSource source, long ciphertextLength, SecretKey secretKey) throws IOException {
+        return contentLength(source, ciphertextLength, secretKey, null);
+    }
+
+    // As above, decrypting the first segment through 'segments' if given.
+    public long contentLength(CiphertextSource source, long ciphertextLength, SecretKey secretKey,
+            SegmentSource segments) throws IOException {
+        byte[] header = readStreamHeader(source);
+        int segmentSize = parseStreamHeader(header);
+        if (header[STREAM_MAGIC.length] != COMPRESSED_STREAM_VERSION) {
+            return plaintextLength(ciphertextLength, segmentSize);
+        }
+        try (DecompressingInputStream content = openCompressed(source, ciphertextLength, header, segmentSize, secretKey,
+                segments)) {
+            return content.contentLength();
+        }
+    }
+
+    // Lazily decrypting view of content bytes [position, position + count)
+    // of a segmented blob of 'ciphertextLength' bytes. Only the segments that
+    // cover the range are read and authenticated, unless the content is
+    // compressed: then it is decompressed from the start and the bytes before
+    // 'position' are skipped.
+    public InputStream decryptingStream(CiphertextSource source, long ciphertextLength, long position, long count,
+            SecretKey secretKey) throws IOException {
+        return decryptingStream(source, ciphertextLength, position, count, secretKey, null);
+    }
+
+    // As above, with the plaintext segments coming from 'segments' (e.g. a
+    // SegmentCache shared by concurrent downloads) when it is not null.
+    public InputStream decryptingStream(CiphertextSource source, long ciphertextLength, long position, long count,
+            SecretKey secretKey, SegmentSource segments) throws IOException {
+        byte[] header = readStreamHeader(source);
+        int segmentSize = parseStreamHeader(header);
+        if (header[STREAM_MAGIC.length] == COMPRESSED_STREAM_VERSION) {
+            DecompressingInputStream content = openCompressed(source, ciphertextLength, header, segmentSize, secretKey,
+                    segments);
+            try {
+                if (position < 0 || count < 0 || position + count > content.contentLength()) {
+                    throw new IllegalArgumentException("Range " + position + "+" + count + " outside of "
+                            + content.contentLength() + " bytes");
+                }
+                content.skipNBytes(position);
+                content.limit(count);
+                return content;
+            } catch (IOException | RuntimeException e) {
+                content.close();
+                throw e;
+            }
+        }
+
+        long plaintextLength = plaintextLength(ciphertextLength, segmentSize);
+        if (position < 0 || count < 0 || position + count > plaintextLength) {
+            throw new IllegalArgumentException("Range " + position + "+" + count + " outside of " + plaintextLength + " bytes");
+        }
+        if (count == 0) {
+            return InputStream.nullInputStream();
+        }
+
+        long segmentCount = segmentCount(ciphertextLength, segmentSize);
+        long sealedSegmentSize = segmentSize + TAG_LENGTH_BYTE;
+        long firstSegment = position / segmentSize;
+        if (segments != null) {
+            return new SegmentInputStream(index -> segments.segment(index,
+                    () -> decryptSegment(source, ciphertextLength, header, segmentSize, index, secretKey)),
+                    firstSegment, (int) (position - firstSegment * segmentSize), count);
+        }
+        long lastSegment = (position + count - 1) / segmentSize;
+        long from = STREAM_HEADER_LENGTH + firstSegment * sealedSegmentSize;
+        long to = Math.min(ciphertextLength, STREAM_HEADER_LENGTH + (lastSegment + 1) * sealedSegmentSize);
+
+        InputStream in = source.open(from, to - from);
+        try {
+            return new DecryptingInputStream(in, Cipher.getInstance(ALGO), secretKey, header, segmentSize,
+                    Math.toIntExact(firstSegment), segmentCount, (int) (position - firstSegment * segmentSize), count);
+        } catch (GeneralSecurityException | ArithmeticException e) {
+            in.close();
+            throw new IOException("Stream decryption failed", e);
+        }
+    }
+
+    // Plaintext segments of one blob by index, e.g. from a cache shared by
+    // concurrent readers. 'decrypt' reads and decrypts the segment.
+    public interface SegmentSource {
+        byte[] segment(long index, SegmentDecrypter decrypt) throws IOException;
+    }
+
+    public interface SegmentDecrypter {
+        byte[] decrypt() throws IOException;
+    }
+
+    // Reads and authenticates a single segment of a blob.
+    private static byte[] decryptSegment(CiphertextSource source, long ciphertextLength, byte[] header, int segmentSize,
+            long index, SecretKey secretKey) throws IOException {
+        long sealedSegmentSize = segmentSize + TAG_LENGTH_BYTE;
+        long segmentCount = segmentCount(ciphertextLength, segmentSize);
+        boolean last = index == segmentCount - 1;
+        long from = STREAM_HEADER_LENGTH + index * sealedSegmentSize;
+        int sealedLength = (int) Math.min(sealedSegmentSize, ciphertextLength - from);
+        if (index >= segmentCount || sealedLength < TAG_LENGTH_BYTE || (!last && sealedLength < sealedSegmentSize)) {
+            throw new IOException("Encrypted stream is truncated");
+        }
+        byte[] sealed;
+        try (InputStream in = source.open(from, sealedLength)) {
+            sealed = in.readNBytes(sealedLength);
+        }
+        if (sealed.length != sealedLength) {
+            throw new IOException("Encrypted stream is truncated");
+        }
+        try {
+            Cipher cipher = Cipher.getInstance(ALGO);
+            initSegmentCipher(cipher, Cipher.DECRYPT_MODE, secretKey, header, Math.toIntExact(index), last);
+            return cipher.doFinal(sealed);
+        } catch (GeneralSecurityException | ArithmeticException e) {
+            throw new IOException("Encrypted segment " + index + " failed authentication", e);
+        }
+    }
+
+    private static byte[] readStreamHeader(CiphertextSource source) throws IOException {
+        try (InputStream in = source.open(0, STREAM_HEADER_LENGTH)) {
+            return in.readNBytes(STREAM_HEADER_LENGTH);
+        }
+    }
+
+    private static long segmentCount(long ciphertextLength, int segmentSize) {
+        long sealedSegmentSize = segmentSize + TAG_LENGTH_BYTE;
+        return Math.max(1, (ciphertextLength - STREAM_HEADER_LENGTH + sealedSegmentSize - 1) / sealedSegmentSize);
+    }
+
+    // The whole compressed blob, decrypted and decompressed.
+    private DecompressingInputStream openCompressed(CiphertextSource source, long ciphertextLength, byte[] header,
+            int segmentSize, SecretKey secretKey, SegmentSource segments) throws IOException {
+        if (segments != null) {
+            return decompressing(new SegmentInputStream(index -> segments.segment(index,
+                    () -> decryptSegment(source, ciphertextLength, header, segmentSize, index, secretKey)),
+                    0, 0, plaintextLength(ciphertextLength, segmentSize)));
+        }
+        InputStream in = source.open(STREAM_HEADER_LENGTH, ciphertextLength - STREAM_HEADER_LENGTH);
+        try {
+            return decompressing(new DecryptingInputStream(in, Cipher.getInstance(ALGO), secretKey, header, segmentSize,
+                    0, segmentCount(ciphertextLength, segmentSize), 0, plaintextLength(ciphertextLength, segmentSize)));
+        } catch (GeneralSecurityException e) {
+            in.close();
+            throw new IOException("Stream decryption failed", e);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Reads the content header off decrypted plaintext and returns the
+    // decompressed content that follows it.
+    private DecompressingInputStream decompressing(InputStream plaintext) throws IOException {
+        byte[] contentHeader = plaintext.readNBytes(CONTENT_HEADER_LENGTH);
+        if (contentHeader.length != CONTENT_HEADER_LENGTH) {
+            throw new IOException("Compressed stream is truncated");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(contentHeader);
+        CompressionCodec codec = CompressionCodec.fromId(buffer.get());
+        long contentLength = buffer.getLong();
+        if (codec == CompressionCodec.NONE || contentLength < 0) {
+            throw new IOException("Invalid content header");
+        }
+        return new DecompressingInputStream(plaintext, codec, contentLength, metrics);
+    }
+
+    private static byte[] contentHeader(CompressionCodec codec, long contentLength) {
+        return ByteBuffer.allocate(CONTENT_HEADER_LENGTH).put(codec.id()).putLong(contentLength).array();
+    }
+
+    private void compressed(CompressionCodec codec, long contentBytes, long compressedBytes, long nanos) {
+        if (metrics != null) {
+            metrics.compressed(codec, contentBytes, compressedBytes, nanos);
+        }
+    }
+
+    // ByteArrayOutputStream whose contents can be wrapped without a copy.
+    private static final class ContentBuffer extends ByteArrayOutputStream {
+
+        ContentBuffer(int size) {
+            super(size);
+        }
+
+        ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private byte[] newStreamHeader(byte version) {
+        byte[] header = new byte[STREAM_HEADER_LENGTH];
+        ByteBuffer.wrap(header).put(STREAM_MAGIC).put(version).putInt(SEGMENT_SIZE);
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        secureRandom.nextBytes(noncePrefix);
+        System.arraycopy(noncePrefix, 0, header, STREAM_HEADER_LENGTH - NONCE_PREFIX_LENGTH, NONCE_PREFIX_LENGTH);
+        return header;
+    }
+
+    // Validates a stream header (either version) and returns its segment size.
+    private static int parseStreamHeader(byte[] header) throws IOException {
+        if (header.length != STREAM_HEADER_LENGTH) {
+            throw new IOException("Not a TD-ABAC encrypted stream");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        byte[] magic = new byte[STREAM_MAGIC.length];
+        buffer.get(magic);
+        byte version = buffer.get();
+        int segmentSize = buffer.getInt();
+        // The header is parsed before any segment tag has been verified, so
+        // bound the segment size before allocating buffers for it.
+        if (!Arrays.equals(magic, STREAM_MAGIC) || (version != STREAM_VERSION && version != COMPRESSED_STREAM_VERSION)
+                || segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IOException("Not a TD-ABAC encrypted stream");
+        }
+        return segmentSize;
+    }
+
+    // Total size of the segmented encoding of 'plaintextLength' bytes.
+    public static long ciphertextLength(long plaintextLength, int segmentSize) {
+        long segments = Math.max(1, (plaintextLength + segmentSize - 1) / segmentSize);
+        return STREAM_HEADER_LENGTH + plaintextLength + segments * TAG_LENGTH_BYTE;
+    }
+
+    // Plaintext size of a segmented stream of the given total length.
+    public static long plaintextLength(long ciphertextLength, int segmentSize) {
+        long body = ciphertextLength - STREAM_HEADER_LENGTH;
+        long segments = Math.max(1, (body + segmentSize + TAG_LENGTH_BYTE - 1) / (segmentSize + TAG_LENGTH_BYTE));
+        return body - segments * TAG_LENGTH_BYTE;
+    }
 
-        return cipher.doFinal(cipherText);
+    static void initSegmentCipher(Cipher cipher, int mode, SecretKey secretKey, byte[] header, int segmentIndex,
+            boolean last) throws GeneralSecurityException {
+        byte[] nonce = new byte[IV_LENGTH_BYTE];
+        System.arraycopy(header, STREAM_HEADER_LENGTH - NONCE_PREFIX_LENGTH, nonce, 0, NONCE_PREFIX_LENGTH);
+        ByteBuffer.wrap(nonce, NONCE_PREFIX_LENGTH, 5).putInt(segmentIndex).put((byte) (last ? 1 : 0));
+        cipher.init(mode, secretKey, new GCMParameterSpec(TAG_LENGTH_BIT, nonce));
+        cipher.updateAAD(header);
     }
 
     // Helper to convert Key to String for storage if needed (though we said keys
@@ -66,7 +536,6 @@ public class EncryptionService {
     }
 
     public SecretKey stringToKey(String keyStr) {
-        byte[] decoded = Base64.getDecoder().decode(keyStr);
-        return new SecretKeySpec(decoded, 0, decoded.length, "AES");
+        return new DestroyableSecretKey(Base64.getDecoder().decode(keyStr));
     }
 }
@@ -0,0 +1,73 @@
+package com.tdabac.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded LRU of on-chain expiry timestamps, keyed by fileHash.
+// An expiry never changes after uploadFile, so a positive entry stays valid
+// until it is evicted. Hashes the contract does not know are cached as
+// "unknown" for a short time only, because they may be registered later.
+public class ExpiryCache {
+
+    public static final class Entry {
+        private final long expiryTimestamp; // unix seconds, -1 when unknown
+        private final long unknownUntilMs;
+
+        private Entry(long expiryTimestamp, long unknownUntilMs) {
+            this.expiryTimestamp = expiryTimestamp;
+            this.unknownUntilMs = unknownUntilMs;
+        }
+
+        public boolean isUnknown() {
+            return expiryTimestamp < 0;
+        }
+
+        public long getExpiryTimestamp() {
+            return expiryTimestamp;
+        }
+    }
+
+    private final long negativeTtlMs;
+    private final LinkedHashMap<String, Entry> entries;
+
+    public ExpiryCache(int maxEntries, long negativeTtlMs) {
+        this.negativeTtlMs = negativeTtlMs;
+        // Access-ordered so the least recently checked file is evicted first.
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // Returns null on a miss or when a negative entry has timed out.
+    public synchronized Entry get(String fileHash) {
+        Entry entry = entries.get(fileHash);
+        if (entry != null && entry.isUnknown() && System.currentTimeMillis() > entry.unknownUntilMs) {
+            entries.remove(fileHash);
+            return null;
+        }
+        return entry;
+    }
+
+    public synchronized Entry putExpiry(String fileHash, long expiryTimestamp) {
+        Entry entry = new Entry(expiryTimestamp, 0);
+        entries.put(fileHash, entry);
+        return entry;
+    }
+
+    public synchronized Entry putUnknown(String fileHash) {
+        Entry entry = new Entry(-1, System.currentTimeMillis() + negativeTtlMs);
+        entries.put(fileHash, entry);
+        return entry;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
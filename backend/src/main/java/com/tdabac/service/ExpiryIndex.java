@@ -0,0 +1,90 @@
+package com.tdabac.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// In-memory view of every FileUploaded event seen on the contract:
+// fileHash -> (owner, expiry), ordered by expiry and grouped by owner.
+// Registrations are immutable on-chain, so entries are only ever added.
+public class ExpiryIndex {
+
+    public static final class FileRecord {
+        private final String fileHash;
+        private final String owner;
+        private final long expiryTimestamp; // unix seconds
+
+        public FileRecord(String fileHash, String owner, long expiryTimestamp) {
+            this.fileHash = fileHash;
+            this.owner = owner;
+            this.expiryTimestamp = expiryTimestamp;
+        }
+
+        public String getFileHash() {
+            return fileHash;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public long getExpiryTimestamp() {
+            return expiryTimestamp;
+        }
+    }
+
+    private static final Comparator<FileRecord> BY_EXPIRY = Comparator
+            .comparingLong(FileRecord::getExpiryTimestamp)
+            .thenComparing(FileRecord::getFileHash);
+
+    private final Map<String, FileRecord> byHash = new ConcurrentHashMap<>();
+    private final NavigableSet<FileRecord> byExpiry = new ConcurrentSkipListSet<>(BY_EXPIRY);
+    private final Map<String, Set<String>> byOwner = new ConcurrentHashMap<>();
+
+    public void put(FileRecord record) {
+        // Owners are compared case-insensitively, like Ethereum addresses.
+        String owner = record.getOwner().toLowerCase();
+        FileRecord normalized = new FileRecord(record.getFileHash(), owner, record.getExpiryTimestamp());
+        if (byHash.putIfAbsent(record.getFileHash(), normalized) != null) {
+            return;
+        }
+        byExpiry.add(normalized);
+        byOwner.computeIfAbsent(owner, k -> ConcurrentHashMap.newKeySet()).add(record.getFileHash());
+    }
+
+    public FileRecord get(String fileHash) {
+        return byHash.get(fileHash);
+    }
+
+    // Records with fromTimestamp <= expiry < toTimestamp, soonest first.
+    public List<FileRecord> expiringBetween(long fromTimestamp, long toTimestamp) {
+        FileRecord from = new FileRecord("", "", fromTimestamp);
+        FileRecord to = new FileRecord("", "", toTimestamp);
+        return new ArrayList<>(byExpiry.subSet(from, true, to, false));
+    }
+
+    public List<FileRecord> byOwner(String owner) {
+        Set<String> hashes = byOwner.getOrDefault(owner.toLowerCase(), Set.of());
+        List<FileRecord> records = new ArrayList<>(hashes.size());
+        for (String fileHash : hashes) {
+            records.add(byHash.get(fileHash));
+        }
+        records.sort(BY_EXPIRY);
+        return records;
+    }
+
+    public void clear() {
+        byHash.clear();
+        byExpiry.clear();
+        byOwner.clear();
+    }
+
+    public int size() {
+        return byHash.size();
+    }
+}
@@ -0,0 +1,123 @@
+package com.tdabac.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Coalesces expiry lookups that have to go to the chain. The first lookup
+// opens a window of windowMs; every hash asked for until it closes (or
+// until maxBatch hashes are waiting) is resolved by one getExpiries call
+// on the read pool, so a dashboard checking hundreds of records, or many
+// clients checking one each, costs one RPC round trip instead of hundreds.
+// A hash whose lookup has already been sent shares that lookup's result
+// until it completes (single flight), instead of opening another window.
+class ExpiryLookupBatcher {
+
+    // Resolves a batch of hashes to expiries (unix seconds, or -1 for
+    // unregistered), e.g. with one getExpiries call.
+    interface BatchLookup {
+        Map<String, Long> lookup(List<String> fileHashes) throws Exception;
+    }
+
+    private final BoundedExecutor executor;
+    private final BatchLookup lookup;
+    private final long windowMs;
+    private final int maxBatch;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chain-lookup-window");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Hashes waiting in the open window; guarded by this.
+    private Map<String, CompletableFuture<Long>> waiting;
+    // Hashes in batches that have been sent and not answered; guarded by this.
+    private final Map<String, CompletableFuture<Long>> inFlight = new HashMap<>();
+
+    ExpiryLookupBatcher(BoundedExecutor executor, BatchLookup lookup, long windowMs, int maxBatch) {
+        this.executor = executor;
+        this.lookup = lookup;
+        this.windowMs = windowMs;
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    CompletableFuture<Long> lookup(String fileHash) {
+        return lookup(List.of(fileHash)).get(fileHash);
+    }
+
+    // Adds all hashes in one go, so a bulk request is not spread over
+    // several windows.
+    Map<String, CompletableFuture<Long>> lookup(Collection<String> fileHashes) {
+        Map<String, CompletableFuture<Long>> results = new HashMap<>();
+        List<Map<String, CompletableFuture<Long>>> full = new ArrayList<>();
+        synchronized (this) {
+            for (String fileHash : fileHashes) {
+                CompletableFuture<Long> sent = inFlight.get(fileHash);
+                if (sent != null) {
+                    results.put(fileHash, sent);
+                    continue;
+                }
+                if (waiting == null) {
+                    waiting = new LinkedHashMap<>();
+                    Map<String, CompletableFuture<Long>> window = waiting;
+                    timer.schedule(() -> flush(window), windowMs, TimeUnit.MILLISECONDS);
+                }
+                // The same hash twice in one window is looked up once.
+                results.put(fileHash, waiting.computeIfAbsent(fileHash, k -> new CompletableFuture<>()));
+                if (waiting.size() >= maxBatch) {
+                    full.add(waiting);
+                    waiting = null;
+                }
+            }
+        }
+        for (Map<String, CompletableFuture<Long>> batch : full) {
+            send(batch);
+        }
+        return results;
+    }
+
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private void flush(Map<String, CompletableFuture<Long>> window) {
+        synchronized (this) {
+            if (waiting != window) {
+                return; // Already sent because it filled up
+            }
+            waiting = null;
+        }
+        send(window);
+    }
+
+    private void send(Map<String, CompletableFuture<Long>> batch) {
+        List<String> fileHashes = new ArrayList<>(batch.keySet());
+        synchronized (this) {
+            inFlight.putAll(batch);
+        }
+        executor.submit(() -> lookup.lookup(fileHashes)).whenComplete((expiries, error) -> {
+            // Results are in the expiry cache by now, so later lookups of
+            // these hashes do not get here
+            synchronized (this) {
+                for (Map.Entry<String, CompletableFuture<Long>> entry : batch.entrySet()) {
+                    inFlight.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Map.Entry<String, CompletableFuture<Long>> entry : batch.entrySet()) {
+                if (error != null) {
+                    entry.getValue().completeExceptionally(error);
+                } else {
+                    entry.getValue().complete(expiries.get(entry.getKey()));
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,233 @@
+package com.tdabac.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// Runs a task at a wall-clock deadline, for evicting view tokens and
+// destroying keys when their time-lock runs out. Hierarchical timing wheel:
+// LEVELS wheels of 64 slots, each slot a doubly-linked list, level n
+// covering 64^(n+1) ticks. Scheduling and cancelling are O(1); an entry is
+// moved down a level at most LEVELS - 1 times before it fires, so expiry is
+// O(1) amortized no matter how many entries are waiting. With the default
+// 100 ms tick the wheels reach ~200 years ahead.
+//
+// Deadlines are rounded up to the next tick, so a task never runs early
+// and at most one tick late.
+@Service
+public class ExpiryScheduler {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 6;
+    private static final long MAX_DELTA = 1L << (SLOT_BITS * LEVELS);
+
+    private static final long DEFAULT_TICK_MS = 100;
+
+    // Handle for one scheduled task.
+    public static final class Timeout {
+        private final long deadlineTick;
+        private final Runnable task;
+        private Timeout prev;
+        private Timeout next;
+        private Slot slot; // null once fired or cancelled
+
+        private Timeout(long deadlineTick, Runnable task) {
+            this.deadlineTick = deadlineTick;
+            this.task = task;
+        }
+    }
+
+    // Circular list with a sentinel, so unlinking needs no slot lookup.
+    private static final class Slot {
+        final Timeout head = new Timeout(0, null);
+
+        Slot() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        void add(Timeout timeout) {
+            timeout.slot = this;
+            timeout.prev = head.prev;
+            timeout.next = head;
+            head.prev.next = timeout;
+            head.prev = timeout;
+        }
+
+        static void unlink(Timeout timeout) {
+            timeout.prev.next = timeout.next;
+            timeout.next.prev = timeout.prev;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.slot = null;
+        }
+
+        // Detaches and returns the first entry, or null if empty.
+        Timeout poll() {
+            Timeout first = head.next;
+            if (first == head) {
+                return null;
+            }
+            unlink(first);
+            return first;
+        }
+    }
+
+    private final long tickMs;
+    private final LongSupplier clock;
+    private final Slot[][] wheels = new Slot[LEVELS][SLOTS];
+    private long currentTick; // guarded by this
+
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong fired = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    private final ScheduledExecutorService ticker;
+
+    @Autowired
+    public ExpiryScheduler(@Value("${tdabac.expiry.tick-ms:" + DEFAULT_TICK_MS + "}") long tickMs) {
+        this(tickMs, System::currentTimeMillis);
+        ticker.scheduleAtFixedRate(this::advanceSafely, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Without a ticking thread: the caller drives time with advance().
+    public ExpiryScheduler(long tickMs, LongSupplier clock) {
+        this.tickMs = tickMs;
+        this.clock = clock;
+        for (Slot[] wheel : wheels) {
+            for (int i = 0; i < SLOTS; i++) {
+                wheel[i] = new Slot();
+            }
+        }
+        this.currentTick = Math.floorDiv(clock.getAsLong(), tickMs);
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "expiry-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Runs task on the scheduler thread once the wall clock reaches
+    // deadlineMillis (epoch millis). Deadlines in the past run on the next
+    // tick. Tasks must be short; they hold up every other expiry.
+    public Timeout schedule(long deadlineMillis, Runnable task) {
+        long tick = -Math.floorDiv(-deadlineMillis, tickMs); // ceiling
+        Timeout timeout;
+        synchronized (this) {
+            timeout = new Timeout(Math.max(tick, currentTick + 1), task);
+            place(timeout);
+        }
+        pending.incrementAndGet();
+        return timeout;
+    }
+
+    // False if the task already ran or was cancelled.
+    public boolean cancel(Timeout timeout) {
+        synchronized (this) {
+            if (timeout.slot == null) {
+                return false;
+            }
+            Slot.unlink(timeout);
+        }
+        pending.decrementAndGet();
+        cancelled.incrementAndGet();
+        return true;
+    }
+
+    // Fires everything due up to the clock's current time.
+    public void advance() {
+        long target = Math.floorDiv(clock.getAsLong(), tickMs);
+        List<Timeout> due = new ArrayList<>();
+        while (true) {
+            synchronized (this) {
+                if (currentTick >= target) {
+                    break;
+                }
+                currentTick++;
+                cascade();
+                Slot slot = wheels[0][(int) (currentTick & (SLOTS - 1))];
+                for (Timeout timeout = slot.poll(); timeout != null; timeout = slot.poll()) {
+                    due.add(timeout);
+                }
+            }
+            // Outside the lock, so tasks may schedule or cancel.
+            for (Timeout timeout : due) {
+                pending.decrementAndGet();
+                fired.incrementAndGet();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Expiry task failed: " + e.getMessage());
+                }
+            }
+            due.clear();
+        }
+    }
+
+    // Tasks scheduled and not yet run or cancelled.
+    public long pendingCount() {
+        return pending.get();
+    }
+
+    public long firedCount() {
+        return fired.get();
+    }
+
+    public long cancelledCount() {
+        return cancelled.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    private void advanceSafely() {
+        try {
+            advance();
+        } catch (RuntimeException e) {
+            System.err.println("Expiry scheduler tick failed: " + e.getMessage());
+        }
+    }
+
+    // When a level's lower digits roll over to zero, its current slot holds
+    // entries that are now within reach of the level below; re-place them.
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            int shift = SLOT_BITS * level;
+            if ((currentTick & ((1L << shift) - 1)) != 0) {
+                break;
+            }
+            Slot slot = wheels[level][(int) ((currentTick >>> shift) & (SLOTS - 1))];
+            for (Timeout timeout = slot.poll(); timeout != null; timeout = slot.poll()) {
+                place(timeout);
+            }
+        }
+    }
+
+    private void place(Timeout timeout) {
+        long tick = Math.max(timeout.deadlineTick, currentTick);
+        long delta = tick - currentTick;
+        if (delta >= MAX_DELTA) {
+            // Further out than the top wheel reaches: park it in the top
+            // wheel's farthest slot and re-place it when that slot comes up.
+            tick = currentTick + MAX_DELTA - 1;
+            delta = MAX_DELTA - 1;
+        }
+        int level = 0;
+        while (delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        wheels[level][(int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1))].add(timeout);
+    }
+}
@@ -0,0 +1,25 @@
+package com.tdabac.service;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
+
+// Per-file data keys, as FileController sees them. KeyVault keeps them on
+// this node; ReplicatedKeyStore (tdabac.cluster.*) keeps each one on the
+// nodes that own its file hash, so any node can serve any file.
+public interface FileKeyStore {
+
+    // Stores the key for fileHash. Like Map.putIfAbsent, returns null if a
+    // key is already stored for the hash; otherwise a future that completes
+    // once the key is durable.
+    CompletableFuture<Void> putIfAbsent(String fileHash, SecretKey key) throws GeneralSecurityException;
+
+    // The key for fileHash, or null if none is stored.
+    SecretKey get(String fileHash) throws IOException, GeneralSecurityException;
+
+    boolean contains(String fileHash);
+
+    // Removes and wipes the key wherever it is stored.
+    boolean delete(String fileHash);
+}
@@ -1,52 +1,203 @@
 package com.tdabac.service;
 
+import com.tdabac.storage.BlobStore;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class IPFSService {
 
-    // Assuming local IPFS node, can be configured via properties
-    private final String IPFS_API_URL = "http://127.0.0.1:5001/api/v0/add";
-    private final String IPFS_GATEWAY_URL = "http://127.0.0.1:8080/ipfs/";
+    private final String ipfsGatewayUrl;
 
     private final HttpClient httpClient = HttpClient.newHttpClient();
 
-    // Simplified upload (In real world, use multipart body publisher)
-    // For prototype, we might mock this or use a simple hack if no library is
-    // allowed.
-    // Since implementing full Multipart in Java native HTTP is verbose,
-    // we will implement a Mock-ish version checking if we can actually reach IPFS,
-    // or just assume it works and return a mock hash if connection fails (for
-    // Verified Testing without IPFS node running).
+    // Every uploaded ciphertext is kept in the local blob store; access reads
+    // from there, never from the Java heap.
+    private final BlobStore blobStore;
 
-    public String uploadFile(byte[] fileData) throws IOException, InterruptedException {
-        // TODO: Implement actual Multipart upload.
-        // For now, return a Mock Hash to allow development without running IPFS node.
-        // If the user wants real IPFS, we need to add a library like
-        // java-ipfs-http-client
-        // or write the multipart body builder manually.
+    // Uploads that are streamed through encryption are spooled here first.
+    private final Path spoolDir;
 
-        // MOCK HASH for now:
-        return "Qm" + System.currentTimeMillis() + "TestHash";
+    // Null unless tdabac.ipfs.enabled is set; the local blob store alone then
+    // stands in for IPFS (e.g. development without a running node).
+    private final IpfsClient ipfsClient;
+
+    // Adds to the IPFS node run here, off the request threads, with bounded
+    // concurrency and a deadline per add.
+    private final BoundedExecutor publishExecutor;
+
+    public IPFSService(BlobStore blobStore, @Value("${tdabac.data-dir:data}") String dataDir,
+            @Value("${tdabac.ipfs.enabled:false}") boolean ipfsEnabled,
+            @Value("${tdabac.ipfs.api-url:http://127.0.0.1:5001}") String ipfsApiUrl,
+            @Value("${tdabac.ipfs.gateway-url:http://127.0.0.1:8080/ipfs/}") String ipfsGatewayUrl,
+            @Value("${tdabac.ipfs.max-concurrent-adds:8}") int maxConcurrentAdds,
+            @Value("${tdabac.ipfs.add-timeout-ms:300000}") long addTimeoutMs) throws IOException {
+        this.blobStore = blobStore;
+        this.spoolDir = Paths.get(dataDir, "spool");
+        this.ipfsClient = ipfsEnabled ? new IpfsClient(ipfsApiUrl) : null;
+        this.publishExecutor = new BoundedExecutor("ipfs-add", maxConcurrentAdds, 1_000, addTimeoutMs);
+        this.ipfsGatewayUrl = ipfsGatewayUrl;
+        Files.createDirectories(spoolDir);
+
+        // Spool files left behind by a crash mid-upload are never committed.
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(spoolDir, ".upload-*")) {
+            for (Path leftover : leftovers) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+    }
+
+    // Spool file for an upload in progress. The CID is computed from the
+    // bytes as they are written, so committing does not read the file again.
+    public static class Upload extends FilterOutputStream {
+        private final Path file;
+        private final CidBuilder cid = new CidBuilder();
+
+        private Upload(Path file) throws IOException {
+            super(new BufferedOutputStream(Files.newOutputStream(file)));
+            this.file = file;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            cid.update(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            cid.update(b, off, len);
+        }
+
+        // Drops a failed upload.
+        public void discard() throws IOException {
+            close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public Upload createUpload() throws IOException {
+        return new Upload(Files.createTempFile(spoolDir, ".upload-", ".enc"));
+    }
+
+    // Commits a closed Upload under its CID and deletes the spool file.
+    // The blob is only stored locally; see publishAsync.
+    public String uploadFile(Upload upload, Map<String, String> attributes) throws IOException {
+        upload.close();
+        String hash = upload.cid.build();
+        try {
+            if (!blobStore.contains(hash)) {
+                blobStore.put(hash, upload.file, attributes);
+            } else {
+                System.out.println("Identical ciphertext already stored as " + hash);
+            }
+        } finally {
+            Files.deleteIfExists(upload.file);
+        }
+        return hash;
+    }
+
+    // Binary upload of an in-memory ciphertext, written straight from the
+    // buffer without an intermediate byte[] copy.
+    public String uploadFile(ByteBuffer ciphertext, Map<String, String> attributes) throws IOException {
+        String hash = CidBuilder.of(ciphertext);
+        if (!blobStore.contains(hash)) {
+            blobStore.put(hash, ciphertext, attributes);
+        } else {
+            System.out.println("Identical ciphertext already stored as " + hash);
+        }
+        return hash;
+    }
+
+    // Adds a freshly stored blob to the IPFS node, streaming it from the
+    // blob store. A failed add rolls back the local copy, so the upload
+    // either exists in both places or in neither.
+    public CompletableFuture<Void> publishAsync(String hash) {
+        if (ipfsClient == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> added = publishExecutor.submit(() -> {
+            publish(hash);
+            return null;
+        });
+        // A rejected or timed-out add never reached the rollback below.
+        return added.whenComplete((ignored, error) -> {
+            if (error != null) {
+                try {
+                    blobStore.delete(hash);
+                } catch (IOException e) {
+                    System.err.println("Could not roll back " + hash + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void publish(String hash) throws IOException, InterruptedException {
+        try (InputStream in = blobStore.open(hash)) {
+            String remoteHash = ipfsClient.add(in, blobStore.size(hash), hash);
+            if (!hash.equals(remoteHash)) {
+                throw new IOException("IPFS node returned CID " + remoteHash + ", expected " + hash);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        publishExecutor.shutdown();
+    }
+
+    public boolean hasFile(String cid) {
+        return blobStore.contains(cid);
+    }
+
+    public long fileSize(String cid) {
+        return blobStore.size(cid);
+    }
+
+    // Attributes stored with the upload, or null if the file is unknown.
+    public Map<String, String> fileAttributes(String cid) {
+        return blobStore.attributes(cid);
+    }
+
+    public InputStream openFile(String cid) throws IOException {
+        return blobStore.open(cid);
+    }
+
+    public InputStream openFile(String cid, long position, long count) throws IOException {
+        return blobStore.open(cid, position, count);
+    }
+
+    public boolean deleteFile(String cid) throws IOException {
+        return blobStore.delete(cid);
     }
 
-    public byte[] getFile(String cid) throws IOException, InterruptedException {
+    public ByteBuffer getFile(String cid) throws IOException, InterruptedException {
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(IPFS_GATEWAY_URL + cid))
+                .uri(URI.create(ipfsGatewayUrl + cid))
                 .GET()
                 .build();
 
         HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
 
         if (response.statusCode() == 200) {
-            return response.body();
+            return ByteBuffer.wrap(response.body());
         } else {
             throw new IOException("Failed to fetch from IPFS: " + response.statusCode());
         }
@@ -0,0 +1,122 @@
+package com.tdabac.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+// Minimal client for the IPFS HTTP API (/api/v0/add). The multipart body is
+// streamed from the caller's InputStream with a fixed Content-Length, so a
+// blob is never buffered in memory on its way to the node.
+public class IpfsClient {
+
+    // Must match CidBuilder, so the node and the backend agree on the CID.
+    private static final String ADD_PARAMS = "?pin=true&cid-version=0&raw-leaves=false&chunker=size-"
+            + CidBuilder.CHUNK_SIZE;
+
+    private final HttpClient httpClient;
+    private final String apiUrl;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public IpfsClient(String apiUrl) {
+        this(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build(), apiUrl);
+    }
+
+    public IpfsClient(HttpClient httpClient, String apiUrl) {
+        this.httpClient = httpClient;
+        this.apiUrl = apiUrl.endsWith("/") ? apiUrl.substring(0, apiUrl.length() - 1) : apiUrl;
+    }
+
+    // Adds 'length' bytes read from 'content' and returns the CID the node
+    // assigned. 'content' is read exactly once and is not closed.
+    public String add(InputStream content, long length, String name) throws IOException, InterruptedException {
+        String boundary = "----tdabac" + UUID.randomUUID().toString().replace("-", "");
+        byte[] head = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + name + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+
+        // Only one attempt is made, so the supplier hands out the caller's
+        // stream once; a retry would have nothing left to send.
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> new SequenceInputStream(
+                        Collections.enumeration(List.of(
+                                new ByteArrayInputStream(head),
+                                new BoundedInputStream(content, length),
+                                new ByteArrayInputStream(tail))))),
+                head.length + length + tail.length);
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(apiUrl + "/api/v0/add" + ADD_PARAMS))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(body)
+                .build();
+
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("IPFS add failed: " + response.statusCode() + " " + response.body());
+        }
+
+        // The node answers with one JSON object per added entry; the last one
+        // is the file itself.
+        String[] lines = response.body().trim().split("\n");
+        JsonNode result = objectMapper.readTree(lines[lines.length - 1]);
+        if (!result.hasNonNull("Hash")) {
+            throw new IOException("IPFS add returned no hash: " + response.body());
+        }
+        return result.get("Hash").asText();
+    }
+
+    // Exposes exactly 'remaining' bytes of the wrapped stream, so the
+    // Content-Length sent up front always matches the body.
+    private static class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long remaining) {
+            this.in = in;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Content ended " + remaining + " bytes early");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new IOException("Content ended " + remaining + " bytes early");
+            }
+            remaining -= n;
+            return n;
+        }
+    }
+}
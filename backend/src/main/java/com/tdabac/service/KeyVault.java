@@ -0,0 +1,700 @@
+package com.tdabac.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.DestroyFailedException;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// Per-file data keys, persisted so that files stay readable across restarts.
+//
+// Each data key is wrapped (AES-GCM) under a master key, with the file hash
+// as AAD so a wrapped key cannot be moved to another file's record, and
+// appended to an on-disk log:
+//
+//   header: magic "TDKV" | version (1) | master key fingerprint (8)
+//   record: type (1) | hash length (2) | hash | wrapped length (2)
+//           | wrapped = iv (12) | ciphertext + tag (48) | CRC32 (4)
+//
+// A delete appends a tombstone (wrapped length 0). Writes are group
+// committed: one writer thread takes everything queued while the previous
+// fsync ran and makes it durable with a single write and force(), so a burst
+// of uploads costs a handful of fsyncs instead of one each.
+//
+// Startup only opens the log; the index (hash -> record offset) is scanned
+// in the background, and a key is read and unwrapped the first time it is
+// asked for. Unwrapped keys are kept in a bounded LRU, so the hot path is a
+// map lookup rather than a disk read and an AES-GCM decrypt.
+@Service
+public class KeyVault implements FileKeyStore {
+
+    private static final String LOG_FILE = "keys.log";
+    private static final String MASTER_KEY_FILE = "master.key";
+
+    private static final byte[] MAGIC = { 'T', 'D', 'K', 'V' };
+    private static final byte VERSION = 1;
+    private static final int FINGERPRINT_LENGTH = 8;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + FINGERPRINT_LENGTH;
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+
+    private static final String WRAP_ALGO = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH_BYTE = 12;
+    private static final int TAG_LENGTH_BIT = 128;
+    private static final int MASTER_KEY_BYTES = 32;
+
+    // The log is rewritten once less than this fraction of it is live.
+    private static final double COMPACTION_THRESHOLD = 0.5;
+
+    private static final int DEFAULT_CACHE_SIZE = 10_000;
+    private static final int DEFAULT_MAX_BATCH = 256;
+
+    // Offset and length of a record in the log.
+    private static final class Location {
+        final long offset;
+        final int length;
+
+        Location(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    // One queued record; 'wrapped' is null for a tombstone.
+    private static final class Write {
+        final String fileHash;
+        final byte[] wrapped;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Write(String fileHash, byte[] wrapped) {
+            this.fileHash = fileHash;
+            this.wrapped = wrapped;
+        }
+    }
+
+    private static final Write STOP = new Write("", null);
+
+    private final Path dir;
+    private final SecretKey masterKey;
+    private final int maxBatch;
+    private final boolean fsync;
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    // Records on disk, and wrapped keys queued but not yet written. A key is
+    // in at most one of them; the writer moves it across once it is durable.
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> pending = new ConcurrentHashMap<>();
+    private final CompletableFuture<Void> indexLoaded;
+
+    private final LinkedHashMap<String, SecretKey> cache; // guarded by itself
+
+    // Appends and compaction are serialised on writeLock. Reads go through
+    // channelLock so compaction can swap the file underneath them.
+    private final Object writeLock = new Object();
+    private final ReadWriteLock channelLock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private long writePosition; // guarded by writeLock
+
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong unwraps = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong recordsWritten = new AtomicLong();
+
+    @Autowired
+    public KeyVault(@Value("${tdabac.data-dir:data}") String dataDir,
+            @Value("${tdabac.keyvault.master-key:}") String masterKey,
+            @Value("${tdabac.keyvault.cache-size:" + DEFAULT_CACHE_SIZE + "}") int cacheSize,
+            @Value("${tdabac.keyvault.max-batch:" + DEFAULT_MAX_BATCH + "}") int maxBatch,
+            @Value("${tdabac.keyvault.fsync:true}") boolean fsync) throws IOException {
+        this(Paths.get(dataDir, "keyvault"), loadMasterKey(Paths.get(dataDir, "keyvault"), masterKey),
+                cacheSize, maxBatch, fsync);
+    }
+
+    public KeyVault(Path dir, SecretKey masterKey, int cacheSize, int maxBatch, boolean fsync) throws IOException {
+        this.dir = dir;
+        this.masterKey = masterKey;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.fsync = fsync;
+        // Access-ordered so the least recently used key is dropped first.
+        // Dropped keys are not destroyed: a download may still be using one.
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SecretKey> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        Files.createDirectories(dir);
+        this.channel = openLog(dir.resolve(LOG_FILE));
+
+        this.indexLoaded = CompletableFuture.runAsync(this::loadIndex, runnable -> {
+            Thread thread = new Thread(runnable, "key-vault-index");
+            thread.setDaemon(true);
+            thread.start();
+        });
+        this.writer = new Thread(this::writeLoop, "key-vault-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Reads the master key from tdabac.keyvault.master-key (base64, 32 bytes),
+    // or from <dir>/master.key, generating that file on first start.
+    // A key file next to the vault is for local setups only; production
+    // passes the key in (or fetches it from a KMS) instead.
+    static SecretKey loadMasterKey(Path dir, String configured) throws IOException {
+        byte[] key;
+        if (configured != null && !configured.isBlank()) {
+            key = Base64.getDecoder().decode(configured.trim());
+        } else {
+            Path file = dir.resolve(MASTER_KEY_FILE);
+            if (Files.exists(file)) {
+                key = Base64.getDecoder().decode(Files.readString(file).trim());
+            } else {
+                Files.createDirectories(dir);
+                key = new byte[MASTER_KEY_BYTES];
+                new SecureRandom().nextBytes(key);
+                Files.writeString(file, Base64.getEncoder().encodeToString(key));
+                if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                    Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+                }
+                System.out.println("Generated key vault master key at " + file
+                        + " (set tdabac.keyvault.master-key to keep it elsewhere)");
+            }
+        }
+        if (key.length != MASTER_KEY_BYTES) {
+            throw new IllegalArgumentException("Key vault master key must be " + MASTER_KEY_BYTES + " bytes");
+        }
+        return new DestroyableSecretKey(key);
+    }
+
+    // Stores the key for fileHash. Like Map.putIfAbsent, returns null if a
+    // key is already stored (or queued) for the hash; otherwise a future that
+    // completes once the wrapped key is on disk. The key is readable through
+    // get() right away.
+    @Override
+    public CompletableFuture<Void> putIfAbsent(String fileHash, SecretKey key) throws GeneralSecurityException {
+        return putIfAbsent(fileHash, wrap(fileHash, key), key);
+    }
+
+    // putIfAbsent for a key wrapped by another node with the same master key
+    // (cluster replication). Unwrapping it first rejects a record that was
+    // wrapped under another key or for another file.
+    public CompletableFuture<Void> putWrappedIfAbsent(String fileHash, byte[] wrapped) throws GeneralSecurityException {
+        return putIfAbsent(fileHash, wrapped, unwrap(fileHash, wrapped));
+    }
+
+    private CompletableFuture<Void> putIfAbsent(String fileHash, byte[] wrapped, SecretKey key) {
+        awaitIndex();
+        if (closed) {
+            throw new IllegalStateException("Key vault is closed");
+        }
+        Write write = new Write(fileHash, wrapped);
+        synchronized (this) {
+            if (index.containsKey(fileHash) || pending.putIfAbsent(fileHash, wrapped) != null) {
+                return null;
+            }
+            synchronized (cache) {
+                cache.put(fileHash, key);
+            }
+            queue.add(write);
+        }
+        return write.done;
+    }
+
+    // The key for fileHash, or null if none is stored.
+    @Override
+    public SecretKey get(String fileHash) throws IOException, GeneralSecurityException {
+        synchronized (cache) {
+            SecretKey key = cache.get(fileHash);
+            if (key != null) {
+                cacheHits.incrementAndGet();
+                return key;
+            }
+        }
+        awaitIndex();
+        byte[] wrapped = pending.get(fileHash);
+        if (wrapped == null) {
+            wrapped = readWrapped(fileHash);
+            if (wrapped == null) {
+                return null;
+            }
+        }
+        SecretKey key = unwrap(fileHash, wrapped);
+        unwraps.incrementAndGet();
+        synchronized (cache) {
+            cache.put(fileHash, key);
+        }
+        return key;
+    }
+
+    @Override
+    public boolean contains(String fileHash) {
+        awaitIndex();
+        return pending.containsKey(fileHash) || index.containsKey(fileHash);
+    }
+
+    // Removes and wipes the key. The tombstone is written in the background;
+    // should the process die first, the key comes back on restart and is
+    // removed again by the next expiry compaction.
+    @Override
+    public boolean delete(String fileHash) {
+        awaitIndex();
+        boolean removed;
+        synchronized (this) {
+            removed = pending.remove(fileHash) != null | index.remove(fileHash) != null;
+            if (removed && !closed) {
+                queue.add(new Write(fileHash, null));
+            }
+        }
+        SecretKey cached;
+        synchronized (cache) {
+            cached = cache.remove(fileHash);
+        }
+        if (cached != null) {
+            try {
+                cached.destroy();
+            } catch (DestroyFailedException e) {
+                // Not a destroyable key type; dropping it is all we can do
+            }
+        }
+        return removed;
+    }
+
+    // Rewrites the log without deleted records once most of it is dead.
+    public void compact() throws IOException {
+        awaitIndex();
+        synchronized (writeLock) {
+            long total = writePosition - HEADER_LENGTH;
+            long live = 0;
+            for (Location location : index.values()) {
+                live += location.length;
+            }
+            if (total == 0 || live >= total * COMPACTION_THRESHOLD) {
+                return;
+            }
+
+            Path tmp = dir.resolve(LOG_FILE + ".compact");
+            Map<String, Location> moved = new LinkedHashMap<>();
+            Map<String, Location> from = new LinkedHashMap<>();
+            long position = HEADER_LENGTH;
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(out, ByteBuffer.wrap(header()), 0);
+                for (Map.Entry<String, Location> entry : index.entrySet()) {
+                    Location location = entry.getValue();
+                    ByteBuffer record = ByteBuffer.allocate(location.length);
+                    readFully(channel, record, location.offset);
+                    writeFully(out, record.flip(), position);
+                    from.put(entry.getKey(), location);
+                    moved.put(entry.getKey(), new Location(position, location.length));
+                    position += location.length;
+                }
+                out.force(true);
+            }
+
+            channelLock.writeLock().lock();
+            try {
+                Files.move(tmp, dir.resolve(LOG_FILE), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                channel.close();
+                channel = FileChannel.open(dir.resolve(LOG_FILE), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                for (Map.Entry<String, Location> entry : moved.entrySet()) {
+                    // Skips keys deleted while the copy ran; their tombstones
+                    // are still queued and land in the new file.
+                    index.replace(entry.getKey(), from.get(entry.getKey()), entry.getValue());
+                }
+                System.out.println("Key vault compaction reclaimed " + (writePosition - position) + " bytes");
+                writePosition = position;
+            } finally {
+                channelLock.writeLock().unlock();
+            }
+        }
+    }
+
+    // A secret derived from the master key for another purpose (e.g. the
+    // chunk keys of ChunkStore): HMAC-SHA256 of 'label' under the master
+    // key. Stable for as long as the master key is.
+    public byte[] deriveSecret(String label) {
+        byte[] raw = masterKey.getEncoded();
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(raw, "HmacSHA256"));
+            return mac.doFinal(utf8(label));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    public int size() {
+        awaitIndex();
+        return index.size() + pending.size();
+    }
+
+    public int cachedCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long cacheHits() {
+        return cacheHits.get();
+    }
+
+    // Keys read from disk (or the write queue) and unwrapped.
+    public long unwraps() {
+        return unwraps.get();
+    }
+
+    // fsync calls; below recordsWritten() when writes were grouped.
+    public long syncs() {
+        return syncs.get();
+    }
+
+    public long recordsWritten() {
+        return recordsWritten.get();
+    }
+
+    // Writes what is queued, then closes the log.
+    @PreDestroy
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(STOP);
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writeLock) {
+            channel.close();
+        }
+    }
+
+    private FileChannel openLog(Path file) throws IOException {
+        FileChannel log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        byte[] expected = header();
+        if (log.size() == 0) {
+            writeFully(log, ByteBuffer.wrap(expected), 0);
+            log.force(true);
+        } else {
+            ByteBuffer actual = ByteBuffer.allocate(HEADER_LENGTH);
+            readFully(log, actual, 0);
+            if (!Arrays.equals(Arrays.copyOf(actual.array(), MAGIC.length + 1), Arrays.copyOf(expected, MAGIC.length + 1))) {
+                log.close();
+                throw new IOException("Not a key vault log: " + file);
+            }
+            if (!Arrays.equals(actual.array(), expected)) {
+                log.close();
+                throw new IllegalStateException("Key vault " + file + " was written with a different master key");
+            }
+        }
+        return log;
+    }
+
+    // Scans record headers to rebuild the index. A torn record at the end
+    // (crash mid-write) and anything after it is cut off.
+    private void loadIndex() {
+        synchronized (writeLock) {
+            long position = HEADER_LENGTH;
+            int records = 0;
+            try {
+                long size = channel.size();
+                channel.position(position);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+                CRC32 crc = new CRC32();
+                while (position < size) {
+                    byte type;
+                    byte[] hash;
+                    byte[] wrapped;
+                    int storedCrc;
+                    try {
+                        type = in.readByte();
+                        hash = new byte[in.readUnsignedShort()];
+                        in.readFully(hash);
+                        wrapped = new byte[in.readUnsignedShort()];
+                        in.readFully(wrapped);
+                        storedCrc = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(type);
+                    crc.update(hash.length >>> 8);
+                    crc.update(hash.length);
+                    crc.update(hash);
+                    crc.update(wrapped.length >>> 8);
+                    crc.update(wrapped.length);
+                    crc.update(wrapped);
+                    if ((int) crc.getValue() != storedCrc || (type != TYPE_PUT && type != TYPE_DELETE)) {
+                        break;
+                    }
+
+                    int length = recordLength(hash.length, wrapped.length);
+                    String fileHash = new String(hash, StandardCharsets.UTF_8);
+                    if (type == TYPE_PUT) {
+                        index.put(fileHash, new Location(position, length));
+                    } else {
+                        index.remove(fileHash);
+                    }
+                    position += length;
+                    records++;
+                }
+                if (position < size) {
+                    System.err.println("Key vault log has a torn record at " + position + ", truncating");
+                    channel.truncate(position);
+                }
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            writePosition = position;
+            System.out.println("Key vault indexed " + index.size() + " keys (" + records + " records)");
+        }
+    }
+
+    private void awaitIndex() {
+        try {
+            indexLoaded.join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Key vault index could not be loaded: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void writeLoop() {
+        List<Write> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+            if (batch.remove(STOP)) {
+                stopping = true;
+                queue.drainTo(batch);
+                batch.remove(STOP);
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+            }
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<Write> batch) {
+        awaitIndex();
+        int size = 0;
+        for (Write write : batch) {
+            size += recordLength(utf8(write.fileHash).length, write.wrapped == null ? 0 : write.wrapped.length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        long[] offsets = new long[batch.size()];
+        try {
+            synchronized (writeLock) {
+                for (int i = 0; i < batch.size(); i++) {
+                    offsets[i] = writePosition + buffer.position();
+                    Write write = batch.get(i);
+                    encodeRecord(buffer, write.wrapped == null ? TYPE_DELETE : TYPE_PUT, utf8(write.fileHash),
+                            write.wrapped == null ? new byte[0] : write.wrapped);
+                }
+                writeFully(channel, buffer.flip(), writePosition);
+                if (fsync) {
+                    channel.force(false);
+                }
+                syncs.incrementAndGet();
+                writePosition += size;
+                recordsWritten.addAndGet(batch.size());
+
+                synchronized (this) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        Write write = batch.get(i);
+                        if (write.wrapped == null) {
+                            continue; // Already dropped from the index by delete()
+                        }
+                        int length = recordLength(utf8(write.fileHash).length, write.wrapped.length);
+                        // Only if not deleted (or replaced) while queued
+                        if (pending.remove(write.fileHash, write.wrapped)) {
+                            index.put(write.fileHash, new Location(offsets[i], length));
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Key vault write failed: " + e.getMessage());
+            for (Write write : batch) {
+                if (write.wrapped != null) {
+                    pending.remove(write.fileHash, write.wrapped);
+                }
+                write.done.completeExceptionally(e);
+            }
+            return;
+        }
+        for (Write write : batch) {
+            write.done.complete(null);
+        }
+    }
+
+    // The key for fileHash as stored (wrapped under the master key), for
+    // handing to another node; null if none is stored.
+    public byte[] getWrapped(String fileHash) throws IOException {
+        awaitIndex();
+        byte[] wrapped = pending.get(fileHash);
+        return wrapped != null ? wrapped.clone() : readWrapped(fileHash);
+    }
+
+    private byte[] readWrapped(String fileHash) throws IOException {
+        channelLock.readLock().lock();
+        try {
+            Location location = index.get(fileHash);
+            if (location == null) {
+                return null;
+            }
+            ByteBuffer record = ByteBuffer.allocate(location.length);
+            readFully(channel, record, location.offset);
+            record.flip();
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, location.length - 4);
+            if ((int) crc.getValue() != record.getInt(location.length - 4)) {
+                throw new IOException("Key vault record for " + fileHash + " is corrupt");
+            }
+            record.get(); // type
+            int hashLength = record.getShort() & 0xFFFF;
+            record.position(record.position() + hashLength);
+            byte[] wrapped = new byte[record.getShort() & 0xFFFF];
+            record.get(wrapped);
+            return wrapped;
+        } finally {
+            channelLock.readLock().unlock();
+        }
+    }
+
+    // AES-GCM under the master key, with the file hash as AAD.
+    public byte[] wrap(String fileHash, SecretKey key) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH_BYTE];
+        secureRandom.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(WRAP_ALGO);
+        cipher.init(Cipher.ENCRYPT_MODE, masterKey, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+        cipher.updateAAD(utf8(fileHash));
+        byte[] raw = key.getEncoded();
+        try {
+            byte[] wrapped = new byte[IV_LENGTH_BYTE + cipher.getOutputSize(raw.length)];
+            System.arraycopy(iv, 0, wrapped, 0, IV_LENGTH_BYTE);
+            cipher.doFinal(raw, 0, raw.length, wrapped, IV_LENGTH_BYTE);
+            return wrapped;
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    public SecretKey unwrap(String fileHash, byte[] wrapped) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(WRAP_ALGO);
+        cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(TAG_LENGTH_BIT, wrapped, 0, IV_LENGTH_BYTE));
+        cipher.updateAAD(utf8(fileHash));
+        return new DestroyableSecretKey(cipher.doFinal(wrapped, IV_LENGTH_BYTE, wrapped.length - IV_LENGTH_BYTE));
+    }
+
+    private byte[] header() {
+        byte[] raw = masterKey.getEncoded();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(MAGIC);
+            digest.update(raw);
+            byte[] header = new byte[HEADER_LENGTH];
+            System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+            header[MAGIC.length] = VERSION;
+            System.arraycopy(digest.digest(), 0, header, MAGIC.length + 1, FINGERPRINT_LENGTH);
+            return header;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    private static void encodeRecord(ByteBuffer out, byte type, byte[] hash, byte[] wrapped) {
+        int start = out.position();
+        out.put(type);
+        out.putShort((short) hash.length);
+        out.put(hash);
+        out.putShort((short) wrapped.length);
+        out.put(wrapped);
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), start, out.position() - start);
+        out.putInt((int) crc.getValue());
+    }
+
+    private static int recordLength(int hashLength, int wrappedLength) {
+        return 1 + 2 + hashLength + 2 + wrappedLength + 4;
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Key vault log ends at " + position);
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.tdabac.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// View tokens in this JVM. Every token is evicted by the ExpiryScheduler at
+// its expiry, so tokens that are never presented again do not pile up on
+// the heap.
+@Service
+public class LocalViewTokenStore implements ViewTokenStore {
+
+    private static final long DEFAULT_TTL_MS = 60_000;
+
+    private static final class Entry {
+        final ViewToken viewToken;
+        final ExpiryScheduler.Timeout eviction;
+
+        Entry(ViewToken viewToken, ExpiryScheduler.Timeout eviction) {
+            this.viewToken = viewToken;
+            this.eviction = eviction;
+        }
+    }
+
+    private final ExpiryScheduler expiryScheduler;
+    private final long ttlMs;
+    private final Map<String, Entry> tokens = new ConcurrentHashMap<>();
+    private final AtomicLong evicted = new AtomicLong();
+
+    public LocalViewTokenStore(ExpiryScheduler expiryScheduler,
+            @Value("${tdabac.view-token.ttl-ms:" + DEFAULT_TTL_MS + "}") long ttlMs) {
+        this.expiryScheduler = expiryScheduler;
+        this.ttlMs = ttlMs;
+    }
+
+    public long ttlMs() {
+        return ttlMs;
+    }
+
+    @Override
+    public ViewToken issue(String fileHash) {
+        ViewToken viewToken = new ViewToken(UUID.randomUUID().toString(), fileHash,
+                System.currentTimeMillis() + ttlMs);
+        put(viewToken);
+        return viewToken;
+    }
+
+    // Stores a token issued elsewhere (another node of the cluster).
+    public void put(ViewToken viewToken) {
+        String token = viewToken.getToken();
+        ExpiryScheduler.Timeout eviction = expiryScheduler.schedule(viewToken.getExpiresAt(), () -> {
+            if (tokens.remove(token) != null) {
+                evicted.incrementAndGet();
+            }
+        });
+        Entry previous = tokens.put(token, new Entry(viewToken, eviction));
+        if (previous != null) {
+            expiryScheduler.cancel(previous.eviction);
+        }
+    }
+
+    // Eviction runs at tick granularity, so an expired token may still be
+    // in the map briefly.
+    @Override
+    public ViewToken get(String token) {
+        Entry entry = tokens.get(token);
+        if (entry != null && entry.viewToken.isExpired()) {
+            remove(token);
+            return null;
+        }
+        return entry != null ? entry.viewToken : null;
+    }
+
+    @Override
+    public void remove(String token) {
+        Entry removed = tokens.remove(token);
+        if (removed != null) {
+            expiryScheduler.cancel(removed.eviction);
+        }
+    }
+
+    @Override
+    public int liveCount() {
+        return tokens.size();
+    }
+
+    @Override
+    public long evictedCount() {
+        return evicted.get();
+    }
+}
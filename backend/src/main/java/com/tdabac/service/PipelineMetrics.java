@@ -0,0 +1,354 @@
+package com.tdabac.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.TraceContext;
+import io.micrometer.tracing.Tracer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// Timers and trace spans for the stages of an upload and of an access:
+// key generation, encrypt, storage put/get, the chain check (cache hit or
+// miss), chain registration, decrypt and writing the response.
+//
+// Every meter is registered up front and looked up by Stage ordinal, so
+// recording a stage is two System.nanoTime() calls and a Timer.record - no
+// tag lists or meter lookups per request. Spans are only created when the
+// request's trace is sampled; otherwise startSpan returns null and nothing
+// is allocated.
+//
+// Meters (Prometheus names):
+//   tdabac_pipeline_stage_seconds{stage, cache}  time per stage, as a histogram
+//   tdabac_pipeline_errors_total{stage}          stages that failed
+//   tdabac_payload_size_bytes{direction}         upload / download sizes
+//   tdabac_compression_ratio{codec}              content / compressed size per upload
+//   tdabac_compression_seconds{codec, direction} time in the compressor / decompressor
+@Service
+public class PipelineMetrics {
+
+    public enum Stage {
+        KEY_GENERATION("key_generation", "none"),
+        ENCRYPT("encrypt", "none"),
+        STORAGE_PUT("storage_put", "none"),
+        STORAGE_GET("storage_get", "none"),
+        CHAIN_CHECK_HIT("chain_check", "hit"),
+        CHAIN_CHECK_MISS("chain_check", "miss"),
+        CHAIN_UPLOAD("chain_upload", "none"),
+        DECRYPT("decrypt", "none"),
+        RESPONSE_WRITE("response_write", "none");
+
+        private final String tag;
+        private final String cache;
+
+        Stage(String tag, String cache) {
+            this.tag = tag;
+            this.cache = cache;
+        }
+
+        public String tag() {
+            return tag;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final CompressionCodec[] CODECS = CompressionCodec.values();
+
+    private final Tracer tracer;
+    private final Timer[] timers = new Timer[STAGES.length];
+    private final Counter[] errors = new Counter[STAGES.length];
+    private final DistributionSummary uploadSizes;
+    private final DistributionSummary downloadSizes;
+    private final DistributionSummary[] compressionRatios = new DistributionSummary[CODECS.length];
+    private final Timer[] compressionTimes = new Timer[CODECS.length];
+    private final Timer[] decompressionTimes = new Timer[CODECS.length];
+
+    // The tracer is optional: without micrometer-tracing on the classpath
+    // (or with tracing disabled) only the meters are recorded.
+    @Autowired
+    public PipelineMetrics(MeterRegistry registry, ObjectProvider<Tracer> tracer) {
+        this(registry, tracer.getIfAvailable(() -> Tracer.NOOP));
+    }
+
+    public PipelineMetrics(MeterRegistry registry, Tracer tracer) {
+        this.tracer = tracer;
+        for (Stage stage : STAGES) {
+            // Stages range from sub-millisecond cache hits to chain
+            // registrations of tens of seconds
+            timers[stage.ordinal()] = Timer.builder("tdabac.pipeline.stage")
+                    .description("Time spent in one stage of the upload/access pipeline")
+                    .tag("stage", stage.tag)
+                    .tag("cache", stage.cache)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(10_000))
+                    .maximumExpectedValue(Duration.ofSeconds(120))
+                    .register(registry);
+            // Hit and miss share one chain_check error counter; registering
+            // the same name and tags again returns the existing meter
+            errors[stage.ordinal()] = Counter.builder("tdabac.pipeline.errors")
+                    .description("Pipeline stages that failed")
+                    .tag("stage", stage.tag)
+                    .register(registry);
+        }
+        uploadSizes = payloadSize(registry, "upload");
+        downloadSizes = payloadSize(registry, "download");
+        for (CompressionCodec codec : CODECS) {
+            // Uploads stored uncompressed count under codec=none with ratio 1
+            compressionRatios[codec.ordinal()] = DistributionSummary.builder("tdabac.compression.ratio")
+                    .description("Content size divided by compressed size, per upload")
+                    .tag("codec", codec.tag())
+                    .serviceLevelObjectives(1.0, 1.5, 2.0, 3.0, 5.0, 10.0)
+                    .register(registry);
+            compressionTimes[codec.ordinal()] = compressionTimer(registry, codec, "compress");
+            decompressionTimes[codec.ordinal()] = compressionTimer(registry, codec, "decompress");
+        }
+    }
+
+    private static Timer compressionTimer(MeterRegistry registry, CompressionCodec codec, String direction) {
+        return Timer.builder("tdabac.compression")
+                .description("CPU time added by compressing uploads / decompressing downloads")
+                .tag("codec", codec.tag())
+                .tag("direction", direction)
+                .register(registry);
+    }
+
+    private static DistributionSummary payloadSize(MeterRegistry registry, String direction) {
+        return DistributionSummary.builder("tdabac.payload.size")
+                .description("Plaintext bytes per upload or download")
+                .baseUnit("bytes")
+                .tag("direction", direction)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1024.0)
+                .maximumExpectedValue(16.0 * 1024 * 1024 * 1024)
+                .register(registry);
+    }
+
+    // Records the time since 'startNanos' (a System.nanoTime() value) against
+    // the stage.
+    public void record(Stage stage, long startNanos) {
+        timers[stage.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordNanos(Stage stage, long nanos) {
+        timers[stage.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void failed(Stage stage) {
+        errors[stage.ordinal()].increment();
+    }
+
+    public void uploaded(long bytes) {
+        uploadSizes.record(bytes);
+    }
+
+    public void downloaded(long bytes) {
+        downloadSizes.record(bytes);
+    }
+
+    // One upload's content went through 'codec' (NONE: stored as is).
+    public void compressed(CompressionCodec codec, long contentBytes, long compressedBytes, long nanos) {
+        compressionRatios[codec.ordinal()].record(compressedBytes > 0 ? (double) contentBytes / compressedBytes : 1.0);
+        // NONE with a time: compression was tried and did not pay off
+        if (codec != CompressionCodec.NONE || nanos > 0) {
+            compressionTimes[codec.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void decompressed(CompressionCodec codec, long nanos) {
+        decompressionTimes[codec.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public DistributionSummary compressionRatio(CompressionCodec codec) {
+        return compressionRatios[codec.ordinal()];
+    }
+
+    public Timer timer(Stage stage) {
+        return timers[stage.ordinal()];
+    }
+
+    public Counter errors(Stage stage) {
+        return errors[stage.ordinal()];
+    }
+
+    // The span of the request being handled on this thread, if it is
+    // sampled. Capture it before handing work to another thread: the chain
+    // and IPFS calls complete on the services' pools, where it is not in
+    // scope.
+    public Span currentSpan() {
+        Span span = tracer.currentSpan();
+        return sampled(span) ? span : null;
+    }
+
+    // A child span of 'parent' for the stage, or null when there is no
+    // sampled parent.
+    public Span startSpan(Stage stage, Span parent) {
+        if (parent == null) {
+            return null;
+        }
+        Span span = tracer.nextSpan(parent).name("tdabac." + stage.tag).start();
+        if (!"none".equals(stage.cache)) {
+            span.tag("cache", stage.cache);
+        }
+        return span;
+    }
+
+    // record() plus ending the stage's span, if there is one.
+    public void stop(Stage stage, long startNanos, Span span) {
+        record(stage, startNanos);
+        if (span != null) {
+            span.end();
+        }
+    }
+
+    private static boolean sampled(Span span) {
+        if (span == null) {
+            return false;
+        }
+        TraceContext context = span.context();
+        return context != null && Boolean.TRUE.equals(context.sampled());
+    }
+
+    // Times one response body. The body's wall time, from before the
+    // decrypting stream is opened until the body is closed, is split into
+    // three exclusive stages:
+    //   storage_get     reading ciphertext from the blob store
+    //   decrypt         the rest of the time spent producing plaintext
+    //   response_write  the rest: time Spring spends writing to the client
+    // Each read costs two System.nanoTime() calls; nothing is allocated per
+    // read.
+    public Download startDownload(Span parent) {
+        return new Download(parent != null ? tracer.nextSpan(parent).name("tdabac.download").start() : null);
+    }
+
+    public final class Download {
+
+        private final long started = System.nanoTime();
+        private final Span span;
+        private long storageNanos;
+        private long bodyNanos;
+        private long bytes;
+        private boolean finished;
+
+        private Download(Span span) {
+            this.span = span;
+        }
+
+        // Wraps a ciphertext stream just opened by the blob store;
+        // 'openedAt' is the System.nanoTime() from before the open.
+        public InputStream storage(InputStream in, long openedAt) {
+            storageNanos += System.nanoTime() - openedAt;
+            return new TimedInputStream(in, true);
+        }
+
+        // Wraps the plaintext body. Everything since startDownload counts as
+        // producing plaintext: opening the stream reads and checks the header.
+        public InputStream body(InputStream in) {
+            bodyNanos += System.nanoTime() - started;
+            return new TimedInputStream(in, false);
+        }
+
+        // Ends the download if the body was never handed out (e.g. the
+        // decrypting stream could not be opened).
+        public void abandon() {
+            finish();
+        }
+
+        private void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            long total = System.nanoTime() - started;
+            recordNanos(Stage.STORAGE_GET, storageNanos);
+            recordNanos(Stage.DECRYPT, Math.max(0, bodyNanos - storageNanos));
+            recordNanos(Stage.RESPONSE_WRITE, Math.max(0, total - bodyNanos));
+            downloaded(bytes);
+            if (span != null) {
+                span.tag("storage.ns", Long.toString(storageNanos));
+                span.tag("decrypt.ns", Long.toString(Math.max(0, bodyNanos - storageNanos)));
+                span.tag("write.ns", Long.toString(Math.max(0, total - bodyNanos)));
+                span.tag("bytes", Long.toString(bytes));
+                span.end();
+            }
+        }
+
+        // Adds the time spent in each read to storageNanos (ciphertext) or
+        // bodyNanos (plaintext). Storage reads happen inside body reads, so
+        // they are part of bodyNanos too.
+        private final class TimedInputStream extends FilterInputStream {
+
+            private final boolean storage;
+
+            TimedInputStream(InputStream in, boolean storage) {
+                super(in);
+                this.storage = storage;
+            }
+
+            private void add(long start, long read) {
+                long elapsed = System.nanoTime() - start;
+                if (storage) {
+                    storageNanos += elapsed;
+                } else {
+                    bodyNanos += elapsed;
+                    if (read > 0) {
+                        bytes += read;
+                    }
+                }
+            }
+
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                int b = in.read();
+                add(start, b < 0 ? 0 : 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                long start = System.nanoTime();
+                int read;
+                try {
+                    read = in.read(buffer, offset, length);
+                } catch (IOException e) {
+                    // A segment that failed authentication, or a storage
+                    // read error surfacing through the decrypting stream
+                    if (!storage) {
+                        failed(Stage.DECRYPT);
+                    }
+                    throw e;
+                }
+                add(start, read);
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long start = System.nanoTime();
+                long skipped = in.skip(n);
+                add(start, 0);
+                return skipped;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    in.close();
+                } finally {
+                    if (!storage) {
+                        finish();
+                    }
+                }
+            }
+        }
+    }
+}
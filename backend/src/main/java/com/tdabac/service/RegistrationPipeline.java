@@ -0,0 +1,460 @@
+package com.tdabac.service;
+
+import com.tdabac.contract.TDABAC;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.BatchRequest;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.response.EthGetTransactionReceipt;
+import org.web3j.protocol.core.methods.response.EthSendTransaction;
+import org.web3j.protocol.core.methods.response.EthTransaction;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.tx.FastRawTransactionManager;
+import org.web3j.tx.gas.ContractGasProvider;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Registers files on-chain without waiting for each transaction to be mined.
+// Registrations are queued and grouped into one uploadFiles call, flushed
+// when batchSize files are waiting or batchDelayMs after the first one
+// arrived. Nonces are assigned locally (FastRawTransactionManager), so up to
+// maxInFlight transactions are pending at once, and a single poller collects
+// the receipts of all of them with one JSON-RPC batch request per tick.
+// With batchSize 1 every file is its own uploadFile transaction, still
+// pipelined.
+//
+// A transaction without a receipt after receiptTimeoutMs is not given up
+// on while the node still knows it: it may yet be mined, and failing it
+// would have the caller drop the key of a file that ends up registered. It
+// only fails once it is provably dropped, i.e. the node does not know it
+// and its nonce has been used by another transaction.
+public class RegistrationPipeline {
+
+    public enum State { QUEUED, SUBMITTED, CONFIRMED, FAILED }
+
+    // What the status endpoint reports for one file.
+    public static final class Status {
+        private final String fileHash;
+        private final State state;
+        private final String transactionHash;
+        private final Long expiryTimestamp; // unix seconds, once confirmed
+        private final String error;
+        private final long updatedAtMillis;
+
+        Status(String fileHash, State state, String transactionHash, Long expiryTimestamp, String error) {
+            this.fileHash = fileHash;
+            this.state = state;
+            this.transactionHash = transactionHash;
+            this.expiryTimestamp = expiryTimestamp;
+            this.error = error;
+            this.updatedAtMillis = System.currentTimeMillis();
+        }
+
+        public String getFileHash() {
+            return fileHash;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public String getTransactionHash() {
+            return transactionHash;
+        }
+
+        public Long getExpiryTimestamp() {
+            return expiryTimestamp;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    // Finished statuses are kept this long for the status endpoint; after
+    // that the chain itself is the record.
+    private static final long STATUS_RETENTION_MS = 10 * 60 * 1000;
+
+    private static class Registration {
+        final String fileHash;
+        final long duration;
+        final long queuedAtNanos = System.nanoTime();
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        Registration(String fileHash, long duration) {
+            this.fileHash = fileHash;
+            this.duration = duration;
+        }
+    }
+
+    private static class Transaction {
+        final String hash;
+        final BigInteger nonce;
+        final List<Registration> registrations;
+        final long sentAtNanos = System.nanoTime();
+        // Poller thread only. The in-flight slot is given back when the
+        // transaction finishes, or earlier when the node has lost it and
+        // its nonce is handed out again.
+        boolean permitReleased;
+        // No receipt after receiptTimeoutMs, but still known to the node
+        boolean overdue;
+
+        Transaction(String hash, BigInteger nonce, List<Registration> registrations) {
+            this.hash = hash;
+            this.nonce = nonce;
+            this.registrations = registrations;
+        }
+    }
+
+    private final Web3j web3j;
+    private final FastRawTransactionManager transactionManager;
+    private final ContractGasProvider gasProvider;
+    private final Callable<TDABAC> contract;
+    private final ExpiryIndex expiryIndex;
+
+    private final int batchSize;
+    private final long batchDelayMs;
+    private final long receiptTimeoutMs;
+
+    private final BlockingQueue<Registration> queue;
+    // Queued or submitted registrations by file hash; a second submit for the
+    // same hash joins the first instead of sending another transaction.
+    private final Map<String, Registration> pending = new ConcurrentHashMap<>();
+    private final Map<String, Status> statuses = new ConcurrentHashMap<>();
+    private final Map<String, Transaction> inFlight = new ConcurrentHashMap<>();
+    private final Semaphore inFlightPermits;
+
+    private final Thread sender;
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chain-receipts");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean running = true;
+
+    public RegistrationPipeline(Web3j web3j, FastRawTransactionManager transactionManager,
+            ContractGasProvider gasProvider, Callable<TDABAC> contract, ExpiryIndex expiryIndex,
+            int batchSize, long batchDelayMs, int maxInFlight, int queueCapacity,
+            long receiptPollMs, long receiptTimeoutMs) {
+        this.web3j = web3j;
+        this.transactionManager = transactionManager;
+        this.gasProvider = gasProvider;
+        this.contract = contract;
+        this.expiryIndex = expiryIndex;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchDelayMs = batchDelayMs;
+        this.receiptTimeoutMs = receiptTimeoutMs;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.inFlightPermits = new Semaphore(maxInFlight);
+
+        this.sender = new Thread(this::sendLoop, "chain-sender");
+        this.sender.setDaemon(true);
+        this.sender.start();
+        poller.scheduleWithFixedDelay(this::pollSafely, receiptPollMs, receiptPollMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Completes with the on-chain expiry (unix seconds) once the transaction
+    // is mined. Fails with RejectedExecutionException when the queue is full,
+    // and IllegalStateException when the file is already registered or the
+    // transaction was dropped without being mined.
+    public CompletableFuture<Long> submit(String fileHash, long duration) {
+        Registration registration = new Registration(fileHash, duration);
+        Registration existing = pending.putIfAbsent(fileHash, registration);
+        if (existing != null) {
+            return existing.result;
+        }
+        if (!running || !queue.offer(registration)) {
+            pending.remove(fileHash, registration);
+            registration.result.completeExceptionally(
+                    new RejectedExecutionException("Registration queue is full"));
+            return registration.result;
+        }
+        statuses.put(fileHash, new Status(fileHash, State.QUEUED, null, null, null));
+        return registration.result;
+    }
+
+    // The registration still being queued or mined for this hash, if any.
+    public CompletableFuture<Long> pendingRegistration(String fileHash) {
+        Registration registration = pending.get(fileHash);
+        return registration != null ? registration.result : null;
+    }
+
+    // Null if this pipeline has not seen the hash recently.
+    public Status status(String fileHash) {
+        return statuses.get(fileHash);
+    }
+
+    public void shutdown() {
+        running = false;
+        sender.interrupt();
+        poller.shutdownNow();
+        List<Registration> abandoned = new ArrayList<>();
+        queue.drainTo(abandoned);
+        for (Transaction transaction : inFlight.values()) {
+            abandoned.addAll(transaction.registrations);
+        }
+        fail(abandoned, null, new IllegalStateException("Shutting down"));
+    }
+
+    private void sendLoop() {
+        while (running) {
+            List<Registration> batch = new ArrayList<>();
+            try {
+                Registration first = queue.take();
+                batch.add(first);
+                // Waiting for a free slot lets the batch fill up meanwhile.
+                inFlightPermits.acquire();
+                long deadline = first.queuedAtNanos + TimeUnit.MILLISECONDS.toNanos(batchDelayMs);
+                while (batch.size() < batchSize) {
+                    long waitNanos = deadline - System.nanoTime();
+                    Registration next = waitNanos > 0 ? queue.poll(waitNanos, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                fail(batch, null, new IllegalStateException("Shutting down"));
+                return;
+            }
+            send(batch);
+        }
+    }
+
+    private void send(List<Registration> batch) {
+        try {
+            TDABAC current = contract.call();
+            String data;
+            String function;
+            if (batch.size() == 1) {
+                Registration registration = batch.get(0);
+                function = TDABAC.FUNC_UPLOADFILE;
+                data = current.uploadFile(registration.fileHash, BigInteger.valueOf(registration.duration))
+                        .encodeFunctionCall();
+            } else {
+                List<String> hashes = new ArrayList<>(batch.size());
+                List<BigInteger> durations = new ArrayList<>(batch.size());
+                for (Registration registration : batch) {
+                    hashes.add(registration.fileHash);
+                    durations.add(BigInteger.valueOf(registration.duration));
+                }
+                function = TDABAC.FUNC_UPLOADFILES;
+                data = current.uploadFiles(hashes, durations).encodeFunctionCall();
+            }
+
+            EthSendTransaction sent;
+            BigInteger nonce;
+            // With the nonce it was signed with; resetNonce may run on the
+            // poller meanwhile
+            synchronized (transactionManager) {
+                sent = transactionManager.sendTransaction(gasProvider.getGasPrice(function),
+                        gasProvider.getGasLimit(function), current.getContractAddress(), data, BigInteger.ZERO, false);
+                nonce = transactionManager.getCurrentNonce();
+            }
+            if (sent.hasError()) {
+                throw new IOException("Transaction rejected: " + sent.getError().getMessage());
+            }
+
+            Transaction transaction = new Transaction(sent.getTransactionHash(), nonce, batch);
+            inFlight.put(transaction.hash, transaction);
+            for (Registration registration : batch) {
+                statuses.put(registration.fileHash,
+                        new Status(registration.fileHash, State.SUBMITTED, transaction.hash, null, null));
+            }
+        } catch (Exception e) {
+            // The nonce was taken but nothing was sent with it; later
+            // transactions would wait behind the gap forever.
+            resetNonce();
+            inFlightPermits.release();
+            System.err.println("Registration of " + batch.size() + " file(s) failed: " + e.getMessage());
+            fail(batch, null, e);
+        }
+    }
+
+    private void pollSafely() {
+        try {
+            pollReceipts();
+            purgeStatuses();
+        } catch (Exception e) {
+            // Node unreachable; the transactions are still pending, retry on
+            // the next tick.
+            System.err.println("Receipt poll failed: " + e.getMessage());
+        }
+    }
+
+    private void pollReceipts() throws IOException {
+        if (inFlight.isEmpty()) {
+            return;
+        }
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(receiptTimeoutMs);
+        // Read before the receipts: a transaction with no receipt in the
+        // batch below was not mined when this count was taken either.
+        BigInteger minedNonce = null;
+        for (Transaction transaction : inFlight.values()) {
+            if (System.nanoTime() - transaction.sentAtNanos > timeoutNanos) {
+                minedNonce = web3j.ethGetTransactionCount(transactionManager.getFromAddress(),
+                        DefaultBlockParameterName.LATEST).send().getTransactionCount();
+                break;
+            }
+        }
+
+        BatchRequest request = web3j.newBatch();
+        Map<Long, Transaction> byRequestId = new HashMap<>();
+        Map<Long, Transaction> lookups = new HashMap<>();
+        for (Transaction transaction : inFlight.values()) {
+            org.web3j.protocol.core.Request<?, EthGetTransactionReceipt> receiptRequest =
+                    web3j.ethGetTransactionReceipt(transaction.hash);
+            byRequestId.put(receiptRequest.getId(), transaction);
+            request.add(receiptRequest);
+            if (minedNonce != null && System.nanoTime() - transaction.sentAtNanos > timeoutNanos) {
+                org.web3j.protocol.core.Request<?, EthTransaction> lookup =
+                        web3j.ethGetTransactionByHash(transaction.hash);
+                lookups.put(lookup.getId(), transaction);
+                request.add(lookup);
+            }
+        }
+
+        Map<Transaction, Boolean> known = new HashMap<>();
+        for (Response<?> response : request.send().getResponses()) {
+            Transaction looked = lookups.remove(response.getId());
+            if (looked != null) {
+                if (!response.hasError()) {
+                    known.put(looked, ((EthTransaction) response).getTransaction().isPresent());
+                }
+                continue;
+            }
+            Transaction transaction = byRequestId.remove(response.getId());
+            if (transaction == null || response.hasError()) {
+                continue;
+            }
+            ((EthGetTransactionReceipt) response).getTransactionReceipt()
+                    .ifPresent(receipt -> complete(transaction, receipt));
+        }
+
+        // Overdue and still without a receipt
+        for (Map.Entry<Transaction, Boolean> lookup : known.entrySet()) {
+            Transaction transaction = lookup.getKey();
+            if (!inFlight.containsKey(transaction.hash)) {
+                continue;
+            }
+            if (lookup.getValue()) {
+                // Pending on the node: it may still be mined, keep polling
+                if (!transaction.overdue) {
+                    transaction.overdue = true;
+                    for (Registration registration : transaction.registrations) {
+                        statuses.put(registration.fileHash, new Status(registration.fileHash, State.SUBMITTED,
+                                transaction.hash, null, "No receipt after " + receiptTimeoutMs
+                                        + " ms; still pending on the node"));
+                    }
+                }
+            } else if (minedNonce.compareTo(transaction.nonce) > 0) {
+                // Its nonce went to another transaction: it can never be mined
+                if (inFlight.remove(transaction.hash) != null) {
+                    releasePermit(transaction);
+                    fail(transaction.registrations, transaction.hash, new IllegalStateException(
+                            "Transaction " + transaction.hash + " was dropped; nonce " + transaction.nonce
+                                    + " was used by another transaction"));
+                }
+            } else if (!transaction.permitReleased) {
+                // The node lost it (restarted, or evicted it from its pool),
+                // but another node may still mine it. Hand its nonce out
+                // again so the transactions after it are not stuck behind
+                // the gap; once the next one is mined with it, this one is
+                // provably dropped.
+                System.err.println("Transaction " + transaction.hash + " is unknown to the node; reusing nonce "
+                        + transaction.nonce);
+                resetNonce();
+                releasePermit(transaction);
+            }
+        }
+    }
+
+    private void releasePermit(Transaction transaction) {
+        if (!transaction.permitReleased) {
+            transaction.permitReleased = true;
+            inFlightPermits.release();
+        }
+    }
+
+    private void complete(Transaction transaction, TransactionReceipt receipt) {
+        if (inFlight.remove(transaction.hash) == null) {
+            return;
+        }
+        releasePermit(transaction);
+
+        if (!receipt.isStatusOK()) {
+            // uploadFile reverts on a duplicate; uploadFiles only on bad input
+            // or when it runs out of gas.
+            fail(transaction.registrations, transaction.hash,
+                    new IllegalStateException("Transaction reverted: " + transaction.hash));
+            return;
+        }
+
+        // Index our own events right away so the first access after an
+        // upload does not wait for the event indexer to catch up.
+        Map<String, Long> registered = new HashMap<>();
+        for (TDABAC.FileUploadedEventResponse event : TDABAC.getFileUploadedEvents(receipt)) {
+            long expiry = event.expiryTimestamp.longValueExact();
+            expiryIndex.put(new ExpiryIndex.FileRecord(event.fileHash, event.owner, expiry));
+            registered.put(event.fileHash, expiry);
+        }
+
+        for (Registration registration : transaction.registrations) {
+            Long expiry = registered.get(registration.fileHash);
+            if (expiry == null) {
+                // uploadFiles skips hashes that are already registered.
+                fail(List.of(registration), transaction.hash, new IllegalStateException("File already registered"));
+                continue;
+            }
+            statuses.put(registration.fileHash,
+                    new Status(registration.fileHash, State.CONFIRMED, transaction.hash, expiry, null));
+            pending.remove(registration.fileHash, registration);
+            registration.result.complete(expiry);
+        }
+    }
+
+    private void fail(List<Registration> registrations, String transactionHash, Exception error) {
+        for (Registration registration : registrations) {
+            statuses.put(registration.fileHash,
+                    new Status(registration.fileHash, State.FAILED, transactionHash, null, error.getMessage()));
+            pending.remove(registration.fileHash, registration);
+            registration.result.completeExceptionally(error);
+        }
+    }
+
+    private void purgeStatuses() {
+        long cutoff = System.currentTimeMillis() - STATUS_RETENTION_MS;
+        statuses.values().removeIf(status -> (status.state == State.CONFIRMED || status.state == State.FAILED)
+                && status.updatedAtMillis < cutoff);
+    }
+
+    // Continues from the node's pending nonce. The manager hands out its
+    // stored nonce plus one, so it is set to one below that (resetNonce()
+    // would store the pending nonce itself and skip one).
+    private void resetNonce() {
+        try {
+            BigInteger pending = web3j.ethGetTransactionCount(transactionManager.getFromAddress(),
+                    DefaultBlockParameterName.PENDING).send().getTransactionCount();
+            synchronized (transactionManager) {
+                transactionManager.setNonce(pending.subtract(BigInteger.ONE));
+            }
+        } catch (IOException e) {
+            System.err.println("Could not reset nonce: " + e.getMessage());
+        }
+    }
+}
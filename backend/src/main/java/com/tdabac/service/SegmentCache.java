@@ -0,0 +1,235 @@
+package com.tdabac.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// Short-lived cache of decrypted segments, shared by concurrent downloads
+// of the same file (a scan shared with a ward is fetched by dozens of
+// clients within seconds). A burst costs one storage read and one AES-GCM
+// decryption per segment instead of one per client:
+//
+//   - single flight: readers of a segment that is being decrypted wait for
+//     that decryption instead of starting their own
+//   - decrypted segments stay for ttl-ms, bounded to max-bytes (LRU)
+//
+// Every hit is checked against the file's on-chain expiry (passed in by
+// the caller, who just checked access) and the chain clock, so plaintext is
+// never served from here after a file's time-lock has run out. Entries of a
+// file are also dropped when its key is destroyed.
+@Service
+public class SegmentCache {
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long ttlMs;
+    private final long maxFileBytes;
+    // Chain time in unix seconds
+    private final LongSupplier chainClock;
+
+    private final LinkedHashMap<SegmentKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // guarded by itself
+    private long bytes; // guarded by entries
+    private final ConcurrentHashMap<SegmentKey, CompletableFuture<byte[]>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Autowired
+    public SegmentCache(@Value("${tdabac.segment-cache.enabled:true}") boolean enabled,
+            @Value("${tdabac.segment-cache.max-bytes:67108864}") long maxBytes,
+            @Value("${tdabac.segment-cache.ttl-ms:5000}") long ttlMs,
+            @Value("${tdabac.segment-cache.max-file-bytes:16777216}") long maxFileBytes,
+            BlockchainService blockchainService) {
+        this(enabled, maxBytes, ttlMs, maxFileBytes, blockchainService::chainTimeEstimate);
+    }
+
+    public SegmentCache(boolean enabled, long maxBytes, long ttlMs, long maxFileBytes, LongSupplier chainClock) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+        this.maxFileBytes = maxFileBytes;
+        this.chainClock = chainClock;
+    }
+
+    // Segment source for one download of a file expiring at 'expiry' (unix
+    // seconds), or null if the file is not to be cached: the cache is off,
+    // or the file is larger than max-file-bytes, whose segments would only
+    // push out everything else.
+    public EncryptionService.SegmentSource forFile(String fileHash, long ciphertextLength, long expiry) {
+        if (!enabled || ciphertextLength > maxFileBytes) {
+            return null;
+        }
+        return (index, decrypt) -> segment(fileHash, index, expiry, decrypt);
+    }
+
+    private byte[] segment(String fileHash, long index, long expiry, EncryptionService.SegmentDecrypter decrypt)
+            throws IOException {
+        if (chainClock.getAsLong() >= expiry) {
+            throw new IOException("Time-lock of " + fileHash + " expired during the download");
+        }
+        SegmentKey key = new SegmentKey(fileHash, index);
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (now - entry.loadedAt < ttlMs) {
+                    hits.incrementAndGet();
+                    return entry.plaintext;
+                }
+                remove(key);
+            }
+        }
+
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = loading.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                        : new IOException("Segment " + index + " of " + fileHash + " could not be read", e.getCause());
+            }
+        }
+
+        try {
+            // Loaded by someone else between the lookup above and putIfAbsent
+            synchronized (entries) {
+                Entry entry = entries.get(key);
+                if (entry != null && System.currentTimeMillis() - entry.loadedAt < ttlMs) {
+                    hits.incrementAndGet();
+                    mine.complete(entry.plaintext);
+                    return entry.plaintext;
+                }
+            }
+            loads.incrementAndGet();
+            byte[] plaintext = decrypt.decrypt();
+            put(key, new Entry(plaintext, System.currentTimeMillis()));
+            mine.complete(plaintext);
+            return plaintext;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+    }
+
+    // Drops every cached segment of the file (its key is being destroyed).
+    public void invalidate(String fileHash) {
+        synchronized (entries) {
+            Iterator<Map.Entry<SegmentKey, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<SegmentKey, Entry> entry = it.next();
+                if (entry.getKey().fileHash.equals(fileHash)) {
+                    bytes -= entry.getValue().plaintext.length;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private void put(SegmentKey key, Entry entry) {
+        if (entry.plaintext.length > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.plaintext.length;
+            }
+            bytes += entry.plaintext.length;
+            // Least recently used first; stale entries go regardless of size
+            Iterator<Map.Entry<SegmentKey, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<SegmentKey, Entry> eldest = it.next();
+                boolean stale = entry.loadedAt - eldest.getValue().loadedAt >= ttlMs;
+                if (!stale && bytes <= maxBytes) {
+                    break;
+                }
+                bytes -= eldest.getValue().plaintext.length;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    // Caller holds entries
+    private void remove(SegmentKey key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.plaintext.length;
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long loads() {
+        return loads.get();
+    }
+
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long bytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    private static final class Entry {
+        final byte[] plaintext;
+        final long loadedAt;
+
+        Entry(byte[] plaintext, long loadedAt) {
+            this.plaintext = plaintext;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static final class SegmentKey {
+        final String fileHash;
+        final long index;
+
+        SegmentKey(String fileHash, long index) {
+            this.fileHash = fileHash;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SegmentKey && ((SegmentKey) o).index == index && ((SegmentKey) o).fileHash.equals(fileHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileHash, index);
+        }
+    }
+}
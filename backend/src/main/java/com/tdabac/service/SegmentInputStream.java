@@ -0,0 +1,66 @@
+package com.tdabac.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Plaintext of a run of segments handed out whole by a SegmentSource (see
+// SegmentCache) rather than decrypted from one ciphertext stream. Segment
+// arrays may be shared with other readers, so they are only ever copied
+// from.
+class SegmentInputStream extends InputStream {
+
+    interface Segments {
+        byte[] segment(long index) throws IOException;
+    }
+
+    private final Segments segments;
+    private long nextIndex;
+    private byte[] current;
+    private int position;
+    // Plaintext still to be dropped from the front of the first segment.
+    private int skip;
+    // Plaintext still to be returned.
+    private long remaining;
+
+    SegmentInputStream(Segments segments, long firstSegment, int skip, long length) {
+        this.segments = segments;
+        this.nextIndex = firstSegment;
+        this.skip = skip;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining == 0) {
+            return -1;
+        }
+        while (current == null || position == current.length) {
+            current = segments.segment(nextIndex++);
+            position = Math.min(skip, current.length);
+            skip -= position;
+            if (current.length == 0) {
+                throw new IOException("Encrypted stream is truncated");
+            }
+        }
+        int n = (int) Math.min(Math.min(len, current.length - position), remaining);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : (int) Math.min(current.length - position, remaining);
+    }
+}
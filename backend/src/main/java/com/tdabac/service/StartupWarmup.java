@@ -0,0 +1,166 @@
+package com.tdabac.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Random;
+
+// Runs once the server has started and before Spring reports the
+// application ready, so a load balancer polling the readiness probe
+// (/actuator/health/readiness) only sends traffic to a warm node:
+//
+//   chain   BlockchainService.warmUp(): contract address read and checked,
+//           connection to the node open, chain clock and nonce fetched
+//   crypto  'iterations' synthetic encrypt/decrypt passes of 'bytes' bytes
+//           per codec plus key wrapping, so the JCE provider is initialised
+//           and the AES-GCM and codec loops are compiled by the JIT
+//   http    'http-requests' GETs of a stats endpoint through the real
+//           server, for Tomcat, Spring MVC and Jackson
+//
+// A failing step is logged and reported in the health details but does not
+// keep the node out of rotation: a node that cannot reach the chain now
+// would answer 503 for chain calls either way, and may reach it later.
+@Service
+public class StartupWarmup implements ApplicationRunner, HealthIndicator {
+
+    private final BlockchainService blockchainService;
+    private final KeyVault keyVault;
+    private final Environment environment;
+    private final boolean enabled;
+    private final int iterations;
+    private final int bytes;
+    private final int httpRequests;
+
+    // Its own instance: synthetic passes must not show up in the
+    // compression metrics of the real one
+    private final EncryptionService encryptionService = new EncryptionService();
+
+    private volatile boolean done;
+    private volatile long chainMs;
+    private volatile long cryptoMs;
+    private volatile long httpMs;
+    private volatile long readyAfterMs;
+    private volatile String chainError;
+
+    public StartupWarmup(BlockchainService blockchainService, KeyVault keyVault, Environment environment,
+            @Value("${tdabac.warmup.enabled:true}") boolean enabled,
+            @Value("${tdabac.warmup.iterations:10}") int iterations,
+            @Value("${tdabac.warmup.bytes:262144}") int bytes,
+            @Value("${tdabac.warmup.http-requests:50}") int httpRequests) {
+        this.blockchainService = blockchainService;
+        this.keyVault = keyVault;
+        this.environment = environment;
+        this.enabled = enabled;
+        this.iterations = iterations;
+        this.bytes = bytes;
+        this.httpRequests = httpRequests;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabled) {
+            long start = System.nanoTime();
+            try {
+                blockchainService.warmUp();
+            } catch (Exception e) {
+                chainError = e.toString();
+                System.err.println("Warm-up: chain not ready: " + e);
+            }
+            chainMs = elapsedMs(start);
+
+            start = System.nanoTime();
+            try {
+                warmUpCrypto();
+            } catch (Exception e) {
+                System.err.println("Warm-up: crypto pass failed: " + e);
+            }
+            cryptoMs = elapsedMs(start);
+
+            start = System.nanoTime();
+            warmUpHttp();
+            httpMs = elapsedMs(start);
+        }
+        readyAfterMs = ManagementFactory.getRuntimeMXBean().getUptime();
+        done = true;
+        System.out.println("Warm-up " + (enabled ? "done" : "skipped") + ": chain " + chainMs + " ms, crypto "
+                + cryptoMs + " ms, http " + httpMs + " ms; ready " + readyAfterMs + " ms after JVM start");
+    }
+
+    @Override
+    public Health health() {
+        if (!done) {
+            return Health.outOfService().withDetail("warmup", "running").build();
+        }
+        Health.Builder health = Health.up()
+                .withDetail("enabled", enabled)
+                .withDetail("chainMs", chainMs)
+                .withDetail("cryptoMs", cryptoMs)
+                .withDetail("httpMs", httpMs)
+                .withDetail("readyAfterJvmStartMs", readyAfterMs);
+        if (chainError != null) {
+            health.withDetail("chainError", chainError);
+        }
+        return health.build();
+    }
+
+    // Half random, half repetitive, so the codecs have something to
+    // compress and the decision paths for both kinds of content run.
+    private void warmUpCrypto() throws Exception {
+        byte[] content = new byte[bytes];
+        new Random(1).nextBytes(content);
+        for (int i = bytes / 2; i < bytes; i++) {
+            content[i] = (byte) ('a' + i % 16);
+        }
+        for (int i = 0; i < iterations; i++) {
+            for (CompressionCodec codec : CompressionCodec.values()) {
+                SecretKey key = encryptionService.generateKey();
+                ByteArrayOutputStream ciphertext = new ByteArrayOutputStream(bytes + bytes / 8);
+                encryptionService.encrypt(new ByteArrayInputStream(content), ciphertext, key, codec, content.length);
+                try (InputStream plaintext = encryptionService.decryptingStream(
+                        new ByteArrayInputStream(ciphertext.toByteArray()), key)) {
+                    if (plaintext.readAllBytes().length != content.length) {
+                        throw new IllegalStateException("Round trip lost data with " + codec);
+                    }
+                }
+                keyVault.unwrap("warmup", keyVault.wrap("warmup", key));
+            }
+        }
+    }
+
+    private void warmUpHttp() {
+        String port = environment.getProperty("local.server.port");
+        if (port == null || httpRequests <= 0) {
+            return;
+        }
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/api/stats/expiry"))
+                .timeout(Duration.ofSeconds(5)).GET().build();
+        for (int i = 0; i < httpRequests; i++) {
+            try {
+                client.send(request, HttpResponse.BodyHandlers.discarding());
+            } catch (Exception e) {
+                System.err.println("Warm-up: request to own server failed: " + e);
+                return;
+            }
+        }
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
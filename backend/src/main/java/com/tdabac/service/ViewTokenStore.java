@@ -0,0 +1,48 @@
+package com.tdabac.service;
+
+// Short-lived tokens for the inline viewer. LocalViewTokenStore keeps them
+// on this node; ReplicatedViewTokenStore (tdabac.cluster.*) keeps each one
+// on the nodes that own it, so a token issued by one node is honoured by
+// every other.
+public interface ViewTokenStore {
+
+    final class ViewToken {
+        private final String token;
+        private final String fileHash;
+        private final long expiresAt;
+
+        public ViewToken(String token, String fileHash, long expiresAt) {
+            this.token = token;
+            this.fileHash = fileHash;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        public String getFileHash() {
+            return fileHash;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        public boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+
+    ViewToken issue(String fileHash);
+
+    // Null if the token is unknown or expired.
+    ViewToken get(String token);
+
+    void remove(String token);
+
+    // Tokens held on this node, and tokens evicted here at their expiry.
+    int liveCount();
+
+    long evictedCount();
+}
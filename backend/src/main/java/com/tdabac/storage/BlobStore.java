@@ -0,0 +1,46 @@
+package com.tdabac.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+// Storage for encrypted blobs, keyed by file hash. Blobs are immutable once
+// written; each carries a small map of string attributes (filename, content
+// type) that is stored alongside the data.
+public interface BlobStore {
+
+    void put(String key, ByteBuffer data, Map<String, String> attributes) throws IOException;
+
+    // Copies the content of 'file' into the store; the caller keeps ownership
+    // of 'file'.
+    void put(String key, Path file, Map<String, String> attributes) throws IOException;
+
+    boolean contains(String key);
+
+    // Size in bytes, or -1 if the key is not present.
+    long size(String key);
+
+    // Attributes stored with the blob, or null if the key is not present.
+    Map<String, String> attributes(String key);
+
+    // Sequential read of the whole blob.
+    InputStream open(String key) throws IOException;
+
+    // Sequential read of [position, position + count) of the blob.
+    InputStream open(String key, long position, long count) throws IOException;
+
+    // Copies [position, position + count) of the blob to 'target' without
+    // passing it through the Java heap where the platform allows it.
+    long transferTo(String key, long position, long count, WritableByteChannel target) throws IOException;
+
+    boolean delete(String key) throws IOException;
+
+    Set<String> keys();
+
+    // Reclaims space held by deleted or overwritten blobs.
+    void compact() throws IOException;
+}
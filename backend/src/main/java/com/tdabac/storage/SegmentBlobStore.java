@@ -0,0 +1,612 @@
+package com.tdabac.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+// File-backed BlobStore made of append-only segment files.
+//
+// Record layout inside a segment:
+//   header length (4) | header | header CRC32 (4) | data
+//   header = magic (4) | type (1) | key (UTF) | attribute count (4)
+//            | attributes (UTF pairs) | data length (8)
+//
+// A delete appends a tombstone record. The in-memory index (key -> segment,
+// offset) is rebuilt at startup by reading record headers only, skipping
+// over the data. Reads are positional reads of the blob's region, or
+// transferTo() straight to a channel, so a blob is never buffered whole.
+// compact() rewrites the live records of mostly-dead segments into the
+// active one and drops the old files. A tombstone is carried along only
+// while a segment that may still hold an older put of its key is left.
+public class SegmentBlobStore implements BlobStore, Closeable {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final int RECORD_MAGIC = 0x54444231; // "TDB1"
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+    private static final int MAX_HEADER_LENGTH = 1024 * 1024;
+
+    // A sealed segment is rewritten once less than this fraction is live.
+    private static final double COMPACTION_THRESHOLD = 0.5;
+
+    private final Path dir;
+    private final long maxSegmentBytes;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    // Deleted key -> lowest id of a segment that held a put of it, for as
+    // long as a tombstone of the key may be needed (guarded by writeLock)
+    private final Map<String, Long> deletedPuts = new HashMap<>();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // Appends, deletes and compaction are serialised; reads are lock-free.
+    private final Object writeLock = new Object();
+    private Segment active;
+
+    public SegmentBlobStore(Path dir, long maxSegmentBytes) throws IOException {
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        Files.createDirectories(dir);
+        recover();
+    }
+
+    @Override
+    public void put(String key, ByteBuffer data, Map<String, String> attributes) throws IOException {
+        byte[] header = encodeHeader(TYPE_PUT, key, attributes, data.remaining());
+        synchronized (writeLock) {
+            Segment segment = segmentFor(header.length + data.remaining());
+            long recordOffset = segment.writePosition;
+            writeFully(segment.channel, ByteBuffer.wrap(header), recordOffset);
+            long length = data.remaining();
+            writeFully(segment.channel, data, recordOffset + header.length);
+            commit(segment, key, recordOffset, header.length, length, attributes);
+        }
+    }
+
+    @Override
+    public void put(String key, Path file, Map<String, String> attributes) throws IOException {
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = source.size();
+            byte[] header = encodeHeader(TYPE_PUT, key, attributes, length);
+            synchronized (writeLock) {
+                Segment segment = segmentFor(header.length + length);
+                long recordOffset = segment.writePosition;
+                writeFully(segment.channel, ByteBuffer.wrap(header), recordOffset);
+                long copied = 0;
+                while (copied < length) {
+                    copied += segment.channel.transferFrom(source, recordOffset + header.length + copied,
+                            length - copied);
+                }
+                commit(segment, key, recordOffset, header.length, length, attributes);
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public long size(String key) {
+        Location location = index.get(key);
+        return location == null ? -1 : location.length;
+    }
+
+    @Override
+    public Map<String, String> attributes(String key) {
+        Location location = index.get(key);
+        return location == null ? null : location.attributes;
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return open(key, 0, Long.MAX_VALUE);
+    }
+
+    @Override
+    public InputStream open(String key, long position, long count) throws IOException {
+        Location location = acquire(key);
+        long start = Math.min(position, location.length);
+        long length = Math.min(count, location.length - start);
+        return new RegionInputStream(location.segment, location.dataOffset() + start, length);
+    }
+
+    @Override
+    public long transferTo(String key, long position, long count, WritableByteChannel target) throws IOException {
+        Location location = acquire(key);
+        try {
+            long start = location.dataOffset() + Math.min(position, location.length);
+            long remaining = Math.min(count, location.length - Math.min(position, location.length));
+            long transferred = 0;
+            while (transferred < remaining) {
+                transferred += location.segment.channel.transferTo(start + transferred, remaining - transferred, target);
+            }
+            return transferred;
+        } finally {
+            location.segment.release();
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        synchronized (writeLock) {
+            Location previous = index.get(key);
+            if (previous == null) {
+                return false;
+            }
+            byte[] tombstone = encodeHeader(TYPE_DELETE, key, Map.of(), 0);
+            Segment segment = segmentFor(tombstone.length);
+            writeFully(segment.channel, ByteBuffer.wrap(tombstone), segment.writePosition);
+            segment.channel.force(false);
+            segment.writePosition += tombstone.length;
+            index.remove(key);
+            deletedPuts.merge(key, previous.oldestPut, Math::min);
+            previous.segment.liveBytes.addAndGet(-previous.recordLength());
+            return true;
+        }
+    }
+
+    @Override
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    @Override
+    public void compact() throws IOException {
+        synchronized (writeLock) {
+            for (Segment segment : new ArrayList<>(segments.values())) {
+                if (segment == active) {
+                    continue;
+                }
+                long total = segment.writePosition;
+                if (total == 0 || segment.liveBytes.get() < total * COMPACTION_THRESHOLD) {
+                    compactSegment(segment);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        }
+    }
+
+    // --- write path (callers hold writeLock) ---
+
+    private Segment segmentFor(long recordLength) throws IOException {
+        if (active == null || (active.writePosition > 0 && active.writePosition + recordLength > maxSegmentBytes)) {
+            long id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            active = openSegment(id);
+            segments.put(id, active);
+        }
+        return active;
+    }
+
+    private void commit(Segment segment, String key, long recordOffset, int headerLength, long length,
+            Map<String, String> attributes) throws IOException {
+        segment.channel.force(false);
+        Location location = new Location(segment, recordOffset, headerLength, length, attributes,
+                oldestPut(key, segment));
+        segment.writePosition += location.recordLength();
+        segment.liveBytes.addAndGet(location.recordLength());
+        Location previous = index.put(key, location);
+        if (previous != null) {
+            previous.segment.liveBytes.addAndGet(-previous.recordLength());
+        }
+    }
+
+    // Lowest id of a segment holding a put of 'key', counting the one about
+    // to be written to 'segment'.
+    private long oldestPut(String key, Segment segment) {
+        Location previous = index.get(key);
+        if (previous != null) {
+            return previous.oldestPut;
+        }
+        Long deleted = deletedPuts.remove(key);
+        return deleted != null ? deleted : segment.id;
+    }
+
+    private void compactSegment(Segment segment) throws IOException {
+        boolean oldest = segments.firstKey() == segment.id;
+        // Every segment that received a copy: the active one can fill up and
+        // be replaced partway through, and all of them have to be on disk
+        // before the source is deleted.
+        Set<Segment> targets = Collections.newSetFromMap(new IdentityHashMap<>());
+        long position = 0;
+        while (position < segment.writePosition) {
+            RecordHeader header = readHeader(segment.channel, position);
+            if (header == null) {
+                break;
+            }
+            long recordLength = header.headerLength + header.dataLength;
+            Location current = index.get(header.key);
+            boolean live = header.type == TYPE_PUT && current != null
+                    && current.segment == segment && current.recordOffset == position;
+            // A tombstone still has to shadow older puts of its key, unless
+            // no segment that held one is left or the key was put again
+            // since: copied forward, it would land after that newer put and
+            // delete it again on the next recovery.
+            boolean keepTombstone = header.type == TYPE_DELETE && current == null
+                    && shadowsOlderPut(header.key, segment, oldest);
+            if (header.type == TYPE_DELETE && current == null && !keepTombstone) {
+                deletedPuts.remove(header.key);
+            }
+
+            if (live || keepTombstone) {
+                Segment target = segmentFor(recordLength);
+                targets.add(target);
+                long targetOffset = target.writePosition;
+                long copied = 0;
+                while (copied < recordLength) {
+                    copied += segment.channel.transferTo(position + copied, recordLength - copied,
+                            target.channel.position(targetOffset + copied));
+                }
+                target.writePosition += recordLength;
+                if (live) {
+                    target.liveBytes.addAndGet(recordLength);
+                    index.put(header.key, new Location(target, targetOffset, header.headerLength,
+                            header.dataLength, header.attributes, current.oldestPut));
+                }
+            }
+            position += recordLength;
+        }
+        for (Segment target : targets) {
+            target.channel.force(false);
+        }
+        segments.remove(segment.id);
+        segment.retire();
+    }
+
+    // Whether a tombstone of 'key' in 'segment' may still be needed: some
+    // segment between the oldest one that held a put of the key and this
+    // one is left. Without a record of that (another tombstone of the key
+    // has been dropped already), only the oldest segment is sure to have
+    // nothing before it.
+    private boolean shadowsOlderPut(String key, Segment segment, boolean oldest) {
+        Long from = deletedPuts.get(key);
+        if (from == null) {
+            return !oldest;
+        }
+        return from < segment.id && !segments.subMap(from, true, segment.id, false).isEmpty();
+    }
+
+    // --- read path ---
+
+    private Location acquire(String key) throws IOException {
+        while (true) {
+            Location location = index.get(key);
+            if (location == null) {
+                throw new NoSuchFileException(key);
+            }
+            if (location.segment.acquire()) {
+                return location;
+            }
+            // Segment was compacted away between lookup and acquire; the index
+            // already points at the new copy.
+        }
+    }
+
+    // Positional reads of one blob's region, straight into the caller's
+    // buffer. Not mapped: a mapping per stream is only released when the GC
+    // gets to its buffer, and serving many small blobs between collections
+    // ran the process into the kernel's per-process mapping limit.
+    private final class RegionInputStream extends InputStream {
+        private final Segment segment;
+        private long position;
+        private final long end;
+        private boolean closed;
+
+        RegionInputStream(Segment segment, long position, long length) {
+            this.segment = segment;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int n = (int) Math.min(len, end - position);
+            int read = segment.channel.read(ByteBuffer.wrap(b, off, n), position);
+            if (read < 0) {
+                throw new EOFException("Segment " + segment.path + " ends before the blob does");
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                segment.release();
+            }
+        }
+    }
+
+    // --- recovery ---
+
+    private void recover() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(ids);
+
+        for (long id : ids) {
+            Segment segment = openSegment(id);
+            segments.put(id, segment);
+            long size = segment.channel.size();
+            long position = 0;
+            while (position < size) {
+                RecordHeader header = readHeader(segment.channel, position);
+                if (header == null || position + header.headerLength + header.dataLength > size) {
+                    // Torn write from a crash; everything after it is garbage.
+                    System.err.println("Truncating " + segment.path + " at " + position + " (incomplete record)");
+                    segment.channel.truncate(position);
+                    break;
+                }
+                long recordLength = header.headerLength + header.dataLength;
+                Location previous = header.type == TYPE_PUT
+                        ? index.put(header.key, new Location(segment, position, header.headerLength,
+                                header.dataLength, header.attributes, oldestPut(header.key, segment)))
+                        : index.remove(header.key);
+                if (header.type == TYPE_PUT) {
+                    segment.liveBytes.addAndGet(recordLength);
+                } else if (previous != null) {
+                    deletedPuts.merge(header.key, previous.oldestPut, Math::min);
+                }
+                if (previous != null) {
+                    previous.segment.liveBytes.addAndGet(-previous.recordLength());
+                }
+                position += recordLength;
+            }
+            segment.writePosition = position;
+        }
+
+        if (!segments.isEmpty()) {
+            active = segments.lastEntry().getValue();
+        }
+        System.out.println("Blob store opened: " + index.size() + " blobs in " + segments.size() + " segments");
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Path path = dir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new Segment(id, path, channel);
+    }
+
+    // --- record encoding ---
+
+    private static byte[] encodeHeader(byte type, String key, Map<String, String> attributes, long dataLength)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(RECORD_MAGIC);
+        out.writeByte(type);
+        out.writeUTF(key);
+        out.writeInt(attributes.size());
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            out.writeUTF(attribute.getKey());
+            out.writeUTF(attribute.getValue());
+        }
+        out.writeLong(dataLength);
+        byte[] header = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        return ByteBuffer.allocate(4 + header.length + 4)
+                .putInt(header.length)
+                .put(header)
+                .putInt((int) crc.getValue())
+                .array();
+    }
+
+    // Returns null if no valid record header starts at 'position'.
+    private static RecordHeader readHeader(FileChannel channel, long position) throws IOException {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        if (!readFully(channel, lengthBuffer, position)) {
+            return null;
+        }
+        int headerLength = lengthBuffer.flip().getInt();
+        if (headerLength <= 0 || headerLength > MAX_HEADER_LENGTH) {
+            return null;
+        }
+        ByteBuffer headerBuffer = ByteBuffer.allocate(headerLength + 4);
+        if (!readFully(channel, headerBuffer, position + 4)) {
+            return null;
+        }
+        byte[] header = new byte[headerLength];
+        headerBuffer.flip().get(header);
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        if ((int) crc.getValue() != headerBuffer.getInt()) {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+        if (in.readInt() != RECORD_MAGIC) {
+            return null;
+        }
+        byte type = in.readByte();
+        String key = in.readUTF();
+        int attributeCount = in.readInt();
+        Map<String, String> attributes = new HashMap<>();
+        for (int i = 0; i < attributeCount; i++) {
+            attributes.put(in.readUTF(), in.readUTF());
+        }
+        long dataLength = in.readLong();
+        return new RecordHeader(type, key, Collections.unmodifiableMap(attributes), 4 + headerLength + 4, dataLength);
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+    }
+
+    // --- bookkeeping ---
+
+    private static final class RecordHeader {
+        final byte type;
+        final String key;
+        final Map<String, String> attributes;
+        final int headerLength; // including length prefix and CRC
+        final long dataLength;
+
+        RecordHeader(byte type, String key, Map<String, String> attributes, int headerLength, long dataLength) {
+            this.type = type;
+            this.key = key;
+            this.attributes = attributes;
+            this.headerLength = headerLength;
+            this.dataLength = dataLength;
+        }
+    }
+
+    private static final class Location {
+        final Segment segment;
+        final long recordOffset;
+        final int headerLength;
+        final long length;
+        final Map<String, String> attributes;
+        // Lowest id of a segment holding a put of the key, this one or an
+        // earlier, overwritten one
+        final long oldestPut;
+
+        Location(Segment segment, long recordOffset, int headerLength, long length, Map<String, String> attributes,
+                long oldestPut) {
+            this.segment = segment;
+            this.recordOffset = recordOffset;
+            this.headerLength = headerLength;
+            this.length = length;
+            this.attributes = attributes;
+            this.oldestPut = oldestPut;
+        }
+
+        long dataOffset() {
+            return recordOffset + headerLength;
+        }
+
+        long recordLength() {
+            return headerLength + length;
+        }
+    }
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        final AtomicLong liveBytes = new AtomicLong();
+        long writePosition; // guarded by writeLock once the store is open
+
+        // One reference is held by the store itself until the segment is
+        // retired; each open reader holds another. The file is closed and
+        // deleted when the last reference goes away.
+        private final AtomicInteger references = new AtomicInteger(1);
+        private boolean retired;
+
+        Segment(long id, Path path, FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+        }
+
+        boolean acquire() {
+            while (true) {
+                int current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                try {
+                    channel.close();
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    // Windows refuses to delete a file that is still open.
+                    // A leftover segment is re-read at startup; anything it
+                    // brings back is expired and goes on the next compaction.
+                    System.err.println("Could not delete compacted segment " + path + ": " + e.getMessage());
+                }
+            }
+        }
+
+        void retire() {
+            if (!retired) {
+                retired = true;
+                release();
+            }
+        }
+    }
+}
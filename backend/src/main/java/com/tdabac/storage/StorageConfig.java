@@ -0,0 +1,20 @@
+package com.tdabac.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+@Configuration
+public class StorageConfig {
+
+    // Local, file-backed store for encrypted blobs. Also serves as the IPFS
+    // stand-in when no node is reachable (e.g. air-gapped test setups).
+    @Bean
+    public BlobStore blobStore(@Value("${tdabac.data-dir:data}") String dataDir,
+            @Value("${tdabac.storage.segment-size-mb:256}") long segmentSizeMb) throws IOException {
+        return new SegmentBlobStore(Paths.get(dataDir, "segments"), segmentSizeMb * 1024 * 1024);
+    }
+}
@@ -0,0 +1,84 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.BlockchainService;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Checks that access checks missing the cache are resolved with batched
+// getExpiries calls, both for the bulk API and for concurrent single-hash
+// callers sharing a lookup window.
+public class AccessCheckBatchTest {
+
+    @Test
+    public void bulkCheckUsesOneCallPerBatch() throws Exception {
+        Path dir = Files.createTempDirectory("access-check-batch-test");
+        try (StubChainNode chain = new StubChainNode()) {
+            BlockchainService service = service(chain, dir, 5);
+            try {
+                List<String> hashes = new ArrayList<>();
+                for (int i = 0; i < 1200; i++) {
+                    hashes.add("QmBulk" + i);
+                }
+                List<BlockchainService.AccessStatus> statuses = service.checkAccessAsync(hashes)
+                        .get(10, TimeUnit.SECONDS);
+
+                assertEquals(hashes.size(), statuses.size());
+                for (int i = 0; i < hashes.size(); i++) {
+                    assertEquals(hashes.get(i), statuses.get(i).getFileHash());
+                    assertTrue(statuses.get(i).isAccessAllowed());
+                    assertNotNull(statuses.get(i).getExpiryTimestamp());
+                }
+                // 1200 hashes at 500 per getExpiries call
+                assertEquals(3, chain.ethCalls());
+
+                // Now cached: no further calls
+                service.checkAccessAsync(hashes).get(10, TimeUnit.SECONDS);
+                assertEquals(3, chain.ethCalls());
+            } finally {
+                service.shutdown();
+            }
+        } finally {
+            StubBackend.deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void concurrentSingleChecksShareALookup() throws Exception {
+        Path dir = Files.createTempDirectory("access-check-batch-test");
+        try (StubChainNode chain = new StubChainNode()) {
+            BlockchainService service = service(chain, dir, 50);
+            try {
+                List<CompletableFuture<Boolean>> results = new ArrayList<>();
+                for (int i = 0; i < 200; i++) {
+                    results.add(service.checkAccessAsync("QmSingle" + i));
+                }
+                for (CompletableFuture<Boolean> result : results) {
+                    assertTrue(result.get(10, TimeUnit.SECONDS));
+                }
+                assertTrue(chain.ethCalls() <= 2, "expected coalesced lookups, got " + chain.ethCalls());
+            } finally {
+                service.shutdown();
+            }
+        } finally {
+            StubBackend.deleteRecursively(dir);
+        }
+    }
+
+    private static BlockchainService service(StubChainNode chain, Path dir, long lookupWindowMs) throws Exception {
+        Files.writeString(dir.resolve("contract-address.txt"), StubChainNode.CONTRACT_ADDRESS);
+        return new BlockchainService(chain.url(), dir.toString(),
+                "0xac0974bec39a17e36ba4a6b4d238ff944bacb478cbed5efcae784d7bf4f2ff80", 1337,
+                10_000, 5000, 10_000, 4, 100, 10_000, 30_000,
+                50, 20, 8, 1000, 100, lookupWindowMs, 500);
+    }
+}
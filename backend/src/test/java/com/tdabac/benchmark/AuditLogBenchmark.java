@@ -0,0 +1,129 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.AuditLog;
+import io.micrometer.tracing.Tracer;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Two questions: how many events per second the log takes, and what
+// recording costs an access.
+//
+// 1. 'threads' producers record 'events' events between them at 'rate'
+//    events/s (0 = as fast as they can); reports record() latency, events
+//    accepted and dropped, and the writer's batches.
+// 2. 'accesses' sequential downloads of a small file through
+//    FileController, without and with the audit log.
+//
+//   mvn test -Dtest=AuditLogBenchmark -Dbenchmark.threads=4 -Dbenchmark.events=1000000 -Dbenchmark.rate=50000 -Dbenchmark.accesses=3000
+public class AuditLogBenchmark {
+
+    @Test
+    public void benchmarkAuditLog() throws Exception {
+        int threads = Integer.getInteger("benchmark.threads", 4);
+        int events = Integer.getInteger("benchmark.events", 1_000_000);
+        int rate = Integer.getInteger("benchmark.rate", 50_000);
+        int accesses = Integer.getInteger("benchmark.accesses", 3000);
+
+        System.out.println("Rate       | accepted/s | dropped | batches | events/batch | record p50 ns | p99 ns | p99.9 ns");
+        record(threads, events, rate);
+        record(threads, events, 0);
+
+        System.out.println("Audit | access p50 ms | access p99 ms | access p99.9 ms");
+        access(false, accesses);
+        access(true, accesses);
+    }
+
+    private static void record(int threads, int events, int rate) throws Exception {
+        Path dir = Files.createTempDirectory("audit-benchmark");
+        AuditLog log = new AuditLog(true, dir, 65536, 64 * 1024 * 1024, 4096, true, 0, 0, hash -> 1_900_000_000L,
+                () -> System.currentTimeMillis() / 1000);
+        try {
+            int perThread = events / threads;
+            long[][] latencies = new long[threads][perThread];
+            Thread[] producers = new Thread[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int producer = t;
+                producers[t] = new Thread(() -> {
+                    // Paced per thread from the start, so a stall is made up
+                    // rather than forgotten
+                    long interval = rate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) * threads / rate;
+                    String file = "QmBenchmarkFile" + producer + "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+                    for (int i = 0; i < perThread; i++) {
+                        if (interval > 0) {
+                            long due = start + i * interval;
+                            while (System.nanoTime() < due) {
+                                Thread.onSpinWait();
+                            }
+                        }
+                        long began = System.nanoTime();
+                        log.record(AuditLog.Type.ACCESS, file, 200, "10.0.0." + producer);
+                        latencies[producer][i] = System.nanoTime() - began;
+                    }
+                });
+                producers[t].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            assertTrue(log.flush(60_000));
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+            long accepted = log.writtenCount();
+            assertEquals(accepted, log.query(null, 0, Long.MAX_VALUE, Integer.MAX_VALUE).size());
+            System.out.printf("%-10s | %10.0f | %7d | %7d | %12.1f | %13d | %6d | %8d%n",
+                    rate == 0 ? "unpaced" : rate + "/s", accepted / seconds, log.droppedCount(), log.batchCount(),
+                    accepted / (double) Math.max(1, log.batchCount()), percentile(all, 0.5), percentile(all, 0.99),
+                    percentile(all, 0.999));
+        } finally {
+            log.close();
+            StubBackend.deleteRecursively(dir);
+        }
+    }
+
+    private static void access(boolean audit, int accesses) throws Exception {
+        try (StubBackend backend = new StubBackend(Tracer.NOOP, false, audit)) {
+            ResponseEntity<?> uploaded = backend.controller.uploadFile(
+                    new MockMultipartFile("file", "report.pdf", "application/pdf", new byte[16 * 1024]), 3600L, true)
+                    .get(30, TimeUnit.SECONDS);
+            String fileHash = (String) ((Map<?, ?>) uploaded.getBody()).get("fileHash");
+
+            int warmup = Math.min(500, accesses / 5);
+            long[] latencies = new long[accesses];
+            for (int i = -warmup; i < accesses; i++) {
+                long began = System.nanoTime();
+                ResponseEntity<?> response = backend.controller.accessFile(fileHash, null).get(30, TimeUnit.SECONDS);
+                try (InputStream in = ((InputStreamResource) response.getBody()).getInputStream()) {
+                    in.readAllBytes();
+                }
+                if (i >= 0) {
+                    latencies[i] = System.nanoTime() - began;
+                }
+            }
+            if (audit) {
+                assertTrue(backend.auditLog.flush(10_000));
+                assertEquals(0, backend.auditLog.droppedCount());
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%-5s | %13.3f | %13.3f | %15.3f%n", audit ? "on" : "off", percentile(latencies, 0.5) / 1e6,
+                    percentile(latencies, 0.99) / 1e6, percentile(latencies, 0.999) / 1e6);
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * p) - 1)];
+    }
+}
@@ -0,0 +1,245 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.AuditLog;
+import io.micrometer.tracing.Tracer;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Events come back by file and time range across segments and restarts,
+// a full buffer drops rather than blocks, and segments go once their files
+// have expired.
+public class AuditLogTest {
+
+    private static final String FILE_A = "QmAaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+    private static final String FILE_B = "QmBbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb";
+    private static final String FILE_C = "QmCcccccccccccccccccccccccccccccccccccccccccccc";
+
+    @Test
+    public void queriesByFileAndTimeRange() throws Exception {
+        Path dir = Files.createTempDirectory("audit-test");
+        AuditLog log = open(dir, 4096, hash -> null, () -> 0);
+        try {
+            // 4 KiB segments: the events span many of them
+            for (int i = 0; i < 3000; i++) {
+                String file = i % 3 == 0 ? FILE_A : i % 3 == 1 ? FILE_B : FILE_C;
+                while (!log.record(1_000_000 + i, AuditLog.Type.ACCESS, file, 200, "10.0.0." + (i % 7))) {
+                    Thread.sleep(1);
+                }
+            }
+            assertTrue(log.flush(10_000));
+            assertTrue(log.segmentCount() > 10, log.segmentCount() + " segments");
+
+            List<AuditLog.Event> all = log.query(null, 1_001_000, 1_001_999, 10_000);
+            assertEquals(1000, all.size());
+            assertEquals(1_001_000, all.get(0).getTime());
+            assertEquals(1_001_999, all.get(999).getTime());
+
+            List<AuditLog.Event> fileB = log.query(FILE_B, 1_000_500, 1_002_499, 10_000);
+            assertEquals(2000 / 3, fileB.size());
+            long previous = 0;
+            for (AuditLog.Event event : fileB) {
+                assertEquals(FILE_B, event.getFileHash());
+                assertEquals(AuditLog.Type.ACCESS, event.getType());
+                assertEquals(200, event.getStatus());
+                assertEquals("10.0.0." + ((event.getTime() - 1_000_000) % 7), event.getClient());
+                assertTrue(event.getTime() > previous);
+                previous = event.getTime();
+            }
+
+            assertEquals(25, log.query(FILE_C, 0, Long.MAX_VALUE, 25).size());
+            assertEquals(0, log.query("QmNeverSeen", 0, Long.MAX_VALUE, 100).size());
+            assertEquals(0, log.query(null, 2_000_000, 3_000_000, 100).size());
+        } finally {
+            log.close();
+            StubBackend.deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void restartCutsTornRecord() throws Exception {
+        Path dir = Files.createTempDirectory("audit-test");
+        try {
+            AuditLog log = open(dir, 1024 * 1024, hash -> null, () -> 0);
+            for (int i = 0; i < 200; i++) {
+                assertTrue(log.record(5000 + i, AuditLog.Type.VIEW, FILE_A, 200, "10.0.0.1"));
+            }
+            assertTrue(log.flush(10_000));
+            log.close();
+
+            // Damage the last record, as a crash in the middle of writing it would
+            int recordLength = 27 + FILE_A.length() + "10.0.0.1".length();
+            try (Stream<Path> files = Files.list(dir)) {
+                Path segment = files.sorted().collect(Collectors.toList()).get(0);
+                try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    channel.write(ByteBuffer.wrap(new byte[] { 0x7f }), 8 + 199L * recordLength + 12);
+                }
+            }
+
+            log = open(dir, 1024 * 1024, hash -> null, () -> 0);
+            try {
+                List<AuditLog.Event> events = log.query(FILE_A, 0, Long.MAX_VALUE, 1000);
+                assertEquals(199, events.size());
+                assertEquals(5198, events.get(198).getTime());
+
+                assertTrue(log.record(4000, AuditLog.Type.ACCESS, FILE_A, 403, "10.0.0.2"));
+                assertTrue(log.flush(10_000));
+                events = log.query(FILE_A, 0, Long.MAX_VALUE, 1000);
+                assertEquals(200, events.size());
+                // Stamped before the last record written: takes its time
+                assertEquals(5198, events.get(199).getTime());
+                assertEquals(403, events.get(199).getStatus());
+            } finally {
+                log.close();
+            }
+        } finally {
+            StubBackend.deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void segmentsGoOnceTheirFilesExpire() throws Exception {
+        Path dir = Files.createTempDirectory("audit-test");
+        AtomicLong chainTime = new AtomicLong(50);
+        Map<String, Long> expiries = Map.of(FILE_A, 100L, FILE_B, 500L);
+        AuditLog log = open(dir, 4096, expiries::get, chainTime::get);
+        try {
+            for (String file : new String[] { FILE_A, FILE_B, FILE_C }) {
+                for (int i = 0; i < 200; i++) {
+                    assertTrue(log.record(AuditLog.Type.ACCESS, file, 200, "10.0.0.1"));
+                }
+                assertTrue(log.flush(10_000));
+            }
+            assertEquals(100L, log.query(FILE_A, 0, Long.MAX_VALUE, 1).get(0).getExpiry());
+            assertEquals(0L, log.query(FILE_C, 0, Long.MAX_VALUE, 1).get(0).getExpiry());
+            assertEquals(0, log.enforceRetention());
+
+            // A expired, but not yet an hour ago
+            chainTime.set(100 + 3000);
+            assertEquals(0, log.enforceRetention());
+
+            chainTime.set(100 + 3601);
+            assertTrue(log.enforceRetention() > 0);
+            int countA = log.query(FILE_A, 0, Long.MAX_VALUE, 1000).size();
+            // Only a segment shared with B's events keeps some of A's
+            assertTrue(countA < 200, countA + " events of A left");
+            assertEquals(200, log.query(FILE_B, 0, Long.MAX_VALUE, 1000).size());
+            assertEquals(200, log.query(FILE_C, 0, Long.MAX_VALUE, 1000).size());
+
+            // C's expiry is unknown, so its segments (one shared with B) stay
+            chainTime.set(500 + 3601);
+            assertTrue(log.enforceRetention() > 0);
+            assertEquals(0, log.query(FILE_A, 0, Long.MAX_VALUE, 1000).size());
+            assertTrue(log.query(FILE_B, 0, Long.MAX_VALUE, 1000).size() < 200);
+            assertEquals(200, log.query(FILE_C, 0, Long.MAX_VALUE, 1000).size());
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(log.segmentCount(), files.count());
+            }
+        } finally {
+            log.close();
+            StubBackend.deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void fullBufferDropsInsteadOfBlocking() throws Exception {
+        Path dir = Files.createTempDirectory("audit-test");
+        CountDownLatch writerStuck = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // The writer looks expiries up; the first lookup stalls it
+        Function<String, Long> expiryLookup = hash -> {
+            if (writerStuck.getCount() > 0) {
+                writerStuck.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return null;
+        };
+        AuditLog log = new AuditLog(true, dir, 16, 1024 * 1024, 4096, false, 3600_000, 0, expiryLookup, () -> 0);
+        try {
+            assertTrue(log.record(AuditLog.Type.ACCESS, FILE_A, 200, "10.0.0.1"));
+            assertTrue(writerStuck.await(10, TimeUnit.SECONDS));
+
+            long started = System.nanoTime();
+            int accepted = 0;
+            for (int i = 0; i < 1000; i++) {
+                if (log.record(AuditLog.Type.ACCESS, FILE_B, 200, "10.0.0.1")) {
+                    accepted++;
+                }
+            }
+            assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(1));
+            assertEquals(16, accepted);
+            assertEquals(1000 - 16, log.droppedCount());
+            assertFalse(log.flush(50));
+
+            release.countDown();
+            assertTrue(log.flush(10_000));
+            assertEquals(1 + 16, log.query(null, 0, Long.MAX_VALUE, 1000).size());
+        } finally {
+            release.countDown();
+            log.close();
+            StubBackend.deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void requestsAreRecorded() throws Exception {
+        try (StubBackend backend = new StubBackend(Tracer.NOOP, false, true)) {
+            ResponseEntity<?> uploaded = backend.controller.uploadFile(
+                    new MockMultipartFile("file", "scan.dcm", "application/dicom", new byte[10_000]), 3600L, true)
+                    .get(30, TimeUnit.SECONDS);
+            String fileHash = (String) ((Map<?, ?>) uploaded.getBody()).get("fileHash");
+
+            ResponseEntity<?> accessed = backend.controller.accessFile(fileHash, null).get(30, TimeUnit.SECONDS);
+            try (InputStream in = ((InputStreamResource) accessed.getBody()).getInputStream()) {
+                in.readAllBytes();
+            }
+            ResponseEntity<?> issued = backend.controller.createViewToken(fileHash).get(30, TimeUnit.SECONDS);
+            String token = (String) ((Map<?, ?>) issued.getBody()).get("token");
+            backend.controller.viewFile(fileHash, "not-" + token, null).get(30, TimeUnit.SECONDS);
+            int unknown = backend.controller.accessFile("QmUnknown", null).get(30, TimeUnit.SECONDS)
+                    .getStatusCode().value();
+            assertTrue(unknown >= 400, String.valueOf(unknown));
+
+            assertTrue(backend.auditLog.flush(10_000));
+            List<AuditLog.Event> events = backend.auditLog.query(fileHash, 0, Long.MAX_VALUE, 100);
+            assertEquals(List.of(AuditLog.Type.UPLOAD, AuditLog.Type.ACCESS, AuditLog.Type.VIEW_TOKEN, AuditLog.Type.VIEW),
+                    events.stream().map(AuditLog.Event::getType).collect(Collectors.toList()));
+            assertEquals(List.of(200, 200, 200, 403),
+                    events.stream().map(AuditLog.Event::getStatus).collect(Collectors.toList()));
+            // Registered by the time access was recorded
+            assertTrue(events.get(1).getExpiry() > 0);
+            assertEquals(unknown, backend.auditLog.query("QmUnknown", 0, Long.MAX_VALUE, 100).get(0).getStatus());
+        }
+    }
+
+    // Retention an hour after expiry, enforced only when the test asks
+    private static AuditLog open(Path dir, int segmentBytes, Function<String, Long> expiryLookup,
+            LongSupplier chainClock) throws Exception {
+        return new AuditLog(true, dir, 1024, segmentBytes, 256, true, 3600_000, 0, expiryLookup, chainClock);
+    }
+}
@@ -0,0 +1,117 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.BlockchainService;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Compares access-check latency of the in-process Web3j client against the
+// old per-call `npx hardhat run scripts/interact.js` subprocess.
+// Needs a running `npx hardhat node` and a deployed contract; skips otherwise.
+public class ChainClientBenchmark {
+
+    private static final String RPC_URL = "http://127.0.0.1:8545";
+    private static final String WORKING_DIR = "../smart-contracts";
+
+    @Test
+    public void benchmarkAccessCheckLatency() throws Exception {
+        File addressFile = new File(WORKING_DIR + "/contract-address.txt");
+        if (!addressFile.exists() || !nodeReachable()) {
+            System.err.println("BENCHMARK SKIP: Hardhat node or contract-address.txt not available.");
+            return;
+        }
+        String contractAddress = Files.readString(addressFile.toPath()).trim();
+
+        BlockchainService service = new BlockchainService();
+        String fileHash = "QmChainBenchmark" + System.currentTimeMillis();
+        service.uploadFile(fileHash, 3600);
+
+        int warmupIterations = 50;
+        int web3jIterations = 1000;
+        // Each subprocess call boots Node + Hardhat, so keep this small.
+        int subprocessIterations = 10;
+
+        for (int i = 0; i < warmupIterations; i++) {
+            service.checkAccess(fileHash);
+        }
+
+        long[] web3jTimesNs = new long[web3jIterations];
+        for (int i = 0; i < web3jIterations; i++) {
+            long start = System.nanoTime();
+            if (!service.checkAccess(fileHash)) {
+                throw new IllegalStateException("Expected access to be granted");
+            }
+            web3jTimesNs[i] = System.nanoTime() - start;
+        }
+
+        long[] subprocessTimesNs = new long[subprocessIterations];
+        for (int i = 0; i < subprocessIterations; i++) {
+            long start = System.nanoTime();
+            String output = runHardhatScript("check", fileHash, contractAddress);
+            if (!output.contains("ACCESS_GRANTED")) {
+                throw new IllegalStateException("Expected access to be granted");
+            }
+            subprocessTimesNs[i] = System.nanoTime() - start;
+        }
+        service.shutdown();
+
+        report("Web3j JSON-RPC", web3jTimesNs);
+        report("Hardhat subprocess", subprocessTimesNs);
+    }
+
+    private static void report(String label, long[] timesNs) {
+        Arrays.sort(timesNs);
+        double p50Ms = timesNs[timesNs.length / 2] / 1_000_000.0;
+        double p99Ms = timesNs[Math.min(timesNs.length - 1, (int) Math.ceil(timesNs.length * 0.99) - 1)] / 1_000_000.0;
+        System.out.println(label + " checkAccess p50: " + p50Ms + " ms");
+        System.out.println(label + " checkAccess p99: " + p99Ms + " ms");
+    }
+
+    private static boolean nodeReachable() {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(RPC_URL).openConnection();
+            connection.setConnectTimeout(1000);
+            connection.connect();
+            connection.disconnect();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    // The pre-Web3j access path: one Node/Hardhat process per call, result
+    // scraped from stdout.
+    private static String runHardhatScript(String command, String hash, String contractAddress) throws Exception {
+        String script = "npx hardhat run scripts/interact.js --network localhost";
+        ProcessBuilder builder = System.getProperty("os.name").startsWith("Windows")
+                ? new ProcessBuilder("cmd.exe", "/c", script)
+                : new ProcessBuilder("sh", "-c", script);
+        builder.directory(new File(WORKING_DIR));
+        builder.redirectErrorStream(true);
+        builder.environment().put("CMD", command);
+        builder.environment().put("FILE_HASH", hash);
+        builder.environment().put("DURATION", "0");
+        builder.environment().put("CONTRACT_ADDRESS", contractAddress);
+
+        Process process = builder.start();
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append("\n");
+            }
+        }
+        if (!process.waitFor(60, TimeUnit.SECONDS)) {
+            process.destroy();
+            throw new RuntimeException("Hardhat process timed out after 60 seconds");
+        }
+        return output.toString();
+    }
+}
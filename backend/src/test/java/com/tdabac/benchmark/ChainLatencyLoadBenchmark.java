@@ -0,0 +1,142 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.Application;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Load test for the request threading model. Boots the backend against a
+// stub chain node whose eth_call latency is raised step by step. At each
+// step a crowd of "slow" clients checks access to hashes that are never
+// cached (one chain call each), while a few "fast" clients check a hash
+// whose expiry is already cached. With blocking handlers the slow requests
+// hold every Tomcat worker and fast throughput collapses as chain latency
+// grows; with async handlers it should stay flat.
+//
+//   mvn test -Dtest=ChainLatencyLoadBenchmark -Dbenchmark.seconds=5
+public class ChainLatencyLoadBenchmark {
+
+    private static final long[] CHAIN_LATENCIES_MS = { 0, 50, 250, 1000 };
+    private static final int SLOW_CLIENTS = 48;
+    private static final int FAST_CLIENTS = 8;
+    // Deliberately small so starvation shows up at modest load.
+    private static final int TOMCAT_THREADS = 16;
+
+    @Test
+    public void benchmarkThroughputUnderChainLatency() throws Exception {
+        int seconds = Integer.getInteger("benchmark.seconds", 5);
+        Path dir = Files.createTempDirectory("chain-latency-benchmark");
+        Files.writeString(dir.resolve("contract-address.txt"), StubChainNode.CONTRACT_ADDRESS);
+
+        try (StubChainNode chain = new StubChainNode()) {
+            // Passed as command-line arguments so they win over application.properties.
+            ConfigurableApplicationContext app = new SpringApplicationBuilder(Application.class).run(
+                    "--server.port=0",
+                    "--server.tomcat.threads.max=" + TOMCAT_THREADS,
+                    "--tdabac.chain.rpc-url=" + chain.url(),
+                    "--tdabac.chain.contracts-dir=" + dir,
+                    "--tdabac.chain.index.enabled=false",
+                    "--tdabac.data-dir=" + dir.resolve("data"),
+                    "--tdabac.storage.compaction-interval-ms=0");
+            try {
+                String baseUrl = "http://127.0.0.1:" + app.getEnvironment().getProperty("local.server.port") + "/api/access/";
+                HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+                // Cache the hot hash's expiry (and the chain clock) up front.
+                send(client, baseUrl + "QmHotFile");
+
+                System.out.println("Chain latency | fast req/s | fast p50 ms | fast p99 ms | slow req/s");
+                for (long latencyMs : CHAIN_LATENCIES_MS) {
+                    chain.setCallLatencyMs(latencyMs);
+                    Result result = run(client, baseUrl, seconds);
+                    System.out.printf("%10d ms | %10.0f | %11.2f | %11.2f | %10.0f%n", latencyMs,
+                            result.fastCount / (double) seconds, result.fastP50Ms, result.fastP99Ms,
+                            result.slowCount / (double) seconds);
+                }
+            } finally {
+                app.close();
+            }
+        }
+    }
+
+    private static class Result {
+        long fastCount;
+        long slowCount;
+        double fastP50Ms;
+        double fastP99Ms;
+    }
+
+    private static Result run(HttpClient client, String baseUrl, int seconds) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(SLOW_CLIENTS + FAST_CLIENTS);
+        List<long[]> slowCounts = new ArrayList<>();
+        List<List<Long>> fastTimes = new ArrayList<>();
+
+        for (int i = 0; i < SLOW_CLIENTS; i++) {
+            long[] count = new long[1];
+            slowCounts.add(count);
+            pool.submit(() -> {
+                while (running.get()) {
+                    send(client, baseUrl + "QmCold" + UUID.randomUUID().toString().replace("-", ""));
+                    count[0]++;
+                }
+                return null;
+            });
+        }
+        for (int i = 0; i < FAST_CLIENTS; i++) {
+            List<Long> times = new ArrayList<>();
+            fastTimes.add(times);
+            pool.submit(() -> {
+                while (running.get()) {
+                    long start = System.nanoTime();
+                    send(client, baseUrl + "QmHotFile");
+                    times.add(System.nanoTime() - start);
+                }
+                return null;
+            });
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        running.set(false);
+        pool.shutdown();
+        pool.awaitTermination(30, TimeUnit.SECONDS);
+
+        Result result = new Result();
+        for (long[] count : slowCounts) {
+            result.slowCount += count[0];
+        }
+        long[] all = fastTimes.stream().flatMap(List::stream).mapToLong(Long::longValue).toArray();
+        Arrays.sort(all);
+        result.fastCount = all.length;
+        if (all.length > 0) {
+            result.fastP50Ms = all[all.length / 2] / 1_000_000.0;
+            result.fastP99Ms = all[Math.min(all.length - 1, (int) Math.ceil(all.length * 0.99) - 1)] / 1_000_000.0;
+        }
+        return result;
+    }
+
+    private static void send(HttpClient client, String url) {
+        try {
+            client.send(HttpRequest.newBuilder(URI.create(url)).timeout(java.time.Duration.ofSeconds(60)).GET().build(),
+                    HttpResponse.BodyHandlers.discarding());
+        } catch (Exception e) {
+            // Counted like any other completed request; the benchmark measures
+            // how long the server keeps clients waiting, not the outcome.
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.tdabac.benchmark;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Access throughput of a LocalCluster as nodes are added: for each cluster
+// size, cluster.files files are uploaded and cluster.clients closed-loop
+// clients then GET /api/access/{hash} for cluster.seconds, each request to
+// the next node in turn and a random file. With two replicas, about
+// 1 - 2/n of the requests on an n-node cluster fetch the blob and key from
+// a peer, so the per-node figure shows what that forwarding costs.
+//
+// Every node is a separate JVM on this machine: the scaling seen here is
+// bounded by its cores, not by the cluster.
+//
+//   mvn test -Dtest=ClusterBenchmark -Dcluster.nodes=1,2,3,4 -Dcluster.clients=32 -Dcluster.seconds=20
+public class ClusterBenchmark {
+
+    @Test
+    public void benchmarkScaleOut() throws Exception {
+        int[] sizes = Arrays.stream(System.getProperty("cluster.nodes", "1,2,3").split(","))
+                .mapToInt(size -> Integer.parseInt(size.trim())).toArray();
+        int files = Integer.getInteger("cluster.files", 200);
+        int fileBytes = Integer.getInteger("cluster.fileBytes", 64 * 1024);
+        int clients = Integer.getInteger("cluster.clients", 16);
+        int replicas = Integer.getInteger("cluster.replicas", 2);
+        double seconds = Double.parseDouble(System.getProperty("cluster.seconds", "10"));
+        double warmupSeconds = Double.parseDouble(System.getProperty("cluster.warmupSeconds", "3"));
+
+        List<String> lines = new ArrayList<>();
+        double single = 0;
+        for (int size : sizes) {
+            try (LocalCluster cluster = new LocalCluster(size, Math.min(replicas, size))) {
+                Random random = new Random(1);
+                List<String> hashes = new ArrayList<>();
+                for (int i = 0; i < files; i++) {
+                    byte[] content = new byte[fileBytes];
+                    random.nextBytes(content);
+                    hashes.add(cluster.upload(i % size, content, 3600));
+                }
+                run(cluster, hashes, clients, warmupSeconds);
+                long[] latencies = run(cluster, hashes, clients, seconds);
+                long errors = latencies[latencies.length - 1];
+                latencies = Arrays.copyOf(latencies, latencies.length - 1);
+                Arrays.sort(latencies);
+                double throughput = latencies.length / seconds;
+                if (single == 0) {
+                    single = throughput / size;
+                }
+                long remoteCalls = 0;
+                for (int node = 0; node < size; node++) {
+                    remoteCalls += cluster.stats(node).get("remoteCalls").asLong();
+                }
+                lines.add(String.format("  %5d | %8.1f | %8.1f | %7.2fx | %7.2f | %7.2f | %6d | %d", size, throughput,
+                        throughput / size, throughput / single, percentile(latencies, 0.50),
+                        percentile(latencies, 0.99), errors, remoteCalls));
+            }
+        }
+
+        System.out.printf("Access, %d files of %d bytes, %d clients, %d replicas, %d cores%n", files, fileBytes,
+                clients, replicas, Runtime.getRuntime().availableProcessors());
+        System.out.println("  nodes | req/s    | per node | scaling  | p50 ms  | p99 ms  | errors | remote calls");
+        lines.forEach(System.out::println);
+    }
+
+    // Latencies in nanoseconds, then the error count as the last element.
+    private static long[] run(LocalCluster cluster, List<String> hashes, int clients, double seconds) throws Exception {
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        AtomicLong next = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<List<Long>>> workers = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                long seed = c;
+                workers.add(pool.submit(() -> {
+                    Random random = new Random(seed);
+                    List<Long> latencies = new ArrayList<>();
+                    while (System.nanoTime() < end) {
+                        int node = (int) (next.getAndIncrement() % cluster.size());
+                        String hash = hashes.get(random.nextInt(hashes.size()));
+                        long start = System.nanoTime();
+                        HttpResponse<byte[]> response = cluster.get(node, "/api/access/" + hash);
+                        if (response.statusCode() == 200) {
+                            latencies.add(System.nanoTime() - start);
+                        } else {
+                            errors.incrementAndGet();
+                        }
+                    }
+                    return latencies;
+                }));
+            }
+            List<Long> all = new ArrayList<>();
+            for (Future<List<Long>> worker : workers) {
+                all.addAll(worker.get());
+            }
+            long[] result = new long[all.size() + 1];
+            for (int i = 0; i < all.size(); i++) {
+                result[i] = all.get(i);
+            }
+            result[all.size()] = errors.get();
+            return result;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * quantile) - 1);
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+}
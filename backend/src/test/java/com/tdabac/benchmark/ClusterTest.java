@@ -0,0 +1,85 @@
+package com.tdabac.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Three backends in separate JVMs, two replicas per file: whichever node a
+// request lands on serves every file and honours view tokens issued by
+// another, each file is stored exactly twice, and the cluster keeps
+// serving everything after one node is killed.
+public class ClusterTest {
+
+    private static final int NODES = 3;
+    private static final int REPLICAS = 2;
+    private static final int FILES = 12;
+
+    @Test
+    public void everyNodeServesEveryFileAndSurvivesANodeLoss() throws Exception {
+        Random random = new Random(7);
+        try (LocalCluster cluster = new LocalCluster(NODES, REPLICAS)) {
+            List<String> hashes = new ArrayList<>();
+            List<byte[]> contents = new ArrayList<>();
+            for (int i = 0; i < FILES; i++) {
+                byte[] content = new byte[8 * 1024 + random.nextInt(64 * 1024)];
+                random.nextBytes(content);
+                contents.add(content);
+                hashes.add(cluster.upload(i % NODES, content, 3600));
+            }
+
+            // Any node, including ones holding no copy
+            for (int i = 0; i < FILES; i++) {
+                for (int node = 0; node < NODES; node++) {
+                    HttpResponse<byte[]> response = cluster.get(node, "/api/access/" + hashes.get(i));
+                    assertEquals(200, response.statusCode(), "file " + i + " from node " + node);
+                    assertArrayEquals(contents.get(i), response.body(), "file " + i + " from node " + node);
+                }
+            }
+
+            // Each blob and key on exactly 'replicas' nodes
+            long blobs = 0;
+            long keys = 0;
+            for (int node = 0; node < NODES; node++) {
+                JsonNode stats = cluster.stats(node);
+                assertEquals(true, stats.get("enabled").asBoolean());
+                blobs += stats.get("localBlobs").asLong();
+                keys += stats.get("localKeys").asLong();
+            }
+            assertEquals((long) FILES * REPLICAS, blobs);
+            assertEquals((long) FILES * REPLICAS, keys);
+
+            // Issued on one node, used on another, then gone everywhere
+            String token = new ObjectMapper().readTree(
+                    cluster.post(1, "/api/files/" + hashes.get(0) + "/view-token").body()).get("token").asText();
+            String view = "/api/files/" + hashes.get(0) + "/view?token=" + token;
+            HttpResponse<byte[]> viewed = cluster.get(2, view);
+            assertEquals(200, viewed.statusCode());
+            assertArrayEquals(contents.get(0), viewed.body());
+            for (int node = 0; node < NODES; node++) {
+                assertEquals(403, cluster.get(node, view).statusCode(), "replayed on node " + node);
+            }
+
+            // With two replicas every file still has a copy on a live node
+            cluster.kill(2);
+            for (int i = 0; i < FILES; i++) {
+                for (int node = 0; node < NODES - 1; node++) {
+                    HttpResponse<byte[]> response = cluster.get(node, "/api/access/" + hashes.get(i));
+                    assertEquals(200, response.statusCode(), "file " + i + " from node " + node + " after the kill");
+                    assertArrayEquals(contents.get(i), response.body());
+                }
+            }
+            byte[] late = new byte[16 * 1024];
+            random.nextBytes(late);
+            String lateHash = cluster.upload(0, late, 3600);
+            assertArrayEquals(late, cluster.get(1, "/api/access/" + lateHash).body());
+        }
+    }
+}
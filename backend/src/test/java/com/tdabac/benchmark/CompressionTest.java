@@ -0,0 +1,157 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.CompressionCodec;
+import com.tdabac.service.CompressionPolicy;
+import com.tdabac.service.EncryptionService;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Content compressed before encryption reads back byte for byte through
+// every decrypt path, including ranges, and the policy only compresses what
+// is worth compressing.
+public class CompressionTest {
+
+    @Test
+    public void compressedStreamsRoundTrip() throws Exception {
+        EncryptionService service = new EncryptionService();
+        SecretKey key = service.generateKey();
+        for (int size : new int[] { 0, 100, 70_000, 1_000_000 }) {
+            byte[] content = records(size);
+            for (CompressionCodec codec : new CompressionCodec[] { CompressionCodec.DEFLATE, CompressionCodec.ZSTD }) {
+                ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+                long written = service.encrypt(new ByteArrayInputStream(content), streamed, key, codec, content.length);
+                assertEquals(streamed.size(), written);
+                ByteBuffer buffered = service.encrypt(ByteBuffer.wrap(content), key, codec);
+
+                for (byte[] ciphertext : new byte[][] { streamed.toByteArray(), bytes(buffered) }) {
+                    String what = codec + " " + size;
+                    if (size >= 70_000) {
+                        assertTrue(ciphertext.length < content.length / 3, what + ": " + ciphertext.length);
+                    }
+                    assertArrayEquals(content, bytes(service.decrypt(ByteBuffer.wrap(ciphertext.clone()), key)), what);
+                    try (InputStream in = service.decryptingStream(new ByteArrayInputStream(ciphertext), key)) {
+                        assertArrayEquals(content, in.readAllBytes(), what);
+                    }
+
+                    EncryptionService.CiphertextSource source = (position, count) -> new ByteArrayInputStream(
+                            ciphertext, (int) position, (int) count);
+                    assertEquals(content.length, service.contentLength(source, ciphertext.length, key), what);
+                    long from = size / 3;
+                    long count = size / 2;
+                    try (InputStream in = service.decryptingStream(source, ciphertext.length, from, count, key)) {
+                        assertArrayEquals(Arrays.copyOfRange(content, (int) from, (int) (from + count)), in.readAllBytes(), what);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void announcedLengthMustMatch() throws Exception {
+        EncryptionService service = new EncryptionService();
+        SecretKey key = service.generateKey();
+        byte[] content = records(10_000);
+        assertThrows(IOException.class, () -> service.encrypt(new ByteArrayInputStream(content),
+                new ByteArrayOutputStream(), key, CompressionCodec.ZSTD, content.length + 1));
+        assertThrows(IOException.class, () -> service.encrypt(new ByteArrayInputStream(content),
+                new ByteArrayOutputStream(), key, CompressionCodec.ZSTD, content.length - 1));
+    }
+
+    @Test
+    public void policyFollowsTypeAndSample() {
+        CompressionPolicy policy = new CompressionPolicy();
+        byte[] text = records(100_000);
+        byte[] noise = new byte[100_000];
+        new Random(1).nextBytes(noise);
+
+        assertEquals(CompressionCodec.NONE, policy.choose("image/jpeg", text.length, text, text.length));
+        assertEquals(CompressionCodec.NONE, policy.choose("video/mp4", text.length, text, text.length));
+        assertEquals(CompressionCodec.NONE, policy.choose("text/csv", 100, text, 100));
+        assertEquals(CompressionCodec.ZSTD, policy.choose("application/fhir+json; charset=UTF-8", text.length, noise,
+                noise.length));
+        assertEquals(CompressionCodec.DEFLATE, policy.choose("text/csv", 4000, text, 4000));
+        // Untyped content is sampled
+        assertEquals(CompressionCodec.ZSTD, policy.choose("application/dicom", text.length, text, text.length));
+        assertEquals(CompressionCodec.NONE, policy.choose("application/octet-stream", noise.length, noise, noise.length));
+        assertEquals(CompressionCodec.NONE, policy.choose(null, noise.length, noise, noise.length));
+    }
+
+    @Test
+    public void compressibleUploadsAreStoredCompressed() throws Exception {
+        try (StubBackend backend = new StubBackend()) {
+            // 3 MB of CSV takes the streaming upload path, the JPEG the
+            // in-memory one
+            byte[] csv = records(3 * 1024 * 1024);
+            byte[] jpeg = new byte[200_000];
+            new Random(2).nextBytes(jpeg);
+
+            String csvHash = upload(backend, csv, "text/csv");
+            long stored = backend.ipfs.bytesAdded();
+            assertTrue(stored < csv.length / 3, "stored " + stored + " of " + csv.length);
+            String jpegHash = upload(backend, jpeg, "image/jpeg");
+            assertTrue(backend.ipfs.bytesAdded() - stored > jpeg.length);
+
+            assertArrayEquals(csv, read(backend, csvHash, null));
+            assertArrayEquals(Arrays.copyOfRange(csv, 1_000_000, 1_000_100), read(backend, csvHash, "bytes=1000000-1000099"));
+            assertArrayEquals(jpeg, read(backend, jpegHash, null));
+
+            assertEquals(1, backend.metrics.compressionRatio(CompressionCodec.ZSTD).count());
+            assertTrue(backend.metrics.compressionRatio(CompressionCodec.ZSTD).mean() > 3);
+            assertEquals(1, backend.metrics.compressionRatio(CompressionCodec.NONE).count());
+        }
+    }
+
+    // CSV-like lab records: repetitive, like the exports this is meant for
+    private static byte[] records(int size) {
+        StringBuilder text = new StringBuilder(size + 100);
+        Random random = new Random(size);
+        while (text.length() < size) {
+            text.append("PAT").append(random.nextInt(100_000)).append(",GLU,")
+                    .append(60 + random.nextInt(140)).append(",mg/dL,2024-0").append(1 + random.nextInt(9))
+                    .append("-1").append(random.nextInt(10)).append(",FINAL\n");
+        }
+        return Arrays.copyOf(text.toString().getBytes(StandardCharsets.US_ASCII), size);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static String upload(StubBackend backend, byte[] content, String contentType) throws Exception {
+        ResponseEntity<?> response = backend.controller.uploadFile(
+                new MockMultipartFile("file", "records", contentType, content), 3600L, true).get(30, TimeUnit.SECONDS);
+        assertEquals(200, response.getStatusCode().value(), String.valueOf(response.getBody()));
+        return (String) ((Map<?, ?>) response.getBody()).get("fileHash");
+    }
+
+    private static byte[] read(StubBackend backend, String hash, String range) throws Exception {
+        ResponseEntity<?> response = backend.controller.accessFile(hash, range).get(30, TimeUnit.SECONDS);
+        assertEquals(range == null ? 200 : 206, response.getStatusCode().value(), String.valueOf(response.getBody()));
+        try (InputStream in = ((InputStreamResource) response.getBody()).getInputStream()) {
+            byte[] content = in.readAllBytes();
+            assertEquals(response.getHeaders().getContentLength(), content.length);
+            return content;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.tdabac.benchmark;
+
+import io.micrometer.tracing.Tracer;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Storage used and upload latency with and without dedup, on a corpus
+// shaped like re-shares: 'studies' distinct studies, each uploaded
+// 'shares' times with different durations, plus one edited copy per study
+// (a few hundred bytes inserted near the start, as when a header is
+// rewritten). Studies are random bytes, like compressed DICOM pixel data,
+// so compression saves nothing and any saving is dedup's.
+//
+//   mvn test -Dtest=DedupBenchmark -Dbenchmark.studies=8 -Dbenchmark.shares=4 -Dbenchmark.studyMb=4
+public class DedupBenchmark {
+
+    @Test
+    public void benchmarkDedup() throws Exception {
+        int studies = Integer.getInteger("benchmark.studies", 8);
+        int shares = Integer.getInteger("benchmark.shares", 4);
+        int studyBytes = Integer.getInteger("benchmark.studyMb", 4) * 1024 * 1024;
+
+        List<byte[]> corpus = new ArrayList<>();
+        Random random = new Random(7);
+        for (int s = 0; s < studies; s++) {
+            byte[] study = new byte[studyBytes];
+            random.nextBytes(study);
+            for (int i = 0; i < shares; i++) {
+                corpus.add(study);
+            }
+            byte[] edited = new byte[studyBytes + 300];
+            System.arraycopy(study, 0, edited, 0, 2000);
+            byte[] inserted = new byte[300];
+            random.nextBytes(inserted);
+            System.arraycopy(inserted, 0, edited, 2000, inserted.length);
+            System.arraycopy(study, 2000, edited, 2300, studyBytes - 2000);
+            corpus.add(edited);
+        }
+        long logical = corpus.stream().mapToLong(content -> content.length).sum();
+        System.out.printf("Corpus: %d uploads, %.1f MB (%d studies x %d shares + 1 edit each)%n", corpus.size(),
+                logical / 1048576.0, studies, shares);
+        System.out.println("Mode  | stored MB | saved  | upload p50 ms | upload p99 ms | MB/s");
+        run("plain", corpus, false, logical);
+        run("dedup", corpus, true, logical);
+    }
+
+    private static void run(String mode, List<byte[]> corpus, boolean dedup, long logical) throws Exception {
+        try (StubBackend backend = new StubBackend(Tracer.NOOP, dedup)) {
+            long[] latencies = new long[corpus.size()];
+            long start = System.nanoTime();
+            for (int i = 0; i < corpus.size(); i++) {
+                long began = System.nanoTime();
+                ResponseEntity<?> response = backend.controller.uploadFile(
+                        new MockMultipartFile("file", "study.dcm", "application/dicom", corpus.get(i)),
+                        3600L + i, true).get(60, TimeUnit.SECONDS);
+                latencies[i] = System.nanoTime() - began;
+                assertEquals(200, response.getStatusCode().value(), String.valueOf(response.getBody()));
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            // File blobs (content, or manifests when deduplicated) plus chunks
+            long stored = backend.chunkStore.storedBytes();
+            for (String key : backend.blobStore.keys()) {
+                stored += backend.blobStore.size(key);
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%-5s | %9.1f | %5.1f%% | %13.2f | %13.2f | %5.0f%n", mode, stored / 1048576.0,
+                    100.0 * (1 - stored / (double) logical), latencies[latencies.length / 2] / 1e6,
+                    latencies[Math.min(latencies.length - 1, (int) Math.ceil(latencies.length * 0.99) - 1)] / 1e6,
+                    logical / 1048576.0 / seconds);
+        }
+    }
+}
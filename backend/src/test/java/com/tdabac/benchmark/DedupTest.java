@@ -0,0 +1,226 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.ChunkStore;
+import com.tdabac.service.CompressionCodec;
+import com.tdabac.service.ContentDefinedChunker;
+import com.tdabac.service.EncryptionService;
+import com.tdabac.storage.SegmentBlobStore;
+import io.micrometer.tracing.Tracer;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Re-shared content is stored once, each share still gets its own hash and
+// time-lock, and chunks live exactly as long as some file references them.
+public class DedupTest {
+
+    private static final byte[] SECRET = new byte[32];
+
+    @Test
+    public void chunkBoundariesSurviveAnInsertion() throws Exception {
+        ContentDefinedChunker chunker = new ContentDefinedChunker(16 * 1024, 64 * 1024, 256 * 1024);
+        byte[] content = random(4 * 1024 * 1024, 1);
+        byte[] edited = new byte[content.length + 100];
+        System.arraycopy(content, 0, edited, 0, 1000);
+        System.arraycopy(content, 1000, edited, 1100, content.length - 1000);
+
+        List<byte[]> original = chunks(chunker, content);
+        List<byte[]> shifted = chunks(chunker, edited);
+        Set<String> digests = new HashSet<>();
+        for (byte[] chunk : original) {
+            assertTrue(chunk.length <= 256 * 1024);
+            digests.add(digest(chunk));
+        }
+        int shared = 0;
+        for (byte[] chunk : shifted) {
+            if (digests.contains(digest(chunk))) {
+                shared++;
+            }
+        }
+        // Only the chunk around the insertion should differ
+        assertTrue(shared >= original.size() - 2, shared + " of " + original.size() + " chunks shared");
+        assertEquals(content.length, original.stream().mapToInt(chunk -> chunk.length).sum());
+    }
+
+    @Test
+    public void reshareReusesChunksWithItsOwnTimeLock() throws Exception {
+        try (StubBackend backend = new StubBackend(Tracer.NOOP, true)) {
+            byte[] content = random(1024 * 1024 + 123, 2);
+            Map<?, ?> first = upload(backend, content, 3600);
+            long chunks = backend.chunkStore.chunkCount();
+            long stored = backend.chunkStore.storedBytes();
+            assertTrue(chunks > 1);
+
+            Map<?, ?> second = upload(backend, content, 60);
+            String firstHash = (String) first.get("fileHash");
+            String secondHash = (String) second.get("fileHash");
+            assertNotEquals(firstHash, secondHash);
+            assertNotEquals(first.get("expiry"), second.get("expiry"));
+            assertEquals(chunks, backend.chunkStore.chunkCount());
+            assertEquals(stored, backend.chunkStore.storedBytes());
+            assertEquals(chunks, backend.chunkStore.reusedChunks());
+            assertEquals(2L * content.length, backend.chunkStore.logicalBytes());
+
+            assertArrayEquals(content, read(backend, firstHash, null));
+            assertArrayEquals(content, read(backend, secondHash, null));
+            assertArrayEquals(Arrays.copyOfRange(content, 60_000, 300_000),
+                    read(backend, secondHash, "bytes=60000-299999"));
+
+            // The first share expires: its chunks stay for the second
+            assertTrue(backend.chunkStore.release(firstHash));
+            assertFalse(backend.chunkStore.release(firstHash));
+            assertEquals(chunks, backend.chunkStore.chunkCount());
+            assertArrayEquals(content, read(backend, secondHash, null));
+
+            assertTrue(backend.chunkStore.release(secondHash));
+            assertEquals(0, backend.chunkStore.chunkCount());
+            assertEquals(0, backend.chunkStore.storedBytes());
+            assertEquals(0, backend.chunkStore.logicalBytes());
+        }
+    }
+
+    @Test
+    public void restartRebuildsReferenceCounts() throws Exception {
+        Path dir = Files.createTempDirectory("dedup-test");
+        EncryptionService encryptionService = new EncryptionService();
+        ContentDefinedChunker chunker = new ContentDefinedChunker(4 * 1024, 16 * 1024, 64 * 1024);
+        byte[] kept = random(300_000, 3);
+        byte[] lost = random(200_000, 4);
+        try {
+            ChunkStore.Manifest keptManifest;
+            try (SegmentBlobStore files = new SegmentBlobStore(dir.resolve("files"), 1 << 26)) {
+                ChunkStore store = new ChunkStore(true, new SegmentBlobStore(dir.resolve("chunks"), 1 << 26), files,
+                        encryptionService, chunker, SECRET.clone());
+                keptManifest = store.store(new ByteArrayInputStream(kept), CompressionCodec.NONE);
+                store.commit("QmKept", keptManifest);
+                files.put("QmKept", ByteBuffer.wrap(new byte[10]), Map.of());
+                // Crashed before its blob was stored, and before its commit
+                store.commit("QmNeverStored", store.store(new ByteArrayInputStream(lost), CompressionCodec.NONE));
+                store.store(new ByteArrayInputStream(random(100_000, 5)), CompressionCodec.NONE);
+                store.close();
+            }
+
+            try (SegmentBlobStore files = new SegmentBlobStore(dir.resolve("files"), 1 << 26)) {
+                ChunkStore store = new ChunkStore(true, new SegmentBlobStore(dir.resolve("chunks"), 1 << 26), files,
+                        encryptionService, chunker, SECRET.clone());
+                try {
+                    assertEquals(keptManifest.chunkCount(), store.chunkCount());
+                    assertEquals(kept.length, store.logicalBytes());
+                    assertFalse(store.release("QmNeverStored"));
+                    try (InputStream in = store.open(keptManifest, 0, kept.length, null)) {
+                        assertArrayEquals(kept, in.readAllBytes());
+                    }
+                    assertTrue(store.release("QmKept"));
+                    assertEquals(0, store.chunkCount());
+                } finally {
+                    store.close();
+                }
+            }
+        } finally {
+            StubBackend.deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void missingChunkIsStoredAgain() throws Exception {
+        Path dir = Files.createTempDirectory("dedup-test");
+        EncryptionService encryptionService = new EncryptionService();
+        ContentDefinedChunker chunker = new ContentDefinedChunker(4 * 1024, 16 * 1024, 64 * 1024);
+        byte[] content = random(300_000, 6);
+        try {
+            try (SegmentBlobStore files = new SegmentBlobStore(dir.resolve("files"), 1 << 26)) {
+                ChunkStore store = new ChunkStore(true, new SegmentBlobStore(dir.resolve("chunks"), 1 << 26), files,
+                        encryptionService, chunker, SECRET.clone());
+                store.commit("QmBroken", store.store(new ByteArrayInputStream(content), CompressionCodec.NONE));
+                files.put("QmBroken", ByteBuffer.wrap(new byte[10]), Map.of());
+                store.close();
+            }
+            // One chunk lost, as with a torn segment
+            try (SegmentBlobStore chunks = new SegmentBlobStore(dir.resolve("chunks"), 1 << 26)) {
+                String lost = chunks.keys().stream().filter(key -> key.startsWith("c/")).findFirst().orElseThrow();
+                assertTrue(chunks.delete(lost));
+            }
+
+            try (SegmentBlobStore files = new SegmentBlobStore(dir.resolve("files"), 1 << 26)) {
+                ChunkStore store = new ChunkStore(true, new SegmentBlobStore(dir.resolve("chunks"), 1 << 26), files,
+                        encryptionService, chunker, SECRET.clone());
+                try {
+                    // The record is dropped, and the chunks only it held
+                    assertFalse(store.release("QmBroken"));
+                    assertEquals(0, store.chunkCount());
+
+                    ChunkStore.Manifest manifest = store.store(new ByteArrayInputStream(content),
+                            CompressionCodec.NONE);
+                    assertEquals(0, store.reusedChunks());
+                    assertEquals(manifest.chunkCount(), store.newChunks());
+                    try (InputStream in = store.open(manifest, 0, content.length, null)) {
+                        assertArrayEquals(content, in.readAllBytes());
+                    }
+                } finally {
+                    store.close();
+                }
+            }
+        } finally {
+            StubBackend.deleteRecursively(dir);
+        }
+    }
+
+    private static List<byte[]> chunks(ContentDefinedChunker chunker, byte[] content) throws Exception {
+        ContentDefinedChunker.Reader reader = chunker.reader(new ByteArrayInputStream(content));
+        List<byte[]> chunks = new java.util.ArrayList<>();
+        byte[] chunk;
+        while ((chunk = reader.next()) != null) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static String digest(byte[] chunk) throws Exception {
+        return Arrays.toString(MessageDigest.getInstance("SHA-256").digest(chunk));
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static Map<?, ?> upload(StubBackend backend, byte[] content, long duration) throws Exception {
+        ResponseEntity<?> response = backend.controller.uploadFile(
+                new MockMultipartFile("file", "study.dcm", "application/dicom", content), duration, true)
+                .get(30, TimeUnit.SECONDS);
+        assertEquals(200, response.getStatusCode().value(), String.valueOf(response.getBody()));
+        return (Map<?, ?>) response.getBody();
+    }
+
+    private static byte[] read(StubBackend backend, String hash, String range) throws Exception {
+        ResponseEntity<?> response = backend.controller.accessFile(hash, range).get(30, TimeUnit.SECONDS);
+        assertEquals(range == null ? 200 : 206, response.getStatusCode().value(), String.valueOf(response.getBody()));
+        try (InputStream in = ((InputStreamResource) response.getBody()).getInputStream()) {
+            byte[] content = in.readAllBytes();
+            assertEquals(response.getHeaders().getContentLength(), content.length);
+            return content;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.tdabac.benchmark;
 import com.tdabac.service.EncryptionService;
 import org.junit.jupiter.api.Test;
 import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -23,18 +24,18 @@ public class EncryptionBenchmark {
         long[] decryptTimesNs = new long[measurementIterations];
 
         for (int i = 0; i < warmupIterations; i++) {
-            String encrypted = service.encrypt(largeFile, key);
+            ByteBuffer encrypted = service.encrypt(ByteBuffer.wrap(largeFile), key);
             service.decrypt(encrypted, key);
         }
 
         for (int i = 0; i < measurementIterations; i++) {
             long start = System.nanoTime();
-            String encrypted = service.encrypt(largeFile, key);
+            ByteBuffer encrypted = service.encrypt(ByteBuffer.wrap(largeFile), key);
             long encryptEnd = System.nanoTime();
-            byte[] decrypted = service.decrypt(encrypted, key);
+            ByteBuffer decrypted = service.decrypt(encrypted, key);
             long decryptEnd = System.nanoTime();
 
-            if (decrypted.length != largeFile.length) {
+            if (decrypted.remaining() != largeFile.length) {
                 throw new IllegalStateException("Decryption length mismatch");
             }
 
@@ -0,0 +1,111 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.DestroyableSecretKey;
+import com.tdabac.service.EncryptionService;
+import com.tdabac.service.ExpiryScheduler;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Drives the timing wheel with a manual clock: every task fires on the
+// first tick at or after its deadline, across all wheel levels.
+public class ExpirySchedulerTest {
+
+    @Test
+    public void firesAtDeadlineAcrossLevels() {
+        AtomicLong now = new AtomicLong(1_700_000_000_000L);
+        long tickMs = 1000;
+        ExpiryScheduler scheduler = new ExpiryScheduler(tickMs, now::get);
+
+        // Deadlines from sub-tick up to ~3 days ahead (three wheel levels),
+        // plus a few beyond what the wheels reach directly.
+        Random random = new Random(12);
+        long start = now.get();
+        List<long[]> firedAt = new ArrayList<>(); // { deadline, fired }
+        for (int i = 0; i < 20_000; i++) {
+            long deadline = start + (long) (random.nextDouble() * 3 * 24 * 3600 * 1000);
+            long[] record = { deadline, -1 };
+            firedAt.add(record);
+            scheduler.schedule(deadline, () -> record[1] = now.get());
+        }
+        long[] past = { start - 5000, -1 };
+        firedAt.add(past);
+        scheduler.schedule(past[0], () -> past[1] = now.get());
+        assertEquals(20_001, scheduler.pendingCount());
+
+        // Step the clock in uneven jumps; advance() catches up tick by tick.
+        long end = start + 3L * 24 * 3600 * 1000 + 2 * tickMs;
+        while (now.get() < end) {
+            now.addAndGet(1 + random.nextInt(90_000));
+            scheduler.advance();
+        }
+
+        for (long[] record : firedAt) {
+            assertTrue(record[1] >= 0, "never fired: " + record[0]);
+            // Not early, and no later than one tick after the deadline
+            // (plus the clock jump that contained it).
+            assertTrue(record[1] >= record[0], "fired early: " + record[0] + " at " + record[1]);
+            assertTrue(record[1] - record[0] < tickMs + 90_000, "fired late: " + record[0] + " at " + record[1]);
+        }
+        assertEquals(0, scheduler.pendingCount());
+        assertEquals(20_001, scheduler.firedCount());
+    }
+
+    @Test
+    public void exactTickTiming() {
+        AtomicLong now = new AtomicLong(0);
+        ExpiryScheduler scheduler = new ExpiryScheduler(100, now::get);
+        List<Long> fired = new ArrayList<>();
+        // 64^2 + 5 ticks ahead: placed in level 2 and cascaded down twice
+        long deadline = (64 * 64 + 5) * 100L - 30;
+        scheduler.schedule(deadline, () -> fired.add(now.get()));
+
+        for (long t = 0; t <= deadline + 200; t += 100) {
+            now.set(t);
+            scheduler.advance();
+        }
+        assertEquals(List.of((64 * 64 + 5) * 100L), fired);
+    }
+
+    @Test
+    public void cancelledTasksDoNotRun() {
+        AtomicLong now = new AtomicLong(0);
+        ExpiryScheduler scheduler = new ExpiryScheduler(10, now::get);
+        AtomicLong runs = new AtomicLong();
+        ExpiryScheduler.Timeout kept = scheduler.schedule(50, runs::incrementAndGet);
+        ExpiryScheduler.Timeout dropped = scheduler.schedule(50, runs::incrementAndGet);
+
+        assertTrue(scheduler.cancel(dropped));
+        assertFalse(scheduler.cancel(dropped));
+        now.set(100);
+        scheduler.advance();
+
+        assertEquals(1, runs.get());
+        assertFalse(scheduler.cancel(kept));
+        assertEquals(1, scheduler.cancelledCount());
+        assertEquals(0, scheduler.pendingCount());
+    }
+
+    @Test
+    public void destroyedKeyCannotDecrypt() throws Exception {
+        EncryptionService encryptionService = new EncryptionService();
+        SecretKey key = encryptionService.generateKey();
+        ByteBuffer ciphertext = encryptionService.encrypt(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), key);
+
+        assertTrue(key instanceof DestroyableSecretKey);
+        key.destroy();
+        assertTrue(key.isDestroyed());
+        assertThrows(IllegalStateException.class, key::getEncoded);
+        assertThrows(Exception.class, () -> encryptionService.decrypt(ciphertext, key));
+    }
+}
@@ -0,0 +1,165 @@
+package com.tdabac.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+import com.tdabac.service.CidBuilder;
+import com.tdabac.service.IPFSService;
+import com.tdabac.storage.SegmentBlobStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Checks CID computation against values produced by `ipfs add`, and the
+// multipart /api/v0/add client against an embedded stand-in for the IPFS API.
+public class IpfsUploadTest {
+
+    @Test
+    public void cidMatchesIpfsAdd() {
+        // Reference values from `ipfs add` with default settings.
+        assertEquals("QmbFMke1KXqnYyBBWxB74N4c5SBnJMVAiMNRcGu6x1AwQH",
+                CidBuilder.of(ByteBuffer.allocate(0)));
+        assertEquals("QmT78zSuBmuS4z925WZfrqQ1qHaJ56DQaTfyMUF7F8ff5o",
+                CidBuilder.of(ByteBuffer.wrap("hello world\n".getBytes(StandardCharsets.UTF_8))));
+
+        // Incremental updates in odd-sized pieces give the same CID as one
+        // buffer, including across chunk and tree-level boundaries.
+        byte[] data = new byte[CidBuilder.CHUNK_SIZE * (CidBuilder.MAX_LINKS + 2) + 17];
+        new Random(7).nextBytes(data);
+        CidBuilder builder = new CidBuilder();
+        for (int off = 0; off < data.length; off += 99_991) {
+            builder.update(data, off, Math.min(99_991, data.length - off));
+        }
+        assertEquals(CidBuilder.of(ByteBuffer.wrap(data)), builder.build());
+        assertEquals(CidBuilder.of(ByteBuffer.wrap(data)),
+                CidBuilder.of(ByteBuffer.allocateDirect(data.length).put(data).flip()));
+    }
+
+    @Test
+    public void uploadStreamsToIpfsApi() throws Exception {
+        List<byte[]> received = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v0/add", exchange -> {
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            String boundary = contentType.substring(contentType.indexOf("boundary=") + 9);
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            byte[] content = multipartContent(body, boundary);
+            received.add(content);
+
+            String hash = CidBuilder.of(ByteBuffer.wrap(content));
+            byte[] response = ("{\"Name\":\"" + hash + "\",\"Hash\":\"" + hash + "\",\"Size\":\""
+                    + content.length + "\"}\n").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+
+        Path dir = Files.createTempDirectory("ipfs-upload-test");
+        try (SegmentBlobStore store = new SegmentBlobStore(dir.resolve("segments"), 64L * 1024 * 1024)) {
+            String apiUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+            IPFSService ipfs = new IPFSService(store, dir.toString(), true, apiUrl, "http://127.0.0.1:1/ipfs/", 2, 10_000);
+
+            // Buffer path
+            byte[] small = new byte[1000];
+            new Random(1).nextBytes(small);
+            String smallHash = ipfs.uploadFile(ByteBuffer.wrap(small), Map.of("filename", "small.bin"));
+            ipfs.publishAsync(smallHash).get();
+            assertEquals(CidBuilder.of(ByteBuffer.wrap(small)), smallHash);
+            assertArrayEquals(small, received.get(0));
+
+            // Streaming path, spanning several chunks
+            byte[] large = new byte[3 * CidBuilder.CHUNK_SIZE + 5];
+            new Random(2).nextBytes(large);
+            IPFSService.Upload upload = ipfs.createUpload();
+            try (OutputStream out = upload) {
+                out.write(large);
+            }
+            String largeHash = ipfs.uploadFile(upload, Map.of());
+            ipfs.publishAsync(largeHash).get();
+            assertEquals(CidBuilder.of(ByteBuffer.wrap(large)), largeHash);
+            assertArrayEquals(large, received.get(1));
+            try (InputStream in = ipfs.openFile(largeHash)) {
+                assertArrayEquals(large, in.readAllBytes());
+            }
+
+            // Identical ciphertext is stored once.
+            assertEquals(smallHash, ipfs.uploadFile(ByteBuffer.wrap(small), Map.of()));
+            assertEquals(2, received.size());
+            assertEquals("small.bin", ipfs.fileAttributes(smallHash).get("filename"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void failedAddRollsBackLocalCopy() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v0/add", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            byte[] response = "{\"Hash\":\"QmSomethingElse\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+
+        Path dir = Files.createTempDirectory("ipfs-upload-test");
+        try (SegmentBlobStore store = new SegmentBlobStore(dir.resolve("segments"), 64L * 1024 * 1024)) {
+            String apiUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+            IPFSService ipfs = new IPFSService(store, dir.toString(), true, apiUrl, "http://127.0.0.1:1/ipfs/", 2, 10_000);
+
+            byte[] data = "not what the node stored".getBytes(StandardCharsets.UTF_8);
+            String hash = ipfs.uploadFile(ByteBuffer.wrap(data), Map.of());
+            ExecutionException failed = assertThrows(ExecutionException.class, () -> ipfs.publishAsync(hash).get());
+            assertTrue(failed.getCause() instanceof java.io.IOException);
+            assertFalse(ipfs.hasFile(CidBuilder.of(ByteBuffer.wrap(data))));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    // Extracts the single file part from a multipart/form-data body.
+    private static byte[] multipartContent(byte[] body, String boundary) {
+        byte[] headerEnd = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] closing = ("\r\n--" + boundary + "--").getBytes(StandardCharsets.US_ASCII);
+        int start = indexOf(body, headerEnd, 0) + headerEnd.length;
+        int end = indexOf(body, closing, start);
+        assertTrue(start > headerEnd.length && end >= start, "malformed multipart body");
+        return Arrays.copyOfRange(body, start, end);
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle, int from) {
+        outer:
+        for (int i = from; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
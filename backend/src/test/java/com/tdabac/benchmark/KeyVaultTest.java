@@ -0,0 +1,180 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.DestroyableSecretKey;
+import com.tdabac.service.EncryptionService;
+import com.tdabac.service.KeyVault;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Keys written to the vault come back after a restart, are never stored in
+// the clear, and a burst of writes shares fsyncs.
+public class KeyVaultTest {
+
+    private static final byte[] MASTER = new byte[32];
+
+    static {
+        Arrays.fill(MASTER, (byte) 7);
+    }
+
+    @Test
+    public void keysSurviveRestart() throws Exception {
+        Path dir = Files.createTempDirectory("key-vault-test");
+        EncryptionService encryptionService = new EncryptionService();
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+
+        KeyVault vault = open(dir, 100);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            SecretKey key = encryptionService.generateKey();
+            expected.put("QmKey" + i, key.getEncoded());
+            writes.add(vault.putIfAbsent("QmKey" + i, key));
+        }
+        for (CompletableFuture<Void> write : writes) {
+            write.get(10, TimeUnit.SECONDS);
+        }
+        assertNull(vault.putIfAbsent("QmKey0", encryptionService.generateKey()));
+        System.out.println("Key vault: " + vault.recordsWritten() + " records in " + vault.syncs() + " fsyncs");
+        assertTrue(vault.syncs() < vault.recordsWritten(), "writes were not grouped: " + vault.syncs());
+
+        for (int i = 0; i < 500; i++) {
+            assertTrue(vault.delete("QmKey" + i));
+            expected.remove("QmKey" + i);
+        }
+        assertFalse(vault.delete("QmKey0"));
+        vault.close();
+
+        // A master key leaves no plaintext key on disk
+        byte[] log = Files.readAllBytes(dir.resolve("keys.log"));
+        for (byte[] key : expected.values()) {
+            assertEquals(-1, indexOf(log, key));
+        }
+
+        vault = open(dir, 100);
+        try {
+            assertEquals(expected.size(), vault.size());
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                SecretKey key = vault.get(entry.getKey());
+                assertNotNull(key, entry.getKey());
+                assertArrayEquals(entry.getValue(), key.getEncoded());
+            }
+            assertNull(vault.get("QmKey0"));
+
+            // Only the last 100 stay unwrapped; hits on them skip the disk
+            long unwraps = vault.unwraps();
+            assertEquals(expected.size(), unwraps);
+            assertEquals(100, vault.cachedCount());
+            vault.get("QmKey1999");
+            assertEquals(unwraps, vault.unwraps());
+            assertEquals(1, vault.cacheHits());
+        } finally {
+            vault.close();
+        }
+    }
+
+    @Test
+    public void tornTailIsCutOff() throws Exception {
+        Path dir = Files.createTempDirectory("key-vault-test");
+        EncryptionService encryptionService = new EncryptionService();
+        KeyVault vault = open(dir, 10);
+        SecretKey key = encryptionService.generateKey();
+        vault.putIfAbsent("QmTorn", key).get(10, TimeUnit.SECONDS);
+        vault.close();
+
+        // Half a record, as left by a crash mid-write
+        Files.write(dir.resolve("keys.log"), new byte[] { 1, 0, 20, 'Q', 'm' }, StandardOpenOption.APPEND);
+
+        vault = open(dir, 10);
+        try {
+            assertArrayEquals(key.getEncoded(), vault.get("QmTorn").getEncoded());
+            vault.putIfAbsent("QmAfter", encryptionService.generateKey()).get(10, TimeUnit.SECONDS);
+        } finally {
+            vault.close();
+        }
+        vault = open(dir, 10);
+        try {
+            assertEquals(2, vault.size());
+        } finally {
+            vault.close();
+        }
+    }
+
+    @Test
+    public void compactionKeepsLiveKeys() throws Exception {
+        Path dir = Files.createTempDirectory("key-vault-test");
+        EncryptionService encryptionService = new EncryptionService();
+        KeyVault vault = open(dir, 10);
+        Map<String, byte[]> kept = new LinkedHashMap<>();
+        for (int i = 0; i < 200; i++) {
+            SecretKey key = encryptionService.generateKey();
+            vault.putIfAbsent("QmCompact" + i, key).get(10, TimeUnit.SECONDS);
+            if (i % 10 == 0) {
+                kept.put("QmCompact" + i, key.getEncoded());
+            } else {
+                vault.delete("QmCompact" + i);
+            }
+        }
+        vault.close();
+        vault = open(dir, 10);
+        long before = Files.size(dir.resolve("keys.log"));
+        vault.compact();
+        long after = Files.size(dir.resolve("keys.log"));
+        assertTrue(after < before / 5, before + " -> " + after);
+        vault.putIfAbsent("QmCompactLate", encryptionService.generateKey()).get(10, TimeUnit.SECONDS);
+        vault.close();
+
+        vault = open(dir, 10);
+        try {
+            assertEquals(kept.size() + 1, vault.size());
+            for (Map.Entry<String, byte[]> entry : kept.entrySet()) {
+                assertArrayEquals(entry.getValue(), vault.get(entry.getKey()).getEncoded());
+            }
+        } finally {
+            vault.close();
+        }
+    }
+
+    @Test
+    public void wrongMasterKeyIsRejected() throws Exception {
+        Path dir = Files.createTempDirectory("key-vault-test");
+        open(dir, 10).close();
+        byte[] other = MASTER.clone();
+        other[0] ^= 1;
+        assertThrows(IllegalStateException.class, () -> new KeyVault(dir, new DestroyableSecretKey(other), 10, 256, true));
+    }
+
+    private static KeyVault open(Path dir, int cacheSize) throws Exception {
+        return new KeyVault(dir, new DestroyableSecretKey(MASTER.clone()), cacheSize, 256, true);
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,510 @@
+package com.tdabac.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tdabac.Application;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// The whole backend, booted with its Spring context and real HTTP stack,
+// against a stand-in chain (StubChainNode, or a local Hardhat node when
+// rpcUrl is set) and StubIpfsNode, plus an open-loop load generator for it.
+//
+// Open loop: requests are sent at Poisson arrival times for the offered
+// rate whether or not earlier ones have come back, and each latency is
+// measured from the time the request was due, not from when it actually
+// went out. A closed loop of N clients slows down with the server and
+// hides exactly the queueing we want to see (coordinated omission).
+//
+// The traffic is a weighted mix of the four client-facing calls:
+//
+//   upload      POST /api/upload (uploadBytes of fresh random content)
+//   access      GET  /api/access/{hash} (whole file, body read to the end)
+//   view-token  POST /api/files/{hash}/view-token
+//   view        GET  /api/files/{hash}/view?token= (token issued up front,
+//               so only the view itself is measured)
+//
+// access, view-token and view pick a file at random from the ones uploaded
+// so far (the 'files' seeded before the first run, then every upload).
+class LoadHarness implements AutoCloseable {
+
+    enum Endpoint {
+        UPLOAD("upload"), ACCESS("access"), VIEW_TOKEN("view-token"), VIEW("view");
+
+        final String tag;
+
+        Endpoint(String tag) {
+            this.tag = tag;
+        }
+
+        static Endpoint fromTag(String tag) {
+            for (Endpoint endpoint : values()) {
+                if (endpoint.tag.equalsIgnoreCase(tag.trim())) {
+                    return endpoint;
+                }
+            }
+            throw new IllegalArgumentException("Unknown endpoint '" + tag + "', expected upload, access, view-token or view");
+        }
+    }
+
+    static class Config {
+        // Relative weights, e.g. "access:70,view-token:10,view:10,upload:10"
+        Map<Endpoint, Double> mix = parseMix("access:70,view-token:10,view:10,upload:10");
+        int uploadBytes = 64 * 1024;
+        long uploadDurationSeconds = 3600;
+        // Files uploaded before the first run, so reads have something to hit
+        int files = 50;
+        // Empty: StubChainNode. Otherwise an external node (local Hardhat)
+        // with the contract address in contractsDir/contract-address.txt
+        String rpcUrl = "";
+        String contractsDir = "../smart-contracts";
+        long chainLatencyMs;
+        long ipfsLatencyMs;
+        boolean ipfs = true;
+        long seed = 42;
+        long requestTimeoutMs = 60_000;
+        // Extra --key=value arguments for the backend (pool sizes, caches, ...)
+        List<String> properties = new ArrayList<>();
+
+        // Everything from -Dload.* system properties, for the benchmark
+        static Config fromSystemProperties() {
+            Config config = new Config();
+            config.mix = parseMix(System.getProperty("load.mix", "access:70,view-token:10,view:10,upload:10"));
+            config.uploadBytes = Integer.getInteger("load.uploadBytes", config.uploadBytes);
+            config.files = Integer.getInteger("load.files", config.files);
+            config.rpcUrl = System.getProperty("load.rpcUrl", config.rpcUrl);
+            config.contractsDir = System.getProperty("load.contractsDir", config.contractsDir);
+            config.chainLatencyMs = Long.getLong("load.chainLatencyMs", config.chainLatencyMs);
+            config.ipfsLatencyMs = Long.getLong("load.ipfsLatencyMs", config.ipfsLatencyMs);
+            config.ipfs = Boolean.parseBoolean(System.getProperty("load.ipfs", "true"));
+            config.seed = Long.getLong("load.seed", config.seed);
+            String properties = System.getProperty("load.properties", "");
+            for (String property : properties.split(",")) {
+                if (!property.isBlank()) {
+                    config.properties.add(property.trim());
+                }
+            }
+            return config;
+        }
+
+        static Map<Endpoint, Double> parseMix(String mix) {
+            Map<Endpoint, Double> weights = new EnumMap<>(Endpoint.class);
+            for (String part : mix.split(",")) {
+                if (part.isBlank()) {
+                    continue;
+                }
+                String[] pair = part.split(":");
+                double weight = pair.length > 1 ? Double.parseDouble(pair[1].trim()) : 1;
+                if (weight > 0) {
+                    weights.put(Endpoint.fromTag(pair[0]), weight);
+                }
+            }
+            if (weights.isEmpty()) {
+                throw new IllegalArgumentException("Empty load mix: " + mix);
+            }
+            return weights;
+        }
+    }
+
+    // Outcome of one run for one endpoint. Latencies in milliseconds.
+    static class Result {
+        final Endpoint endpoint;
+        final double offeredRate;
+        final long sent;
+        final long ok;
+        final long errors;
+        final String firstError;
+        final double throughput;
+        final double p50;
+        final double p90;
+        final double p99;
+        final double p999;
+        final double max;
+
+        Result(Endpoint endpoint, double offeredRate, double seconds, long[] latenciesNanos, long errors,
+                String firstError) {
+            this.endpoint = endpoint;
+            this.offeredRate = offeredRate;
+            this.ok = latenciesNanos.length;
+            this.errors = errors;
+            this.sent = ok + errors;
+            this.firstError = firstError;
+            this.throughput = ok / seconds;
+            Arrays.sort(latenciesNanos);
+            this.p50 = percentile(latenciesNanos, 0.50);
+            this.p90 = percentile(latenciesNanos, 0.90);
+            this.p99 = percentile(latenciesNanos, 0.99);
+            this.p999 = percentile(latenciesNanos, 0.999);
+            this.max = latenciesNanos.length == 0 ? 0 : latenciesNanos[latenciesNanos.length - 1] / 1_000_000.0;
+        }
+
+        double errorRate() {
+            return sent == 0 ? 0 : errors / (double) sent;
+        }
+
+        private static double percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * quantile) - 1);
+            return sorted[Math.max(0, index)] / 1_000_000.0;
+        }
+    }
+
+    static class Run {
+        final double offeredRate;
+        final Map<Endpoint, Result> results;
+        // How far the generator itself fell behind its schedule; if this is
+        // large the numbers describe the client, not the backend
+        final double maxSendLagMs;
+
+        Run(double offeredRate, Map<Endpoint, Result> results, double maxSendLagMs) {
+            this.offeredRate = offeredRate;
+            this.results = results;
+            this.maxSendLagMs = maxSendLagMs;
+        }
+    }
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final Config config;
+    private final StubChainNode chain;
+    private final StubIpfsNode ipfs;
+    private final Path dir;
+    private final ConfigurableApplicationContext app;
+    private final String baseUrl;
+    private final HttpClient client;
+    private final Random random;
+    // Uploaded so far; read by the request mix
+    private final List<String> fileHashes = new CopyOnWriteArrayList<>();
+
+    LoadHarness(Config config) throws Exception {
+        this.config = config;
+        this.random = new Random(config.seed);
+        dir = Files.createTempDirectory("tdabac-load");
+
+        String rpcUrl;
+        String contractsDir;
+        if (config.rpcUrl.isEmpty()) {
+            chain = new StubChainNode();
+            chain.setCallLatencyMs(config.chainLatencyMs);
+            Files.writeString(dir.resolve("contract-address.txt"), StubChainNode.CONTRACT_ADDRESS);
+            rpcUrl = chain.url();
+            contractsDir = dir.toString();
+        } else {
+            chain = null;
+            rpcUrl = config.rpcUrl;
+            contractsDir = config.contractsDir;
+        }
+        ipfs = config.ipfs ? new StubIpfsNode() : null;
+        if (ipfs != null) {
+            ipfs.setAddLatencyMs(config.ipfsLatencyMs);
+        }
+
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--tdabac.chain.rpc-url=" + rpcUrl,
+                "--tdabac.chain.contracts-dir=" + contractsDir,
+                // The stub serves no logs; against Hardhat the index would
+                // only replay unrelated history
+                "--tdabac.chain.index.enabled=false",
+                "--tdabac.data-dir=" + dir.resolve("data"),
+                "--tdabac.storage.compaction-interval-ms=0",
+                "--tdabac.ipfs.enabled=" + config.ipfs,
+                // View tokens are issued ahead of each run
+                "--tdabac.view-token.ttl-ms=3600000",
+                "--management.tracing.sampling.probability=0"));
+        if (ipfs != null) {
+            args.add("--tdabac.ipfs.api-url=" + ipfs.apiUrl());
+        }
+        for (String property : config.properties) {
+            args.add(property.startsWith("--") ? property : "--" + property);
+        }
+        // Passed as command-line arguments so they win over application.properties.
+        app = new SpringApplicationBuilder(Application.class).run(args.toArray(new String[0]));
+        baseUrl = "http://127.0.0.1:" + app.getEnvironment().getProperty("local.server.port") + "/api";
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10)).build();
+    }
+
+    // Uploads 'files' files one after another, so every run has files to read.
+    void seed() throws Exception {
+        for (int i = 0; i < config.files; i++) {
+            HttpResponse<String> response = client.send(uploadRequest(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Seeding upload failed: " + response.statusCode() + " " + response.body());
+            }
+            fileHashes.add(JSON.readTree(response.body()).get("fileHash").asText());
+        }
+    }
+
+    // Offers 'rate' requests per second of the configured mix for 'seconds',
+    // after 'warmupSeconds' at the same rate that are not counted, then
+    // waits for everything still outstanding.
+    Run run(double rate, double warmupSeconds, double seconds) throws Exception {
+        if (fileHashes.isEmpty()) {
+            seed();
+        }
+        double totalWeight = config.mix.values().stream().mapToDouble(Double::doubleValue).sum();
+
+        // Enough view tokens for every view this run can send, plus slack
+        // for the Poisson variance
+        Double viewWeight = config.mix.get(Endpoint.VIEW);
+        int views = viewWeight == null ? 0
+                : (int) Math.ceil(rate * viewWeight / totalWeight * (warmupSeconds + seconds) * 1.5) + 20;
+        ConcurrentLinkedQueue<String[]> viewTokens = issueViewTokens(views);
+
+        Map<Endpoint, Recorder> recorders = new EnumMap<>(Endpoint.class);
+        for (Endpoint endpoint : config.mix.keySet()) {
+            recorders.put(endpoint, new Recorder());
+        }
+        List<CompletableFuture<?>> outstanding = new ArrayList<>();
+
+        long start = System.nanoTime();
+        long measureFrom = start + (long) (warmupSeconds * 1e9);
+        long end = measureFrom + (long) (seconds * 1e9);
+        long due = start;
+        long maxLagNanos = 0;
+        while (true) {
+            // Poisson arrivals: exponential gaps with mean 1/rate
+            due += (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9);
+            if (due >= end) {
+                break;
+            }
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long lag = System.nanoTime() - due;
+            if (due >= measureFrom) {
+                maxLagNanos = Math.max(maxLagNanos, lag);
+            }
+
+            Endpoint endpoint = pick(config.mix, totalWeight);
+            Recorder recorder = due >= measureFrom ? recorders.get(endpoint) : null;
+            long scheduledAt = due;
+            CompletableFuture<?> request;
+            try {
+                request = send(endpoint, viewTokens)
+                        .orTimeout(config.requestTimeoutMs, TimeUnit.MILLISECONDS)
+                        .whenComplete((status, error) -> {
+                            if (recorder == null) {
+                                return;
+                            }
+                            if (error != null) {
+                                recorder.error(error.toString());
+                            } else if (status >= 400) {
+                                recorder.error("HTTP " + status);
+                            } else {
+                                recorder.latency(System.nanoTime() - scheduledAt);
+                            }
+                        });
+            } catch (RuntimeException e) {
+                if (recorder != null) {
+                    recorder.error(e.toString());
+                }
+                continue;
+            }
+            outstanding.add(request);
+        }
+        for (CompletableFuture<?> request : outstanding) {
+            try {
+                request.join();
+            } catch (RuntimeException e) {
+                // Recorded by whenComplete
+            }
+        }
+
+        Map<Endpoint, Result> results = new LinkedHashMap<>();
+        for (Map.Entry<Endpoint, Recorder> entry : recorders.entrySet()) {
+            Recorder recorder = entry.getValue();
+            synchronized (recorder) {
+                results.put(entry.getKey(), new Result(entry.getKey(),
+                        rate * config.mix.get(entry.getKey()) / totalWeight, seconds,
+                        Arrays.copyOf(recorder.latencies, recorder.count), recorder.errors, recorder.firstError));
+            }
+        }
+        return new Run(rate, results, maxLagNanos / 1_000_000.0);
+    }
+
+    // Returns the status code once the whole response body has been read.
+    private CompletableFuture<Integer> send(Endpoint endpoint, ConcurrentLinkedQueue<String[]> viewTokens) {
+        switch (endpoint) {
+            case UPLOAD:
+                return client.sendAsync(uploadRequest(), HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+                    if (response.statusCode() == 200) {
+                        try {
+                            fileHashes.add(JSON.readTree(response.body()).get("fileHash").asText());
+                        } catch (Exception e) {
+                            return 599;
+                        }
+                    }
+                    return response.statusCode();
+                });
+            case ACCESS:
+                return client.sendAsync(get("/access/" + anyFile()), HttpResponse.BodyHandlers.discarding())
+                        .thenApply(HttpResponse::statusCode);
+            case VIEW_TOKEN:
+                return client.sendAsync(post("/files/" + anyFile() + "/view-token"), HttpResponse.BodyHandlers.discarding())
+                        .thenApply(HttpResponse::statusCode);
+            case VIEW:
+                String[] token = viewTokens.poll();
+                if (token == null) {
+                    throw new IllegalStateException("Ran out of view tokens");
+                }
+                return client.sendAsync(get("/files/" + token[0] + "/view?token=" + token[1]),
+                        HttpResponse.BodyHandlers.discarding()).thenApply(HttpResponse::statusCode);
+            default:
+                throw new IllegalArgumentException(endpoint.toString());
+        }
+    }
+
+    private ConcurrentLinkedQueue<String[]> issueViewTokens(int count) throws Exception {
+        ConcurrentLinkedQueue<String[]> tokens = new ConcurrentLinkedQueue<>();
+        // In chunks, to keep the connection count sensible
+        for (int issued = 0; issued < count; issued += 64) {
+            List<CompletableFuture<Void>> chunk = new ArrayList<>();
+            for (int i = issued; i < Math.min(count, issued + 64); i++) {
+                String fileHash = anyFile();
+                chunk.add(client.sendAsync(post("/files/" + fileHash + "/view-token"), HttpResponse.BodyHandlers.ofString())
+                        .thenAccept(response -> {
+                            if (response.statusCode() != 200) {
+                                throw new IllegalStateException("View token failed: " + response.statusCode() + " "
+                                        + response.body());
+                            }
+                            try {
+                                JsonNode body = JSON.readTree(response.body());
+                                tokens.add(new String[] { fileHash, body.get("token").asText() });
+                            } catch (Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }));
+            }
+            CompletableFuture.allOf(chunk.toArray(new CompletableFuture<?>[0])).join();
+        }
+        return tokens;
+    }
+
+    private HttpRequest uploadRequest() {
+        // Fresh content every time: identical files would be one file
+        byte[] content = new byte[config.uploadBytes];
+        synchronized (random) {
+            random.nextBytes(content);
+        }
+        String boundary = "tdabac-load-" + UUID.randomUUID();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(content.length + 256);
+        body.writeBytes(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"load.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        body.writeBytes(content);
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/upload?duration=" + config.uploadDurationSeconds))
+                .timeout(Duration.ofMillis(config.requestTimeoutMs))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofMillis(config.requestTimeoutMs))
+                .GET().build();
+    }
+
+    private HttpRequest post(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofMillis(config.requestTimeoutMs))
+                .POST(HttpRequest.BodyPublishers.noBody()).build();
+    }
+
+    private String anyFile() {
+        synchronized (random) {
+            return fileHashes.get(random.nextInt(fileHashes.size()));
+        }
+    }
+
+    private Endpoint pick(Map<Endpoint, Double> mix, double totalWeight) {
+        double choice = random.nextDouble() * totalWeight;
+        Endpoint last = null;
+        for (Map.Entry<Endpoint, Double> entry : mix.entrySet()) {
+            last = entry.getKey();
+            choice -= entry.getValue();
+            if (choice < 0) {
+                break;
+            }
+        }
+        return last;
+    }
+
+    int files() {
+        return fileHashes.size();
+    }
+
+    // Prints one line per endpoint, plus the generator's own lag.
+    static void print(Run run) {
+        System.out.printf("Offered %.0f req/s (max send lag %.1f ms)%n", run.offeredRate, run.maxSendLagMs);
+        System.out.println("  endpoint   | offered/s | ok/s    | ok      | errors | p50 ms  | p90 ms  | p99 ms  | p99.9 ms | max ms");
+        for (Result result : run.results.values()) {
+            System.out.printf("  %-10s | %9.1f | %7.1f | %7d | %6d | %7.2f | %7.2f | %7.2f | %8.2f | %7.2f%n",
+                    result.endpoint.tag, result.offeredRate, result.throughput, result.ok, result.errors, result.p50,
+                    result.p90, result.p99, result.p999, result.max);
+            if (result.firstError != null) {
+                System.out.println("    first error: " + result.firstError);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        app.close();
+        if (ipfs != null) {
+            ipfs.close();
+        }
+        if (chain != null) {
+            chain.close();
+        }
+        StubBackend.deleteRecursively(dir);
+    }
+
+    private static final class Recorder {
+        long[] latencies = new long[1024]; // guarded by this
+        int count;
+        long errors;
+        String firstError;
+
+        synchronized void latency(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+
+        synchronized void error(String message) {
+            errors++;
+            if (firstError == null) {
+                firstError = message;
+            }
+        }
+    }
+}
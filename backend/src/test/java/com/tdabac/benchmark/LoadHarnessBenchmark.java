@@ -0,0 +1,66 @@
+package com.tdabac.benchmark;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Capacity run for the whole backend (see LoadHarness): offers each rate in
+// load.rates (total req/s of load.mix) for load.seconds and reports
+// throughput and latency percentiles per endpoint. A rate passes if every
+// endpoint stays within load.maxErrorRate and its p99 within load.sloP99Ms;
+// the highest passing rate is the capacity number. Rates after the first
+// failure are skipped. Results also go to target/load/results.csv.
+//
+//   mvn test -Dtest=LoadHarnessBenchmark -Dload.rates=50,100,200,400 -Dload.seconds=20
+//   mvn test -Dtest=LoadHarnessBenchmark -Dload.mix=access:90,upload:10 -Dload.chainLatencyMs=50
+//   mvn test -Dtest=LoadHarnessBenchmark -Dload.rpcUrl=http://127.0.0.1:8545   # local Hardhat node
+public class LoadHarnessBenchmark {
+
+    @Test
+    public void benchmarkCapacity() throws Exception {
+        double[] rates = Arrays.stream(System.getProperty("load.rates", "25,50,100,200").split(","))
+                .mapToDouble(rate -> Double.parseDouble(rate.trim())).toArray();
+        double seconds = Double.parseDouble(System.getProperty("load.seconds", "10"));
+        double warmupSeconds = Double.parseDouble(System.getProperty("load.warmupSeconds", "3"));
+        double sloP99Ms = Double.parseDouble(System.getProperty("load.sloP99Ms", "500"));
+        double maxErrorRate = Double.parseDouble(System.getProperty("load.maxErrorRate", "0.01"));
+        Path results = Path.of(System.getProperty("load.results", "target/load/results.csv"));
+
+        LoadHarness.Config config = LoadHarness.Config.fromSystemProperties();
+        Files.createDirectories(results.toAbsolutePath().getParent());
+        try (LoadHarness harness = new LoadHarness(config);
+                PrintWriter csv = new PrintWriter(Files.newBufferedWriter(results))) {
+            harness.seed();
+            csv.println("offered_rate,endpoint,endpoint_rate,ok,errors,ok_per_s,p50_ms,p90_ms,p99_ms,p999_ms,max_ms,"
+                    + "max_send_lag_ms,pass");
+
+            double capacity = 0;
+            for (double rate : rates) {
+                LoadHarness.Run run = harness.run(rate, warmupSeconds, seconds);
+                LoadHarness.print(run);
+                boolean pass = true;
+                for (LoadHarness.Result result : run.results.values()) {
+                    pass &= result.errorRate() <= maxErrorRate && result.p99 <= sloP99Ms;
+                }
+                for (LoadHarness.Result result : run.results.values()) {
+                    csv.printf("%.1f,%s,%.2f,%d,%d,%.2f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%s%n", rate, result.endpoint.tag,
+                            result.offeredRate, result.ok, result.errors, result.throughput, result.p50, result.p90,
+                            result.p99, result.p999, result.max, run.maxSendLagMs, pass);
+                }
+                csv.flush();
+                if (!pass) {
+                    System.out.printf("  -> over the SLO (p99 <= %.0f ms, errors <= %.1f%%)%n", sloP99Ms,
+                            maxErrorRate * 100);
+                    break;
+                }
+                capacity = rate;
+            }
+            System.out.printf("Capacity: %.0f req/s of %s (p99 <= %.0f ms), %d files, results in %s%n", capacity,
+                    System.getProperty("load.mix", "access:70,view-token:10,view:10,upload:10"), sloP99Ms,
+                    harness.files(), results.toAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.tdabac.benchmark;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A short, light run of the load harness, so it keeps working as the
+// endpoints change: every endpoint of the mix is exercised over HTTP and
+// nothing fails.
+public class LoadHarnessTest {
+
+    @Test
+    public void everyEndpointAnswersUnderLightLoad() throws Exception {
+        LoadHarness.Config config = new LoadHarness.Config();
+        config.mix = LoadHarness.Config.parseMix("access:1,view-token:1,view:1,upload:1");
+        config.files = 5;
+        config.uploadBytes = 32 * 1024;
+        try (LoadHarness harness = new LoadHarness(config)) {
+            LoadHarness.Run run = harness.run(40, 0.5, 2);
+            LoadHarness.print(run);
+            assertEquals(4, run.results.size());
+            for (LoadHarness.Result result : run.results.values()) {
+                assertEquals(0, result.errors, result.endpoint.tag + ": " + result.firstError);
+                assertTrue(result.ok > 0, result.endpoint.tag);
+            }
+            assertTrue(harness.files() > 5);
+        }
+    }
+}
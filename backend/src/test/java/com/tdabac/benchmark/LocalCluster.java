@@ -0,0 +1,239 @@
+package com.tdabac.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tdabac.Application;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// A cluster of N backends, each in its own JVM (the same classpath as the
+// tests, started with com.tdabac.Application), sharing one StubChainNode
+// and a key vault master key. Every node signs with its own Hardhat
+// account, as separate servers would, so their registration nonces do not
+// collide. Node logs go to target/cluster/node-<i>.log. A node counts as
+// started once its readiness probe says so, i.e. after StartupWarmup.
+//
+// IPFS is off: the replicated blob store is the only copy of the content.
+class LocalCluster implements AutoCloseable {
+
+    // Hardhat's default accounts #0..#3
+    static final String[] PRIVATE_KEYS = {
+            StubBackend.PRIVATE_KEY,
+            "0x59c6995e998f97a5a0044966f0945389dc9e86dae88c7a8412f4603b6b78690d",
+            "0x5de4111afa1a4b94908f83103eb1f1706367c2e68ca870fc3fb9a804cdab365a",
+            "0x7c852118294e51e653712a81e05800f419141751be58f605c371e15141b007a6",
+    };
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final long STARTUP_TIMEOUT_MS = 180_000;
+    private static final long READY_POLL_MS = 20;
+    private static final Path LOGS = Paths.get("target", "cluster");
+
+    final StubChainNode chain;
+    final Path dir;
+    final List<String> urls = new ArrayList<>();
+    private final List<Process> processes = new ArrayList<>();
+    // Per node: the arguments after the main class
+    private final List<List<String>> arguments = new ArrayList<>();
+    private final String classPath;
+    private final HttpClient client;
+
+    LocalCluster(int nodes, int replicas, String... properties) throws Exception {
+        // Startup time matters more here than peak speed
+        this(nodes, replicas, testClassPath(), List.of("-XX:TieredStopAtLevel=1"), properties);
+    }
+
+    // 'jvmOptions' go before the main class of every node, 'properties'
+    // (key=value) after the cluster's own.
+    LocalCluster(int nodes, int replicas, String classPath, List<String> jvmOptions, String... properties)
+            throws Exception {
+        if (nodes > PRIVATE_KEYS.length) {
+            throw new IllegalArgumentException("At most " + PRIVATE_KEYS.length + " nodes (one chain account each)");
+        }
+        chain = new StubChainNode();
+        dir = Files.createTempDirectory("tdabac-cluster");
+        Files.writeString(dir.resolve("contract-address.txt"), StubChainNode.CONTRACT_ADDRESS);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10)).build();
+
+        byte[] masterKey = new byte[32];
+        new SecureRandom().nextBytes(masterKey);
+        for (int i = 0; i < nodes; i++) {
+            urls.add("http://127.0.0.1:" + freePort());
+        }
+        this.classPath = classPath;
+        Files.createDirectories(LOGS);
+
+        try {
+            for (int i = 0; i < nodes; i++) {
+                List<String> nodeArguments = new ArrayList<>(List.of(
+                        "--server.port=" + URI.create(urls.get(i)).getPort(),
+                        "--tdabac.cluster.nodes=" + String.join(",", urls),
+                        "--tdabac.cluster.self=" + urls.get(i),
+                        "--tdabac.cluster.replicas=" + replicas,
+                        "--tdabac.keyvault.master-key=" + Base64.getEncoder().encodeToString(masterKey),
+                        "--tdabac.chain.private-key=" + PRIVATE_KEYS[i],
+                        "--tdabac.chain.rpc-url=" + chain.url(),
+                        "--tdabac.chain.contracts-dir=" + dir,
+                        // The stub serves no logs
+                        "--tdabac.chain.index.enabled=false",
+                        "--tdabac.data-dir=" + dir.resolve("node-" + i),
+                        "--tdabac.storage.compaction-interval-ms=0",
+                        "--tdabac.ipfs.enabled=false",
+                        "--tdabac.view-token.ttl-ms=3600000",
+                        "--management.tracing.sampling.probability=0"));
+                for (String property : properties) {
+                    nodeArguments.add(property.startsWith("--") ? property : "--" + property);
+                }
+                arguments.add(nodeArguments);
+                processes.add(launch(i, jvmOptions, List.of()));
+            }
+            for (int i = 0; i < nodes; i++) {
+                awaitReady(i);
+            }
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+    }
+
+    int size() {
+        return urls.size();
+    }
+
+    // Uploads 'content' through node 'node' and returns its file hash.
+    String upload(int node, byte[] content, long durationSeconds) throws Exception {
+        String boundary = "tdabac-cluster-" + UUID.randomUUID();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(content.length + 256);
+        body.writeBytes(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"cluster.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        body.writeBytes(content);
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                        URI.create(urls.get(node) + "/api/upload?duration=" + durationSeconds))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Upload to node " + node + " failed: " + response.statusCode() + " "
+                    + response.body());
+        }
+        return JSON.readTree(response.body()).get("fileHash").asText();
+    }
+
+    HttpResponse<byte[]> get(int node, String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(urls.get(node) + path)).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    HttpResponse<String> post(int node, String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(urls.get(node) + path))
+                .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    JsonNode stats(int node) throws Exception {
+        HttpResponse<byte[]> response = get(node, "/api/stats/cluster");
+        return JSON.readTree(response.body());
+    }
+
+    // Kills node 'node' outright, as a crash would.
+    void kill(int node) throws InterruptedException {
+        Process process = processes.get(node);
+        process.destroyForcibly();
+        process.waitFor(30, TimeUnit.SECONDS);
+    }
+
+    // Stops node 'node' (SIGTERM, so shutdown hooks run) and starts it again
+    // on the same port and data directory, with 'jvmOptions' and extra
+    // 'properties'. Returns without waiting for it; see awaitReady.
+    void restart(int node, List<String> jvmOptions, String... properties) throws Exception {
+        stop(processes.get(node));
+        processes.set(node, launch(node, jvmOptions, List.of(properties)));
+    }
+
+    // Waits for the readiness probe of node 'node'.
+    void awaitReady(int node) throws Exception {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            if (!processes.get(node).isAlive()) {
+                throw new IllegalStateException("Node " + node + " exited with " + processes.get(node).exitValue()
+                        + ", see " + LOGS.resolve("node-" + node + ".log"));
+            }
+            try {
+                if (get(node, "/actuator/health/readiness").statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(READY_POLL_MS);
+        }
+        throw new IllegalStateException("Node " + node + " did not start within " + STARTUP_TIMEOUT_MS
+                + " ms, see " + LOGS.resolve("node-" + node + ".log"));
+    }
+
+    // The classpath the tests run with, which is also enough for a node.
+    static String testClassPath() {
+        return System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (Process process : processes) {
+            process.destroy();
+        }
+        for (Process process : processes) {
+            stop(process);
+        }
+        chain.close();
+        StubBackend.deleteRecursively(dir);
+    }
+
+    private Process launch(int node, List<String> jvmOptions, List<String> properties) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx256m");
+        command.addAll(jvmOptions);
+        command.addAll(List.of("-cp", classPath, Application.class.getName()));
+        command.addAll(arguments.get(node));
+        for (String property : properties) {
+            command.add(property.startsWith("--") ? property : "--" + property);
+        }
+        File log = LOGS.resolve("node-" + node + ".log").toFile();
+        return new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.to(log)).start();
+    }
+
+    private static void stop(Process process) throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(30, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            process.waitFor(30, TimeUnit.SECONDS);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
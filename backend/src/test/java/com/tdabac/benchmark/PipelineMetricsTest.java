@@ -0,0 +1,134 @@
+package com.tdabac.benchmark;
+
+import brave.Tracing;
+import brave.handler.MutableSpan;
+import brave.handler.SpanHandler;
+import brave.propagation.TraceContext;
+import brave.sampler.Sampler;
+import com.tdabac.service.PipelineMetrics.Stage;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
+import io.micrometer.tracing.brave.bridge.BraveBaggageManager;
+import io.micrometer.tracing.brave.bridge.BraveCurrentTraceContext;
+import io.micrometer.tracing.brave.bridge.BraveTracer;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Every stage of an upload and of an access is timed, and with a sampled
+// trace each one shows up as a child span of the request's span.
+public class PipelineMetricsTest {
+
+    @Test
+    public void stagesAreTimed() throws Exception {
+        try (StubBackend backend = new StubBackend()) {
+            byte[] small = new byte[4096];
+            byte[] large = new byte[3 * 1024 * 1024];
+            new Random(1).nextBytes(small);
+            new Random(2).nextBytes(large);
+
+            String smallHash = upload(backend, small);
+            String largeHash = upload(backend, large);
+            assertEquals(small.length, read(backend, smallHash));
+            assertEquals(large.length, read(backend, largeHash));
+
+            assertEquals(2, count(backend, Stage.KEY_GENERATION));
+            assertEquals(2, count(backend, Stage.ENCRYPT));
+            assertEquals(2, count(backend, Stage.STORAGE_PUT));
+            assertEquals(2, count(backend, Stage.CHAIN_UPLOAD));
+            assertEquals(2, count(backend, Stage.CHAIN_CHECK_HIT) + count(backend, Stage.CHAIN_CHECK_MISS));
+            assertEquals(2, count(backend, Stage.STORAGE_GET));
+            assertEquals(2, count(backend, Stage.DECRYPT));
+            assertEquals(2, count(backend, Stage.RESPONSE_WRITE));
+            assertTrue(backend.metrics.timer(Stage.DECRYPT).totalTime(TimeUnit.NANOSECONDS) > 0);
+
+            double downloaded = backend.meterRegistry.get("tdabac.payload.size").tag("direction", "download")
+                    .summary().totalAmount();
+            assertEquals(small.length + large.length, (long) downloaded);
+            assertEquals(0.0, backend.meterRegistry.get("tdabac.pipeline.errors").counters().stream()
+                    .mapToDouble(c -> c.count()).sum());
+        }
+    }
+
+    @Test
+    public void accessStagesJoinTheRequestTrace() throws Exception {
+        List<MutableSpan> finished = new CopyOnWriteArrayList<>();
+        Tracing tracing = Tracing.newBuilder()
+                .sampler(Sampler.ALWAYS_SAMPLE)
+                .addSpanHandler(new SpanHandler() {
+                    @Override
+                    public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+                        finished.add(span);
+                        return true;
+                    }
+                })
+                .build();
+        Tracer tracer = new BraveTracer(tracing.tracer(), new BraveCurrentTraceContext(tracing.currentTraceContext()),
+                new BraveBaggageManager());
+
+        try (StubBackend backend = new StubBackend(tracer)) {
+            byte[] content = new byte[100_000];
+            new Random(3).nextBytes(content);
+            String hash = upload(backend, content);
+            finished.clear();
+
+            // What Spring's server observation does for each request
+            Span request = tracer.nextSpan().name("http get /api/access").start();
+            try (Tracer.SpanInScope scope = tracer.withSpan(request)) {
+                assertEquals(content.length, read(backend, hash));
+            } finally {
+                request.end();
+            }
+
+            String traceId = request.context().traceId();
+            Set<String> names = finished.stream()
+                    .filter(span -> span.traceId().equals(traceId))
+                    .filter(span -> request.context().spanId().equals(span.parentId()))
+                    .map(MutableSpan::name)
+                    .collect(Collectors.toSet());
+            assertTrue(names.contains("tdabac.chain_check"), names.toString());
+            assertTrue(names.contains("tdabac.download"), names.toString());
+        } finally {
+            tracing.close();
+        }
+    }
+
+    private static long count(StubBackend backend, Stage stage) {
+        return backend.metrics.timer(stage).count();
+    }
+
+    private static String upload(StubBackend backend, byte[] content) throws Exception {
+        ResponseEntity<?> response = backend.controller.uploadFile(
+                new MockMultipartFile("file", "metrics.bin", "application/octet-stream", content), 3600L, true)
+                .get(30, TimeUnit.SECONDS);
+        assertEquals(200, response.getStatusCode().value(), String.valueOf(response.getBody()));
+        return (String) ((Map<?, ?>) response.getBody()).get("fileHash");
+    }
+
+    private static long read(StubBackend backend, String hash) throws Exception {
+        ResponseEntity<?> response = backend.controller.accessFile(hash, null).get(30, TimeUnit.SECONDS);
+        assertEquals(200, response.getStatusCode().value(), String.valueOf(response.getBody()));
+        long total = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = ((InputStreamResource) response.getBody()).getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                total += read;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,169 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.BlockchainService;
+import com.tdabac.service.RegistrationPipeline;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Checks batching, local nonce assignment and per-file status of the
+// registration pipeline against StubChainNode, which only accepts
+// transactions in exact nonce order, and that a transaction without a
+// receipt only fails once it can no longer be mined.
+public class RegistrationPipelineTest {
+
+    @Test
+    public void batchesRegistrationsIntoUploadFiles() throws Exception {
+        try (StubChainNode chain = new StubChainNode()) {
+            BlockchainService service = service(chain, 10, 200);
+            try {
+                long before = System.currentTimeMillis() / 1000;
+                List<CompletableFuture<Long>> results = new ArrayList<>();
+                for (int i = 0; i < 25; i++) {
+                    results.add(service.uploadFileAsync("QmBatch" + i, 3600));
+                }
+                for (CompletableFuture<Long> result : results) {
+                    long expiry = result.get(10, TimeUnit.SECONDS);
+                    assertTrue(expiry >= before + 3600 && expiry <= before + 3601 + 10);
+                }
+
+                // 25 files in at most 10 per transaction
+                List<Integer> sizes = chain.transactionSizes();
+                assertEquals(25, sizes.stream().mapToInt(Integer::intValue).sum());
+                assertTrue(sizes.size() >= 3 && sizes.size() < 25, "unexpected batches " + sizes);
+                assertTrue(sizes.stream().allMatch(size -> size <= 10), "unexpected batches " + sizes);
+
+                RegistrationPipeline.Status status = service.registrationStatusAsync("QmBatch7").get();
+                assertEquals(RegistrationPipeline.State.CONFIRMED, status.getState());
+                assertNotNull(status.getTransactionHash());
+                assertEquals(results.get(7).get(), status.getExpiryTimestamp());
+
+                // A batch skips hashes that are already registered; only
+                // that file fails.
+                CompletableFuture<Long> duplicate = service.uploadFileAsync("QmBatch3", 60);
+                CompletableFuture<Long> fresh = service.uploadFileAsync("QmBatchNew", 60);
+                ExecutionException failed = assertThrows(ExecutionException.class,
+                        () -> duplicate.get(10, TimeUnit.SECONDS));
+                assertTrue(failed.getCause() instanceof IllegalStateException);
+                fresh.get(10, TimeUnit.SECONDS);
+                assertEquals(RegistrationPipeline.State.FAILED,
+                        service.registrationStatusAsync("QmBatch3").get().getState());
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void pipelinesSingleFileTransactions() throws Exception {
+        try (StubChainNode chain = new StubChainNode()) {
+            BlockchainService service = service(chain, 1, 0);
+            try {
+                List<CompletableFuture<Long>> results = new ArrayList<>();
+                for (int i = 0; i < 5; i++) {
+                    results.add(service.uploadFileAsync("QmSingle" + i, 3600));
+                }
+                // A second submit for a queued hash joins the first.
+                assertSame(results.get(4), service.uploadFileAsync("QmSingle4", 3600));
+                for (CompletableFuture<Long> result : results) {
+                    result.get(10, TimeUnit.SECONDS);
+                }
+                assertEquals(List.of(1, 1, 1, 1, 1), chain.transactionSizes());
+
+                // uploadFile reverts on a duplicate
+                ExecutionException failed = assertThrows(ExecutionException.class,
+                        () -> service.uploadFileAsync("QmSingle0", 60).get(10, TimeUnit.SECONDS));
+                assertTrue(failed.getCause() instanceof IllegalStateException);
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void overdueTransactionKeepsWaitingWhileTheNodeKnowsIt() throws Exception {
+        try (StubChainNode chain = new StubChainNode()) {
+            BlockchainService service = service(chain, 1, 0, 200);
+            try {
+                chain.hold(true);
+                CompletableFuture<Long> slow = service.uploadFileAsync("QmSlow", 3600);
+                Thread.sleep(1000);
+                assertFalse(slow.isDone());
+                RegistrationPipeline.Status status = service.registrationStatusAsync("QmSlow").get();
+                assertEquals(RegistrationPipeline.State.SUBMITTED, status.getState());
+                assertNotNull(status.getError());
+
+                chain.mineHeld();
+                slow.get(10, TimeUnit.SECONDS);
+                assertEquals(RegistrationPipeline.State.CONFIRMED,
+                        service.registrationStatusAsync("QmSlow").get().getState());
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void droppedTransactionFailsOnceItsNonceIsUsed() throws Exception {
+        try (StubChainNode chain = new StubChainNode()) {
+            BlockchainService service = service(chain, 1, 0, 200);
+            try {
+                chain.hold(true);
+                CompletableFuture<Long> lost = service.uploadFileAsync("QmLost", 3600);
+                awaitState(service, "QmLost", RegistrationPipeline.State.SUBMITTED);
+                chain.dropHeld();
+                chain.hold(false);
+
+                // Unknown to the node, but nothing else has its nonce yet:
+                // another node could still mine it
+                Thread.sleep(1000);
+                assertFalse(lost.isDone());
+
+                // The next transaction reuses the nonce, which settles it
+                service.uploadFileAsync("QmNext", 3600).get(10, TimeUnit.SECONDS);
+                ExecutionException failed = assertThrows(ExecutionException.class,
+                        () -> lost.get(10, TimeUnit.SECONDS));
+                assertTrue(failed.getCause() instanceof IllegalStateException);
+                assertEquals(List.of(1), chain.transactionSizes());
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+
+    private static void awaitState(BlockchainService service, String fileHash, RegistrationPipeline.State state)
+            throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (service.registrationStatusAsync(fileHash).get().getState() != state) {
+            assertTrue(System.currentTimeMillis() < deadline, fileHash + " never became " + state);
+            Thread.sleep(10);
+        }
+    }
+
+    private static BlockchainService service(StubChainNode chain, int batchSize, long batchDelayMs) throws Exception {
+        return service(chain, batchSize, batchDelayMs, 30_000);
+    }
+
+    private static BlockchainService service(StubChainNode chain, int batchSize, long batchDelayMs, long txTimeoutMs)
+            throws Exception {
+        Path dir = Files.createTempDirectory("registration-pipeline-test");
+        Files.writeString(dir.resolve("contract-address.txt"), StubChainNode.CONTRACT_ADDRESS);
+        return new BlockchainService(chain.url(), dir.toString(),
+                "0xac0974bec39a17e36ba4a6b4d238ff944bacb478cbed5efcae784d7bf4f2ff80", 1337,
+                1000, 5000, 10_000, 4, 100, 10_000, txTimeoutMs,
+                batchSize, batchDelayMs, 8, 1000, 20, 2, 500);
+    }
+}
@@ -0,0 +1,97 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.BlockchainService;
+import com.tdabac.service.RegistrationPipeline;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.http.HttpService;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Files registered per second and gas per file through the registration
+// pipeline: one uploadFile transaction per file (batch size 1) against
+// uploadFiles batches. Needs a running `npx hardhat node` and a deployed
+// contract (with uploadFiles); skips otherwise.
+//
+//   mvn test -Dtest=RegistrationThroughputBenchmark -Dbenchmark.files=2000 -Dbenchmark.batchSize=50
+public class RegistrationThroughputBenchmark {
+
+    private static final String RPC_URL = "http://127.0.0.1:8545";
+    private static final String WORKING_DIR = "../smart-contracts";
+    private static final String PRIVATE_KEY = "0xac0974bec39a17e36ba4a6b4d238ff944bacb478cbed5efcae784d7bf4f2ff80";
+
+    @Test
+    public void benchmarkBatchedVersusUnbatched() throws Exception {
+        if (!new File(WORKING_DIR + "/contract-address.txt").exists() || !nodeReachable()) {
+            System.err.println("BENCHMARK SKIP: Hardhat node or contract-address.txt not available.");
+            return;
+        }
+        int files = Integer.getInteger("benchmark.files", 1000);
+        int batchSize = Integer.getInteger("benchmark.batchSize", 50);
+
+        Web3j web3j = Web3j.build(new HttpService(RPC_URL));
+        try {
+            System.out.println("Mode            | files | files/s | transactions | gas/file");
+            run(web3j, "uploadFile", files, 1);
+            run(web3j, "uploadFiles x" + batchSize, files, batchSize);
+        } finally {
+            web3j.shutdown();
+        }
+    }
+
+    private static void run(Web3j web3j, String label, int files, int batchSize) throws Exception {
+        BlockchainService service = new BlockchainService(RPC_URL, WORKING_DIR, PRIVATE_KEY, 1337,
+                100_000, 5_000, 10_000, 32, 1_000, 10_000, 300_000,
+                batchSize, 20, 64, files, 50, 2, 500);
+        try {
+            String prefix = "QmRegistrationBenchmark" + System.nanoTime() + "-";
+            // Warm up the connection, nonce and contract wrapper.
+            service.uploadFile(prefix + "warmup", 3600);
+
+            long start = System.nanoTime();
+            List<CompletableFuture<Long>> results = new ArrayList<>(files);
+            for (int i = 0; i < files; i++) {
+                results.add(service.uploadFileAsync(prefix + i, 3600));
+            }
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.MINUTES);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            Set<String> transactions = new LinkedHashSet<>();
+            for (int i = 0; i < files; i++) {
+                RegistrationPipeline.Status status = service.registrationStatusAsync(prefix + i).get();
+                transactions.add(status.getTransactionHash());
+            }
+            BigInteger gas = BigInteger.ZERO;
+            for (String transaction : transactions) {
+                gas = gas.add(web3j.ethGetTransactionReceipt(transaction).send().getTransactionReceipt()
+                        .orElseThrow().getGasUsed());
+            }
+
+            System.out.printf("%-15s | %5d | %7.1f | %12d | %8d%n", label, files, files / seconds,
+                    transactions.size(), gas.divide(BigInteger.valueOf(files)).longValue());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    private static boolean nodeReachable() {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(RPC_URL).openConnection();
+            connection.setConnectTimeout(1000);
+            connection.connect();
+            connection.disconnect();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
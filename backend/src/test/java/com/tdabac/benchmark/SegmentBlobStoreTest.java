@@ -0,0 +1,103 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.storage.SegmentBlobStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// Compaction keeps what recovery rebuilds the same as what was live before
+// it: a key that was deleted and put again comes back, one that was only
+// deleted stays gone. Tombstones are not carried along once nothing they
+// shadow is left.
+public class SegmentBlobStoreTest {
+
+    // Every blob fills a segment of its own
+    private static final long SEGMENT_BYTES = 1000;
+
+    @Test
+    public void keyPutAgainAfterDeleteSurvivesCompaction() throws Exception {
+        Path dir = Files.createTempDirectory("segment-store-test");
+        try {
+            byte[] first = blob(1);
+            byte[] second = blob(2);
+            try (SegmentBlobStore store = new SegmentBlobStore(dir, SEGMENT_BYTES)) {
+                // Something live in the first segment, so the tombstones are
+                // not in the oldest one
+                store.put("QmKept", ByteBuffer.wrap(blob(3)), Map.of());
+                store.put("QmDeleted", ByteBuffer.wrap(blob(4)), Map.of());
+                store.put("QmReput", ByteBuffer.wrap(first), Map.of());
+                store.delete("QmDeleted");
+                store.delete("QmReput");
+                store.put("QmReput", ByteBuffer.wrap(second), Map.of());
+                store.put("QmLast", ByteBuffer.wrap(blob(5)), Map.of());
+
+                store.compact();
+                assertArrayEquals(second, read(store, "QmReput"));
+            }
+
+            try (SegmentBlobStore store = new SegmentBlobStore(dir, SEGMENT_BYTES)) {
+                assertArrayEquals(second, read(store, "QmReput"));
+                assertFalse(store.contains("QmDeleted"));
+                assertArrayEquals(blob(3), read(store, "QmKept"));
+                assertArrayEquals(blob(5), read(store, "QmLast"));
+            }
+        } finally {
+            StubBackend.deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void tombstoneIsDroppedWithTheLastOlderPut() throws Exception {
+        Path dir = Files.createTempDirectory("segment-store-test");
+        try {
+            try (SegmentBlobStore store = new SegmentBlobStore(dir, SEGMENT_BYTES)) {
+                // Segments: 1 live, 2 the deleted put, 3 its tombstone, 4 live
+                store.put("QmKept", ByteBuffer.wrap(blob(3)), Map.of());
+                store.put("QmDeleted", ByteBuffer.wrap(blob(4)), Map.of());
+                store.delete("QmDeleted");
+                store.put("QmLast", ByteBuffer.wrap(blob(5)), Map.of());
+
+                // 2 goes first, so the tombstone in 3 shadows nothing and is
+                // not copied into a new segment
+                store.compact();
+                assertEquals(2, segmentFiles(dir));
+            }
+
+            try (SegmentBlobStore store = new SegmentBlobStore(dir, SEGMENT_BYTES)) {
+                assertFalse(store.contains("QmDeleted"));
+                assertArrayEquals(blob(3), read(store, "QmKept"));
+                assertArrayEquals(blob(5), read(store, "QmLast"));
+            }
+        } finally {
+            StubBackend.deleteRecursively(dir);
+        }
+    }
+
+    private static long segmentFiles(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static byte[] blob(int fill) {
+        byte[] blob = new byte[980];
+        Arrays.fill(blob, (byte) fill);
+        return blob;
+    }
+
+    private static byte[] read(SegmentBlobStore store, String key) throws Exception {
+        try (InputStream in = store.open(key)) {
+            return in.readAllBytes();
+        }
+    }
+}
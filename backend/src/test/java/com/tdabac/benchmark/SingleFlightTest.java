@@ -0,0 +1,177 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.BlockchainService;
+import com.tdabac.service.EncryptionService;
+import com.tdabac.service.SegmentCache;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Concurrent requests for one file share the chain lookup and each
+// segment's decryption, and shared plaintext never outlives the time-lock.
+public class SingleFlightTest {
+
+    @Test
+    public void lookupInFlightIsShared() throws Exception {
+        try (StubChainNode chain = new StubChainNode()) {
+            chain.setCallLatencyMs(300);
+            Path dir = Files.createTempDirectory("single-flight-test");
+            Files.writeString(dir.resolve("contract-address.txt"), StubChainNode.CONTRACT_ADDRESS);
+            BlockchainService service = new BlockchainService(chain.url(), dir.toString(), StubBackend.PRIVATE_KEY, 1337,
+                    10_000, 5000, 10_000, 4, 100, 10_000, 30_000,
+                    50, 20, 8, 1000, 100, 2, 500);
+            try {
+                List<CompletableFuture<Boolean>> results = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    results.add(service.checkAccessAsync("QmShared"));
+                }
+                // The first window has closed and its getExpiries call is
+                // still running
+                Thread.sleep(100);
+                for (int i = 0; i < 20; i++) {
+                    results.add(service.checkAccessAsync("QmShared"));
+                }
+                for (CompletableFuture<Boolean> result : results) {
+                    assertTrue(result.get(10, TimeUnit.SECONDS));
+                }
+                assertEquals(1, chain.ethCalls());
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void concurrentReadersShareOneDecryption() throws Exception {
+        AtomicLong now = new AtomicLong(1000);
+        SegmentCache cache = new SegmentCache(true, 1024 * 1024, 60_000, Long.MAX_VALUE, now::get);
+        EncryptionService.SegmentSource segments = cache.forFile("QmBurst", 1000, 2000);
+        AtomicInteger decryptions = new AtomicInteger();
+        byte[] plaintext = new byte[64 * 1024];
+
+        int readers = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(readers);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return segments.segment(0, () -> {
+                        decryptions.incrementAndGet();
+                        sleep(200);
+                        return plaintext;
+                    });
+                }));
+            }
+            start.countDown();
+            for (Future<byte[]> result : results) {
+                assertSame(plaintext, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, decryptions.get());
+        assertEquals(1, cache.loads());
+        assertEquals(readers - 1, cache.coalesced() + cache.hits());
+
+        // Past the file's expiry nothing is served, cached or not
+        now.set(2000);
+        assertThrows(IOException.class, () -> segments.segment(0, () -> plaintext));
+
+        now.set(1000);
+        cache.invalidate("QmBurst");
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    public void cacheStaysWithinItsBounds() throws Exception {
+        SegmentCache cache = new SegmentCache(true, 256 * 1024, 60_000, 1024 * 1024, () -> 0);
+        EncryptionService.SegmentSource segments = cache.forFile("QmBounded", 1024 * 1024, 1);
+        for (int i = 0; i < 10; i++) {
+            segments.segment(i, () -> new byte[64 * 1024]);
+        }
+        assertEquals(4, cache.size());
+        assertEquals(256 * 1024, cache.bytes());
+        assertEquals(6, cache.evictions());
+        // Bigger than max-file-bytes: not cached at all
+        assertEquals(null, cache.forFile("QmHuge", 2 * 1024 * 1024, 1));
+
+        SegmentCache shortLived = new SegmentCache(true, 1024 * 1024, 50, 1024 * 1024, () -> 0);
+        segments = shortLived.forFile("QmShort", 1000, 1);
+        segments.segment(0, () -> new byte[10]);
+        Thread.sleep(100);
+        segments.segment(0, () -> new byte[10]);
+        assertEquals(2, shortLived.loads());
+    }
+
+    @Test
+    public void burstOfDownloadsDecryptsEachSegmentOnce() throws Exception {
+        try (StubBackend backend = new StubBackend()) {
+            byte[] content = new byte[1024 * 1024];
+            new Random(4).nextBytes(content);
+            ResponseEntity<?> uploaded = backend.controller.uploadFile(
+                    new MockMultipartFile("file", "scan.dcm", "application/octet-stream", content), 3600L, true)
+                    .get(30, TimeUnit.SECONDS);
+            String hash = (String) ((Map<?, ?>) uploaded.getBody()).get("fileHash");
+
+            int clients = 16;
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService pool = Executors.newFixedThreadPool(clients);
+            try {
+                List<Future<byte[]>> results = new ArrayList<>();
+                for (int i = 0; i < clients; i++) {
+                    results.add(pool.submit(() -> {
+                        start.await();
+                        ResponseEntity<?> response = backend.controller.accessFile(hash, null).get(30, TimeUnit.SECONDS);
+                        try (InputStream in = ((InputStreamResource) response.getBody()).getInputStream()) {
+                            return in.readAllBytes();
+                        }
+                    }));
+                }
+                start.countDown();
+                for (Future<byte[]> result : results) {
+                    assertArrayEquals(content, result.get(30, TimeUnit.SECONDS));
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+            int segments = content.length / EncryptionService.SEGMENT_SIZE;
+            assertEquals(segments, backend.segmentCache.loads());
+            assertEquals((long) segments * (clients - 1), backend.segmentCache.hits() + backend.segmentCache.coalesced());
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
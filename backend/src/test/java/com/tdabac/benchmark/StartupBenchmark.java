@@ -0,0 +1,160 @@
+package com.tdabac.benchmark;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+// Time to first request of a freshly started backend JVM (one LocalCluster
+// node, restarted on the same data), per startup variant:
+//
+//   cold      no warm-up, dispatcher servlet started on the first request
+//             (the behaviour before StartupWarmup)
+//   warm-up   the defaults: ready only after StartupWarmup
+//   cds       warm-up, plus an AppCDS archive of the classes loaded by a
+//             training run (-XX:ArchiveClassesAtExit, then
+//             -XX:SharedArchiveFile)
+//   cds+aot   as cds, with the Spring AOT initializer
+//             (-Dspring.aot.enabled=true); only when built with -P aot
+//
+// 'ready' is JVM launch to the readiness probe answering 200 (what a load
+// balancer waits for); 'first' is the first access request after that,
+// 'second' the one after it; 'total' is ready + first. Medians of
+// startup.runs restarts. CDS only archives classes from jars, so every
+// variant runs on a jar of target/classes plus the dependency jars.
+// startup.properties (comma-separated key=value) go to every variant but
+// cold, e.g. to size the warm-up.
+//
+//   mvn test -Dtest=StartupBenchmark -Dstartup.runs=5
+//   mvn test -Dtest=StartupBenchmark -Dstartup.properties=tdabac.warmup.iterations=5
+//   mvn -P aot test -Dtest=StartupBenchmark
+public class StartupBenchmark {
+
+    private static final Path DIR = Paths.get("target", "startup");
+
+    @Test
+    public void benchmarkTimeToFirstRequest() throws Exception {
+        int runs = Integer.getInteger("startup.runs", 3);
+        String[] properties = Arrays.stream(System.getProperty("startup.properties", "").split(","))
+                .map(String::trim).filter(property -> !property.isEmpty()).toArray(String[]::new);
+        Files.createDirectories(DIR);
+        String classPath = jarClassPath();
+        Path archive = DIR.resolve("tdabac.jsa").toAbsolutePath();
+        Files.deleteIfExists(archive);
+        boolean aot = Files.exists(Paths.get("target", "classes", "com", "tdabac",
+                "Application__ApplicationContextInitializer.class"));
+
+        Map<String, double[][]> results = new LinkedHashMap<>();
+        try (LocalCluster cluster = new LocalCluster(1, 1, classPath, List.of())) {
+            byte[] content = new byte[256 * 1024];
+            new Random(3).nextBytes(content);
+            String path = "/api/access/" + cluster.upload(0, content, 3600);
+
+            results.put("cold", measure(cluster, path, runs, List.of(),
+                    "tdabac.warmup.enabled=false", "spring.mvc.servlet.load-on-startup=-1"));
+            results.put("warm-up", measure(cluster, path, runs, List.of(), properties));
+
+            // Training run: the archive is written when the JVM exits
+            cluster.restart(0, List.of("-XX:ArchiveClassesAtExit=" + archive), properties);
+            cluster.awaitReady(0);
+            cluster.get(0, path);
+            cluster.restart(0, List.of());
+            cluster.awaitReady(0);
+            if (Files.exists(archive)) {
+                List<String> cds = List.of("-XX:SharedArchiveFile=" + archive);
+                results.put("cds", measure(cluster, path, runs, cds, properties));
+                if (aot) {
+                    List<String> cdsAot = new ArrayList<>(cds);
+                    cdsAot.add("-Dspring.aot.enabled=true");
+                    results.put("cds+aot", measure(cluster, path, runs, cdsAot, properties));
+                }
+            } else {
+                System.out.println("No CDS archive was written, see target/cluster/node-0.log");
+            }
+        }
+
+        System.out.printf("Time to first request, median of %d starts, %d cores (ms)%n", runs,
+                Runtime.getRuntime().availableProcessors());
+        System.out.println("  variant  | ready    | first   | second  | total");
+        for (Map.Entry<String, double[][]> result : results.entrySet()) {
+            double ready = median(result.getValue()[0]);
+            double first = median(result.getValue()[1]);
+            System.out.printf("  %-8s | %8.0f | %7.1f | %7.1f | %8.0f%n", result.getKey(), ready, first,
+                    median(result.getValue()[2]), ready + first);
+        }
+        if (!aot) {
+            System.out.println("  (cds+aot: run with -P aot)");
+        }
+    }
+
+    // [ready, first, second] in ms, one entry per run.
+    private static double[][] measure(LocalCluster cluster, String path, int runs, List<String> jvmOptions,
+            String... properties) throws Exception {
+        double[][] times = new double[3][runs];
+        for (int run = 0; run < runs; run++) {
+            cluster.restart(0, jvmOptions, properties);
+            long launched = System.nanoTime();
+            cluster.awaitReady(0);
+            times[0][run] = (System.nanoTime() - launched) / 1e6;
+            for (int request = 1; request <= 2; request++) {
+                long start = System.nanoTime();
+                HttpResponse<byte[]> response = cluster.get(0, path);
+                times[request][run] = (System.nanoTime() - start) / 1e6;
+                if (response.statusCode() != 200) {
+                    throw new IllegalStateException("Access after restart failed: " + response.statusCode());
+                }
+            }
+        }
+        return times;
+    }
+
+    // target/classes as a jar, then every jar of the test classpath
+    // (test classes and resources are not needed by the backend).
+    private static String jarClassPath() throws IOException {
+        Path classes = Paths.get("target", "classes");
+        Path jar = DIR.resolve("tdabac.jar").toAbsolutePath();
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar));
+                Stream<Path> files = Files.walk(classes)) {
+            for (Path file : (Iterable<Path>) files.sorted()::iterator) {
+                String name = classes.relativize(file).toString().replace(File.separatorChar, '/');
+                if (name.isEmpty()) {
+                    continue;
+                }
+                // Directory entries too: Spring's component scan lists them
+                boolean directory = Files.isDirectory(file);
+                out.putNextEntry(new JarEntry(directory ? name + "/" : name));
+                if (!directory) {
+                    Files.copy(file, (OutputStream) out);
+                }
+                out.closeEntry();
+            }
+        }
+        List<String> entries = new ArrayList<>(List.of(jar.toString()));
+        for (String entry : LocalCluster.testClassPath().split(File.pathSeparator)) {
+            if (entry.endsWith(".jar")) {
+                entries.add(entry);
+            }
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,121 @@
+package com.tdabac.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tdabac.Application;
+import com.tdabac.service.BlockchainService;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The contract address is read once and then followed through file
+// changes, and the readiness probe only reports ready once the warm-up has
+// run.
+public class StartupTest {
+
+    private static final String OTHER_ADDRESS = "0x000000000000000000000000000000000000dead";
+
+    @Test
+    public void contractAddressIsWatchedNotReadPerCall() throws Exception {
+        Path dir = Files.createTempDirectory("startup-test");
+        Path addressFile = dir.resolve("contract-address.txt");
+        Files.writeString(addressFile, StubChainNode.CONTRACT_ADDRESS);
+        try (StubChainNode chain = new StubChainNode()) {
+            BlockchainService service = new BlockchainService(chain.url(), dir.toString(), StubBackend.PRIVATE_KEY,
+                    1337, 10_000, 5000, 10_000, 4, 100, 10_000, 30_000,
+                    50, 20, 8, 1000, 100, 2, 500);
+            try {
+                service.warmUp();
+
+                // Gone or half-written: the loaded address stays
+                Files.delete(addressFile);
+                assertTrue(service.checkAccessAsync("QmWatched1").get(10, TimeUnit.SECONDS));
+                Files.writeString(addressFile, "0x12");
+                Thread.sleep(500);
+                service.warmUp();
+
+                // A redeploy is picked up without a restart; nothing lives
+                // at this address, which warmUp reports
+                Files.writeString(addressFile, OTHER_ADDRESS);
+                awaitWarmUpFails(service);
+                IllegalStateException failure = assertThrows(IllegalStateException.class, service::warmUp);
+                assertTrue(failure.getMessage().contains(OTHER_ADDRESS), failure.getMessage());
+
+                Files.writeString(addressFile, StubChainNode.CONTRACT_ADDRESS);
+                awaitWarmUpSucceeds(service);
+            } finally {
+                service.shutdown();
+                StubBackend.deleteRecursively(dir);
+            }
+        }
+    }
+
+    @Test
+    public void readinessWaitsForWarmUp() throws Exception {
+        Path dir = Files.createTempDirectory("startup-test");
+        Files.writeString(dir.resolve("contract-address.txt"), StubChainNode.CONTRACT_ADDRESS);
+        try (StubChainNode chain = new StubChainNode();
+                ConfigurableApplicationContext app = new SpringApplicationBuilder(Application.class).run(
+                        "--server.port=0",
+                        "--tdabac.chain.rpc-url=" + chain.url(),
+                        "--tdabac.chain.contracts-dir=" + dir,
+                        "--tdabac.chain.index.enabled=false",
+                        "--tdabac.data-dir=" + dir.resolve("data"),
+                        "--tdabac.storage.compaction-interval-ms=0",
+                        "--tdabac.warmup.iterations=2",
+                        "--management.tracing.sampling.probability=0")) {
+            // run() returns after the application runners, warm-up included
+            HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(URI.create(
+                    "http://127.0.0.1:" + app.getEnvironment().getProperty("local.server.port")
+                            + "/actuator/health/readiness")).GET().build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode(), response.body());
+            JsonNode warmup = new ObjectMapper().readTree(response.body()).get("components").get("startupWarmup");
+            assertEquals("UP", warmup.get("status").asText());
+            assertTrue(warmup.get("details").get("enabled").asBoolean());
+            assertFalse(warmup.get("details").has("chainError"), warmup.toString());
+        } finally {
+            StubBackend.deleteRecursively(dir);
+        }
+    }
+
+    private static void awaitWarmUpFails(BlockchainService service) throws Exception {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                service.warmUp();
+            } catch (IllegalStateException e) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("Address change was not picked up");
+    }
+
+    private static void awaitWarmUpSucceeds(BlockchainService service) throws Exception {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (true) {
+            try {
+                service.warmUp();
+                return;
+            } catch (IllegalStateException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+            }
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.EncryptionService;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+// Throughput and heap high-water mark of the segmented streaming format for
+// inputs from 1 MB up to -Dbenchmark.maxSizeMb (default 2048). Input is
+// generated on the fly and ciphertext goes to a temp file, so the measured
+// heap is the pipeline's own footprint.
+public class StreamingEncryptionBenchmark {
+
+    @Test
+    public void benchmarkStreamingEncryption() throws Exception {
+        EncryptionService service = new EncryptionService();
+        SecretKey key = service.generateKey();
+        long maxSizeMb = Long.getLong("benchmark.maxSizeMb", 2048);
+
+        // Warmup so the first size does not pay for JIT and provider init.
+        runEncrypt(service, key, 16L * 1024 * 1024, Files.createTempFile("tdabac-bench-", ".enc"), true);
+
+        for (long sizeMb = 1; sizeMb <= maxSizeMb; sizeMb *= 4) {
+            long size = sizeMb * 1024 * 1024;
+            Path encrypted = Files.createTempFile("tdabac-bench-", ".enc");
+            try {
+                resetHeapPeak();
+                long encryptNs = runEncrypt(service, key, size, encrypted, false);
+                long encryptPeak = heapPeak();
+
+                resetHeapPeak();
+                long start = System.nanoTime();
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(encrypted))) {
+                    long decrypted = service.decrypt(in, OutputStream.nullOutputStream(), key);
+                    if (decrypted != size) {
+                        throw new IllegalStateException("Decryption length mismatch");
+                    }
+                }
+                long decryptNs = System.nanoTime() - start;
+                long decryptPeak = heapPeak();
+
+                System.out.printf("%5d MB  encrypt %8.1f MB/s  heap peak %6.1f MB | decrypt %8.1f MB/s  heap peak %6.1f MB%n",
+                        sizeMb, throughput(size, encryptNs), encryptPeak / 1048576.0,
+                        throughput(size, decryptNs), decryptPeak / 1048576.0);
+            } finally {
+                Files.deleteIfExists(encrypted);
+            }
+            if (sizeMb * 4 > maxSizeMb && sizeMb < maxSizeMb) {
+                sizeMb = maxSizeMb / 4;
+            }
+        }
+    }
+
+    private static long runEncrypt(EncryptionService service, SecretKey key, long size, Path target, boolean delete)
+            throws Exception {
+        long start = System.nanoTime();
+        try (InputStream in = new RandomInputStream(size);
+                OutputStream out = new BufferedOutputStream(Files.newOutputStream(target))) {
+            service.encrypt(in, out, key);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (delete) {
+            Files.deleteIfExists(target);
+        }
+        return elapsed;
+    }
+
+    private static double throughput(long bytes, long nanos) {
+        return (bytes / 1048576.0) / (nanos / 1_000_000_000.0);
+    }
+
+    private static void resetHeapPeak() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    // Sum of per-pool peaks: an upper bound on the heap actually in use.
+    private static long heapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    // Pseudo-random bytes of a fixed length, without materialising them.
+    private static final class RandomInputStream extends InputStream {
+        private final SplittableRandom random = new SplittableRandom(42);
+        private long remaining;
+
+        RandomInputStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0) {
+                return -1;
+            }
+            remaining--;
+            return random.nextInt(256);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = (int) Math.min(len, remaining);
+            for (int i = 0; i < n; i += 8) {
+                long value = random.nextLong();
+                for (int j = i; j < Math.min(n, i + 8); j++) {
+                    b[off + j] = (byte) value;
+                    value >>>= 8;
+                }
+            }
+            remaining -= n;
+            return n;
+        }
+    }
+}
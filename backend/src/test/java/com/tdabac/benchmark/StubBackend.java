@@ -0,0 +1,115 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.controller.FileController;
+import com.tdabac.service.AuditLog;
+import com.tdabac.service.BlockchainService;
+import com.tdabac.service.ChunkStore;
+import com.tdabac.service.CompressionPolicy;
+import com.tdabac.service.ContentDefinedChunker;
+import com.tdabac.service.DestroyableSecretKey;
+import com.tdabac.service.EncryptionService;
+import com.tdabac.service.ExpiryScheduler;
+import com.tdabac.service.IPFSService;
+import com.tdabac.service.KeyVault;
+import com.tdabac.service.LocalViewTokenStore;
+import com.tdabac.service.PipelineMetrics;
+import com.tdabac.service.SegmentCache;
+import com.tdabac.storage.SegmentBlobStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.tracing.Tracer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// The whole backend wired up by hand (no Spring context) against
+// StubChainNode and StubIpfsNode, with its data in a temporary directory.
+// For benchmarks that drive FileController the way a request would.
+class StubBackend implements AutoCloseable {
+
+    static final String PRIVATE_KEY = "0xac0974bec39a17e36ba4a6b4d238ff944bacb478cbed5efcae784d7bf4f2ff80";
+
+    final StubChainNode chain;
+    final StubIpfsNode ipfs;
+    final Path dir;
+    final SegmentBlobStore blobStore;
+    final IPFSService ipfsService;
+    final BlockchainService blockchainService;
+    final ExpiryScheduler expiryScheduler;
+    final KeyVault keyVault;
+    final SimpleMeterRegistry meterRegistry;
+    final PipelineMetrics metrics;
+    final SegmentCache segmentCache;
+    final ChunkStore chunkStore;
+    final AuditLog auditLog;
+    final FileController controller;
+
+    StubBackend() throws Exception {
+        this(Tracer.NOOP);
+    }
+
+    StubBackend(Tracer tracer) throws Exception {
+        this(tracer, false);
+    }
+
+    StubBackend(Tracer tracer, boolean dedup) throws Exception {
+        this(tracer, dedup, true);
+    }
+
+    // With 'dedup', uploads go through a ChunkStore in dir/chunks; with
+    // 'audit', requests are recorded in an AuditLog in dir/audit.
+    StubBackend(Tracer tracer, boolean dedup, boolean audit) throws Exception {
+        chain = new StubChainNode();
+        ipfs = new StubIpfsNode();
+        dir = Files.createTempDirectory("tdabac-stub-backend");
+        Files.writeString(dir.resolve("contract-address.txt"), StubChainNode.CONTRACT_ADDRESS);
+
+        blobStore = new SegmentBlobStore(dir.resolve("segments"), 256L * 1024 * 1024);
+        ipfsService = new IPFSService(blobStore, dir.toString(), true, ipfs.apiUrl(), "http://127.0.0.1:1/ipfs/",
+                8, 10_000);
+        // Registration flushes and receipt polls are shortened from the
+        // defaults: the stub mines at once, so they would only add idle time.
+        blockchainService = new BlockchainService(chain.url(), dir.toString(), PRIVATE_KEY, 1337,
+                100_000, 5000, 10_000, 32, 1000, 10_000, 30_000,
+                50, 2, 64, 10_000, 5, 2, 500);
+        expiryScheduler = new ExpiryScheduler(100);
+        keyVault = new KeyVault(dir.resolve("keyvault"), new DestroyableSecretKey(new byte[32]), 10_000, 256, true);
+        meterRegistry = new SimpleMeterRegistry();
+        metrics = new PipelineMetrics(meterRegistry, tracer);
+        segmentCache = new SegmentCache(true, 64L * 1024 * 1024, 5000, 16L * 1024 * 1024,
+                blockchainService::chainTimeEstimate);
+        EncryptionService encryptionService = new EncryptionService(metrics);
+        chunkStore = new ChunkStore(dedup, dedup ? new SegmentBlobStore(dir.resolve("chunks"), 256L * 1024 * 1024) : null,
+                blobStore, encryptionService, new ContentDefinedChunker(16 * 1024, 64 * 1024, 256 * 1024),
+                dedup ? keyVault.deriveSecret("tdabac-chunk-v1") : null);
+        auditLog = new AuditLog(audit, dir.resolve("audit"), 65536, 64 * 1024 * 1024, 4096, true,
+                30L * 24 * 3600 * 1000, 60_000, blockchainService::cachedExpiry, blockchainService::chainTimeEstimate);
+        controller = new FileController(encryptionService, ipfsService, blockchainService,
+                expiryScheduler, new LocalViewTokenStore(expiryScheduler, 60_000), keyVault, keyVault, metrics,
+                new CompressionPolicy(), segmentCache, chunkStore, auditLog);
+    }
+
+    @Override
+    public void close() throws Exception {
+        blockchainService.shutdown();
+        ipfsService.shutdown();
+        expiryScheduler.shutdown();
+        keyVault.close();
+        chunkStore.close();
+        auditLog.close();
+        blobStore.close();
+        ipfs.close();
+        chain.close();
+        deleteRecursively(dir);
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.tdabac.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tdabac.contract.TDABAC;
+import org.web3j.abi.EventEncoder;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.Utils;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.Hash;
+import org.web3j.crypto.RawTransaction;
+import org.web3j.crypto.SignedRawTransaction;
+import org.web3j.crypto.TransactionDecoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Just enough of an Ethereum JSON-RPC node for the backend, with a
+// configurable delay on eth_call. Every file hash is reported as registered
+// with an expiry an hour ahead, so benchmarks can exercise access checks
+// without Hardhat. Raw uploadFile/uploadFiles transactions are accepted
+// in strict per-sender nonce order and "mined" at once, with TDABAC's
+// skip/revert rules for duplicates and a FileUploaded log per registered
+// file. Nonces are kept per signing account, so several backends (a
+// cluster) can share one stub as long as each signs with its own key.
+// hold(true) keeps transactions pending instead, as a busy node would,
+// until mineHeld() mines them or dropHeld() forgets them.
+class StubChainNode implements AutoCloseable {
+
+    static final String CONTRACT_ADDRESS = "0x5fbdb2315678afecb367f032d93f642f64180aa3";
+
+    static {
+        // Otherwise Nagle + delayed ACK add ~40 ms to every sequential call
+        // (headers and body go out as separate writes). Read once, when the
+        // first HttpServer in the JVM starts.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicLong ethCalls = new AtomicLong();
+    private volatile long callLatencyMs;
+
+    private static final String UPLOAD_FILE_SELECTOR = Hash.sha3String("uploadFile(string,uint256)").substring(0, 10);
+    private static final String GET_EXPIRIES_SELECTOR = Hash.sha3String("getExpiries(string[])").substring(0, 10);
+    private static final String UPLOAD_FILES_SELECTOR = Hash.sha3String("uploadFiles(string[],uint256[])").substring(0, 10);
+
+    // Guarded by this.
+    private final Map<String, Long> nonces = new HashMap<>();
+    private long blockNumber = 1;
+    private final Set<String> registered = new HashSet<>();
+    private final List<Integer> transactionSizes = new ArrayList<>();
+    private final Map<String, ObjectNode> receipts = new ConcurrentHashMap<>();
+    private boolean holding;
+    private final List<String> held = new ArrayList<>();
+    // Mined and held transactions by hash, for eth_getTransactionByHash
+    private final Map<String, ObjectNode> transactions = new HashMap<>();
+
+    StubChainNode() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    void setCallLatencyMs(long callLatencyMs) {
+        this.callLatencyMs = callLatencyMs;
+    }
+
+    long ethCalls() {
+        return ethCalls.get();
+    }
+
+    synchronized void hold(boolean holding) {
+        this.holding = holding;
+    }
+
+    synchronized void mineHeld() {
+        for (String rawTransaction : held) {
+            mine(rawTransaction);
+        }
+        held.clear();
+    }
+
+    // As a node that restarted or evicted them from its pool.
+    synchronized void dropHeld() {
+        for (String rawTransaction : held) {
+            transactions.remove(Hash.sha3(rawTransaction));
+        }
+        held.clear();
+    }
+
+    // Files per mined transaction, in nonce order.
+    synchronized List<Integer> transactionSizes() {
+        return new ArrayList<>(transactionSizes);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+        String body;
+        if (request.isArray()) {
+            List<String> responses = new ArrayList<>();
+            for (JsonNode single : request) {
+                responses.add(respond(single));
+            }
+            body = "[" + String.join(",", responses) + "]";
+        } else {
+            body = respond(request);
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private String respond(JsonNode request) {
+        String method = request.get("method").asText();
+        String result;
+        String error = "Method not supported by stub";
+        long now = System.currentTimeMillis() / 1000;
+        switch (method) {
+            case "eth_call":
+                ethCalls.incrementAndGet();
+                sleep(callLatencyMs);
+                String data = request.get("params").get(0).get("data").asText();
+                if (data.startsWith(GET_EXPIRIES_SELECTOR)) {
+                    // getExpiries(string[]) -> uint256[]
+                    int count = ((DynamicArray<?>) FunctionReturnDecoder.decode(data.substring(10), Utils.convert(List.of(
+                            new TypeReference<DynamicArray<Utf8String>>() {}))).get(0)).getValue().size();
+                    List<Uint256> expiries = new ArrayList<>();
+                    for (int i = 0; i < count; i++) {
+                        expiries.add(new Uint256(now + 3600));
+                    }
+                    result = "\"" + FunctionEncoder.encodeConstructor(List.of(
+                            new DynamicArray<>(Uint256.class, expiries))) + "\"";
+                } else {
+                    // fileRegistry(string) -> (address owner, uint256 expiry, bool exists)
+                    result = "\"0x" + word("f39fd6e51aad88f6f4ce6ab8827279cfffb92266") + word(Long.toHexString(now + 3600))
+                            + word("1") + "\"";
+                }
+                break;
+            case "eth_getBlockByNumber":
+                result = "{\"number\":\"0x1\",\"hash\":\"0x" + word("1") + "\",\"timestamp\":\"0x"
+                        + Long.toHexString(now) + "\",\"transactions\":[],\"uncles\":[]}";
+                break;
+            case "eth_blockNumber":
+                result = "\"0x1\"";
+                break;
+            case "eth_chainId":
+            case "net_version":
+                result = "\"0x539\"";
+                break;
+            case "eth_getCode":
+                // Some bytecode at the contract address, none anywhere else
+                result = CONTRACT_ADDRESS.equalsIgnoreCase(request.get("params").get(0).asText())
+                        ? "\"0x6080604052\"" : "\"0x\"";
+                break;
+            case "eth_getTransactionCount":
+                synchronized (this) {
+                    String account = request.get("params").get(0).asText().toLowerCase();
+                    long count = "pending".equals(request.get("params").get(1).asText())
+                            ? pendingNonce(account) : nonces.getOrDefault(account, 0L);
+                    result = "\"0x" + Long.toHexString(count) + "\"";
+                }
+                break;
+            case "eth_getTransactionByHash":
+                synchronized (this) {
+                    ObjectNode transaction = transactions.get(request.get("params").get(0).asText());
+                    result = transaction != null ? transaction.toString() : "null";
+                }
+                break;
+            case "eth_sendRawTransaction":
+                try {
+                    result = "\"" + send(request.get("params").get(0).asText()) + "\"";
+                } catch (IllegalArgumentException e) {
+                    result = null;
+                    error = e.getMessage();
+                }
+                break;
+            case "eth_getTransactionReceipt":
+                ObjectNode receipt = receipts.get(request.get("params").get(0).asText());
+                result = receipt != null ? receipt.toString() : "null";
+                break;
+            default:
+                result = null;
+        }
+
+        return result != null
+                ? "{\"jsonrpc\":\"2.0\",\"id\":" + request.get("id") + ",\"result\":" + result + "}"
+                : "{\"jsonrpc\":\"2.0\",\"id\":" + request.get("id")
+                        + ",\"error\":{\"code\":-32601,\"message\":" + objectMapper.valueToTree(error) + "}}";
+    }
+
+    // Mines the transaction, or while holding adds it to the pool. Returns
+    // the transaction hash.
+    private synchronized String send(String rawTransaction) {
+        if (!holding) {
+            return mine(rawTransaction);
+        }
+        RawTransaction transaction = TransactionDecoder.decode(rawTransaction);
+        String sender = sender(transaction);
+        long nonce = pendingNonce(sender);
+        if (transaction.getNonce().longValueExact() != nonce) {
+            throw new IllegalArgumentException("Nonce " + transaction.getNonce() + " does not match expected " + nonce);
+        }
+        held.add(rawTransaction);
+        String txHash = Hash.sha3(rawTransaction);
+        transactions.put(txHash, transactionJson(txHash, sender, nonce, null));
+        return txHash;
+    }
+
+    // Mined nonces plus the held transactions of 'account'.
+    private long pendingNonce(String account) {
+        long pending = nonces.getOrDefault(account, 0L);
+        for (String rawTransaction : held) {
+            if (sender(TransactionDecoder.decode(rawTransaction)).equals(account)) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    private static String sender(RawTransaction transaction) {
+        if (!(transaction instanceof SignedRawTransaction signed)) {
+            throw new IllegalArgumentException("Transaction is not signed");
+        }
+        try {
+            return signed.getFrom().toLowerCase();
+        } catch (SignatureException e) {
+            throw new IllegalArgumentException("Invalid signature: " + e.getMessage());
+        }
+    }
+
+    private ObjectNode transactionJson(String txHash, String sender, long nonce, Long minedIn) {
+        ObjectNode transaction = objectMapper.createObjectNode();
+        transaction.put("hash", txHash);
+        transaction.put("nonce", "0x" + Long.toHexString(nonce));
+        transaction.put("from", sender);
+        transaction.put("to", CONTRACT_ADDRESS);
+        transaction.put("value", "0x0");
+        if (minedIn != null) {
+            transaction.put("blockNumber", "0x" + Long.toHexString(minedIn));
+        } else {
+            transaction.putNull("blockNumber");
+        }
+        return transaction;
+    }
+
+    // Applies a signed uploadFile/uploadFiles transaction and stores its
+    // receipt. Returns the transaction hash.
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private synchronized String mine(String rawTransaction) {
+        RawTransaction transaction = TransactionDecoder.decode(rawTransaction);
+        String sender = sender(transaction);
+        long nonce = nonces.getOrDefault(sender, 0L);
+        if (transaction.getNonce().longValueExact() != nonce) {
+            throw new IllegalArgumentException("Nonce " + transaction.getNonce() + " does not match expected " + nonce);
+        }
+        nonces.put(sender, nonce + 1);
+        blockNumber++;
+        String txHash = Hash.sha3(rawTransaction);
+        transactions.put(txHash, transactionJson(txHash, sender, nonce, blockNumber));
+        long now = System.currentTimeMillis() / 1000;
+
+        String data = transaction.getData().startsWith("0x") ? transaction.getData() : "0x" + transaction.getData();
+        List<String> hashes;
+        List<BigInteger> durations;
+        boolean batch = data.startsWith(UPLOAD_FILES_SELECTOR);
+        if (batch) {
+            List<Type> args = FunctionReturnDecoder.decode(data.substring(10), Utils.convert(Arrays.asList(
+                    new TypeReference<DynamicArray<Utf8String>>() {}, new TypeReference<DynamicArray<Uint256>>() {})));
+            hashes = new ArrayList<>();
+            durations = new ArrayList<>();
+            for (Object hash : ((DynamicArray) args.get(0)).getValue()) {
+                hashes.add(((Utf8String) hash).getValue());
+            }
+            for (Object duration : ((DynamicArray) args.get(1)).getValue()) {
+                durations.add(((Uint256) duration).getValue());
+            }
+        } else if (data.startsWith(UPLOAD_FILE_SELECTOR)) {
+            List<Type> args = FunctionReturnDecoder.decode(data.substring(10), Utils.convert(Arrays.asList(
+                    new TypeReference<Utf8String>() {}, new TypeReference<Uint256>() {})));
+            hashes = List.of(((Utf8String) args.get(0)).getValue());
+            durations = List.of(((Uint256) args.get(1)).getValue());
+        } else {
+            throw new IllegalArgumentException("Unknown function selector");
+        }
+
+        ArrayNode logs = objectMapper.createArrayNode();
+        boolean reverted = false;
+        for (int i = 0; i < hashes.size(); i++) {
+            if (registered.contains(hashes.get(i))) {
+                // uploadFile reverts on a duplicate, uploadFiles skips it.
+                reverted = !batch;
+                continue;
+            }
+            registered.add(hashes.get(i));
+            ObjectNode log = objectMapper.createObjectNode();
+            log.put("address", CONTRACT_ADDRESS);
+            log.putArray("topics").add(EventEncoder.encode(TDABAC.FILEUPLOADED_EVENT));
+            log.put("data", FunctionEncoder.encodeConstructor(List.of(new Utf8String(hashes.get(i)),
+                    new Address(sender), new Uint256(BigInteger.valueOf(now).add(durations.get(i))))));
+            log.put("logIndex", "0x" + Integer.toHexString(logs.size()));
+            log.put("transactionHash", txHash);
+            log.put("blockNumber", "0x" + Long.toHexString(blockNumber));
+            logs.add(log);
+        }
+        transactionSizes.add(hashes.size());
+
+        ObjectNode receipt = objectMapper.createObjectNode();
+        receipt.put("transactionHash", txHash);
+        receipt.put("transactionIndex", "0x0");
+        receipt.put("blockHash", "0x" + word(Long.toHexString(blockNumber)));
+        receipt.put("blockNumber", "0x" + Long.toHexString(blockNumber));
+        receipt.put("from", sender);
+        receipt.put("to", CONTRACT_ADDRESS);
+        receipt.put("gasUsed", "0x" + Long.toHexString(21_000 + 75_000L * hashes.size()));
+        receipt.put("cumulativeGasUsed", "0x" + Long.toHexString(21_000 + 75_000L * hashes.size()));
+        receipt.put("status", reverted ? "0x0" : "0x1");
+        receipt.set("logs", reverted ? objectMapper.createArrayNode() : logs);
+        receipts.put(txHash, receipt);
+        return txHash;
+    }
+
+    private static String word(String hex) {
+        return "0".repeat(64 - hex.length()) + hex;
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
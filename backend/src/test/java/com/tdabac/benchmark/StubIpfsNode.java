@@ -0,0 +1,144 @@
+package com.tdabac.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tdabac.service.CidBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Just enough of the IPFS HTTP API for IpfsClient: /api/v0/add reads the
+// multipart upload, streams the file part through a CidBuilder and answers
+// with the CID `ipfs add` would give. Nothing is kept, so it can take any
+// amount of load. An optional delay per add stands in for a slow node.
+class StubIpfsNode implements AutoCloseable {
+
+    static {
+        // See StubChainNode
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicLong adds = new AtomicLong();
+    private final AtomicLong bytesAdded = new AtomicLong();
+    private volatile long addLatencyMs;
+
+    StubIpfsNode() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v0/add", this::add);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String apiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    void setAddLatencyMs(long addLatencyMs) {
+        this.addLatencyMs = addLatencyMs;
+    }
+
+    long adds() {
+        return adds.get();
+    }
+
+    long bytesAdded() {
+        return bytesAdded.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void add(HttpExchange exchange) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        byte[] delimiter = ("\r\n--" + contentType.substring(contentType.indexOf("boundary=") + 9))
+                .getBytes(StandardCharsets.US_ASCII);
+
+        CidBuilder cid = new CidBuilder();
+        long length = 0;
+        try (InputStream in = exchange.getRequestBody()) {
+            skipPartHeaders(in);
+            // Everything up to the closing delimiter is file content. Hold
+            // back delimiter.length bytes so the delimiter is never hashed.
+            byte[] buffer = new byte[64 * 1024 + delimiter.length];
+            int held = 0;
+            int read;
+            while ((read = in.read(buffer, held, buffer.length - held)) > 0) {
+                held += read;
+                int end = indexOf(buffer, held, delimiter);
+                if (end >= 0) {
+                    cid.update(buffer, 0, end);
+                    length += end;
+                    in.readAllBytes();
+                    held = -1;
+                    break;
+                }
+                int safe = held - delimiter.length;
+                if (safe > 0) {
+                    cid.update(buffer, 0, safe);
+                    length += safe;
+                    System.arraycopy(buffer, safe, buffer, 0, held - safe);
+                    held -= safe;
+                }
+            }
+            if (held >= 0) {
+                exchange.sendResponseHeaders(400, -1);
+                exchange.close();
+                return;
+            }
+        }
+
+        long latency = addLatencyMs;
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        adds.incrementAndGet();
+        bytesAdded.addAndGet(length);
+
+        String hash = cid.build();
+        byte[] response = ("{\"Name\":\"" + hash + "\",\"Hash\":\"" + hash + "\",\"Size\":\"" + length + "\"}\n")
+                .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    // Consumes the opening delimiter and the part headers, up to the blank line.
+    private static void skipPartHeaders(InputStream in) throws IOException {
+        int matched = 0;
+        byte[] end = { '\r', '\n', '\r', '\n' };
+        int b;
+        while (matched < end.length && (b = in.read()) >= 0) {
+            matched = b == end[matched] ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+    }
+
+    private static int indexOf(byte[] haystack, int length, byte[] needle) {
+        outer:
+        for (int i = 0; i <= length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,75 @@
+package com.tdabac.benchmark;
+
+import com.tdabac.service.ExpiryScheduler;
+import com.tdabac.service.LocalViewTokenStore;
+import com.tdabac.service.ViewTokenStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Issues millions of short-lived view tokens that are never presented
+// again, at a steady rate, and samples live entries and heap once a
+// second. With eviction on the timing wheel both should level off at about
+// rate x TTL instead of growing with the number of tokens issued.
+//
+//   mvn test -Dtest=ViewTokenChurnBenchmark -Dbenchmark.tokens=5000000 -Dbenchmark.rate=200000
+public class ViewTokenChurnBenchmark {
+
+    private static final long TICK_MS = 10;
+    private static final long TTL_MS = 200;
+
+    @Test
+    public void benchmarkTokenChurn() throws Exception {
+        int total = Integer.getInteger("benchmark.tokens", 2_000_000);
+        int rate = Integer.getInteger("benchmark.rate", 100_000); // tokens per second
+        ExpiryScheduler scheduler = new ExpiryScheduler(TICK_MS);
+        ViewTokenStore store = new LocalViewTokenStore(scheduler, TTL_MS);
+        try {
+            long baseline = usedHeap();
+            AtomicLong issued = new AtomicLong();
+            // Paced in 1 ms steps, so the producer does not starve the
+            // scheduler thread on small machines.
+            Thread producer = new Thread(() -> {
+                long begin = System.nanoTime();
+                while (issued.get() < total) {
+                    long due = Math.min(total, (System.nanoTime() - begin) / 1_000_000 * rate / 1000);
+                    while (issued.get() < due) {
+                        store.issue("QmChurn");
+                        issued.incrementAndGet();
+                    }
+                    LockSupport.parkNanos(1_000_000);
+                }
+            });
+            producer.start();
+
+            System.out.println("  s | issued     | live     | evicted    | heap MB");
+            long start = System.nanoTime();
+            while (producer.isAlive()) {
+                Thread.sleep(1000);
+                System.out.printf("%3d | %10d | %8d | %10d | %7.1f%n", (System.nanoTime() - start) / 1_000_000_000,
+                        issued.get(), store.liveCount(), store.evictedCount(),
+                        (usedHeap() - baseline) / (1024.0 * 1024));
+            }
+            producer.join();
+
+            // Everything is gone one TTL (plus a tick) after the last issue.
+            Thread.sleep(TTL_MS + 5 * TICK_MS);
+            System.out.printf("end | %10d | %8d | %10d | %7.1f%n", total, store.liveCount(), store.evictedCount(),
+                    (usedHeap() - baseline) / (1024.0 * 1024));
+            assertEquals(0, store.liveCount());
+            assertEquals(total, store.evictedCount());
+            assertEquals(0, scheduler.pendingCount());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,68 @@
+package com.tdabac.benchmark;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// A view token is used up by any response that sends the file to its last
+// byte, whatever the Range header said; only a range short of the end (a
+// viewer seeking) leaves it usable.
+public class ViewTokenTest {
+
+    @Test
+    public void fullReadsUseUpTheToken() throws Exception {
+        try (StubBackend backend = new StubBackend()) {
+            byte[] content = new byte[100_000];
+            new Random(4).nextBytes(content);
+            ResponseEntity<?> uploaded = backend.controller.uploadFile(
+                    new MockMultipartFile("file", "scan.bin", "application/octet-stream", content), 3600L, true)
+                    .get(30, TimeUnit.SECONDS);
+            String fileHash = (String) ((Map<?, ?>) uploaded.getBody()).get("fileHash");
+
+            // Partial: the token stays
+            String token = token(backend, fileHash);
+            assertEquals(206, view(backend, fileHash, token, "bytes=0-9"));
+            assertEquals(206, view(backend, fileHash, token, "bytes=500-99998"));
+            assertEquals(206, view(backend, fileHash, token, "bytes=0-9"));
+
+            // To the last byte, or the whole file however the header got there
+            String[][] cases = {
+                    { null, "200" },
+                    { "bytes=0-", "206" },
+                    { "bytes=99990-", "206" },
+                    { "bytes=-10", "206" },
+                    { "bytes=garbage", "200" },
+                    { "bytes=0-9,20-29", "200" },
+            };
+            for (String[] c : cases) {
+                token = token(backend, fileHash);
+                assertEquals(Integer.parseInt(c[1]), view(backend, fileHash, token, c[0]), c[0]);
+                assertEquals(403, view(backend, fileHash, token, "bytes=0-9"), c[0]);
+            }
+        }
+    }
+
+    private static String token(StubBackend backend, String fileHash) throws Exception {
+        ResponseEntity<?> issued = backend.controller.createViewToken(fileHash).get(30, TimeUnit.SECONDS);
+        return (String) ((Map<?, ?>) issued.getBody()).get("token");
+    }
+
+    // The status, after reading the body as a client would.
+    private static int view(StubBackend backend, String fileHash, String token, String range) throws Exception {
+        ResponseEntity<?> response = backend.controller.viewFile(fileHash, token, range).get(30, TimeUnit.SECONDS);
+        if (response.getBody() instanceof InputStreamResource) {
+            try (InputStream in = ((InputStreamResource) response.getBody()).getInputStream()) {
+                in.readAllBytes();
+            }
+        }
+        return response.getStatusCode().value();
+    }
+}
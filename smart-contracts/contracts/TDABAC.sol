@@ -27,6 +27,30 @@ contract TDABAC {
         
         emit FileUploaded(fileHash, msg.sender, expiry);
     }
+
+    // Register many files in one transaction (bulk imports).
+    // Hashes that are already registered are skipped instead of reverting,
+    // so one duplicate does not fail the whole batch; a FileUploaded event
+    // is emitted for every file that was registered.
+    function uploadFiles(string[] calldata fileHashes, uint256[] calldata durationsInSeconds) public {
+        require(fileHashes.length == durationsInSeconds.length, "Length mismatch");
+
+        for (uint256 i = 0; i < fileHashes.length; i++) {
+            if (fileRegistry[fileHashes[i]].exists) {
+                continue;
+            }
+
+            uint256 expiry = block.timestamp + durationsInSeconds[i];
+
+            fileRegistry[fileHashes[i]] = FileMetadata({
+                owner: msg.sender,
+                expiryTimestamp: expiry,
+                exists: true
+            });
+
+            emit FileUploaded(fileHashes[i], msg.sender, expiry);
+        }
+    }
     
     // Check if access is allowed (Passive Revocation)
     // Returns true if current time < expiry
@@ -42,4 +66,13 @@ contract TDABAC {
         require(fileRegistry[fileHash].exists, "File not found");
         return fileRegistry[fileHash].expiryTimestamp;
     }
+
+    // Expiries for many files in one call (dashboards listing shared records).
+    // Unregistered files come back as 0 instead of reverting the whole call.
+    function getExpiries(string[] calldata fileHashes) public view returns (uint256[] memory expiries) {
+        expiries = new uint256[](fileHashes.length);
+        for (uint256 i = 0; i < fileHashes.length; i++) {
+            expiries[i] = fileRegistry[fileHashes[i]].expiryTimestamp;
+        }
+    }
 }
@@ -0,0 +1,58 @@
+const { expect } = require("chai");
+const { ethers } = require("hardhat");
+
+describe("TDABAC Batch Upload", function () {
+    let tdabac;
+
+    beforeEach(async function () {
+        tdabac = await ethers.deployContract("TDABAC");
+        await tdabac.waitForDeployment();
+    });
+
+    it("Should register every file in one uploadFiles transaction", async function () {
+        const hashes = ["QmBatchA", "QmBatchB", "QmBatchC"];
+        const tx = await tdabac.uploadFiles(hashes, [3600, 7200, 60]);
+        const receipt = await tx.wait();
+
+        const events = receipt.logs.map((log) => tdabac.interface.parseLog(log));
+        expect(events.map((event) => event.args.fileHash)).to.deep.equal(hashes);
+
+        const block = await ethers.provider.getBlock(receipt.blockNumber);
+        expect(await tdabac.getExpiry("QmBatchB")).to.equal(BigInt(block.timestamp) + 7200n);
+        expect(await tdabac.checkAccess("QmBatchC")).to.equal(true);
+    });
+
+    it("Should skip already registered files instead of reverting", async function () {
+        await tdabac.uploadFile("QmExisting", 3600);
+        const expiry = await tdabac.getExpiry("QmExisting");
+
+        const receipt = await (await tdabac.uploadFiles(["QmExisting", "QmNew"], [10, 3600])).wait();
+
+        // Only the new file is registered; the existing time-lock is unchanged.
+        expect(receipt.logs.length).to.equal(1);
+        expect(await tdabac.getExpiry("QmExisting")).to.equal(expiry);
+        expect(await tdabac.checkAccess("QmNew")).to.equal(true);
+    });
+
+    it("Should reject mismatched arrays", async function () {
+        await expect(tdabac.uploadFiles(["QmA", "QmB"], [3600])).to.be.revertedWith("Length mismatch");
+    });
+
+    it("Should cost less gas per file when batched", async function () {
+        const count = 50;
+        let singleGas = 0n;
+        for (let i = 0; i < count; i++) {
+            const receipt = await (await tdabac.uploadFile(`QmSingle${i}`, 3600)).wait();
+            singleGas += receipt.gasUsed;
+        }
+
+        const hashes = Array.from({ length: count }, (_, i) => `QmBatched${i}`);
+        const durations = hashes.map(() => 3600);
+        const batchReceipt = await (await tdabac.uploadFiles(hashes, durations)).wait();
+
+        const singlePerFile = singleGas / BigInt(count);
+        const batchedPerFile = batchReceipt.gasUsed / BigInt(count);
+        console.log(`Gas per file: uploadFile ${singlePerFile}, uploadFiles x${count} ${batchedPerFile}`);
+        expect(batchedPerFile).to.be.lessThan(singlePerFile);
+    });
+});